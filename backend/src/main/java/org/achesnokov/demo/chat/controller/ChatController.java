@@ -3,6 +3,7 @@ package org.achesnokov.demo.chat.controller;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 import io.quarkus.security.Authenticated;
@@ -14,16 +15,24 @@ import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.achesnokov.demo.chat.model.Chat;
 import org.achesnokov.demo.chat.model.ChatMessageDTO;
 import org.achesnokov.demo.chat.model.ChatParticipant;
 import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessageHistoryDTO;
+import org.achesnokov.demo.chat.model.MessageHistoryPage;
 import org.achesnokov.demo.chat.model.User;
 import org.achesnokov.demo.chat.service.AuthService;
 import org.achesnokov.demo.chat.service.ChatService;
+import org.achesnokov.demo.chat.service.ChatSessionService;
 import org.achesnokov.demo.chat.service.MessageService;
+import org.achesnokov.demo.chat.service.PresenceService;
+import org.achesnokov.demo.chat.service.RateLimitExceededException;
+import org.achesnokov.demo.chat.service.RateLimitRoute;
+import org.achesnokov.demo.chat.service.RateLimiter;
 import org.jboss.logging.Logger;
 
 /**
@@ -36,16 +45,25 @@ import org.jboss.logging.Logger;
 @Authenticated
 public class ChatController {
     private static final Logger LOGGER = Logger.getLogger(ChatController.class);
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int DEFAULT_PAGE_SIZE = 50;
 
     private final ChatService chatService;
     private final MessageService messageService;
+    private final ChatSessionService chatSessionService;
     private final AuthService authService;
+    private final PresenceService presenceService;
+    private final RateLimiter rateLimiter;
 
     @Inject
-    public ChatController(ChatService chatService, MessageService messageService, AuthService authService) {
+    public ChatController(ChatService chatService, MessageService messageService, ChatSessionService chatSessionService,
+                          AuthService authService, PresenceService presenceService, RateLimiter rateLimiter) {
         this.chatService = chatService;
         this.messageService = messageService;
+        this.chatSessionService = chatSessionService;
         this.authService = authService;
+        this.presenceService = presenceService;
+        this.rateLimiter = rateLimiter;
     }
 
     /**
@@ -176,27 +194,49 @@ public class ChatController {
     }
 
     /**
-     * Retrieves all messages in a chat.
+     * Retrieves the members of a chat that are currently online and typing.
      *
      * @param chatId the ID of the chat.
-     * @return Response containing a list of messages or an error message.
+     * @return Response containing the presence of the chat.
      */
     @GET
-    @Path("/{chatId}/messages")
-    public Response getMessagesByChatId(@PathParam("chatId") String chatId) {
-        Map<String, String> chatUsers = chatService
-                .getChartParticipantsUsers(chatId)
-                .stream()
-                .collect(Collectors.toMap(User::getUserId, User::getUsername));
+    @Path("/{chatId}/online")
+    public Response getOnlineMembers(@PathParam("chatId") String chatId) {
+        return Response.ok(presenceService.getPresence(chatId)).build();
+    }
 
+    /**
+     * Retrieves the messages in a chat.
+     * <p>
+     * Without paging parameters every message is returned in one array, oldest first, as before paging existed.
+     * Passing a {@code limit} or a cursor returns a page instead, an object with the {@code messages} and the
+     * {@code nextCursor}. Without cursors the page holds the newest messages, newest first. The {@code nextCursor}
+     * is passed back as {@code before} to read older messages, or, for a page read with {@code after} only,
+     * as {@code after} to read newer ones.
+     *
+     * @param chatId the ID of the chat.
+     * @param limit the maximum number of messages of a page, at most 200; 50 if only a cursor is given.
+     * @param before a cursor the messages must be older than.
+     * @param after a cursor the messages must be newer than.
+     * @return Response containing the messages, or the page of messages and the cursor of the next page,
+     * or an error message.
+     */
+    @GET
+    @Path("/{chatId}/messages")
+    public Response getMessagesByChatId(@PathParam("chatId") String chatId,
+                                        @QueryParam("limit") Integer limit,
+                                        @QueryParam("before") String before,
+                                        @QueryParam("after") String after) {
         try {
-            List<ChatMessageDTO> messages = messageService
-                    .getAllMessagesByChatId(chatId)
-                    .stream()
-                    .map(m -> toChatMessageDTO(m, chatUsers.get(m.getUserId())))
-                    .toList();
+            if (limit == null && before == null && after == null) {
+                return Response.ok(toChatMessageDTOs(chatId, messageService.getAllMessagesByChatId(chatId))).build();
+            }
 
-            return Response.ok(messages).build();
+            MessageHistoryPage page = messageService.getMessageHistory(chatId, before, after,
+                    Math.max(1, Math.min(MAX_PAGE_SIZE, limit != null ? limit : DEFAULT_PAGE_SIZE)));
+            return Response.ok(new MessageHistoryDTO(toChatMessageDTOs(chatId, page.getMessages()), page.getNextCursor())).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             LOGGER.error("An error occurred while fetching messages for chatId: " + chatId, e);
             return Response
@@ -206,11 +246,13 @@ public class ChatController {
     }
 
     /**
-     * Sends a message in a chat.
+     * Sends a message in a chat. The message is numbered, stored and published to the chat's sessions in order
+     * with the messages sent over WebSockets.
      *
      * @param chatId the ID of the chat.
      * @param message the message object containing the content to be sent.
-     * @return Response containing the created message or an error message.
+     * @return Response containing the created message, an error message, or 429 with Retry-After if the
+     * user or the chat sends too many messages.
      */
     @POST
     @Path("/{chatId}/messages")
@@ -224,7 +266,26 @@ public class ChatController {
         return authService
                 .getCurrentUser()
                 .map(u -> {
-                    Message m = messageService.createMessage(chatId, u.getUserId(), message.getContent());
+                    try {
+                        rateLimiter.acquire(RateLimitRoute.REST, u.getUserId(), chatId);
+                    } catch (RateLimitExceededException e) {
+                        return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                                .header("Retry-After", Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000))
+                                .entity(e.getMessage())
+                                .build();
+                    }
+                    Message m;
+                    try {
+                        m = chatSessionService.postMessage(chatId, u.getUserId(), u.getUsername(), message.getContent()).join();
+                    } catch (CompletionException e) {
+                        if (e.getCause() instanceof IllegalArgumentException) {
+                            return Response.status(Response.Status.BAD_REQUEST).entity(e.getCause().getMessage()).build();
+                        }
+                        LOGGER.error("An error occurred while sending a message to chatId: " + chatId, e.getCause());
+                        return Response
+                                .status(Response.Status.INTERNAL_SERVER_ERROR)
+                                .entity("An error occurred while sending the message: " + e.getCause().getMessage()).build();
+                    }
                     return Response
                             .status(Response.Status.CREATED)
                             .entity(toChatMessageDTO(m, u.getUsername()))
@@ -234,6 +295,16 @@ public class ChatController {
 
     }
 
+    private List<ChatMessageDTO> toChatMessageDTOs(String chatId, List<Message> messages) {
+        Map<String, String> chatUsers = chatService
+                .getChartParticipantsUsers(chatId)
+                .stream()
+                .collect(Collectors.toMap(User::getUserId, User::getUsername));
+        return messages.stream()
+                .map(m -> toChatMessageDTO(m, chatUsers.get(m.getUserId())))
+                .toList();
+    }
+
     /**
      * Converts a Message object to a ChatMessageDTO.
      *
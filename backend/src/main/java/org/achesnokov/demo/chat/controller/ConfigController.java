@@ -9,7 +9,7 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 /**
  * RESTful API controller that provides configuration information for the web-chat-demo application.
- * Offers an endpoint to retrieve the WebSocket host configuration.
+ * Offers an endpoint to retrieve the WebSocket host configuration and the endpoint path of the configured WebSocket stack.
  */
 @Path("/config")
 public class ConfigController {
@@ -17,15 +17,19 @@ public class ConfigController {
     @ConfigProperty(name = "org.achesnokov.demo.chat.websocket_host")
     String websocketUrl;
 
+    @ConfigProperty(name = "org.achesnokov.demo.chat.websocket_stack", defaultValue = "JAKARTA")
+    WebSocketStack websocketStack;
+
     /**
-     * Retrieves the WebSocket host configuration.
+     * Retrieves the WebSocket host configuration and the path of the per-chat endpoint clients should connect to.
      *
-     * @return Response containing the WebSocket host configuration in JSON format.
+     * @return Response containing the WebSocket configuration in JSON format.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Response getConfig() {
-        String jsonResponse = String.format("{\"websocketHost\": \"%s\"}", websocketUrl);
+        String jsonResponse = String.format("{\"websocketHost\": \"%s\", \"websocketChatPath\": \"%s\"}",
+                websocketUrl, websocketStack.getChatPath());
         return Response.ok(jsonResponse).build();
     }
 }
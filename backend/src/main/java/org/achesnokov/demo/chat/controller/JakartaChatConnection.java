@@ -0,0 +1,99 @@
+package org.achesnokov.demo.chat.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import org.achesnokov.demo.chat.service.ChatConnection;
+import org.achesnokov.demo.chat.service.SessionContext;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link ChatConnection} of a Jakarta WebSocket {@link Session}. One instance is kept in the session's
+ * user properties, so every callback of the session sees the same connection and context.
+ */
+final class JakartaChatConnection implements ChatConnection {
+    private static final Logger LOGGER = Logger.getLogger(JakartaChatConnection.class);
+
+    private static final String PROPERTY = JakartaChatConnection.class.getName();
+
+    private final Session session;
+    private volatile SessionContext context;
+
+    private JakartaChatConnection(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Gets the connection of a session, creating it on first use.
+     *
+     * @param session the session
+     * @return the connection
+     */
+    static JakartaChatConnection of(Session session) {
+        return (JakartaChatConnection) session.getUserProperties().computeIfAbsent(PROPERTY, key -> new JakartaChatConnection(session));
+    }
+
+    @Override
+    public String getId() {
+        return session.getId();
+    }
+
+    @Override
+    public JsonWebToken getToken() {
+        // Validated and stored by WebSocketAuthenticator during the handshake
+        return (JsonWebToken) session.getUserProperties().get("jwt");
+    }
+
+    @Override
+    public SessionContext getContext() {
+        return context;
+    }
+
+    @Override
+    public void setContext(SessionContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestParameters() {
+        return session.getRequestParameterMap();
+    }
+
+    @Override
+    public String getSubprotocol() {
+        return session.getNegotiatedSubprotocol();
+    }
+
+    @Override
+    public void sendText(String text, SendCallback callback) {
+        session.getAsyncRemote().sendText(text, result -> callback.onComplete(result.isOK() ? null : result.getException()));
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer data, SendCallback callback) {
+        session.getAsyncRemote().sendBinary(data, result -> callback.onComplete(result.isOK() ? null : result.getException()));
+    }
+
+    @Override
+    public void sendPing(ByteBuffer data) {
+        try {
+            session.getAsyncRemote().sendPing(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to ping session: " + session.getId(), e);
+        }
+    }
+
+    @Override
+    public void close(int code, String reason) {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.getCloseCode(code), reason));
+        } catch (IOException e) {
+            LOGGER.error("Error closing session: " + session.getId(), e);
+        }
+    }
+}
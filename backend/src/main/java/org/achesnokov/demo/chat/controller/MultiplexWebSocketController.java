@@ -0,0 +1,139 @@
+package org.achesnokov.demo.chat.controller;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
+import jakarta.websocket.OnMessage;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.PongMessage;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.ServerEndpoint;
+import org.achesnokov.demo.chat.model.FrameEncoding;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.service.ChatConnection;
+import org.achesnokov.demo.chat.service.ChatSessionService;
+import org.achesnokov.demo.chat.service.HeartbeatService;
+import org.achesnokov.demo.chat.service.WebSocketAuthenticator;
+import org.achesnokov.demo.chat.service.WebSocketExecutor;
+import org.jboss.logging.Logger;
+
+/**
+ * Multiplexed WebSocket endpoint: a single connection per user carries any number of chats.
+ * The client joins and leaves chats with {@code subscribe} and {@code unsubscribe} commands,
+ * every command names its {@code chatId} and every chat frame is tagged with it.
+ */
+@ServerEndpoint(
+        value = "/chat/ws",
+        subprotocols = {FrameEncoding.JSON_SUBPROTOCOL, FrameEncoding.CBOR_SUBPROTOCOL},
+        configurator = WebSocketAuthenticator.class
+)
+@ApplicationScoped
+public class MultiplexWebSocketController {
+    private static final Logger LOGGER = Logger.getLogger(MultiplexWebSocketController.class);
+
+    @Inject
+    ChatSessionService chatSessionService;
+
+    @Inject
+    WebSocketExecutor webSocketExecutor;
+
+    @Inject
+    HeartbeatService heartbeatService;
+
+    /**
+     * Handles a new WebSocket connection.
+     *
+     * @param session the WebSocket session being opened.
+     */
+    @OnOpen
+    public void onOpen(Session session) {
+        ChatConnection connection = JakartaChatConnection.of(session);
+        webSocketExecutor.execute(session.getId(), () -> {
+            try {
+                User user = chatSessionService.authenticate(connection);
+                chatSessionService.sendSystem(connection, "Connected");
+                LOGGER.info(String.format("Multiplexed session opened: %s by user: %s", session.getId(), user.getUsername()));
+            } catch (Exception e) {
+                handleSessionError(connection, e);
+            }
+        });
+    }
+
+    /**
+     * Handles incoming WebSocket commands.
+     *
+     * @param message the command sent by the client.
+     * @param session the session from which the command was sent.
+     */
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        ChatConnection connection = JakartaChatConnection.of(session);
+        heartbeatService.touch(connection);
+        webSocketExecutor.execute(session.getId(), () -> chatSessionService.handleClientFrame(connection, null, message));
+    }
+
+    /**
+     * Handles incoming binary WebSocket commands of clients that negotiated CBOR frames.
+     *
+     * @param message the CBOR encoded command sent by the client.
+     * @param session the session from which the command was sent.
+     */
+    @OnMessage
+    public void onBinaryMessage(byte[] message, Session session) {
+        ChatConnection connection = JakartaChatConnection.of(session);
+        heartbeatService.touch(connection);
+        webSocketExecutor.execute(session.getId(), () -> {
+            try {
+                chatSessionService.handleClientFrame(connection, null, FrameEncoding.cborToJson(message));
+            } catch (IllegalArgumentException e) {
+                chatSessionService.sendError(connection, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Handles pongs answering the heartbeat's pings.
+     *
+     * @param pong the pong sent by the client.
+     * @param session the session from which the pong was sent.
+     */
+    @OnMessage
+    public void onPong(PongMessage pong, Session session) {
+        heartbeatService.touch(JakartaChatConnection.of(session));
+    }
+
+    /**
+     * Handles WebSocket disconnection events.
+     *
+     * @param session the WebSocket session being closed.
+     */
+    @OnClose
+    public void onClose(Session session) {
+        ChatConnection connection = JakartaChatConnection.of(session);
+        webSocketExecutor.executeAndRelease(session.getId(), () -> {
+            chatSessionService.close(connection);
+            LOGGER.info("Multiplexed session closed: " + session.getId());
+        });
+    }
+
+    /**
+     * Handles errors that occur during WebSocket communication.
+     *
+     * @param session the WebSocket session where the error occurred.
+     * @param throwable the exception thrown during communication.
+     */
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+        ChatConnection connection = JakartaChatConnection.of(session);
+        webSocketExecutor.execute(session.getId(), () -> {
+            LOGGER.error("WebSocket error for session: " + session.getId(), throwable);
+            chatSessionService.sendError(connection, "WebSocket error occurred");
+        });
+    }
+
+    private void handleSessionError(ChatConnection connection, Exception e) {
+        LOGGER.error("Failed to authenticate WebSocket connection", e);
+        connection.close(ChatConnection.VIOLATED_POLICY, "Authentication failed: " + e.getMessage());
+    }
+}
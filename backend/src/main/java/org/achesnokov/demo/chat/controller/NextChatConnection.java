@@ -0,0 +1,108 @@
+package org.achesnokov.demo.chat.controller;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.Buffer;
+import org.achesnokov.demo.chat.service.ChatConnection;
+import org.achesnokov.demo.chat.service.SessionContext;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link ChatConnection} of a WebSockets Next {@link WebSocketConnection}. Sends map to the connection's
+ * non-blocking {@link Uni} sends, whose completion drives the session's outbound queue.
+ */
+final class NextChatConnection implements ChatConnection {
+    private static final Logger LOGGER = Logger.getLogger(NextChatConnection.class);
+
+    private final WebSocketConnection connection;
+    private final Map<String, List<String>> requestParameters;
+    private volatile JsonWebToken token;
+    private volatile SessionContext context;
+
+    NextChatConnection(WebSocketConnection connection) {
+        this.connection = connection;
+        String query = connection.handshakeRequest().query();
+        this.requestParameters = query == null || query.isEmpty()
+                ? Map.of()
+                : new QueryStringDecoder(query, false).parameters();
+    }
+
+    @Override
+    public String getId() {
+        return connection.id();
+    }
+
+    @Override
+    public JsonWebToken getToken() {
+        return token;
+    }
+
+    /**
+     * Sets the token the client authenticated with.
+     *
+     * @param token the validated token
+     */
+    void setToken(JsonWebToken token) {
+        this.token = token;
+    }
+
+    @Override
+    public SessionContext getContext() {
+        return context;
+    }
+
+    @Override
+    public void setContext(SessionContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestParameters() {
+        return requestParameters;
+    }
+
+    @Override
+    public String getSubprotocol() {
+        String subprotocol = connection.subprotocol();
+        return subprotocol == null ? "" : subprotocol;
+    }
+
+    @Override
+    public void sendText(String text, SendCallback callback) {
+        complete(connection.sendText(text), callback);
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer data, SendCallback callback) {
+        complete(connection.sendBinary(toBuffer(data)), callback);
+    }
+
+    @Override
+    public void sendPing(ByteBuffer data) {
+        connection.sendPing(toBuffer(data)).subscribe().with(ignored -> { }, failure -> { });
+    }
+
+    @Override
+    public void close(int code, String reason) {
+        connection.close(new CloseReason(code, reason)).subscribe().with(ignored -> { },
+                failure -> LOGGER.error("Error closing connection: " + connection.id(), failure));
+    }
+
+    private static Buffer toBuffer(ByteBuffer data) {
+        // Copies the remaining bytes, the buffer is a private view of a frame shared by all recipients
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return Buffer.buffer(bytes);
+    }
+
+    private static void complete(Uni<Void> send, SendCallback callback) {
+        send.subscribe().with(ignored -> callback.onComplete(null), callback::onComplete);
+    }
+}
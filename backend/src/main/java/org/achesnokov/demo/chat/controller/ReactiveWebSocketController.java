@@ -0,0 +1,184 @@
+package org.achesnokov.demo.chat.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.quarkus.websockets.next.OnBinaryMessage;
+import io.quarkus.websockets.next.OnClose;
+import io.quarkus.websockets.next.OnError;
+import io.quarkus.websockets.next.OnOpen;
+import io.quarkus.websockets.next.OnPongMessage;
+import io.quarkus.websockets.next.OnTextMessage;
+import io.quarkus.websockets.next.WebSocket;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.common.annotation.NonBlocking;
+import io.vertx.core.buffer.Buffer;
+import jakarta.inject.Inject;
+import org.achesnokov.demo.chat.model.FrameEncoding;
+import org.achesnokov.demo.chat.service.ChatConnection;
+import org.achesnokov.demo.chat.service.ChatSessionService;
+import org.achesnokov.demo.chat.service.HeartbeatService;
+import org.achesnokov.demo.chat.service.WebSocketAuthenticator;
+import org.achesnokov.demo.chat.service.WebSocketExecutor;
+import org.jboss.logging.Logger;
+
+/**
+ * The per-chat endpoint of {@link WebSocketController} on the reactive WebSockets Next stack.
+ * It speaks the same protocol and shares all session state with the Jakarta endpoints.
+ * <p>
+ * Callbacks run on the connection's event loop and only hand the event over to the session's
+ * serial executor, where the blocking protocol work happens. Outbound frames are written with
+ * the connection's non-blocking sends, whose completion drives the session's outbound queue.
+ * Which stack clients connect to is chosen by {@code org.achesnokov.demo.chat.websocket_stack}.
+ */
+@WebSocket(path = WebSocketStack.NEXT_PATH + "/{chatId}")
+public class ReactiveWebSocketController {
+    private static final Logger LOGGER = Logger.getLogger(ReactiveWebSocketController.class);
+
+    @Inject
+    ChatSessionService chatSessionService;
+
+    @Inject
+    WebSocketExecutor webSocketExecutor;
+
+    @Inject
+    HeartbeatService heartbeatService;
+
+    @Inject
+    WebSocketAuthenticator webSocketAuthenticator;
+
+    private final Map<String, NextChatConnection> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Handles a new WebSocket connection.
+     *
+     * @param connection the connection being opened.
+     */
+    @OnOpen
+    @NonBlocking
+    public void onOpen(WebSocketConnection connection) {
+        NextChatConnection session = new NextChatConnection(connection);
+        sessions.put(connection.id(), session);
+        String chatId = connection.pathParam("chatId");
+        webSocketExecutor.execute(session.getId(), () -> handleOpenSession(session, chatId));
+    }
+
+    private void handleOpenSession(NextChatConnection session, String chatId) {
+        try {
+            session.setToken(webSocketAuthenticator.authenticate(session.getRequestParameters().get("token")));
+            chatSessionService.open(session, chatId);
+            chatSessionService.sendWelcome(session, chatId);
+        } catch (Exception e) {
+            handleSessionError(session, e);
+        }
+    }
+
+    /**
+     * Handles incoming WebSocket messages.
+     *
+     * @param message the message sent by the client.
+     * @param connection the connection from which the message was sent.
+     */
+    @OnTextMessage
+    @NonBlocking
+    public void onMessage(String message, WebSocketConnection connection) {
+        NextChatConnection session = sessions.get(connection.id());
+        if (session == null) {
+            return;
+        }
+        heartbeatService.touch(session);
+        webSocketExecutor.execute(session.getId(),
+                () -> chatSessionService.handleClientFrame(session, connection.pathParam("chatId"), message));
+    }
+
+    /**
+     * Handles incoming binary WebSocket messages of clients that negotiated CBOR frames.
+     *
+     * @param message the CBOR encoded message sent by the client.
+     * @param connection the connection from which the message was sent.
+     */
+    @OnBinaryMessage
+    @NonBlocking
+    public void onBinaryMessage(Buffer message, WebSocketConnection connection) {
+        NextChatConnection session = sessions.get(connection.id());
+        if (session == null) {
+            return;
+        }
+        heartbeatService.touch(session);
+        byte[] bytes = message.getBytes();
+        webSocketExecutor.execute(session.getId(), () -> {
+            String json;
+            try {
+                json = FrameEncoding.cborToJson(bytes);
+            } catch (IllegalArgumentException e) {
+                chatSessionService.sendError(session, e.getMessage());
+                return;
+            }
+            if (chatSessionService.parseCommand(json) == null) {
+                // Binary frames have no plain text form, they must always carry a command
+                chatSessionService.sendError(session, "Binary frames must contain a command");
+                return;
+            }
+            chatSessionService.handleClientFrame(session, connection.pathParam("chatId"), json);
+        });
+    }
+
+    /**
+     * Handles pongs answering the heartbeat's pings.
+     *
+     * @param pong the application data of the pong.
+     * @param connection the connection from which the pong was sent.
+     */
+    @OnPongMessage
+    @NonBlocking
+    public void onPong(Buffer pong, WebSocketConnection connection) {
+        NextChatConnection session = sessions.get(connection.id());
+        if (session != null) {
+            heartbeatService.touch(session);
+        }
+    }
+
+    /**
+     * Handles WebSocket disconnection events.
+     *
+     * @param connection the connection being closed.
+     */
+    @OnClose
+    @NonBlocking
+    public void onClose(WebSocketConnection connection) {
+        NextChatConnection session = sessions.remove(connection.id());
+        if (session == null) {
+            return;
+        }
+        String chatId = connection.pathParam("chatId");
+        webSocketExecutor.executeAndRelease(session.getId(), () -> {
+            chatSessionService.close(session);
+            LOGGER.info(String.format("Session closed: %s for chat: %s", session.getId(), chatId));
+        });
+    }
+
+    /**
+     * Handles errors that occur during WebSocket communication.
+     *
+     * @param throwable the exception thrown during communication.
+     * @param connection the connection where the error occurred.
+     */
+    @OnError
+    @NonBlocking
+    public void onError(Throwable throwable, WebSocketConnection connection) {
+        NextChatConnection session = sessions.get(connection.id());
+        if (session == null) {
+            LOGGER.error("WebSocket error for connection: " + connection.id(), throwable);
+            return;
+        }
+        webSocketExecutor.execute(session.getId(), () -> {
+            LOGGER.error("WebSocket error for session: " + session.getId(), throwable);
+            chatSessionService.sendError(session, "WebSocket error occurred");
+        });
+    }
+
+    private void handleSessionError(NextChatConnection session, Exception e) {
+        LOGGER.error("Failed to authenticate WebSocket connection", e);
+        session.close(ChatConnection.VIOLATED_POLICY, "Authentication failed: " + e.getMessage());
+    }
+}
@@ -0,0 +1,33 @@
+package org.achesnokov.demo.chat.controller;
+
+/**
+ * WebSocket stacks serving the per-chat endpoint. Both are always deployed, so they can be compared
+ * side by side; the configured one is the endpoint clients are told to connect to.
+ */
+public enum WebSocketStack {
+    /**
+     * Jakarta WebSocket endpoint with blocking callbacks, see {@link WebSocketController}.
+     */
+    JAKARTA("/chat/ws"),
+    /**
+     * Reactive WebSockets Next endpoint with event loop callbacks, see {@link ReactiveWebSocketController}.
+     */
+    NEXT(WebSocketStack.NEXT_PATH);
+
+    static final String NEXT_PATH = "/chat/ws-next";
+
+    private final String chatPath;
+
+    WebSocketStack(String chatPath) {
+        this.chatPath = chatPath;
+    }
+
+    /**
+     * Gets the path of the per-chat endpoint, to be followed by {@code /{chatId}}.
+     *
+     * @return the endpoint path
+     */
+    public String getChatPath() {
+        return chatPath;
+    }
+}
@@ -8,6 +8,10 @@ import org.achesnokov.demo.chat.model.Chat;
 import org.achesnokov.demo.chat.model.ChatParticipant;
 import org.achesnokov.demo.chat.model.Message;
 import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.model.Username;
+import org.achesnokov.demo.chat.repository.MessageRepository;
+import org.achesnokov.demo.chat.repository.UserRepository;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
@@ -15,8 +19,11 @@ import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.BeanTableSchema;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.CreateGlobalSecondaryIndexAction;
 import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndex;
+import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndexUpdate;
 import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
 import software.amazon.awssdk.services.dynamodb.model.KeyType;
 import software.amazon.awssdk.services.dynamodb.model.Projection;
@@ -24,6 +31,8 @@ import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
 import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughput;
 import software.amazon.awssdk.services.dynamodb.model.ResourceInUseException;
 import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
+import software.amazon.awssdk.services.dynamodb.model.UpdateTableRequest;
 
 /**
  * Class responsible for initializing the DynamoDB tables used in the chat application.
@@ -35,13 +44,25 @@ public class DynamoDbInitializer {
 
     private final DynamoDbEnhancedClient enhancedClient;
     private final DynamoDbClient dynamoDbClient;
+    private final UserRepository userRepository;
+    private final MessageRepository messageRepository;
+    private final boolean usernameBackfill;
+    private final boolean messageKeyMigration;
 
     @Inject
-    public DynamoDbInitializer(DynamoDbClient dynamoDbClient) {
+    public DynamoDbInitializer(DynamoDbClient dynamoDbClient,
+                               UserRepository userRepository,
+                               MessageRepository messageRepository,
+                               @ConfigProperty(name = "org.achesnokov.demo.chat.username_backfill_on_startup", defaultValue = "false") boolean usernameBackfill,
+                               @ConfigProperty(name = "org.achesnokov.demo.chat.message_key_migration_on_startup", defaultValue = "false") boolean messageKeyMigration) {
         this.enhancedClient = DynamoDbEnhancedClient.builder()
                 .dynamoDbClient(dynamoDbClient)
                 .build();
         this.dynamoDbClient = dynamoDbClient;
+        this.userRepository = userRepository;
+        this.messageRepository = messageRepository;
+        this.usernameBackfill = usernameBackfill;
+        this.messageKeyMigration = messageKeyMigration;
         LOGGER.debug(">>>> DynamoDbInitializer created");
     }
 
@@ -51,9 +72,11 @@ public class DynamoDbInitializer {
     public void initializeDatabase() {
         LOGGER.debug(">>>> initializeDatabase started");
         createTableIfNotExists("User", User.class);
+        createTableIfNotExists("Username", Username.class);
         createTableIfNotExists("Chat", Chat.class);
-        createTableIfNotExists("Message", Message.class);
-        createTableIfNotExists("ChatParticipant", ChatParticipant.class);
+        createTableIfNotExists("ChatMessage", Message.class);
+        createChatParticipantTableWithGSI();
+        ensureChatParticipantUserIndex();
     }
 
     /**
@@ -63,6 +86,15 @@ public class DynamoDbInitializer {
      */
     void onStartup(@Observes StartupEvent ev) {
         initializeDatabase();
+        // Off unless asked for: both one-off migrations scan a whole table
+        if (usernameBackfill) {
+            LOGGER.info("Usernames claimed by existing users: " + userRepository.backfillUsernames());
+        }
+        // Messages written to the legacy table after the copy are not copied, so it runs once no node of the
+        // previous version is left, and only where it is enabled
+        if (messageKeyMigration) {
+            LOGGER.info("Messages copied from the legacy message table: " + messageRepository.migrateLegacyMessages());
+        }
     }
 
     /**
@@ -108,7 +140,7 @@ public class DynamoDbInitializer {
                             KeySchemaElement.builder().attributeName("userId").keyType(KeyType.RANGE).build()
                     )
                     .globalSecondaryIndexes(GlobalSecondaryIndex.builder()
-                            .indexName("userId-index")
+                            .indexName(ChatParticipant.USER_INDEX)
                             .keySchema(KeySchemaElement.builder()
                                     .attributeName("userId")
                                     .keyType(KeyType.HASH)
@@ -136,4 +168,43 @@ public class DynamoDbInitializer {
             throw new RuntimeException("Failed to create table with GSI: " + tableName, e);
         }
     }
+
+    /**
+     * Adds the user index to a ChatParticipant table created without it, as earlier versions did.
+     * DynamoDB backfills the index from the existing items; lookups of a user's chats fail until it is active.
+     */
+    private void ensureChatParticipantUserIndex() {
+        String tableName = "ChatParticipant";
+        TableDescription table = dynamoDbClient.describeTable(r -> r.tableName(tableName)).table();
+        boolean indexed = table.globalSecondaryIndexes().stream()
+                .anyMatch(index -> ChatParticipant.USER_INDEX.equals(index.indexName()));
+        if (indexed) {
+            return;
+        }
+
+        LOGGER.warn("Table " + tableName + " has no " + ChatParticipant.USER_INDEX + ", creating it");
+        CreateGlobalSecondaryIndexAction.Builder index = CreateGlobalSecondaryIndexAction.builder()
+                .indexName(ChatParticipant.USER_INDEX)
+                .keySchema(KeySchemaElement.builder().attributeName("userId").keyType(KeyType.HASH).build())
+                .projection(Projection.builder().projectionType(ProjectionType.ALL).build());
+        // On-demand tables reject a throughput for the index
+        boolean onDemand = table.billingModeSummary() != null
+                && table.billingModeSummary().billingMode() == BillingMode.PAY_PER_REQUEST;
+        if (!onDemand) {
+            index.provisionedThroughput(ProvisionedThroughput.builder()
+                    .readCapacityUnits(5L)
+                    .writeCapacityUnits(5L)
+                    .build());
+        }
+        try {
+            dynamoDbClient.updateTable(UpdateTableRequest.builder()
+                    .tableName(tableName)
+                    .attributeDefinitions(AttributeDefinition.builder().attributeName("userId").attributeType(ScalarAttributeType.S).build())
+                    .globalSecondaryIndexUpdates(GlobalSecondaryIndexUpdate.builder().create(index.build()).build())
+                    .build());
+        } catch (ResourceInUseException e) {
+            // Another node is adding the index
+            LOGGER.warn("Index is already being added: " + ChatParticipant.USER_INDEX);
+        }
+    }
 }
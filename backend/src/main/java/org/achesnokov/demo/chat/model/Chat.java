@@ -15,6 +15,7 @@ public class Chat {
     private String caption;
     private Instant createdAt;
     private Instant updatedAt;
+    private Long lastSequence;
 
     /**
      * Gets the unique identifier for the chat.
@@ -88,4 +89,23 @@ public class Chat {
     public void setUpdatedAt(Instant updatedAt) {
         this.updatedAt = updatedAt;
     }
+
+    /**
+     * Gets the sequence number of the latest message of the chat.
+     * The counter is only advanced atomically by the repository, never by saving the chat.
+     *
+     * @return the latest sequence number, or null if no message was numbered yet.
+     */
+    public Long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Sets the sequence number of the latest message of the chat.
+     *
+     * @param lastSequence the latest sequence number to set.
+     */
+    public void setLastSequence(Long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
 }
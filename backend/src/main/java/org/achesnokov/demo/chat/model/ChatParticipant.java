@@ -13,6 +13,11 @@ import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortK
 @DynamoDbBean
 public class ChatParticipant {
 
+    /**
+     * Name of the global secondary index finding the participations of a user.
+     */
+    public static final String USER_INDEX = "userId-index";
+
     private String chatId;
     private String userId;
     private Instant joinedAt;
@@ -43,7 +48,7 @@ public class ChatParticipant {
      * @return the user ID.
      */
     @DynamoDbSortKey
-    @DynamoDbSecondaryPartitionKey(indexNames = "userId-index")
+    @DynamoDbSecondaryPartitionKey(indexNames = USER_INDEX)
     public String getUserId() {
         return userId;
     }
@@ -0,0 +1,97 @@
+package org.achesnokov.demo.chat.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Represents the wire encoding of WebSocket frames, negotiated per session with the {@code Sec-WebSocket-Protocol} header.
+ * Both encodings carry the same message envelope; JSON text frames are used unless the client asks for CBOR.
+ */
+public enum FrameEncoding {
+    JSON(FrameEncoding.JSON_SUBPROTOCOL),
+    CBOR(FrameEncoding.CBOR_SUBPROTOCOL);
+
+    /**
+     * Subprotocol of JSON text frames.
+     */
+    public static final String JSON_SUBPROTOCOL = "chat.v1.json";
+
+    /**
+     * Subprotocol of CBOR binary frames.
+     */
+    public static final String CBOR_SUBPROTOCOL = "chat.v1.cbor";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+
+    private final String subprotocol;
+
+    FrameEncoding(String subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    /**
+     * Gets the subprotocol name of the encoding.
+     *
+     * @return the subprotocol name.
+     */
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * Finds the encoding of a negotiated subprotocol.
+     *
+     * @param subprotocol the negotiated subprotocol, may be null or empty if none was negotiated.
+     * @return the matching encoding, or JSON if the subprotocol is unknown.
+     */
+    public static FrameEncoding fromSubprotocol(String subprotocol) {
+        return CBOR_SUBPROTOCOL.equals(subprotocol) ? CBOR : JSON;
+    }
+
+    /**
+     * Transcodes JSON text into CBOR without building an intermediate object tree.
+     *
+     * @param json the JSON text.
+     * @return the CBOR encoded bytes.
+     */
+    public static byte[] jsonToCbor(String json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length());
+        try (JsonParser parser = JSON_FACTORY.createParser(json);
+             JsonGenerator generator = CBOR_FACTORY.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode frame as CBOR", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Transcodes CBOR into JSON text.
+     *
+     * @param cbor the CBOR encoded bytes.
+     * @return the JSON text.
+     * @throws IllegalArgumentException if the bytes are not valid CBOR.
+     */
+    public static String cborToJson(byte[] cbor) {
+        StringWriter out = new StringWriter(cbor.length * 2);
+        try (JsonParser parser = CBOR_FACTORY.createParser(cbor);
+             JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            if (parser.nextToken() == null) {
+                throw new IllegalArgumentException("Empty CBOR frame");
+            }
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid CBOR frame", e);
+        }
+        return out.toString();
+    }
+}
@@ -4,6 +4,7 @@ import java.time.Instant;
 
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondarySortKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
 
 /**
@@ -12,11 +13,17 @@ import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortK
 @DynamoDbBean
 public class Message {
 
+    /**
+     * Name of the local secondary index ordering the messages of a chat by sequence number.
+     */
+    public static final String SEQUENCE_INDEX = "sequence-index";
+
     private String chatId;
     private String messageId;
     private String userId;
     private String content;
     private Instant timestamp;
+    private Long sequence;
 
     /**
      * Gets the chat ID to which this message belongs.
@@ -38,10 +45,12 @@ public class Message {
     }
 
     /**
-     * Gets the unique identifier of this message.
+     * Gets the unique identifier of this message. IDs sort by the time messages were sent,
+     * so they order the messages of a chat.
      *
      * @return the message ID.
      */
+    @DynamoDbSortKey
     public String getMessageId() {
         return messageId;
     }
@@ -96,7 +105,6 @@ public class Message {
      *
      * @return the timestamp of the message.
      */
-    @DynamoDbSortKey
     public Instant getTimestamp() {
         return timestamp;
     }
@@ -109,4 +117,24 @@ public class Message {
     public void setTimestamp(Instant timestamp) {
         this.timestamp = timestamp;
     }
+
+    /**
+     * Gets the sequence number of this message within its chat.
+     * Sequence numbers start at 1 and have no gaps unless a message failed to be saved.
+     *
+     * @return the sequence number, or null for messages saved before sequences were introduced.
+     */
+    @DynamoDbSecondarySortKey(indexNames = SEQUENCE_INDEX)
+    public Long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sets the sequence number of this message within its chat.
+     *
+     * @param sequence the sequence number to set.
+     */
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
 }
@@ -0,0 +1,65 @@
+package org.achesnokov.demo.chat.model;
+
+import java.util.List;
+
+/**
+ * Represents a Data Transfer Object (DTO) for a page of a chat's message history and the cursor continuing it.
+ */
+public class MessageHistoryDTO {
+
+    private List<ChatMessageDTO> messages;
+    private String nextCursor;
+
+    /**
+     * Default constructor for MessageHistoryDTO.
+     */
+    public MessageHistoryDTO() {
+    }
+
+    /**
+     * Constructs a MessageHistoryDTO with the given messages and cursor.
+     *
+     * @param messages   the messages of the page.
+     * @param nextCursor the cursor of the next page, or null if the history ends with this page.
+     */
+    public MessageHistoryDTO(List<ChatMessageDTO> messages, String nextCursor) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the messages of the page.
+     *
+     * @return the messages.
+     */
+    public List<ChatMessageDTO> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Sets the messages of the page.
+     *
+     * @param messages the messages to set.
+     */
+    public void setMessages(List<ChatMessageDTO> messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Gets the cursor of the next page, passed back as {@code before} or {@code after} to continue in the same direction.
+     *
+     * @return the cursor, or null if the history ends with this page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Sets the cursor of the next page.
+     *
+     * @param nextCursor the cursor to set.
+     */
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
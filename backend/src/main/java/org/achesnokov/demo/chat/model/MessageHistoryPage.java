@@ -0,0 +1,41 @@
+package org.achesnokov.demo.chat.model;
+
+import java.util.List;
+
+/**
+ * Represents a page of a chat's message history read with a cursor.
+ */
+public class MessageHistoryPage {
+
+    private final List<Message> messages;
+    private final String nextCursor;
+
+    /**
+     * Constructs a MessageHistoryPage.
+     *
+     * @param messages   the messages of the page, in the order they were read.
+     * @param nextCursor the cursor continuing the history in the same direction, or null if it ends with this page.
+     */
+    public MessageHistoryPage(List<Message> messages, String nextCursor) {
+        this.messages = List.copyOf(messages);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the messages of the page.
+     *
+     * @return the messages, newest first when paging backwards and oldest first when paging forwards.
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the cursor of the next page.
+     *
+     * @return an opaque cursor, or null if there are no more messages in this direction.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,43 @@
+package org.achesnokov.demo.chat.model;
+
+import java.util.List;
+
+/**
+ * Represents a page of chat messages, sorted oldest first unless the page was read newest first.
+ */
+public class MessagePage {
+
+    private final List<Message> messages;
+    private final boolean hasMore;
+
+    /**
+     * Constructs a MessagePage.
+     *
+     * @param messages the messages of the page, in the order they were read.
+     * @param hasMore  whether more messages of the requested range did not fit into the page.
+     */
+    public MessagePage(List<Message> messages, boolean hasMore) {
+        this.messages = List.copyOf(messages);
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * Gets the messages of the page.
+     *
+     * @return the messages, oldest first unless the page was read newest first.
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Checks whether more messages of the requested range did not fit into the page:
+     * older ones for a page of the latest messages, newer ones for a sequence range, the next ones in reading
+     * order for a page read with a cursor.
+     *
+     * @return true if another page exists.
+     */
+    public boolean isHasMore() {
+        return hasMore;
+    }
+}
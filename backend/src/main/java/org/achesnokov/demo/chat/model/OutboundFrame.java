@@ -0,0 +1,117 @@
+package org.achesnokov.demo.chat.model;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Represents an already encoded WebSocket frame.
+ * A frame is encoded once and the same instance is shared by every session it is sent to.
+ * The binary encoding is derived from the text on first use and then shared as well.
+ */
+public final class OutboundFrame {
+
+    private final String text;
+    private final String coalesceKey;
+    private volatile byte[] binary;
+
+    private OutboundFrame(String text, String coalesceKey) {
+        this.text = text;
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * Encodes the given message into a frame.
+     *
+     * @param message the message to encode.
+     * @return the encoded frame.
+     */
+    public static OutboundFrame of(JsonObject message) {
+        return of(message, null);
+    }
+
+    /**
+     * Encodes the given message into a frame that may be replaced by a newer frame with the same coalesce key
+     * while it is still waiting in a session's outbound queue.
+     *
+     * @param message the message to encode.
+     * @param coalesceKey the coalesce key, or null if the frame must never be coalesced.
+     * @return the encoded frame.
+     */
+    public static OutboundFrame of(JsonObject message, String coalesceKey) {
+        Objects.requireNonNull(message, "Message must not be null");
+        return new OutboundFrame(message.toString(), coalesceKey);
+    }
+
+    /**
+     * Wraps text that is already encoded, e.g. a frame received from another node.
+     *
+     * @param text the encoded text.
+     * @param coalesceKey the coalesce key, or null if the frame must never be coalesced.
+     * @return the frame.
+     */
+    public static OutboundFrame ofText(String text, String coalesceKey) {
+        Objects.requireNonNull(text, "Text must not be null");
+        return new OutboundFrame(text, coalesceKey);
+    }
+
+    /**
+     * Merges frames into a single {@code batch} frame whose {@code messages} array holds the frames in order.
+     * The frames are joined as they are, without being decoded again.
+     *
+     * @param frames the frames to merge, at least one.
+     * @return the batch frame; it keeps the coalesce key only if all merged frames share it.
+     */
+    public static OutboundFrame ofBatch(List<OutboundFrame> frames) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one frame");
+        }
+        String coalesceKey = frames.get(0).coalesceKey;
+        for (OutboundFrame frame : frames) {
+            if (!Objects.equals(coalesceKey, frame.coalesceKey)) {
+                coalesceKey = null;
+                break;
+            }
+        }
+        String text = frames.stream()
+                .map(OutboundFrame::getText)
+                .collect(Collectors.joining(",", "{\"type\":\"batch\",\"messages\":[", "]}"));
+        return new OutboundFrame(text, coalesceKey);
+    }
+
+    /**
+     * Gets the text payload of the frame.
+     *
+     * @return the encoded text.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the payload of the frame as a binary CBOR message.
+     *
+     * @return a read-only buffer over the encoded bytes; every call returns a new buffer positioned at the start.
+     */
+    public ByteBuffer getBinary() {
+        byte[] encoded = binary;
+        if (encoded == null) {
+            // Racing threads may both encode, the results are identical
+            encoded = FrameEncoding.jsonToCbor(text);
+            binary = encoded;
+        }
+        return ByteBuffer.wrap(encoded).asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the coalesce key of the frame.
+     *
+     * @return the coalesce key, or null if the frame must never be coalesced.
+     */
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+}
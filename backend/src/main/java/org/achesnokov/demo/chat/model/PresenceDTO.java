@@ -0,0 +1,107 @@
+package org.achesnokov.demo.chat.model;
+
+import java.util.List;
+
+/**
+ * Represents a Data Transfer Object (DTO) for the presence of a chat: who is online and who is typing.
+ */
+public class PresenceDTO {
+
+    private String chatId;
+    private List<String> online;
+    private List<String> typing;
+    private int typingCount;
+
+    /**
+     * Default constructor for PresenceDTO.
+     */
+    public PresenceDTO() {
+    }
+
+    /**
+     * Constructs a PresenceDTO.
+     *
+     * @param chatId      the ID of the chat.
+     * @param online      the usernames of the online members, sorted.
+     * @param typing      the usernames of the members currently typing, possibly truncated.
+     * @param typingCount the total number of members currently typing.
+     */
+    public PresenceDTO(String chatId, List<String> online, List<String> typing, int typingCount) {
+        this.chatId = chatId;
+        this.online = online;
+        this.typing = typing;
+        this.typingCount = typingCount;
+    }
+
+    /**
+     * Gets the ID of the chat.
+     *
+     * @return the chat ID.
+     */
+    public String getChatId() {
+        return chatId;
+    }
+
+    /**
+     * Sets the ID of the chat.
+     *
+     * @param chatId the chat ID to set.
+     */
+    public void setChatId(String chatId) {
+        this.chatId = chatId;
+    }
+
+    /**
+     * Gets the usernames of the online members.
+     *
+     * @return the usernames, sorted.
+     */
+    public List<String> getOnline() {
+        return online;
+    }
+
+    /**
+     * Sets the usernames of the online members.
+     *
+     * @param online the usernames to set.
+     */
+    public void setOnline(List<String> online) {
+        this.online = online;
+    }
+
+    /**
+     * Gets the usernames of the members currently typing.
+     *
+     * @return the usernames, possibly truncated.
+     */
+    public List<String> getTyping() {
+        return typing;
+    }
+
+    /**
+     * Sets the usernames of the members currently typing.
+     *
+     * @param typing the usernames to set.
+     */
+    public void setTyping(List<String> typing) {
+        this.typing = typing;
+    }
+
+    /**
+     * Gets the total number of members currently typing.
+     *
+     * @return the typing count.
+     */
+    public int getTypingCount() {
+        return typingCount;
+    }
+
+    /**
+     * Sets the total number of members currently typing.
+     *
+     * @param typingCount the typing count to set.
+     */
+    public void setTypingCount(int typingCount) {
+        this.typingCount = typingCount;
+    }
+}
@@ -0,0 +1,52 @@
+package org.achesnokov.demo.chat.model;
+
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+
+/**
+ * Represents the claim of a username by a user. The username is the partition key,
+ * so a username is unique and resolves to its user with a single point read.
+ */
+@DynamoDbBean
+public class Username {
+
+    private String username;
+    private String userId;
+
+    /**
+     * Gets the claimed username.
+     *
+     * @return the username.
+     */
+    @DynamoDbPartitionKey
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Sets the claimed username.
+     *
+     * @param username the username to set.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Gets the ID of the user holding the username.
+     *
+     * @return the user ID.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Sets the ID of the user holding the username.
+     *
+     * @param userId the user ID to set.
+     */
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+}
@@ -9,11 +9,11 @@ import jakarta.inject.Inject;
 import org.achesnokov.demo.chat.model.ChatParticipant;
 import org.achesnokov.demo.chat.model.User;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbIndex;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
-import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetItemEnhancedRequest;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
-import software.amazon.awssdk.enhanced.dynamodb.model.ReadBatch;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
 /**
@@ -25,17 +25,22 @@ public class ChatParticipantRepository {
 
     private final DynamoDbEnhancedClient enhancedClient;
     private final DynamoDbTable<ChatParticipant> participantTable;
+    private final DynamoDbIndex<ChatParticipant> userIndex;
     private final DynamoDbTable<User> userTable;
+    private final DynamoDbBatchReader batchReader;
 
     /**
      * Constructs a ChatParticipantRepository with the given DynamoDB client.
      *
      * @param dynamoDbClient the DynamoDB client to be used for data access.
+     * @param batchReader the reader of multiple users.
      */
     @Inject
-    public ChatParticipantRepository(DynamoDbClient dynamoDbClient) {
+    public ChatParticipantRepository(DynamoDbClient dynamoDbClient, DynamoDbBatchReader batchReader) {
+        this.batchReader = batchReader;
         this.enhancedClient = createEnhancedClient(dynamoDbClient);
         this.participantTable = enhancedClient.table("ChatParticipant", TableSchema.fromBean(ChatParticipant.class));
+        this.userIndex = participantTable.index(ChatParticipant.USER_INDEX);
         this.userTable = enhancedClient.table("User", TableSchema.fromBean(User.class));
     }
 
@@ -65,6 +70,17 @@ public class ChatParticipantRepository {
         return participantTable.query(QueryConditional.keyEqualTo(k -> k.partitionValue(chatId))).items().stream().collect(Collectors.toList());
     }
 
+    /**
+     * Finds the participation of a user in a chat with a single key lookup.
+     *
+     * @param chatId the chat ID of the participant.
+     * @param userId the user ID of the participant.
+     * @return the ChatParticipant entity, or null if the user never joined the chat.
+     */
+    public ChatParticipant findById(String chatId, String userId) {
+        return participantTable.getItem(r -> r.key(k -> k.partitionValue(chatId).sortValue(userId)));
+    }
+
     /**
      * Retrieves all users who are participants in the specified chat.
      *
@@ -72,35 +88,23 @@ public class ChatParticipantRepository {
      * @return a list of User entities representing the participants in the chat.
      */
     public List<User> getChatParticipantsAsUsers(String chatId) {
-        ReadBatch.Builder<User> userReadBatchBuilder = ReadBatch.builder(User.class)
-                .mappedTableResource(userTable);
-
-        findByChatId(chatId)
+        return batchReader.read(userTable, findByChatId(chatId)
                 .stream()
-                .map(ChatParticipant::getUserId)
-                .distinct()
-                .forEach(userId -> userReadBatchBuilder
-                        .addGetItem(r -> r.key(k -> k.partitionValue(userId))));
-
-        BatchGetItemEnhancedRequest batchGetItemRequest = BatchGetItemEnhancedRequest.builder()
-                .addReadBatch(userReadBatchBuilder.build())
-                .build();
-
-        return enhancedClient.batchGetItem(batchGetItemRequest)
-                .resultsForTable(userTable)
-                .stream()
-                .collect(Collectors.toList());
+                .map(participant -> Key.builder().partitionValue(participant.getUserId()).build())
+                .collect(Collectors.toList()));
     }
 
     /**
      * Finds all chat participants by the given user ID.
+     * Reads the pages of the user's partition in the user index, so the cost does not depend on the size of the table.
      *
      * @param userId the user ID to find associated chat participants for.
      * @return a list of ChatParticipant entities for the given user ID.
      */
     public List<ChatParticipant> findByUserId(String userId) {
-        return participantTable.scan().items().stream()
-                .filter(participant -> participant.getUserId().equals(userId))
+        return userIndex.query(QueryConditional.keyEqualTo(k -> k.partitionValue(userId)))
+                .stream()
+                .flatMap(page -> page.items().stream())
                 .collect(Collectors.toList());
     }
 
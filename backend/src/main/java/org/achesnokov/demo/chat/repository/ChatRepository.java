@@ -1,6 +1,7 @@
 package org.achesnokov.demo.chat.repository;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import jakarta.enterprise.context.ApplicationScoped;
@@ -10,9 +11,15 @@ import org.achesnokov.demo.chat.model.ChatParticipant;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbIndex;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 
 /**
  * Repository class for managing Chat entities in DynamoDB.
@@ -20,35 +27,70 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
  */
 @ApplicationScoped
 public class ChatRepository {
+    private static final String TABLE_NAME = "Chat";
 
+    private final DynamoDbClient dynamoDbClient;
     private final DynamoDbEnhancedClient enhancedClient;
     private final DynamoDbTable<Chat> chatTable;
     private final DynamoDbTable<ChatParticipant> chatParticipantTable;
     private final DynamoDbIndex<ChatParticipant> userIndex;
+    private final DynamoDbBatchReader batchReader;
 
     /**
      * Constructs a ChatRepository with the given DynamoDB client.
      *
      * @param dynamoDbClient the DynamoDB client to be used for data access.
+     * @param batchReader the reader of multiple chats.
      */
     @Inject
-    public ChatRepository(DynamoDbClient dynamoDbClient) {
+    public ChatRepository(DynamoDbClient dynamoDbClient, DynamoDbBatchReader batchReader) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.batchReader = batchReader;
         this.enhancedClient = DynamoDbEnhancedClient.builder()
                 .dynamoDbClient(dynamoDbClient)
                 .build();
 
-        this.chatTable = enhancedClient.table("Chat", TableSchema.fromBean(Chat.class));
+        this.chatTable = enhancedClient.table(TABLE_NAME, TableSchema.fromBean(Chat.class));
         this.chatParticipantTable = enhancedClient.table("ChatParticipant", TableSchema.fromBean(ChatParticipant.class));
-        this.userIndex = chatParticipantTable.index("userId-index");
+        this.userIndex = chatParticipantTable.index(ChatParticipant.USER_INDEX);
     }
 
     /**
      * Saves a chat entity to the DynamoDB table.
+     * Attributes that are null on the entity are left untouched, so saving a chat never resets its sequence counter.
      *
      * @param chat the Chat entity to be saved.
      */
     public void save(Chat chat) {
-        chatTable.putItem(chat);
+        chatTable.updateItem(r -> r.item(chat).ignoreNulls(true));
+    }
+
+    /**
+     * Atomically reserves a block of consecutive message sequence numbers of a chat.
+     *
+     * @param chatId the chat ID to reserve sequence numbers of.
+     * @param count  the number of sequence numbers to reserve.
+     * @return the last reserved sequence number; the block ends with it and starts {@code count - 1} numbers earlier.
+     * @throws IllegalArgumentException if the count is not positive or the chat does not exist.
+     */
+    public long allocateSequences(String chatId, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Sequence count must be positive: " + count);
+        }
+        try {
+            Map<String, AttributeValue> attributes = dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                            .tableName(TABLE_NAME)
+                            .key(Map.of("chatId", AttributeValue.fromS(chatId)))
+                            .updateExpression("ADD lastSequence :count")
+                            .conditionExpression("attribute_exists(chatId)")
+                            .expressionAttributeValues(Map.of(":count", AttributeValue.fromN(Integer.toString(count))))
+                            .returnValues(ReturnValue.UPDATED_NEW)
+                            .build())
+                    .attributes();
+            return Long.parseLong(attributes.get("lastSequence").n());
+        } catch (ConditionalCheckFailedException e) {
+            throw new IllegalArgumentException("Chat not found: " + chatId);
+        }
     }
 
     /**
@@ -70,6 +112,19 @@ public class ChatRepository {
         return chatTable.scan().items().stream().collect(Collectors.toList());
     }
 
+    /**
+     * Finds multiple chats by their unique identifiers with parallel batch reads.
+     *
+     * @param chatIds the chat IDs to find.
+     * @return the Chat entities found, in the order of their IDs; IDs without a chat are skipped.
+     * @throws IllegalStateException if some keys are still unprocessed after the last attempt.
+     */
+    public List<Chat> findByIds(List<String> chatIds) {
+        return batchReader.read(chatTable, chatIds.stream()
+                .map(chatId -> Key.builder().partitionValue(chatId).build())
+                .collect(Collectors.toList()));
+    }
+
     /**
      * Finds all chats that a specific participant is currently part of.
      *
@@ -77,14 +132,17 @@ public class ChatRepository {
      * @return a list of Chat entities that the specified participant is part of.
      */
     public List<Chat> findByParticipant(String participantId) {
-        return userIndex.query(QueryConditional.keyEqualTo(k -> k.partitionValue(participantId)))
+        // Only the attributes needed to pick the active chats are read from the index
+        List<String> chatIds = userIndex.query(QueryEnhancedRequest.builder()
+                        .queryConditional(QueryConditional.keyEqualTo(k -> k.partitionValue(participantId)))
+                        .attributesToProject("chatId", "userId", "leftAt")
+                        .build())
                 .stream()
                 .flatMap(page -> page.items().stream())
                 .filter(chatParticipant -> chatParticipant.getLeftAt() == null)
                 .map(ChatParticipant::getChatId)
-                .distinct()
-                .map(this::findById)
                 .collect(Collectors.toList());
+        return findByIds(chatIds);
     }
 
     /**
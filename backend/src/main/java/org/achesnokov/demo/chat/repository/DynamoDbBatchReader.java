@@ -0,0 +1,192 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+/**
+ * Reads many items of a table by key with BatchGetItem.
+ * <p>
+ * Keys are split into batches of up to 100, DynamoDB's limit per request. The batches of a lookup run on a shared
+ * pool, so the number of batch reads in flight is bounded for the whole node. Keys DynamoDB leaves unprocessed,
+ * usually because of throttling, are retried after a randomized, growing delay until the last attempt fails the
+ * lookup; they are never dropped silently. The read capacity consumed is published per table.
+ */
+@ApplicationScoped
+public class DynamoDbBatchReader {
+    private static final Logger LOGGER = Logger.getLogger(DynamoDbBatchReader.class);
+
+    static final int BATCH_GET_LIMIT = 100;
+    private static final int BATCH_GET_ATTEMPTS = 5;
+    private static final long BATCH_GET_BACKOFF_MILLIS = 50;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService pool;
+    private final Counter retries;
+
+    /**
+     * Constructor for DynamoDbBatchReader.
+     *
+     * @param dynamoDbClient the DynamoDB client to be used for data access.
+     * @param parallelism the number of batch reads running at the same time.
+     * @param meterRegistry the registry batch read metrics are published to.
+     */
+    @Inject
+    public DynamoDbBatchReader(DynamoDbClient dynamoDbClient,
+                               @ConfigProperty(name = "org.achesnokov.demo.chat.batch_get_parallelism", defaultValue = "4") int parallelism,
+                               MeterRegistry meterRegistry) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Batch get parallelism must be positive: " + parallelism);
+        }
+        this.dynamoDbClient = dynamoDbClient;
+        this.meterRegistry = meterRegistry;
+        this.pool = Executors.newFixedThreadPool(parallelism, new BatchGetThreadFactory());
+        this.retries = Counter.builder("chat.dynamodb.batch_get.retries")
+                .description("Batch reads repeated for keys DynamoDB left unprocessed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reads the items of a table with the given keys.
+     *
+     * @param table the table to read from.
+     * @param keys the primary keys of the items; duplicates are read once.
+     * @param <T> the item type.
+     * @return the items found, in the order of their keys; keys without an item are skipped.
+     * @throws IllegalStateException if some keys are still unprocessed after the last attempt.
+     */
+    public <T> List<T> read(DynamoDbTable<T> table, List<Key> keys) {
+        List<Map<String, AttributeValue>> keyMaps = keys.stream()
+                .map(key -> keyMap(table, key))
+                .distinct()
+                .collect(Collectors.toList());
+        List<List<Map<String, AttributeValue>>> chunks = new ArrayList<>();
+        for (int start = 0; start < keyMaps.size(); start += BATCH_GET_LIMIT) {
+            chunks.add(keyMaps.subList(start, Math.min(keyMaps.size(), start + BATCH_GET_LIMIT)));
+        }
+
+        List<List<T>> results = new ArrayList<>();
+        if (chunks.size() == 1) {
+            // A single batch is not worth a hop to the pool
+            results.add(batchGet(table, chunks.get(0)));
+        } else {
+            List<CompletableFuture<List<T>>> reads = chunks.stream()
+                    .map(chunk -> CompletableFuture.supplyAsync(() -> batchGet(table, chunk), pool))
+                    .collect(Collectors.toList());
+            for (CompletableFuture<List<T>> read : reads) {
+                try {
+                    results.add(read.join());
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+                }
+            }
+        }
+
+        Map<Map<String, AttributeValue>, T> itemsByKey = new HashMap<>();
+        results.forEach(items -> items.forEach(item -> itemsByKey.put(keyMap(table, table.keyFrom(item)), item)));
+        return keyMaps.stream()
+                .map(itemsByKey::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private <T> List<T> batchGet(DynamoDbTable<T> table, List<Map<String, AttributeValue>> keys) {
+        String tableName = table.tableName();
+        List<T> items = new ArrayList<>();
+        Map<String, KeysAndAttributes> pending = Map.of(tableName, KeysAndAttributes.builder().keys(keys).build());
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            if (attempt > BATCH_GET_ATTEMPTS) {
+                throw new IllegalStateException(pending.get(tableName).keys().size() + " keys of " + tableName
+                        + " still unprocessed after " + BATCH_GET_ATTEMPTS + " attempts");
+            }
+            if (attempt > 1) {
+                retries.increment();
+                backOff(attempt);
+            }
+            BatchGetItemResponse response = dynamoDbClient.batchGetItem(BatchGetItemRequest.builder()
+                    .requestItems(pending)
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build());
+            response.responses().getOrDefault(tableName, List.of())
+                    .forEach(item -> items.add(table.tableSchema().mapToItem(item)));
+            recordConsumedCapacity(response.consumedCapacity());
+            pending = response.unprocessedKeys();
+        }
+        return items;
+    }
+
+    private void recordConsumedCapacity(List<ConsumedCapacity> consumedCapacity) {
+        for (ConsumedCapacity capacity : consumedCapacity) {
+            if (capacity.capacityUnits() == null) {
+                continue;
+            }
+            DistributionSummary.builder("chat.dynamodb.batch_get.capacity")
+                    .description("Read capacity units consumed per batch read")
+                    .tag("table", capacity.tableName())
+                    .register(meterRegistry)
+                    .record(capacity.capacityUnits());
+            LOGGER.debug("Batch read of " + capacity.tableName() + " consumed " + capacity.capacityUnits() + " capacity units");
+        }
+    }
+
+    private static <T> Map<String, AttributeValue> keyMap(DynamoDbTable<T> table, Key key) {
+        return key.keyMap(table.tableSchema(), TableMetadata.primaryIndexName());
+    }
+
+    private static void backOff(int attempt) {
+        // Half of the delay is random, so that readers throttled together do not retry together
+        long maxDelay = BATCH_GET_BACKOFF_MILLIS << (attempt - 2);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying unprocessed keys", e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static final class BatchGetThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chat-batch-get-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
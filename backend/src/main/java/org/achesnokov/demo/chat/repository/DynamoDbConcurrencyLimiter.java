@@ -0,0 +1,116 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.eclipse.microprofile.config.ConfigProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Bounds the number of DynamoDB calls in flight, whatever thread they are made from.
+ * <p>
+ * With handlers on virtual threads the number of concurrent callers is no longer capped by a worker pool,
+ * so without a limit a burst would open as many connections as there are requests and queue up inside
+ * the HTTP client instead. Calls beyond the limit wait for a permit, and fail fast once they waited
+ * longer than the acquire timeout.
+ * <p>
+ * Registered on the client with {@code quarkus.dynamodb.interceptors}, which instantiates it by class name,
+ * so its settings are read from the configuration directly.
+ */
+public class DynamoDbConcurrencyLimiter implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Boolean> PERMIT = new ExecutionAttribute<>("ChatDynamoDbPermit");
+
+    private final Semaphore permits;
+    private final long acquireTimeoutNanos;
+    private final Timer waitTimer;
+    private final Counter rejected;
+
+    /**
+     * Constructor used by the SDK, reading the limits from the configuration.
+     */
+    public DynamoDbConcurrencyLimiter() {
+        this(ConfigProvider.getConfig().getOptionalValue("org.achesnokov.demo.chat.dynamodb_max_concurrency", Integer.class).orElse(64),
+                ConfigProvider.getConfig().getOptionalValue("org.achesnokov.demo.chat.dynamodb_acquire_timeout_ms", Long.class).orElse(1000L),
+                Metrics.globalRegistry);
+    }
+
+    /**
+     * Constructor for DynamoDbConcurrencyLimiter.
+     *
+     * @param maxConcurrency the maximum number of calls in flight
+     * @param acquireTimeoutMillis how long a call may wait for a permit before it fails
+     * @param meterRegistry the registry limiter metrics are published to
+     */
+    DynamoDbConcurrencyLimiter(int maxConcurrency, long acquireTimeoutMillis, MeterRegistry meterRegistry) {
+        if (maxConcurrency <= 0 || acquireTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Concurrency must be positive and timeout must not be negative: "
+                    + maxConcurrency + ", " + acquireTimeoutMillis);
+        }
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        Gauge.builder("chat.dynamodb.inflight", permits, semaphore -> maxConcurrency - semaphore.availablePermits())
+                .description("DynamoDB calls in flight")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("chat.dynamodb.permit.wait")
+                .description("Time DynamoDB calls waited for a concurrency permit")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.dynamodb.rejected")
+                .description("DynamoDB calls failed because no concurrency permit became available in time")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted while waiting for a DynamoDB concurrency permit", e);
+        }
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            rejected.increment();
+            throw SdkClientException.create("Too many concurrent DynamoDB calls");
+        }
+        executionAttributes.putAttribute(PERMIT, Boolean.TRUE);
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        release(executionAttributes);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        release(executionAttributes);
+    }
+
+    /**
+     * Gets the number of calls that can start without waiting.
+     *
+     * @return the available permits
+     */
+    int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    private void release(ExecutionAttributes executionAttributes) {
+        // A failure after a successful call must not return the permit twice
+        if (Boolean.TRUE.equals(executionAttributes.getAttribute(PERMIT))) {
+            executionAttributes.putAttribute(PERMIT, Boolean.FALSE);
+            permits.release();
+        }
+    }
+}
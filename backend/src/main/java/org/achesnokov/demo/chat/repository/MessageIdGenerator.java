@@ -0,0 +1,179 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Generates the IDs of messages, which are the sort key of a chat's messages.
+ * <p>
+ * IDs are ULIDs: 26 Crockford base32 characters holding the millisecond they were created at followed by
+ * 80 random bits, so they sort like their creation time, as strings and in DynamoDB. IDs of one node
+ * strictly increase: within a millisecond, or when the clock goes back, the previous random part is
+ * incremented instead of drawing a new one. The state is swapped with a compare-and-set, so generating
+ * an ID never blocks. IDs of different nodes are ordered by their millisecond only, and the random part
+ * keeps them from colliding.
+ */
+@ApplicationScoped
+public class MessageIdGenerator {
+
+    /**
+     * Length of an ID.
+     */
+    public static final int LENGTH = 26;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final long MAX_TIME = (1L << 48) - 1;
+    private static final long RANDOM_HIGH_MASK = 0xFFFF;
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    private final AtomicReference<State> last = new AtomicReference<>(new State(-1, 0, 0));
+
+    /**
+     * Generates an ID for a message created now.
+     *
+     * @return the ID
+     */
+    public String next() {
+        return next(Instant.now());
+    }
+
+    /**
+     * Generates an ID for a message created at the given instant. The ID is greater than every ID generated
+     * before by this generator, even when the instant is not.
+     *
+     * @param timestamp the instant the message was created at
+     * @return the ID
+     */
+    public String next(Instant timestamp) {
+        long time = timeOf(timestamp);
+        while (true) {
+            State previous = last.get();
+            State next = time > previous.time
+                    ? new State(time, ThreadLocalRandom.current().nextLong() & RANDOM_HIGH_MASK, ThreadLocalRandom.current().nextLong())
+                    : previous.increment();
+            if (last.compareAndSet(previous, next)) {
+                return encode(next.time, next.randomHigh, next.randomLow);
+            }
+        }
+    }
+
+    /**
+     * Derives the ID of a message saved before IDs were time ordered. The same message always gets the same ID,
+     * so the migration can be repeated, and messages of the same chat keep the order of their timestamps.
+     *
+     * @param timestamp the instant the message was sent at
+     * @param legacyId the previous ID of the message
+     * @return the ID
+     */
+    public static String fromLegacy(Instant timestamp, String legacyId) {
+        Objects.requireNonNull(legacyId, "Legacy ID must not be null");
+        // The top 20 random bits hold the nanoseconds within the millisecond, the rest is taken from the old ID
+        long nanos = timestamp.getNano() % NANOS_PER_MILLI;
+        long hash = UUID.nameUUIDFromBytes(legacyId.getBytes(StandardCharsets.UTF_8)).getLeastSignificantBits();
+        return encode(timeOf(timestamp), nanos >>> 4, (nanos & 0xF) << 60 | (hash >>> 4));
+    }
+
+    /**
+     * Gets the smallest ID of the millisecond of an instant.
+     *
+     * @param timestamp the instant
+     * @return an ID no message created in or after that millisecond is smaller than
+     */
+    public static String lowerBound(Instant timestamp) {
+        return encode(timeOf(timestamp), 0, 0);
+    }
+
+    /**
+     * Gets the greatest ID of the millisecond of an instant.
+     *
+     * @param timestamp the instant
+     * @return an ID no message created in or before that millisecond is greater than
+     */
+    public static String upperBound(Instant timestamp) {
+        return encode(timeOf(timestamp), RANDOM_HIGH_MASK, -1L);
+    }
+
+    /**
+     * Checks whether a string is an ID generated by this class.
+     *
+     * @param id the string, may be null
+     * @return true if it is an ID
+     */
+    public static boolean isValid(String id) {
+        if (id == null || id.length() != LENGTH || id.charAt(0) > '7') {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            if (Arrays.binarySearch(ALPHABET, id.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the millisecond an ID was generated for.
+     *
+     * @param id the ID
+     * @return the instant of its millisecond
+     * @throws IllegalArgumentException if the string is not an ID
+     */
+    public static Instant timestampOf(String id) {
+        if (!isValid(id)) {
+            throw new IllegalArgumentException("Invalid message ID: " + id);
+        }
+        long time = 0;
+        for (int i = 0; i < 10; i++) {
+            time = time << 5 | Arrays.binarySearch(ALPHABET, id.charAt(i));
+        }
+        return Instant.ofEpochMilli(time);
+    }
+
+    private static long timeOf(Instant timestamp) {
+        long time = timestamp.toEpochMilli();
+        if (time < 0 || time > MAX_TIME) {
+            throw new IllegalArgumentException("Timestamp out of range of message IDs: " + timestamp);
+        }
+        return time;
+    }
+
+    private static String encode(long time, long randomHigh, long randomLow) {
+        char[] chars = new char[LENGTH];
+        for (int i = 9; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (time & 31)];
+            time >>>= 5;
+        }
+        // The 80 random bits: the low 60 of the low word, then its top 4 with the 16 of the high word
+        for (int i = 25; i >= 14; i--) {
+            chars[i] = ALPHABET[(int) (randomLow & 31)];
+            randomLow >>>= 5;
+        }
+        long rest = randomHigh << 4 | randomLow;
+        for (int i = 13; i >= 10; i--) {
+            chars[i] = ALPHABET[(int) (rest & 31)];
+            rest >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    private record State(long time, long randomHigh, long randomLow) {
+
+        State increment() {
+            if (randomLow != -1L) {
+                return new State(time, randomHigh, randomLow + 1);
+            }
+            if (randomHigh != RANDOM_HIGH_MASK) {
+                return new State(time, randomHigh + 1, 0);
+            }
+            // The random part of the millisecond is exhausted, borrow the next one
+            return new State(time + 1, 0, 0);
+        }
+    }
+}
@@ -1,28 +1,50 @@
 package org.achesnokov.demo.chat.repository;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessagePage;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbIndex;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchWriteItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchWriteResult;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.WriteBatch;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
 
 /**
  * Repository class for managing Message entities in DynamoDB.
  * This class provides methods to save, find, and delete messages, as well as find messages by chat ID and user IDs.
+ * <p>
+ * The messages of a chat are sorted by their ID, see {@link MessageIdGenerator}. Messages saved before are keyed
+ * by timestamp in the legacy table and copied over by {@link #migrateLegacyMessages()}.
  */
 @ApplicationScoped
 public class MessageRepository {
+    private static final int BATCH_WRITE_LIMIT = 25;
+    private static final int BATCH_WRITE_ATTEMPTS = 5;
+    private static final long BATCH_WRITE_BACKOFF_MILLIS = 50;
+    private static final String TABLE_NAME = "ChatMessage";
+    private static final String LEGACY_TABLE_NAME = "Message";
 
     private final DynamoDbEnhancedClient enhancedClient;
     private final DynamoDbTable<Message> messageTable;
+    private final DynamoDbTable<Message> legacyMessageTable;
+    private final DynamoDbIndex<Message> sequenceIndex;
 
     /**
      * Constructs a MessageRepository with the given DynamoDB client.
@@ -34,7 +56,9 @@ public class MessageRepository {
         this.enhancedClient = DynamoDbEnhancedClient.builder()
                 .dynamoDbClient(dynamoDbClient)
                 .build();
-        this.messageTable = enhancedClient.table("Message", TableSchema.fromBean(Message.class));
+        this.messageTable = enhancedClient.table(TABLE_NAME, TableSchema.fromBean(Message.class));
+        this.legacyMessageTable = enhancedClient.table(LEGACY_TABLE_NAME, TableSchema.fromBean(Message.class));
+        this.sequenceIndex = messageTable.index(Message.SEQUENCE_INDEX);
     }
 
     /**
@@ -46,6 +70,42 @@ public class MessageRepository {
         messageTable.putItem(message);
     }
 
+    /**
+     * Saves message entities to the DynamoDB table in batches of up to 25 items.
+     * Items DynamoDB leaves unprocessed are retried with a growing delay.
+     *
+     * @param messages the Message entities to be saved.
+     * @throws IllegalStateException if some messages are still unprocessed after the last attempt.
+     */
+    public void saveAll(List<Message> messages) {
+        for (int start = 0; start < messages.size(); start += BATCH_WRITE_LIMIT) {
+            List<Message> pending = messages.subList(start, Math.min(messages.size(), start + BATCH_WRITE_LIMIT));
+            for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                if (attempt > BATCH_WRITE_ATTEMPTS) {
+                    throw new IllegalStateException(pending.size() + " messages still unprocessed after " + BATCH_WRITE_ATTEMPTS + " attempts");
+                }
+                if (attempt > 1) {
+                    backOff(attempt);
+                }
+                WriteBatch.Builder<Message> batch = WriteBatch.builder(Message.class).mappedTableResource(messageTable);
+                pending.forEach(batch::addPutItem);
+                BatchWriteResult result = enhancedClient.batchWriteItem(BatchWriteItemEnhancedRequest.builder()
+                        .writeBatches(batch.build())
+                        .build());
+                pending = result.unprocessedPutItemsForTable(messageTable);
+            }
+        }
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(BATCH_WRITE_BACKOFF_MILLIS << (attempt - 2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying unprocessed messages", e);
+        }
+    }
+
     /**
      * Finds a message by its chat ID and message ID.
      *
@@ -69,6 +129,8 @@ public class MessageRepository {
 
     /**
      * Finds all messages for a given chat ID, sorted by timestamp in ascending order.
+     * The order is the one of their IDs, which differs from the timestamps only for messages
+     * of different nodes sent within the same millisecond.
      *
      * @param chatId the chat ID to find messages for.
      * @return a list of Message entities for the given chat ID, sorted by timestamp.
@@ -81,6 +143,147 @@ public class MessageRepository {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Finds the most recent messages of a chat within the given time range.
+     * Only as many items as requested are read from the table, plus those of the bounding milliseconds.
+     *
+     * @param chatId the chat ID to find messages for.
+     * @param after  only messages sent after this instant are returned, or null for no lower bound.
+     * @param before only messages sent before this instant are returned, or null for no upper bound.
+     * @param limit  the maximum number of messages to return.
+     * @return up to {@code limit} messages closest to {@code before}, sorted by timestamp in ascending order.
+     */
+    public List<Message> findLatestByChatId(String chatId, Instant after, Instant before, int limit) {
+        // IDs only hold the millisecond, so the key range includes the bounding milliseconds
+        QueryConditional queryConditional;
+        if (after != null && before != null) {
+            queryConditional = QueryConditional.sortBetween(
+                    Key.builder().partitionValue(chatId).sortValue(MessageIdGenerator.lowerBound(after)).build(),
+                    Key.builder().partitionValue(chatId).sortValue(MessageIdGenerator.upperBound(before)).build());
+        } else if (after != null) {
+            queryConditional = QueryConditional.sortGreaterThanOrEqualTo(
+                    Key.builder().partitionValue(chatId).sortValue(MessageIdGenerator.lowerBound(after)).build());
+        } else if (before != null) {
+            queryConditional = QueryConditional.sortLessThanOrEqualTo(
+                    Key.builder().partitionValue(chatId).sortValue(MessageIdGenerator.upperBound(before)).build());
+        } else {
+            queryConditional = QueryConditional.keyEqualTo(Key.builder().partitionValue(chatId).build());
+        }
+
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(queryConditional)
+                .scanIndexForward(false)
+                .limit(limit)
+                .build();
+
+        // Both bounds are exclusive here
+        List<Message> messages = messageTable.query(request)
+                .items()
+                .stream()
+                .filter(message -> (after == null || message.getTimestamp().isAfter(after))
+                        && (before == null || message.getTimestamp().isBefore(before)))
+                .limit(limit)
+                .collect(Collectors.toCollection(ArrayList::new));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Finds the most recent messages of a chat sent after a message and before an instant.
+     * Only as many items as requested are read from the table, plus those of the bounding millisecond.
+     *
+     * @param chatId  the chat ID to find messages for.
+     * @param afterId only messages with a greater ID than this one are returned.
+     * @param before  only messages sent before this instant are returned, or null for no upper bound.
+     * @param limit   the maximum number of messages to return.
+     * @return up to {@code limit} messages closest to {@code before}, sorted by ID in ascending order.
+     */
+    public List<Message> findLatestByChatIdAfterMessage(String chatId, String afterId, Instant before, int limit) {
+        QueryConditional queryConditional = before == null
+                ? QueryConditional.sortGreaterThan(Key.builder().partitionValue(chatId).sortValue(afterId).build())
+                : QueryConditional.sortBetween(
+                        Key.builder().partitionValue(chatId).sortValue(afterId).build(),
+                        Key.builder().partitionValue(chatId).sortValue(MessageIdGenerator.upperBound(before)).build());
+
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(queryConditional)
+                .scanIndexForward(false)
+                .limit(limit)
+                .build();
+
+        // The range condition includes the message itself and the millisecond of the instant
+        List<Message> messages = messageTable.query(request)
+                .items()
+                .stream()
+                .filter(message -> message.getMessageId().compareTo(afterId) > 0
+                        && (before == null || message.getTimestamp().isBefore(before)))
+                .limit(limit)
+                .collect(Collectors.toCollection(ArrayList::new));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Reads one page of the messages of a chat, starting right after a position in the chat.
+     * At most {@code limit} items are read, so the read capacity of a page does not depend on the length of the chat.
+     *
+     * @param chatId         the chat ID to find messages for.
+     * @param exclusiveStart the message ID the page starts after, or null to start at the newest or oldest message.
+     * @param bound          the message ID the page stops before, or null to read up to the end of the chat.
+     * @param newestFirst    true to read towards older messages, false to read towards newer ones.
+     * @param limit          the maximum number of messages to read.
+     * @return up to {@code limit} messages in reading order, flagged if DynamoDB may have more in that direction.
+     */
+    public MessagePage findPageByChatId(String chatId, String exclusiveStart, String bound, boolean newestFirst, int limit) {
+        QueryConditional queryConditional;
+        if (bound == null) {
+            queryConditional = QueryConditional.keyEqualTo(Key.builder().partitionValue(chatId).build());
+        } else if (newestFirst) {
+            queryConditional = QueryConditional.sortGreaterThan(Key.builder().partitionValue(chatId).sortValue(bound).build());
+        } else {
+            queryConditional = QueryConditional.sortLessThan(Key.builder().partitionValue(chatId).sortValue(bound).build());
+        }
+
+        QueryEnhancedRequest.Builder request = QueryEnhancedRequest.builder()
+                .queryConditional(queryConditional)
+                .scanIndexForward(!newestFirst)
+                .limit(limit);
+        if (exclusiveStart != null) {
+            request.exclusiveStartKey(Map.of(
+                    "chatId", AttributeValue.fromS(chatId),
+                    "messageId", AttributeValue.fromS(exclusiveStart)));
+        }
+        Page<Message> page = messageTable.query(request.build()).iterator().next();
+        Map<String, AttributeValue> lastEvaluatedKey = page.lastEvaluatedKey();
+        return new MessagePage(page.items(), lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+    }
+
+    /**
+     * Finds the messages of a chat within a range of sequence numbers.
+     * Only as many items as requested are read from the index.
+     *
+     * @param chatId the chat ID to find messages for.
+     * @param from   the first sequence number to return, inclusive.
+     * @param to     the last sequence number to return, inclusive.
+     * @param limit  the maximum number of messages to return.
+     * @return up to {@code limit} messages starting at {@code from}, sorted by sequence number in ascending order.
+     */
+    public List<Message> findBySequenceRange(String chatId, long from, long to, int limit) {
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.sortBetween(
+                        Key.builder().partitionValue(chatId).sortValue(from).build(),
+                        Key.builder().partitionValue(chatId).sortValue(to).build()))
+                .scanIndexForward(true)
+                .limit(limit)
+                .build();
+
+        return sequenceIndex.query(request)
+                .stream()
+                .flatMap(page -> page.items().stream())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Finds messages for a given chat ID that were sent by specific users.
      *
@@ -103,6 +306,38 @@ public class MessageRepository {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Copies the messages of the legacy table, keyed by timestamp, to the table keyed by message ID.
+     * Messages without a time-ordered ID get one derived from their timestamp and old ID, so copying them
+     * again overwrites the same items. The legacy table is left in place.
+     * <p>
+     * Only messages in the legacy table when the scan reaches them are copied, so during a rolling upgrade it must
+     * run after the last node of the previous version stopped writing there.
+     *
+     * @return the number of messages copied, 0 if there is no legacy table.
+     */
+    public int migrateLegacyMessages() {
+        int migrated = 0;
+        List<Message> batch = new ArrayList<>();
+        try {
+            for (Message message : legacyMessageTable.scan().items()) {
+                if (!MessageIdGenerator.isValid(message.getMessageId())) {
+                    message.setMessageId(MessageIdGenerator.fromLegacy(message.getTimestamp(), message.getMessageId()));
+                }
+                batch.add(message);
+                if (batch.size() == BATCH_WRITE_LIMIT) {
+                    saveAll(batch);
+                    migrated += batch.size();
+                    batch.clear();
+                }
+            }
+        } catch (ResourceNotFoundException e) {
+            return 0;
+        }
+        saveAll(batch);
+        return migrated + batch.size();
+    }
+
     /**
      * Deletes a message from the DynamoDB table by its chat ID and message ID.
      *
@@ -0,0 +1,322 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.achesnokov.demo.chat.model.Message;
+import org.jboss.logging.Logger;
+
+/**
+ * Local write-ahead log of messages that were accepted but are not stored in DynamoDB yet.
+ * <p>
+ * Records are appended to memory-mapped segment files of a fixed size. An append is a memory copy;
+ * the mapped pages survive a crash of the process, and {@link #sync()} forces them to disk, which the
+ * owner calls periodically to batch the fsyncs. Once messages are stored in DynamoDB the owner
+ * {@link #acknowledge acknowledges} the log up to them: the position is written to a checkpoint file
+ * and segments entirely below it are deleted. Opening the log recovers every record after the checkpoint.
+ * <p>
+ * A record is its payload length, a CRC32C of the payload and the payload itself. A zero length marks
+ * the end of the written part of a segment; a record with a bad checksum is a torn write and ends recovery.
+ * Positions are global: segment number times segment size plus the offset within the segment.
+ * <p>
+ * Appends are thread-safe; acknowledgements are expected from a single thread.
+ */
+public final class MessageWriteAheadLog implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(MessageWriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = 8;
+    private static final byte FORMAT_VERSION = 1;
+    private static final long NO_SEQUENCE = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final FileChannel checkpoint;
+    private final List<Entry> recovered;
+
+    private long segmentId;
+    private MappedByteBuffer segment;
+    private int offset;
+    private volatile boolean dirty;
+
+    private MessageWriteAheadLog(Path directory, int segmentBytes, FileChannel checkpoint) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.checkpoint = checkpoint;
+        this.recovered = new ArrayList<>();
+    }
+
+    /**
+     * Opens the log in a directory, recovering the records after the last acknowledged position.
+     *
+     * @param directory the directory of the segment files, created if missing
+     * @param segmentBytes the size of a segment file, which bounds the size of a single record
+     * @return the open log
+     * @throws IOException if the directory or its files cannot be read or written
+     */
+    public static MessageWriteAheadLog open(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096 bytes: " + segmentBytes);
+        }
+        Files.createDirectories(directory);
+        FileChannel checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MessageWriteAheadLog log = new MessageWriteAheadLog(directory, segmentBytes, checkpoint);
+        try {
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            checkpoint.close();
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Gets the records that were written but not acknowledged before the log was opened.
+     *
+     * @return the recovered records in log order
+     */
+    public List<Entry> getRecovered() {
+        return List.copyOf(recovered);
+    }
+
+    /**
+     * Appends a message to the log. The record is durable once the next {@link #sync()} completes.
+     *
+     * @param message the message to append
+     * @return the position right after the record, to be acknowledged once the message is stored
+     * @throws IOException if a new segment file cannot be created
+     * @throws IllegalArgumentException if the message does not fit into a segment
+     */
+    public synchronized long append(Message message) throws IOException {
+        byte[] payload = encode(message);
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (recordBytes > segmentBytes - HEADER_BYTES) {
+            throw new IllegalArgumentException("Message of " + payload.length + " bytes does not fit into a log segment");
+        }
+        // A segment always keeps room for a terminating zero length
+        if (offset + recordBytes > segmentBytes - HEADER_BYTES) {
+            segment.force();
+            openSegment(segmentId + 1);
+            offset = 0;
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        segment.put(offset + HEADER_BYTES, payload);
+        segment.putInt(offset + 4, (int) crc.getValue());
+        // The length goes last, so a record is never visible before its payload
+        segment.putInt(offset, payload.length);
+        offset += recordBytes;
+        dirty = true;
+        return position(segmentId, offset);
+    }
+
+    /**
+     * Forces appended records to disk.
+     */
+    public void sync() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            current = segment;
+        }
+        current.force();
+    }
+
+    /**
+     * Marks the records before a position as stored, so they are not recovered again, and deletes
+     * the segment files that only hold stored records.
+     *
+     * @param position a position returned by {@link #append}
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void acknowledge(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, position);
+        checkpoint.write(buffer, 0);
+        checkpoint.force(false);
+
+        long current;
+        synchronized (this) {
+            current = segmentId;
+        }
+        for (long id : listSegments()) {
+            if (id < current && position(id + 1, 0) <= position) {
+                Files.deleteIfExists(segmentPath(id));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        checkpoint.close();
+    }
+
+    private void recover() throws IOException {
+        long acknowledged = readCheckpoint();
+        List<Long> segments = listSegments();
+        for (long id : segments) {
+            if (position(id + 1, 0) <= acknowledged) {
+                Files.deleteIfExists(segmentPath(id));
+                continue;
+            }
+            openSegment(id);
+            offset = 0;
+            while (true) {
+                int length = segment.getInt(offset);
+                if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                segment.get(offset + HEADER_BYTES, payload);
+                CRC32C crc = new CRC32C();
+                crc.update(payload);
+                if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                    LOGGER.warn("Discarding torn write-ahead log record at " + position(id, offset));
+                    break;
+                }
+                offset += HEADER_BYTES + length;
+                long end = position(id, offset);
+                if (end > acknowledged) {
+                    recovered.add(new Entry(end, decode(payload)));
+                }
+            }
+        }
+        if (segment == null) {
+            openSegment(Math.max(0, acknowledged / segmentBytes));
+            offset = 0;
+        } else if (offset > 0 && segment.getInt(offset) != 0) {
+            // Clears the torn record, so it is not mistaken for the end of a record appended after it
+            segment.putInt(offset, 0);
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(id),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segmentId = id;
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        return checkpoint.read(buffer, 0) == Long.BYTES ? buffer.getLong(0) : 0;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private long position(long id, int segmentOffset) {
+        return id * segmentBytes + segmentOffset;
+    }
+
+    private static byte[] encode(Message message) {
+        byte[] chatId = bytes(message.getChatId());
+        byte[] messageId = bytes(message.getMessageId());
+        byte[] userId = bytes(message.getUserId());
+        byte[] content = bytes(message.getContent());
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 * Integer.BYTES + chatId.length + messageId.length + userId.length
+                + content.length + Long.BYTES + Integer.BYTES + Long.BYTES);
+        buffer.put(FORMAT_VERSION);
+        for (byte[] field : new byte[][] {chatId, messageId, userId, content}) {
+            buffer.putInt(field.length).put(field);
+        }
+        buffer.putLong(message.getTimestamp().getEpochSecond()).putInt(message.getTimestamp().getNano());
+        buffer.putLong(message.getSequence() == null ? NO_SEQUENCE : message.getSequence());
+        return buffer.array();
+    }
+
+    private static Message decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported write-ahead log record version: " + version);
+        }
+        Message message = new Message();
+        message.setChatId(string(buffer));
+        message.setMessageId(string(buffer));
+        message.setUserId(string(buffer));
+        message.setContent(string(buffer));
+        message.setTimestamp(Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()));
+        long sequence = buffer.getLong();
+        message.setSequence(sequence == NO_SEQUENCE ? null : sequence);
+        return message;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A message recovered from the log, with the position to acknowledge once it is stored.
+     */
+    public static final class Entry {
+        private final long position;
+        private final Message message;
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param position the position right after the message's record.
+         * @param message  the message.
+         */
+        public Entry(long position, Message message) {
+            this.position = position;
+            this.message = message;
+        }
+
+        /**
+         * Gets the position right after the message's record.
+         *
+         * @return the position to acknowledge.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Gets the message.
+         *
+         * @return the message.
+         */
+        public Message getMessage() {
+            return message;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.achesnokov.demo.chat.repository;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -9,57 +11,109 @@ import java.util.stream.Collectors;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.model.Username;
+import org.jboss.logging.Logger;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.Expression;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
-import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetItemEnhancedRequest;
 import software.amazon.awssdk.enhanced.dynamodb.model.PutItemEnhancedRequest;
-import software.amazon.awssdk.enhanced.dynamodb.model.ReadBatch;
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactDeleteItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactPutItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactWriteItemsEnhancedRequest;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
 
 /**
  * Repository class for managing User entities in DynamoDB.
  * This class provides methods to save, find, and delete users, as well as find users by username or user IDs.
+ * <p>
+ * Usernames are claimed in the Username table, keyed by the username, in the same transaction that writes the user.
+ * The claim is conditional on the username being free, which makes usernames unique and turns a lookup by
+ * username into two point reads instead of a scan of the User table.
  */
 @ApplicationScoped
 public class UserRepository {
+    private static final Logger LOGGER = Logger.getLogger(UserRepository.class);
+
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
 
     private final DynamoDbEnhancedClient enhancedClient;
     private final DynamoDbTable<User> userTable;
+    private final DynamoDbTable<Username> usernameTable;
+    private final DynamoDbBatchReader batchReader;
 
     /**
      * Constructs a UserRepository with the given DynamoDB client.
      *
      * @param dynamoDbClient the DynamoDB client to be used for data access.
+     * @param batchReader the reader of multiple users.
      */
     @Inject
-    public UserRepository(DynamoDbClient dynamoDbClient) {
+    public UserRepository(DynamoDbClient dynamoDbClient, DynamoDbBatchReader batchReader) {
+        this.batchReader = batchReader;
         this.enhancedClient = DynamoDbEnhancedClient.builder()
                 .dynamoDbClient(dynamoDbClient)
                 .build();
         this.userTable = enhancedClient.table("User", TableSchema.fromBean(User.class));
+        this.usernameTable = enhancedClient.table("Username", TableSchema.fromBean(Username.class));
     }
 
     /**
      * Saves a user entity to the DynamoDB table.
+     * A new user claims its username in the same transaction; a renamed user claims the new username
+     * and releases the previous one.
      *
      * @param user the User entity to be saved.
      * @throws IllegalArgumentException if the username already exists.
+     * @throws IllegalStateException if the user was renamed or created concurrently.
      */
     public void save(User user) {
-        PutItemEnhancedRequest<User> putRequest = PutItemEnhancedRequest.builder(User.class)
-                .item(user)
-                .conditionExpression(Expression.builder()
-                        .expression("attribute_not_exists(userName)")
+        Objects.requireNonNull(user.getUsername(), "Username must not be null");
+        User existing = findById(user.getUserId());
+        if (existing != null && Objects.equals(existing.getUsername(), user.getUsername())) {
+            userTable.putItem(PutItemEnhancedRequest.builder(User.class)
+                    .item(user)
+                    .conditionExpression(usernameIs(existing.getUsername()))
+                    .build());
+            return;
+        }
+
+        TransactWriteItemsEnhancedRequest.Builder transaction = TransactWriteItemsEnhancedRequest.builder()
+                .addPutItem(usernameTable, TransactPutItemEnhancedRequest.builder(Username.class)
+                        .item(claimOf(user))
+                        .conditionExpression(Expression.builder()
+                                .expression("attribute_not_exists(#username)")
+                                .putExpressionName("#username", "username")
+                                .build())
                         .build())
-                .build();
+                .addPutItem(userTable, TransactPutItemEnhancedRequest.builder(User.class)
+                        .item(user)
+                        .conditionExpression(existing == null
+                                ? Expression.builder().expression("attribute_not_exists(userId)").build()
+                                : usernameIs(existing.getUsername()))
+                        .build());
+        if (existing != null && existing.getUsername() != null) {
+            transaction.addDeleteItem(usernameTable, TransactDeleteItemEnhancedRequest.builder()
+                    .key(Key.builder().partitionValue(existing.getUsername()).build())
+                    .build());
+        }
 
         try {
-            userTable.putItem(putRequest);
-        } catch (ConditionalCheckFailedException e) {
-            throw new IllegalArgumentException("Username already exists: " + user.getUsername());
+            enhancedClient.transactWriteItems(transaction.build());
+        } catch (TransactionCanceledException e) {
+            List<CancellationReason> reasons = e.cancellationReasons();
+            if (!reasons.isEmpty() && CONDITIONAL_CHECK_FAILED.equals(reasons.get(0).code())) {
+                throw new IllegalArgumentException("Username already exists: " + user.getUsername());
+            }
+            if (reasons.size() > 1 && CONDITIONAL_CHECK_FAILED.equals(reasons.get(1).code())) {
+                throw new IllegalStateException("User was modified concurrently: " + user.getUserId());
+            }
+            throw e;
         }
     }
 
@@ -84,22 +138,9 @@ public class UserRepository {
             return Collections.emptySet();
         }
 
-        ReadBatch.Builder<User> userReadBatchBuilder = ReadBatch.builder(User.class)
-                .mappedTableResource(userTable);
-
-        userIds.stream()
-                .distinct()
-                .forEach(userId -> userReadBatchBuilder
-                        .addGetItem(r -> r.key(k -> k.partitionValue(userId))));
-
-        BatchGetItemEnhancedRequest batchGetItemRequest = BatchGetItemEnhancedRequest.builder()
-                .addReadBatch(userReadBatchBuilder.build())
-                .build();
-
-        return enhancedClient.batchGetItem(batchGetItemRequest)
-                .resultsForTable(userTable)
-                .stream()
-                .collect(Collectors.toSet());
+        return new HashSet<>(batchReader.read(userTable, userIds.stream()
+                .map(userId -> Key.builder().partitionValue(userId).build())
+                .collect(Collectors.toList())));
     }
 
     /**
@@ -118,18 +159,76 @@ public class UserRepository {
      * @return an Optional containing the User entity, or empty if not found.
      */
     public Optional<User> findByUsername(String username) {
-        // Using scan to find user by username
-        return userTable.scan().items().stream()
-                .filter(user -> user.getUsername().equals(username))
-                .findFirst();
+        Username claim = usernameTable.getItem(r -> r.key(k -> k.partitionValue(username)));
+        if (claim == null) {
+            return Optional.empty();
+        }
+        // A claim outlives its user only if the user was removed outside this repository
+        return Optional.ofNullable(findById(claim.getUserId()))
+                .filter(user -> username.equals(user.getUsername()));
     }
 
     /**
-     * Deletes a user from the DynamoDB table by their user ID.
+     * Deletes a user from the DynamoDB table by their user ID and releases their username.
      *
      * @param userId the user ID of the entity to be deleted.
      */
     public void delete(String userId) {
-        userTable.deleteItem(r -> r.key(k -> k.partitionValue(userId)));
+        User user = findById(userId);
+        if (user == null || user.getUsername() == null) {
+            userTable.deleteItem(r -> r.key(k -> k.partitionValue(userId)));
+            return;
+        }
+        enhancedClient.transactWriteItems(TransactWriteItemsEnhancedRequest.builder()
+                .addDeleteItem(userTable, Key.builder().partitionValue(userId).build())
+                .addDeleteItem(usernameTable, Key.builder().partitionValue(user.getUsername()).build())
+                .build());
+    }
+
+    /**
+     * Claims the usernames of users saved before usernames were indexed.
+     * Users sharing a username keep the first claim; the others are logged and can no longer be found by username.
+     *
+     * @return the number of users holding the claim of their username.
+     */
+    public int backfillUsernames() {
+        int claimed = 0;
+        for (User user : userTable.scan().items()) {
+            if (user.getUsername() == null) {
+                continue;
+            }
+            try {
+                usernameTable.putItem(PutItemEnhancedRequest.builder(Username.class)
+                        .item(claimOf(user))
+                        .conditionExpression(Expression.builder()
+                                .expression("attribute_not_exists(#username) OR userId = :userId")
+                                .putExpressionName("#username", "username")
+                                .putExpressionValue(":userId", AttributeValue.fromS(user.getUserId()))
+                                .build())
+                        .build());
+                claimed++;
+            } catch (ConditionalCheckFailedException e) {
+                LOGGER.warn("Username " + user.getUsername() + " of user " + user.getUserId() + " is claimed by another user");
+            }
+        }
+        return claimed;
+    }
+
+    private static Username claimOf(User user) {
+        Username claim = new Username();
+        claim.setUsername(user.getUsername());
+        claim.setUserId(user.getUserId());
+        return claim;
+    }
+
+    private static Expression usernameIs(String username) {
+        return username == null
+                ? Expression.builder().expression("attribute_not_exists(#username)")
+                        .putExpressionName("#username", "username")
+                        .build()
+                : Expression.builder().expression("#username = :username")
+                        .putExpressionName("#username", "username")
+                        .putExpressionValue(":username", AttributeValue.fromS(username))
+                        .build();
     }
 }
@@ -37,6 +37,9 @@ public class AuthService {
     @Inject
     UserRepository userRepository;
 
+    @Inject
+    SessionAuthorizationCache sessionAuthorizationCache;
+
     private static final long EXPIRATION_TIME = 86400000;
 
     /**
@@ -89,6 +92,7 @@ public class AuthService {
 
     /**
      * Retrieves the currently authenticated user.
+     * Served from the identity cache, since nearly every REST endpoint resolves the caller.
      *
      * @return an Optional containing the current user, or an empty Optional if no user is authenticated
      */
@@ -96,7 +100,7 @@ public class AuthService {
         return Optional
                 .ofNullable(securityIdentity.getPrincipal())
                 .map(Principal::getName)
-                .flatMap(username -> userRepository.findByUsername(username));
+                .flatMap(sessionAuthorizationCache::findUserByUsername);
     }
 
     /**
@@ -0,0 +1,38 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.function.Consumer;
+
+import org.achesnokov.demo.chat.model.OutboundFrame;
+
+/**
+ * Publish/subscribe channel that carries chat frames between backend nodes.
+ * A node publishes every frame of a chat to the bus and subscribes only to the chats
+ * it currently has local sessions for; the bus delivers a published frame to every subscribed node,
+ * including the publishing one.
+ */
+public interface ChatBroadcastBus {
+
+    /**
+     * Publishes a frame to all nodes subscribed to the chat.
+     *
+     * @param chatId the ID of the chat
+     * @param frame the encoded frame
+     */
+    void publish(String chatId, OutboundFrame frame);
+
+    /**
+     * Subscribes this node to a chat. A node holds at most one subscription per chat,
+     * a repeated subscription replaces the listener.
+     *
+     * @param chatId the ID of the chat
+     * @param listener the listener receiving frames published to the chat
+     */
+    void subscribe(String chatId, Consumer<OutboundFrame> listener);
+
+    /**
+     * Cancels the subscription of this node to a chat.
+     *
+     * @param chatId the ID of the chat
+     */
+    void unsubscribe(String chatId);
+}
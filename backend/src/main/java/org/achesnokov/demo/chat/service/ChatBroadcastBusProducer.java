@@ -0,0 +1,78 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Optional;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Disposes;
+import jakarta.enterprise.inject.Produces;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Produces the {@link ChatBroadcastBus} implementation selected by configuration.
+ * <ul>
+ *     <li>{@code in-memory} (default) - single node, frames never leave the JVM.</li>
+ *     <li>{@code tcp} - nodes exchange frames directly over TCP, see {@link TcpChatBroadcastBus}.</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class ChatBroadcastBusProducer {
+    private static final Logger LOGGER = Logger.getLogger(ChatBroadcastBusProducer.class);
+
+    @ConfigProperty(name = "org.achesnokov.demo.chat.broadcast_bus", defaultValue = "in-memory")
+    String busType;
+
+    @ConfigProperty(name = "org.achesnokov.demo.chat.broadcast_bus_host", defaultValue = "127.0.0.1")
+    String busHost;
+
+    @ConfigProperty(name = "org.achesnokov.demo.chat.broadcast_bus_port", defaultValue = "7700")
+    int busPort;
+
+    @ConfigProperty(name = "org.achesnokov.demo.chat.broadcast_bus_peers")
+    Optional<List<String>> busPeers;
+
+    @Produces
+    @ApplicationScoped
+    ChatBroadcastBus chatBroadcastBus(MeterRegistry meterRegistry) {
+        switch (busType) {
+            case "in-memory":
+                return new InMemoryChatBroadcastBus();
+            case "tcp":
+                return createTcpBus(meterRegistry);
+            default:
+                throw new IllegalArgumentException("Unknown broadcast bus: " + busType);
+        }
+    }
+
+    void closeChatBroadcastBus(@Disposes ChatBroadcastBus chatBroadcastBus) {
+        if (chatBroadcastBus instanceof TcpChatBroadcastBus tcpBus) {
+            tcpBus.close();
+        }
+    }
+
+    private TcpChatBroadcastBus createTcpBus(MeterRegistry meterRegistry) {
+        Timer deliveryTimer = Timer.builder("chat.bus.delivery")
+                .description("Time between publishing a frame on a peer node and receiving it on this node")
+                .register(meterRegistry);
+        try {
+            TcpChatBroadcastBus bus = new TcpChatBroadcastBus(InetAddress.getByName(busHost), busPort, deliveryTimer);
+            busPeers.orElse(List.of()).forEach(peer -> {
+                int separator = peer.lastIndexOf(':');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Broadcast bus peer must be host:port, got: " + peer);
+                }
+                bus.connect(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1)));
+            });
+            LOGGER.info("TCP broadcast bus listening on " + busHost + ":" + bus.getPort() + ", peers: " + busPeers.orElse(List.of()));
+            return bus;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start TCP broadcast bus on port " + busPort, e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.JsonObject;
+import org.achesnokov.demo.chat.model.FrameEncoding;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Service class for delivering frames to WebSocket sessions.
+ * A broadcast message is encoded once and the resulting frame is reused for every recipient.
+ * Registered sessions get a bounded outbound queue, so a slow consumer cannot pile up pending writes.
+ * Frames are written as JSON text or CBOR binary messages, depending on the subprotocol negotiated by the session.
+ */
+@ApplicationScoped
+public class ChatBroadcaster {
+    private static final Logger LOGGER = Logger.getLogger(ChatBroadcaster.class);
+
+    private final Timer encodeTimer;
+    private final Timer sendTimer;
+    private final DistributionSummary recipientsSummary;
+    private final SessionOutbox.Metrics outboxMetrics;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final OutboxOverflowPolicy overflowPolicy;
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for ChatBroadcaster.
+     *
+     * @param meterRegistry the registry broadcast metrics are published to
+     * @param highWatermark the queue depth at which a session is treated as a slow consumer
+     * @param lowWatermark the queue depth a slow consumer has to drain to before it is treated as healthy again
+     * @param overflowPolicy what to do with a slow consumer's queue when it reaches the high watermark
+     */
+    @Inject
+    public ChatBroadcaster(MeterRegistry meterRegistry,
+                           @ConfigProperty(name = "org.achesnokov.demo.chat.outbox_high_watermark", defaultValue = "256") int highWatermark,
+                           @ConfigProperty(name = "org.achesnokov.demo.chat.outbox_low_watermark", defaultValue = "64") int lowWatermark,
+                           @ConfigProperty(name = "org.achesnokov.demo.chat.outbox_overflow_policy", defaultValue = "DROP_OLDEST") OutboxOverflowPolicy overflowPolicy) {
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high: " + lowWatermark + ", " + highWatermark);
+        }
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.overflowPolicy = overflowPolicy;
+        this.outboxMetrics = new SessionOutbox.Metrics(meterRegistry);
+        this.encodeTimer = Timer.builder("chat.broadcast.encode")
+                .description("Time spent encoding a broadcast message into a frame")
+                .register(meterRegistry);
+        this.sendTimer = Timer.builder("chat.broadcast.send")
+                .description("Time spent handing a broadcast frame over to all recipient sessions")
+                .register(meterRegistry);
+        this.recipientsSummary = DistributionSummary.builder("chat.broadcast.recipients")
+                .description("Number of sessions a broadcast frame is sent to")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Creates the bounded outbound queue of a session. Frames sent to unregistered sessions are written directly.
+     *
+     * @param session the session to register
+     * @return the outbound queue of the session
+     */
+    public SessionOutbox register(ChatConnection session) {
+        return outboxes.computeIfAbsent(session.getId(),
+                id -> new SessionOutbox(session, highWatermark, lowWatermark, overflowPolicy, outboxMetrics));
+    }
+
+    /**
+     * Discards the outbound queue of a session.
+     *
+     * @param session the session to unregister
+     */
+    public void unregister(ChatConnection session) {
+        SessionOutbox outbox = outboxes.remove(session.getId());
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Gets the number of frames waiting to be sent to a session.
+     *
+     * @param session the session
+     * @return the queue depth, or 0 if the session is not registered
+     */
+    public int getQueueDepth(ChatConnection session) {
+        SessionOutbox outbox = outboxes.get(session.getId());
+        return outbox == null ? 0 : outbox.getDepth();
+    }
+
+    /**
+     * Sends a message to a single session.
+     *
+     * @param session the recipient session
+     * @param message the message to send
+     */
+    public void send(ChatConnection session, JsonObject message) {
+        send(session, OutboundFrame.of(message));
+    }
+
+    /**
+     * Sends an already encoded frame to a single session.
+     *
+     * @param session the recipient session
+     * @param frame the frame to send
+     */
+    public void send(ChatConnection session, OutboundFrame frame) {
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox != null) {
+            outbox.enqueue(frame);
+            return;
+        }
+
+        SessionOutbox.send(session, FrameEncoding.fromSubprotocol(session.getSubprotocol()), frame, failure -> {
+            if (failure != null) {
+                LOGGER.error("Error sending message to client: " + session.getId(), failure);
+            }
+        });
+    }
+
+    /**
+     * Encodes a message into a frame that can be shared by any number of sessions.
+     *
+     * @param message the message to encode
+     * @param coalesceKey the coalesce key of the frame, or null if it must never be coalesced.
+     *                    A frame still queued for a slow consumer is replaced by a newer frame with the same key.
+     * @return the encoded frame
+     */
+    public OutboundFrame encode(JsonObject message, String coalesceKey) {
+        return encodeTimer.record(() -> OutboundFrame.of(message, coalesceKey));
+    }
+
+    /**
+     * Sends the same encoded frame to every given session.
+     *
+     * @param sessions the recipient sessions
+     * @param frame the frame to broadcast
+     */
+    public void broadcast(Collection<ChatConnection> sessions, OutboundFrame frame) {
+        if (sessions.isEmpty()) {
+            return;
+        }
+
+        sendTimer.record(() -> sessions.forEach(session -> send(session, frame)));
+        recipientsSummary.record(sessions.size());
+    }
+
+    /**
+     * Sends the same encoded frame to every given registered session, straight to the
+     * outbound queue held by its context.
+     *
+     * @param members the recipient sessions
+     * @param frame the frame to broadcast
+     */
+    public void deliver(List<SessionContext> members, OutboundFrame frame) {
+        if (members.isEmpty()) {
+            return;
+        }
+
+        sendTimer.record(() -> {
+            for (int i = 0; i < members.size(); i++) {
+                SessionContext member = members.get(i);
+                SessionOutbox outbox = member.getOutbox();
+                if (outbox != null) {
+                    outbox.enqueue(frame);
+                } else {
+                    send(member.getSession(), frame);
+                }
+            }
+        });
+        recipientsSummary.record(members.size());
+    }
+}
@@ -0,0 +1,120 @@
+package org.achesnokov.demo.chat.service;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+/**
+ * A client connection to one of the chat's WebSocket endpoints, reduced to what the chat services use.
+ * Each WebSocket stack adapts its own connection type to it, so the Jakarta and the WebSockets Next
+ * endpoints share the protocol, the session registry, the outbound queues and the heartbeat.
+ * <p>
+ * Sends never block: they report completion to a callback, which may run on the calling thread
+ * before the send returns.
+ */
+public interface ChatConnection {
+
+    /**
+     * Close code of a connection closed by the server, e.g. after it stopped answering.
+     */
+    int GOING_AWAY = 1001;
+
+    /**
+     * Close code of a connection that violated the server's policy, e.g. failed to authenticate.
+     */
+    int VIOLATED_POLICY = 1008;
+
+    /**
+     * Close code of a connection the server cannot serve right now, e.g. a slow consumer.
+     */
+    int TRY_AGAIN_LATER = 1013;
+
+    /**
+     * Gets the ID of the connection, unique among the open connections of this node.
+     *
+     * @return the connection ID
+     */
+    String getId();
+
+    /**
+     * Gets the token the client authenticated with.
+     *
+     * @return the validated token, or null if the connection is not authenticated yet
+     */
+    JsonWebToken getToken();
+
+    /**
+     * Gets the state of the session attached by {@link SessionRegistry#register}.
+     *
+     * @return the context, or null if the session was never registered
+     */
+    SessionContext getContext();
+
+    /**
+     * Attaches the state of the session to the connection.
+     *
+     * @param context the context
+     */
+    void setContext(SessionContext context);
+
+    /**
+     * Gets the query parameters of the handshake request.
+     *
+     * @return the decoded parameters by name, empty if there are none
+     */
+    Map<String, List<String>> getRequestParameters();
+
+    /**
+     * Gets the subprotocol negotiated during the handshake.
+     *
+     * @return the subprotocol, or an empty string if none was negotiated
+     */
+    String getSubprotocol();
+
+    /**
+     * Sends a text message.
+     *
+     * @param text the message
+     * @param callback notified once the message is written or the write failed
+     */
+    void sendText(String text, SendCallback callback);
+
+    /**
+     * Sends a binary message.
+     *
+     * @param data the message, read from its position to its limit
+     * @param callback notified once the message is written or the write failed
+     */
+    void sendBinary(ByteBuffer data, SendCallback callback);
+
+    /**
+     * Sends a ping without waiting for it to be written.
+     *
+     * @param data the application data of the ping
+     */
+    void sendPing(ByteBuffer data);
+
+    /**
+     * Starts the close handshake. Failures are logged, a connection that cannot be closed is already gone.
+     *
+     * @param code the close code
+     * @param reason the reason sent to the client
+     */
+    void close(int code, String reason);
+
+    /**
+     * Completion callback of a send.
+     */
+    @FunctionalInterface
+    interface SendCallback {
+
+        /**
+         * Called once the send completed.
+         *
+         * @param failure the cause of a failed send, or null if the message was written
+         */
+        void onComplete(Throwable failure);
+    }
+}
@@ -0,0 +1,202 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Merges frames of busy chats into batch frames before they are fanned out to the chat's sessions.
+ * <p>
+ * A frame arriving for an idle chat is delivered immediately and opens a batching window;
+ * frames arriving while the window is open are collected and delivered as one batch frame
+ * when the window closes or the batch is full. A window that closes without collected frames
+ * makes the chat idle again, so quiet chats see no added latency.
+ * Batching is disabled when the window is 0.
+ */
+@ApplicationScoped
+public class ChatFrameBatcher {
+    private static final Logger LOGGER = Logger.getLogger(ChatFrameBatcher.class);
+
+    private final long windowMillis;
+    private final int maxMessages;
+    private final Map<String, ChatBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter batchFrames;
+    private final DistributionSummary batchSize;
+
+    /**
+     * Constructor for ChatFrameBatcher.
+     *
+     * @param meterRegistry the registry batching metrics are published to
+     * @param windowMillis how long frames of a busy chat are collected before they are delivered, 0 disables batching
+     * @param maxMessages the number of collected frames that triggers delivery before the window closes
+     */
+    @Inject
+    public ChatFrameBatcher(MeterRegistry meterRegistry,
+                            @ConfigProperty(name = "org.achesnokov.demo.chat.batch_window_ms", defaultValue = "0") long windowMillis,
+                            @ConfigProperty(name = "org.achesnokov.demo.chat.batch_max_messages", defaultValue = "32") int maxMessages) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Batch window must not be negative: " + windowMillis);
+        }
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxMessages);
+        }
+        this.windowMillis = windowMillis;
+        this.maxMessages = maxMessages;
+        this.scheduler = windowMillis == 0 ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-batch-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchFrames = Counter.builder("chat.batch.frames")
+                .description("Batch frames delivered to chats")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chat.batch.size")
+                .description("Number of messages merged into a batch frame")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Checks whether frames are batched at all.
+     *
+     * @return true if the batching window is positive
+     */
+    public boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    /**
+     * Hands a frame of a chat over for delivery. Frames of the same chat are delivered in submission order.
+     *
+     * @param chatId the chat the frame belongs to
+     * @param frame the frame to deliver
+     * @param delivery delivers a single or batch frame to the chat's sessions
+     */
+    public void submit(String chatId, OutboundFrame frame, Consumer<OutboundFrame> delivery) {
+        if (!isEnabled()) {
+            delivery.accept(frame);
+            return;
+        }
+
+        while (true) {
+            ChatBatch batch = batches.computeIfAbsent(chatId, id -> new ChatBatch(id, delivery));
+            synchronized (batch) {
+                if (!batch.retired) {
+                    batch.add(frame);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops collected frames of a chat that has no sessions left.
+     *
+     * @param chatId the chat ID
+     */
+    public void discard(String chatId) {
+        ChatBatch batch = batches.remove(chatId);
+        if (batch != null) {
+            synchronized (batch) {
+                batch.retired = true;
+                batch.pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the flush timer.
+     */
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Batching state of a single chat. Delivery happens while holding the batch's lock,
+     * so frames of a chat are never reordered between the submitting threads and the flush timer.
+     */
+    private final class ChatBatch {
+        private final String chatId;
+        private final Consumer<OutboundFrame> delivery;
+        private final List<OutboundFrame> pending = new ArrayList<>();
+        private boolean windowOpen;
+        private boolean retired;
+
+        ChatBatch(String chatId, Consumer<OutboundFrame> delivery) {
+            this.chatId = chatId;
+            this.delivery = Objects.requireNonNull(delivery, "Delivery must not be null");
+        }
+
+        void add(OutboundFrame frame) {
+            if (!windowOpen) {
+                deliver(frame);
+                openWindow();
+                return;
+            }
+
+            pending.add(frame);
+            if (pending.size() >= maxMessages) {
+                flush();
+            }
+        }
+
+        void closeWindow() {
+            synchronized (this) {
+                if (retired) {
+                    return;
+                }
+                if (pending.isEmpty()) {
+                    windowOpen = false;
+                    retired = true;
+                    batches.remove(chatId, this);
+                    return;
+                }
+                flush();
+                openWindow();
+            }
+        }
+
+        private void openWindow() {
+            windowOpen = true;
+            scheduler.schedule(this::closeWindow, windowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void flush() {
+            if (pending.size() == 1) {
+                deliver(pending.get(0));
+            } else {
+                batchFrames.increment();
+                batchSize.record(pending.size());
+                deliver(OutboundFrame.ofBatch(pending));
+            }
+            pending.clear();
+        }
+
+        private void deliver(OutboundFrame frame) {
+            try {
+                delivery.accept(frame);
+            } catch (RuntimeException e) {
+                LOGGER.error("Error delivering frame to chat: " + chatId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Single writer of every chat: posting a message numbers it, stores it and publishes it in one task
+ * of the chat's lane, so all sessions receive a chat's messages in the order they were numbered.
+ * <p>
+ * A lane is a lock-free multi-producer queue drained by at most one pool thread at a time. Lanes of
+ * different chats are drained in parallel, and a lane that runs empty is released, so only chats with
+ * messages in flight hold one. The ordering holds per node; nodes share the sequence counter but
+ * publish independently.
+ */
+@ApplicationScoped
+public class ChatSequencer {
+    private static final Logger LOGGER = Logger.getLogger(ChatSequencer.class);
+
+    /**
+     * Maximum number of tasks a lane drains in one go before yielding its thread,
+     * so that a busy chat cannot starve the others.
+     */
+    private static final int MAX_TASKS_PER_TURN = 64;
+
+    /**
+     * Pending task count of a lane that was released; producers must create a new lane.
+     */
+    private static final int RELEASED = -1;
+
+    private final Executor executor;
+    private final ExecutorService ownedPool;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for ChatSequencer.
+     *
+     * @param threads the number of threads draining chat lanes
+     * @param executionMode virtual threads drain every lane turn on its own virtual thread
+     * @param meterRegistry the registry sequencer metrics are published to
+     */
+    @Inject
+    public ChatSequencer(@ConfigProperty(name = "org.achesnokov.demo.chat.sequencer_threads", defaultValue = "16") int threads,
+                         @ConfigProperty(name = "org.achesnokov.demo.chat.websocket_execution_mode", defaultValue = "WORKER_POOL") WebSocketExecutionMode executionMode,
+                         MeterRegistry meterRegistry) {
+        this(newPool(threads, executionMode));
+        Gauge.builder("chat.sequencer.lanes", lanes, Map::size)
+                .description("Chats with messages being sequenced")
+                .register(meterRegistry);
+    }
+
+    ChatSequencer(ExecutorService pool) {
+        this.executor = pool;
+        this.ownedPool = pool;
+    }
+
+    ChatSequencer(Executor executor) {
+        this.executor = executor;
+        this.ownedPool = null;
+    }
+
+    /**
+     * Schedules a task in a chat's lane. Tasks of the same chat never run concurrently and run in
+     * the order they were submitted; tasks of different chats run in parallel.
+     *
+     * @param chatId the ID of the chat
+     * @param task the task to execute
+     */
+    public void execute(String chatId, Runnable task) {
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(chatId, Lane::new);
+            if (lane.offer(task)) {
+                return;
+            }
+            // Released concurrently, the next lookup creates a new lane
+            lanes.remove(chatId, lane);
+        }
+    }
+
+    /**
+     * Gets the timestamp of a new message of a chat. Within a lane timestamps strictly increase,
+     * even when two messages are posted within the clock's resolution; the IDs of messages are derived from them.
+     * Must be called from a task of the chat.
+     *
+     * @param chatId the ID of the chat
+     * @return the timestamp
+     */
+    public Instant nextTimestamp(String chatId) {
+        Instant now = Instant.now();
+        Lane lane = lanes.get(chatId);
+        if (lane == null) {
+            return now;
+        }
+        if (lane.lastTimestamp != null && !now.isAfter(lane.lastTimestamp)) {
+            now = lane.lastTimestamp.plusNanos(1);
+        }
+        lane.lastTimestamp = now;
+        return now;
+    }
+
+    /**
+     * Returns the number of chats that currently hold a lane.
+     *
+     * @return the number of active lanes
+     */
+    public int getActiveChatCount() {
+        return lanes.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (ownedPool == null) {
+            return;
+        }
+        ownedPool.shutdown();
+        try {
+            if (!ownedPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                ownedPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            ownedPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newPool(int threads, WebSocketExecutionMode executionMode) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Sequencer thread count must be positive: " + threads);
+        }
+        ExecutorService virtualThreads = executionMode == WebSocketExecutionMode.VIRTUAL_THREADS
+                ? WebSocketExecutor.newVirtualThreadExecutor() : null;
+        return virtualThreads != null ? virtualThreads : Executors.newFixedThreadPool(threads, new SequencerThreadFactory());
+    }
+
+    /**
+     * Queue of one chat's tasks. The pending count is raised before a task is queued and lowered after it ran;
+     * the producer raising it from zero schedules the drain, and the drain releases the lane when it drops
+     * back to zero. A released lane refuses further tasks.
+     */
+    private final class Lane {
+        private final String chatId;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        // Only touched by the task running in the lane
+        private Instant lastTimestamp;
+
+        private Lane(String chatId) {
+            this.chatId = chatId;
+        }
+
+        boolean offer(Runnable task) {
+            int count;
+            do {
+                count = pending.get();
+                if (count == RELEASED) {
+                    return false;
+                }
+            } while (!pending.compareAndSet(count, count + 1));
+            tasks.add(task);
+            if (count == 0) {
+                executor.execute(this::drain);
+            }
+            return true;
+        }
+
+        private void drain() {
+            boolean drained = false;
+            try {
+                for (int executed = 0; executed < MAX_TASKS_PER_TURN && !drained; executed++) {
+                    Runnable task;
+                    // A producer raises the count before queueing its task, so it may not be visible yet
+                    while ((task = tasks.poll()) == null) {
+                        Thread.onSpinWait();
+                    }
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        LOGGER.error("Unhandled error in chat sequencer task of chat: " + chatId, e);
+                    } finally {
+                        // Counted even when the task threw an error, or the lane would never be drained again
+                        drained = pending.decrementAndGet() == 0;
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    executor.execute(this::drain);
+                } else if (pending.compareAndSet(0, RELEASED)) {
+                    lanes.remove(chatId, this);
+                }
+                // Otherwise a producer raised the count from zero and scheduled a new drain
+            }
+        }
+    }
+
+    private static final class SequencerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chat-sequencer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -25,6 +25,7 @@ public class ChatService {
     private final ChatRepository chatRepository;
     private final UserRepository userRepository;
     private final ChatParticipantRepository chatParticipantRepository;
+    private final SessionAuthorizationCache sessionAuthorizationCache;
 
     /**
      * Constructor for ChatService.
@@ -32,12 +33,15 @@ public class ChatService {
      * @param chatRepository the chat repository
      * @param userRepository the user repository
      * @param chatParticipantRepository the chat participant repository
+     * @param sessionAuthorizationCache the cache of memberships checked when WebSocket sessions join chats
      */
     @Inject
-    public ChatService(ChatRepository chatRepository, UserRepository userRepository, ChatParticipantRepository chatParticipantRepository) {
+    public ChatService(ChatRepository chatRepository, UserRepository userRepository, ChatParticipantRepository chatParticipantRepository,
+                       SessionAuthorizationCache sessionAuthorizationCache) {
         this.chatRepository = chatRepository;
         this.userRepository = userRepository;
         this.chatParticipantRepository = chatParticipantRepository;
+        this.sessionAuthorizationCache = sessionAuthorizationCache;
     }
 
     /**
@@ -173,6 +177,7 @@ public class ChatService {
         chatParticipant.setLeftAt(null);
 
         chatParticipantRepository.save(chatParticipant);
+        sessionAuthorizationCache.invalidateParticipant(chat.getChatId(), userId);
         return Optional.of(chatParticipant);
     }
 
@@ -190,6 +195,7 @@ public class ChatService {
                 .ifPresent(participant -> {
                     participant.setLeftAt(Instant.now());
                     chatParticipantRepository.save(participant);
+                    sessionAuthorizationCache.invalidateParticipant(chatId, userId);
                 });
     }
 }
@@ -0,0 +1,633 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonException;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessagePage;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.jboss.logging.Logger;
+
+/**
+ * Service class implementing the chat protocol spoken over WebSocket sessions.
+ * It is shared by the per-chat endpoint and the multiplexed per-user endpoint:
+ * the former binds every command to the chat in its path, the latter expects
+ * a {@code chatId} in every command and lets the client subscribe to chats.
+ * <p>
+ * Every chat message carries its per-chat sequence number {@code seq}. Clients may acknowledge
+ * the highest sequence number they received without gaps, and fill gaps with a {@code resync}
+ * command asking for a sequence range instead of reloading the history.
+ */
+@ApplicationScoped
+public class ChatSessionService {
+    private static final Logger LOGGER = Logger.getLogger(ChatSessionService.class);
+
+    /**
+     * Upper bound for the {@code limit} a client may ask for, so a single frame stays reasonably small.
+     */
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
+
+    private enum MessageType {
+        SYSTEM, MESSAGE, ERROR, HISTORY, RESYNC
+    }
+
+    private final ChatService chatService;
+    private final SessionAuthorizationCache sessionAuthorizationCache;
+    private final MessageService messageService;
+    private final ChatBroadcaster chatBroadcaster;
+    private final ChatBroadcastBus chatBroadcastBus;
+    private final SessionRegistry sessionRegistry;
+    private final PresenceService presenceService;
+    private final HeartbeatService heartbeatService;
+    private final ChatSequencer chatSequencer;
+    private final RateLimiter rateLimiter;
+    private final int historyPageSize;
+
+    /**
+     * Constructor for ChatSessionService.
+     *
+     * @param chatService the chat service
+     * @param sessionAuthorizationCache the cache of identity and membership lookups
+     * @param messageService the message service
+     * @param chatBroadcaster the broadcaster delivering frames to sessions
+     * @param chatBroadcastBus the bus chat frames are published to
+     * @param sessionRegistry the registry of local sessions
+     * @param presenceService the service tracking online and typing members
+     * @param heartbeatService the service evicting sessions that stopped answering
+     * @param chatSequencer the single writer numbering, storing and publishing the messages of each chat
+     * @param rateLimiter the limiter of incoming messages per user and chat
+     * @param historyPageSize the number of messages in a history page, unless the client asks for a different limit
+     */
+    @Inject
+    public ChatSessionService(ChatService chatService, SessionAuthorizationCache sessionAuthorizationCache, MessageService messageService,
+                              ChatBroadcaster chatBroadcaster, ChatBroadcastBus chatBroadcastBus, SessionRegistry sessionRegistry,
+                              PresenceService presenceService, HeartbeatService heartbeatService, ChatSequencer chatSequencer,
+                              RateLimiter rateLimiter,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.history_page_size", defaultValue = "50") int historyPageSize) {
+        this.chatService = chatService;
+        this.sessionAuthorizationCache = sessionAuthorizationCache;
+        this.messageService = messageService;
+        this.chatBroadcaster = chatBroadcaster;
+        this.chatBroadcastBus = chatBroadcastBus;
+        this.sessionRegistry = sessionRegistry;
+        this.presenceService = presenceService;
+        this.heartbeatService = heartbeatService;
+        this.chatSequencer = chatSequencer;
+        this.rateLimiter = rateLimiter;
+        this.historyPageSize = historyPageSize;
+    }
+
+    /**
+     * Resolves the user of a session from the JWT validated during the handshake and registers the session.
+     *
+     * @param session the session being opened
+     * @return the authenticated user
+     * @throws IllegalStateException if the user does not exist
+     */
+    public User authenticate(ChatConnection session) {
+        User user = resolveUser(session);
+        register(session, user);
+        return user;
+    }
+
+    /**
+     * Opens a session bound to a single chat: resolves its user, checks that the user participates in the chat,
+     * and only then registers the session and joins it to the chat. A session of a non participant is never
+     * registered, so frames queued behind a rejected open cannot act on its behalf.
+     *
+     * @param session the session being opened
+     * @param chatId the ID of the chat the session is bound to
+     * @return the authenticated user
+     * @throws IllegalStateException if the user does not exist or is not a participant of the chat
+     */
+    public User open(ChatConnection session, String chatId) {
+        User user = resolveUser(session);
+        if (!sessionAuthorizationCache.isActiveParticipant(chatId, user.getUserId())) {
+            throw new IllegalStateException("User is not a participant of this chat");
+        }
+
+        register(session, user);
+        join(session, chatId);
+        return user;
+    }
+
+    private User resolveUser(ChatConnection session) {
+        JsonWebToken jwt = session.getToken();
+        return sessionAuthorizationCache.findUserByUsername(jwt.getSubject())
+                .orElseThrow(() -> new IllegalStateException("User not found"));
+    }
+
+    private void register(ChatConnection session, User user) {
+        sessionRegistry.register(session, user.getUserId(), user.getUsername(), chatBroadcaster.register(session));
+        heartbeatService.track(session, () -> evict(session));
+    }
+
+    /**
+     * Joins a session to a chat after checking that its user participates in the chat.
+     *
+     * @param session the authenticated session
+     * @param chatId the ID of the chat
+     * @throws IllegalStateException if the user is not a participant of the chat
+     */
+    public void join(ChatConnection session, String chatId) {
+        if (!sessionAuthorizationCache.isActiveParticipant(chatId, getUserId(session))) {
+            throw new IllegalStateException("User is not a participant of this chat");
+        }
+
+        if (sessionRegistry.join(chatId, session)) {
+            presenceService.changed(chatId);
+        }
+        LOGGER.info(String.format("Session %s joined chat: %s by user: %s", session.getId(), chatId, getUsername(session)));
+    }
+
+    /**
+     * Removes a closed session from all chats it was joined to and announces its departure.
+     *
+     * @param session the closed session
+     */
+    public void close(ChatConnection session) {
+        heartbeatService.untrack(session);
+        chatBroadcaster.unregister(session);
+        for (String chatId : sessionRegistry.remove(session)) {
+            announceDeparture(session, chatId);
+        }
+    }
+
+    /**
+     * Evicts a session that stopped answering. It is cleaned up right away rather than when the
+     * close handshake completes, since a half-open connection may never complete it.
+     */
+    private void evict(ChatConnection session) {
+        close(session);
+        session.close(ChatConnection.GOING_AWAY, "Idle timeout");
+    }
+
+    private void leave(ChatConnection session, String chatId) {
+        if (sessionRegistry.leave(chatId, session)) {
+            announceDeparture(session, chatId);
+        }
+    }
+
+    /**
+     * Handles a frame sent by the client.
+     * Plain text is posted as a chat message; JSON objects with a {@code type} are treated as commands.
+     *
+     * @param session the session the frame was received on
+     * @param boundChatId the chat the session is bound to, or null if every command names its chat
+     * @param message the frame's text
+     */
+    public void handleClientFrame(ChatConnection session, String boundChatId, String message) {
+        JsonObject command = parseCommand(message);
+        if (command == null) {
+            if (boundChatId == null) {
+                sendError(session, "Messages must be sent as commands with a chatId");
+            } else if (!sessionRegistry.isJoined(boundChatId, session)) {
+                sendError(session, "Not subscribed to chat: " + boundChatId);
+            } else {
+                postMessage(session, boundChatId, message);
+            }
+            return;
+        }
+
+        String type = command.getString("type").toLowerCase();
+        String chatId = boundChatId != null ? boundChatId : getStringField(command, "chatId");
+        if (chatId == null) {
+            sendError(session, "Missing chatId");
+            return;
+        }
+
+        try {
+            switch (type) {
+                case "message" -> {
+                    requireJoined(session, chatId);
+                    postMessage(session, chatId, command.getString("content", ""));
+                }
+                case "history" -> {
+                    requireJoined(session, chatId);
+                    sendHistorySince(session, chatId, getStringField(command, "since"),
+                            parseCursor(getStringField(command, "before")), clampLimit(command.getInt("limit", historyPageSize)));
+                }
+                case "subscribe" -> {
+                    requireMultiplexed(boundChatId, type);
+                    if (!sessionRegistry.isJoined(chatId, session)) {
+                        join(session, chatId);
+                    }
+                    Long sequence = getLongField(command, "seq");
+                    if (sequence != null) {
+                        resumeAfter(session, chatId, sequence, clampLimit(command.getInt("limit", historyPageSize)));
+                    } else {
+                        sendHistorySince(session, chatId, getStringField(command, "since"), null,
+                                clampLimit(command.getInt("limit", historyPageSize)));
+                    }
+                }
+                case "unsubscribe" -> {
+                    requireMultiplexed(boundChatId, type);
+                    leave(session, chatId);
+                }
+                case "ack" -> {
+                    requireJoined(session, chatId);
+                    Long sequence = getLongField(command, "seq");
+                    if (sequence == null) {
+                        throw new IllegalArgumentException("Missing seq");
+                    }
+                    SessionContext.of(session).acknowledge(chatId, sequence);
+                }
+                case "resync" -> {
+                    requireJoined(session, chatId);
+                    Long from = getLongField(command, "from");
+                    sendResync(session, chatId, from != null ? from : SessionContext.of(session).getAcknowledged(chatId) + 1,
+                            getLongField(command, "to"), clampLimit(command.getInt("limit", historyPageSize)));
+                }
+                case "typing" -> {
+                    requireJoined(session, chatId);
+                    presenceService.typing(chatId, getUserId(session), getUsername(session));
+                }
+                default -> sendError(session, "Unknown command type: " + type);
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            sendError(session, e.getMessage());
+        } catch (Exception e) {
+            LOGGER.error("Error processing command: " + type, e);
+            sendError(session, "Failed to process command: " + type);
+        }
+    }
+
+    /**
+     * Greets a session that just joined the chat of its endpoint and replays what it missed, as asked by the
+     * handshake's query parameters: the gap after {@code seq}, the messages after the {@code since} timestamp or
+     * message ID, or else the latest page of {@code limit} messages.
+     *
+     * @param session the joined session
+     * @param chatId the ID of the chat
+     */
+    public void sendWelcome(ChatConnection session, String chatId) {
+        sendSystem(session, "Connected to chat");
+
+        // A client that knows the last sequence number it received only gets the gap after it
+        int limit = parseLimit(getRequestParameter(session, "limit"));
+        try {
+            Long sequence = parseSequence(getRequestParameter(session, "seq"));
+            if (sequence != null) {
+                resumeAfter(session, chatId, sequence, limit);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(session, e.getMessage());
+        }
+
+        try {
+            sendHistorySince(session, chatId, getRequestParameter(session, "since"), null, limit);
+        } catch (IllegalArgumentException e) {
+            sendError(session, e.getMessage());
+            sendHistory(session, chatId, null, null, limit);
+        }
+    }
+
+    /**
+     * Sends one page of the chat history as a single frame.
+     * A client reconnecting with a {@code since} cursor only receives the messages it missed;
+     * {@code hasMore} tells it that older messages exist and can be requested with a history command.
+     *
+     * @param session the recipient session
+     * @param chatId the ID of the chat
+     * @param after only messages sent after this instant are sent, or null for no lower bound
+     * @param before only messages sent before this instant are sent, or null for no upper bound
+     * @param limit the maximum number of messages in the page
+     */
+    public void sendHistory(ChatConnection session, String chatId, Instant after, Instant before, int limit) {
+        sendHistoryPage(session, chatId, messageService.getLatestMessages(chatId, after, before, limit));
+    }
+
+    /**
+     * Sends one page of the chat history after a {@code since} cursor, which is either the ID of the last message
+     * the client received or a timestamp. An ID is exact, while a timestamp may skip messages of the same instant.
+     *
+     * @param session the recipient session
+     * @param chatId the ID of the chat
+     * @param since a message ID or an ISO-8601 timestamp, or null or blank for no lower bound
+     * @param before only messages sent before this instant are sent, or null for no upper bound
+     * @param limit the maximum number of messages in the page
+     * @throws IllegalArgumentException if the cursor is neither a message ID nor a timestamp
+     */
+    public void sendHistorySince(ChatConnection session, String chatId, String since, Instant before, int limit) {
+        if (MessageIdGenerator.isValid(since)) {
+            sendHistoryPage(session, chatId, messageService.getLatestMessagesAfter(chatId, since, before, limit));
+        } else {
+            sendHistory(session, chatId, parseCursor(since), before, limit);
+        }
+    }
+
+    private void sendHistoryPage(ChatConnection session, String chatId, MessagePage page) {
+        chatBroadcaster.send(session, Json.createObjectBuilder()
+                .add("type", MessageType.HISTORY.name().toLowerCase())
+                .add("chatId", chatId)
+                .add("messages", toMessageArray(chatId, page))
+                .add("hasMore", page.isHasMore())
+                .build());
+    }
+
+    /**
+     * Sends the messages of a sequence range as a single frame, oldest first.
+     * {@code hasMore} tells the client that the range continues after the last message of the frame.
+     *
+     * @param session the recipient session
+     * @param chatId the ID of the chat
+     * @param from the first sequence number to send, inclusive
+     * @param to the last sequence number to send, inclusive, or null for no upper bound
+     * @param limit the maximum number of messages in the frame
+     * @throws IllegalArgumentException if the range is empty
+     */
+    public void sendResync(ChatConnection session, String chatId, long from, Long to, int limit) {
+        MessagePage page = messageService.getMessagesBySequence(chatId, from, to, limit);
+
+        JsonObjectBuilder frame = Json.createObjectBuilder()
+                .add("type", MessageType.RESYNC.name().toLowerCase())
+                .add("chatId", chatId)
+                .add("from", from);
+        if (to != null) {
+            frame.add("to", to);
+        }
+        chatBroadcaster.send(session, frame
+                .add("messages", toMessageArray(chatId, page))
+                .add("hasMore", page.isHasMore())
+                .build());
+    }
+
+    /**
+     * Sends the messages a reconnecting client missed after the last sequence number it received,
+     * and records that number as the client's acknowledgement.
+     *
+     * @param session the recipient session, joined to the chat
+     * @param chatId the ID of the chat
+     * @param sequence the last sequence number the client received
+     * @param limit the maximum number of messages in the frame
+     */
+    public void resumeAfter(ChatConnection session, String chatId, long sequence, int limit) {
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Invalid sequence number: " + sequence);
+        }
+        SessionContext.of(session).acknowledge(chatId, sequence);
+        sendResync(session, chatId, sequence + 1, null, limit);
+    }
+
+    /**
+     * Sends a system notice to a single session.
+     *
+     * @param session the recipient session
+     * @param content the notice
+     */
+    public void sendSystem(ChatConnection session, String content) {
+        chatBroadcaster.send(session, createMessage(MessageType.SYSTEM, content));
+    }
+
+    /**
+     * Sends an error notice to a single session.
+     *
+     * @param session the recipient session
+     * @param content the error description
+     */
+    public void sendError(ChatConnection session, String content) {
+        chatBroadcaster.send(session, createMessage(MessageType.ERROR, content));
+    }
+
+    /**
+     * Parses a history cursor.
+     *
+     * @param cursor an ISO-8601 timestamp, may be null or blank
+     * @return the instant, or null if no cursor is given
+     * @throws IllegalArgumentException if the cursor is not a timestamp
+     */
+    public Instant parseCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            return Instant.parse(cursor);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Parses a sequence number sent as a query parameter.
+     *
+     * @param sequence a decimal sequence number, may be null or blank
+     * @return the sequence number, or null if none is given
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public Long parseSequence(String sequence) {
+        if (sequence == null || sequence.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(sequence);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sequence number: " + sequence);
+        }
+    }
+
+    /**
+     * Parses a history page size, falling back to the configured default.
+     *
+     * @param limit the requested page size, may be null
+     * @return the page size, capped to the allowed range
+     */
+    public int parseLimit(String limit) {
+        if (limit == null || limit.isBlank()) {
+            return historyPageSize;
+        }
+        try {
+            return clampLimit(Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            return historyPageSize;
+        }
+    }
+
+    /**
+     * Parses a client frame as a JSON command.
+     *
+     * @param message the frame's text
+     * @return the command, or null if the frame is not a JSON object with a string {@code type}
+     */
+    public JsonObject parseCommand(String message) {
+        if (!message.startsWith("{")) {
+            return null;
+        }
+        try (JsonReader reader = Json.createReader(new StringReader(message))) {
+            JsonObject command = reader.readObject();
+            return command.get("type") instanceof JsonString ? command : null;
+        } catch (JsonException e) {
+            return null;
+        }
+    }
+
+    private void postMessage(ChatConnection session, String chatId, String content) {
+        String userId = getUserId(session);
+        String username = getUsername(session);
+        try {
+            rateLimiter.acquire(RateLimitRoute.WEBSOCKET, userId, chatId);
+        } catch (RateLimitExceededException e) {
+            JsonObject error = Json.createObjectBuilder(createMessage(MessageType.ERROR, e.getMessage()))
+                    .add("code", "rate_limited")
+                    .add("chatId", chatId)
+                    .add("retryAfterMs", Math.max(1, e.getRetryAfter().toMillis()))
+                    .build();
+            chatBroadcaster.send(session, error);
+            return;
+        }
+        // The session moves on to its next frame while the message is posted
+        postMessage(chatId, userId, username, content).whenComplete((message, failure) -> {
+            if (failure != null) {
+                LOGGER.error("Error processing message", failure);
+                sendError(session, "Failed to process message");
+            }
+        });
+    }
+
+    /**
+     * Posts a message to a chat on behalf of a user, the way messages of sessions are posted: numbering, storing
+     * and publishing happen in one task of the chat's lane, so they cannot interleave with another message of the chat.
+     *
+     * @param chatId the ID of the chat
+     * @param userId the ID of the sender
+     * @param username the name of the sender shown to the participants
+     * @param content the content of the message
+     * @return a future completed with the message once it is published, or with the failure to post it
+     */
+    public CompletableFuture<Message> postMessage(String chatId, String userId, String username, String content) {
+        CompletableFuture<Message> posted = new CompletableFuture<>();
+        chatSequencer.execute(chatId, () -> {
+            try {
+                Message newMessage = messageService.createMessage(chatId, userId, content, chatSequencer.nextTimestamp(chatId));
+                presenceService.stoppedTyping(chatId, userId);
+                JsonObject messageObj = Json.createObjectBuilder()
+                        .add("type", MessageType.MESSAGE.name().toLowerCase())
+                        .add("id", newMessage.getMessageId())
+                        .add("chatId", chatId)
+                        .add("username", username)
+                        .add("content", content)
+                        .add("timestamp", newMessage.getTimestamp().toString())
+                        .add("seq", newMessage.getSequence())
+                        .build();
+
+                distributeMessageToParticipants(chatId, messageObj, null);
+                posted.complete(newMessage);
+            } catch (Exception e) {
+                posted.completeExceptionally(e);
+            }
+        });
+        return posted;
+    }
+
+    private void announceDeparture(ChatConnection session, String chatId) {
+        presenceService.stoppedTyping(chatId, getUserId(session));
+        presenceService.changed(chatId);
+        JsonObject notice = Json.createObjectBuilder(createMessage(MessageType.SYSTEM, "User " + getUsername(session) + " disconnected from chat"))
+                .add("chatId", chatId)
+                .build();
+        // Clients only display the latest system notice of a chat, so a queued one can be replaced by a newer one
+        distributeMessageToParticipants(chatId, notice, "system:" + chatId);
+    }
+
+    private void distributeMessageToParticipants(String chatId, JsonObject message, String coalesceKey) {
+        chatBroadcastBus.publish(chatId, chatBroadcaster.encode(message, coalesceKey));
+    }
+
+    private JsonArrayBuilder toMessageArray(String chatId, MessagePage page) {
+        Map<String, String> chatUsers = page.getMessages().isEmpty()
+                ? Map.of()
+                : chatService.getChartParticipantsUsers(chatId).stream()
+                        .collect(Collectors.toMap(User::getUserId, User::getUsername));
+
+        JsonArrayBuilder messages = Json.createArrayBuilder();
+        page.getMessages().forEach(msg -> {
+            JsonObjectBuilder entry = Json.createObjectBuilder()
+                    .add("type", MessageType.MESSAGE.name().toLowerCase())
+                    .add("id", msg.getMessageId())
+                    .add("chatId", chatId)
+                    .add("username", chatUsers.get(msg.getUserId()))
+                    .add("content", msg.getContent())
+                    .add("timestamp", msg.getTimestamp().toString());
+            // Messages saved before sequence numbers were introduced have none
+            if (msg.getSequence() != null) {
+                entry.add("seq", msg.getSequence());
+            }
+            messages.add(entry);
+        });
+        return messages;
+    }
+
+    private void requireJoined(ChatConnection session, String chatId) {
+        if (!sessionRegistry.isJoined(chatId, session)) {
+            throw new IllegalStateException("Not subscribed to chat: " + chatId);
+        }
+    }
+
+    private void requireMultiplexed(String boundChatId, String type) {
+        if (boundChatId != null) {
+            throw new IllegalArgumentException("Unknown command type: " + type);
+        }
+    }
+
+    private int clampLimit(int limit) {
+        return Math.max(1, Math.min(MAX_HISTORY_PAGE_SIZE, limit));
+    }
+
+    private JsonObject createMessage(MessageType type, String content) {
+        return Json.createObjectBuilder()
+                .add("type", type.name().toLowerCase())
+                .add("content", content)
+                .add("timestamp", Instant.now().toString())
+                .build();
+    }
+
+    private String getStringField(JsonObject command, String name) {
+        JsonValue value = command.get(name);
+        return value instanceof JsonString ? ((JsonString) value).getString() : null;
+    }
+
+    private Long getLongField(JsonObject command, String name) {
+        JsonValue value = command.get(name);
+        if (value == null || value == JsonValue.NULL) {
+            return null;
+        }
+        if (!(value instanceof JsonNumber) || !((JsonNumber) value).isIntegral()) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        return ((JsonNumber) value).longValue();
+    }
+
+    private String getRequestParameter(ChatConnection session, String name) {
+        List<String> values = session.getRequestParameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private String getUserId(ChatConnection session) {
+        SessionContext context = SessionContext.of(session);
+        return context == null ? null : context.getUserId();
+    }
+
+    private String getUsername(ChatConnection session) {
+        SessionContext context = SessionContext.of(session);
+        return context == null ? null : context.getUsername();
+    }
+}
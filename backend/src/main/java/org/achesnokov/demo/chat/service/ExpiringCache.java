@@ -0,0 +1,241 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Small in-memory cache whose entries expire a fixed time after they were loaded.
+ * Concurrent lookups of a missing key share a single load, so a burst of identical requests
+ * reaches the backing store once. Null values are never cached.
+ * <p>
+ * With refresh-ahead, the first hit on an entry close to its expiry reloads it in the background while
+ * the current value keeps being served, so frequently used keys never expire on the caller's thread.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class ExpiringCache<K, V> {
+
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+    private final int maxSize;
+    private final Executor refresher;
+    private final LongSupplier nanoClock;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ExpiringCache(Duration ttl, int maxSize) {
+        this(ttl, maxSize, System::nanoTime);
+    }
+
+    ExpiringCache(Duration ttl, int maxSize, LongSupplier nanoClock) {
+        this(ttl, maxSize, Duration.ZERO, null, nanoClock);
+    }
+
+    /**
+     * Creates a cache refreshing entries ahead of their expiry.
+     *
+     * @param ttl how long a loaded value is served
+     * @param maxSize the maximum number of entries
+     * @param refreshAhead how long before its expiry a hit reloads an entry, zero to disable refresh-ahead
+     * @param refresher runs the background reloads, may be null if refresh-ahead is disabled
+     * @param nanoClock the clock
+     */
+    ExpiringCache(Duration ttl, int maxSize, Duration refreshAhead, Executor refresher, LongSupplier nanoClock) {
+        if (ttl.isNegative() || ttl.isZero() || maxSize <= 0) {
+            throw new IllegalArgumentException("TTL and maximum size must be positive: " + ttl + ", " + maxSize);
+        }
+        if (refreshAhead.isNegative() || refreshAhead.compareTo(ttl) >= 0) {
+            throw new IllegalArgumentException("Refresh-ahead must be shorter than the TTL: " + refreshAhead + ", " + ttl);
+        }
+        if (!refreshAhead.isZero() && refresher == null) {
+            throw new IllegalArgumentException("Refresh-ahead needs an executor");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.refreshAheadNanos = refreshAhead.toNanos();
+        this.maxSize = maxSize;
+        this.refresher = refresher;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Gets the cached value of a key, loading it if it is missing or expired.
+     *
+     * @param key the key
+     * @param loader loads the value of the key, may return null
+     * @return the value, or null if the loader returned null
+     */
+    V get(K key, Function<K, V> loader) {
+        Objects.requireNonNull(key, "Key must not be null");
+        while (true) {
+            Entry<V> entry = entries.get(key);
+            long now = nanoClock.getAsLong();
+            if (entry != null && !entry.isExpired(now)) {
+                hits.increment();
+                if (refreshAheadNanos > 0 && entry.needsRefresh(now, refreshAheadNanos)) {
+                    refreshAsync(key, entry, loader);
+                }
+                return join(entry, key);
+            }
+
+            Entry<V> loading = newEntry(new CompletableFuture<>(), now);
+            boolean won = entry == null ? entries.putIfAbsent(key, loading) == null : entries.replace(key, entry, loading);
+            if (!won) {
+                continue;
+            }
+            misses.increment();
+
+            V value;
+            try {
+                value = loader.apply(key);
+            } catch (RuntimeException e) {
+                entries.remove(key, loading);
+                loading.value.completeExceptionally(e);
+                throw e;
+            }
+            if (value == null) {
+                entries.remove(key, loading);
+            } else {
+                evictIfFull();
+            }
+            loading.value.complete(value);
+            return value;
+        }
+    }
+
+    private void refreshAsync(K key, Entry<V> entry, Function<K, V> loader) {
+        if (!entry.refreshing().compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                V value;
+                try {
+                    value = loader.apply(key);
+                } catch (RuntimeException e) {
+                    // The current value is served until it expires, the next lookup after that loads it again
+                    return;
+                }
+                // Replacing only the refreshed entry keeps an invalidation made during the reload
+                if (value == null) {
+                    entries.remove(key, entry);
+                } else {
+                    entries.replace(key, entry, newEntry(CompletableFuture.completedFuture(value), nanoClock.getAsLong()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing().set(false);
+        }
+    }
+
+    /**
+     * Drops the cached value of a key. A load in progress completes, but its value is not cached.
+     *
+     * @param key the key
+     */
+    void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drops all cached values matching a condition.
+     *
+     * @param condition tested with every key and loaded value
+     */
+    void invalidateIf(BiPredicate<K, V> condition) {
+        entries.entrySet().removeIf(e -> {
+            V value = e.getValue().value.getNow(null);
+            return value != null && condition.test(e.getKey(), value);
+        });
+    }
+
+    /**
+     * Gets the number of cached entries, including expired ones not yet evicted.
+     *
+     * @return the number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of lookups served from the cache.
+     *
+     * @return the number of hits
+     */
+    long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that loaded their value.
+     *
+     * @return the number of misses
+     */
+    long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of entries dropped to keep the cache within its maximum size.
+     *
+     * @return the number of evictions
+     */
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    private Entry<V> newEntry(CompletableFuture<V> value, long now) {
+        return new Entry<>(value, now + ttlNanos, new AtomicBoolean());
+    }
+
+    private V join(Entry<V> entry, K key) {
+        try {
+            return entry.value.join();
+        } catch (CompletionException e) {
+            // The load failed for another caller, whose entry has already been removed
+            entries.remove(key, entry);
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        }
+    }
+
+    private void evictIfFull() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        int before = entries.size();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        evictions.add(Math.max(0, before - entries.size()));
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions.increment();
+        }
+    }
+
+    private record Entry<V>(CompletableFuture<V> value, long expiresAt, AtomicBoolean refreshing) {
+        boolean isExpired(long now) {
+            return expiresAt - now <= 0;
+        }
+
+        boolean needsRefresh(long now, long refreshAheadNanos) {
+            return expiresAt - now <= refreshAheadNanos && value.isDone() && !value.isCompletedExceptionally();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Hashed timing wheel: a single thread expires any number of timeouts with a fixed amount of work per tick.
+ * <p>
+ * Time is divided into ticks, and the wheel is an array of buckets, one per tick, that is walked round and round.
+ * A timeout is linked into the bucket of the tick it expires in and carries the number of full rotations still to wait,
+ * so scheduling, cancelling and expiring are all O(1) and no per-timeout task or thread is created.
+ * The price is precision: a timeout fires up to one tick late.
+ * <p>
+ * Timeouts are intrusive list nodes owned by the caller. An expired timeout may ask to be rescheduled,
+ * which reuses the same node and allocates nothing.
+ */
+final class HashedTimingWheel {
+    private static final Logger LOGGER = Logger.getLogger(HashedTimingWheel.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] buckets;
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private long tick;
+    private volatile Thread worker;
+
+    HashedTimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        this(tickDuration, unit, wheelSize, System::nanoTime);
+    }
+
+    HashedTimingWheel(long tickDuration, TimeUnit unit, int wheelSize, LongSupplier nanoClock) {
+        if (tickDuration <= 0 || wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Tick duration must be positive and wheel size a power of two: "
+                    + tickDuration + ", " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = wheelSize - 1;
+        this.buckets = new Timeout[wheelSize];
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Starts a daemon thread that advances the wheel once per tick.
+     *
+     * @param threadName the name of the thread
+     */
+    synchronized void start(String threadName) {
+        if (worker != null) {
+            return;
+        }
+        Thread thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the thread started by {@link #start(String)}. Pending timeouts never fire.
+     */
+    synchronized void stop() {
+        Thread thread = worker;
+        worker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Schedules a timeout. May be called from any thread; the timeout is linked into the wheel on the next tick.
+     *
+     * @param timeout the timeout, which must not have been scheduled before
+     * @param delay the delay after which the timeout expires
+     * @param unit the unit of the delay
+     * @throws IllegalStateException if the timeout was already scheduled
+     */
+    void schedule(Timeout timeout, long delay, TimeUnit unit) {
+        if (!Timeout.STATE.compareAndSet(timeout, Timeout.NEW, Timeout.SCHEDULED)) {
+            throw new IllegalStateException("Timeout was already scheduled");
+        }
+        timeout.deadline = nanoClock.getAsLong() + unit.toNanos(delay);
+        scheduled.add(timeout);
+    }
+
+    /**
+     * Cancels a timeout, so that it never fires again. May be called from any thread.
+     *
+     * @param timeout the timeout
+     */
+    void cancel(Timeout timeout) {
+        if (Timeout.STATE.getAndSet(timeout, Timeout.CANCELLED) == Timeout.SCHEDULED) {
+            cancelled.add(timeout);
+        }
+    }
+
+    /**
+     * Processes every tick that has elapsed since the last call. Called by the wheel thread,
+     * or directly by tests driving the wheel with their own clock.
+     *
+     * @return the number of timeouts that expired
+     */
+    int advance() {
+        long now = nanoClock.getAsLong();
+        int expired = 0;
+        while (startNanos + (tick + 1) * tickNanos - now <= 0) {
+            unlinkCancelled();
+            linkScheduled();
+            expired += expireBucket((int) (tick & mask), now);
+            tick++;
+        }
+        return expired;
+    }
+
+    private void run() {
+        while (worker == Thread.currentThread()) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - nanoClock.getAsLong();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            try {
+                advance();
+            } catch (RuntimeException e) {
+                LOGGER.error("Error advancing timing wheel", e);
+            }
+        }
+    }
+
+    private void unlinkCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            unlink(timeout);
+        }
+    }
+
+    private void linkScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state == Timeout.SCHEDULED) {
+                link(timeout, tick);
+            }
+        }
+    }
+
+    private int expireBucket(int index, long now) {
+        int expired = 0;
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                unlink(timeout);
+                if (timeout.state == Timeout.SCHEDULED) {
+                    expired++;
+                    reschedule(timeout, now);
+                }
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    private void reschedule(Timeout timeout, long now) {
+        long delayNanos;
+        try {
+            delayNanos = timeout.expire(now);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error running expired timeout", e);
+            delayNanos = 0;
+        }
+
+        if (delayNanos > 0 && timeout.state == Timeout.SCHEDULED) {
+            timeout.deadline = now + delayNanos;
+            // Never link into the bucket being expired, or a short delay would fire again within the same tick
+            link(timeout, tick + 1);
+        } else {
+            Timeout.STATE.compareAndSet(timeout, Timeout.SCHEDULED, Timeout.EXPIRED);
+        }
+    }
+
+    private void link(Timeout timeout, long minTick) {
+        long expiryTick = Math.max((timeout.deadline - startNanos) / tickNanos, minTick);
+        int index = (int) (expiryTick & mask);
+        timeout.remainingRounds = (expiryTick - tick) / buckets.length;
+        timeout.bucket = index;
+        timeout.prev = null;
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    /**
+     * A timeout that can be linked into a {@link HashedTimingWheel}.
+     * Its list fields are only touched by the wheel thread.
+     */
+    abstract static class Timeout {
+        private static final int NEW = 0;
+        private static final int SCHEDULED = 1;
+        private static final int CANCELLED = 2;
+        private static final int EXPIRED = 3;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private volatile int state;
+        private long deadline;
+        private long remainingRounds;
+        private int bucket = -1;
+        private Timeout prev;
+        private Timeout next;
+
+        /**
+         * Called on the wheel thread once the timeout has expired. Must not block.
+         *
+         * @param nowNanos the current time of the wheel's clock
+         * @return the delay in nanoseconds after which the timeout should expire again, or 0 if it is done
+         */
+        protected abstract long expire(long nowNanos);
+    }
+}
@@ -0,0 +1,183 @@
+package org.achesnokov.demo.chat.service;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Service class keeping WebSocket sessions alive and evicting the dead ones.
+ * <p>
+ * Every tracked session owns one timeout on a shared {@link HashedTimingWheel}, driven by a single thread
+ * no matter how many sessions are connected. Incoming frames and pongs only record the time the session
+ * was last heard from; they never touch the wheel. When the timeout fires, a session that has been quiet
+ * for the heartbeat interval is pinged, and a session that has been quiet for the idle timeout is evicted.
+ * Otherwise the timeout simply re-arms for the moment the session would become quiet.
+ */
+@ApplicationScoped
+public class HeartbeatService {
+    private static final Logger LOGGER = Logger.getLogger(HeartbeatService.class);
+
+    private static final long TICK_MILLIS = 250;
+    private static final int WHEEL_SIZE = 512;
+    private static final ByteBuffer PING_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final WebSocketExecutor webSocketExecutor;
+    private final LongSupplier nanoClock;
+    private final HashedTimingWheel wheel;
+    private final long intervalNanos;
+    private final long idleTimeoutNanos;
+    private final Map<String, SessionHeartbeat> heartbeats = new ConcurrentHashMap<>();
+    private final Counter pings;
+    private final Counter evictions;
+
+    /**
+     * Constructor for HeartbeatService.
+     *
+     * @param webSocketExecutor the executor evictions are run on, in order with the session's other events
+     * @param meterRegistry the registry heartbeat metrics are published to
+     * @param intervalMillis how long a session may be quiet before it is pinged, 0 disables heartbeats
+     * @param idleTimeoutMillis how long a session may be quiet before it is evicted
+     */
+    @Inject
+    public HeartbeatService(WebSocketExecutor webSocketExecutor, MeterRegistry meterRegistry,
+                            @ConfigProperty(name = "org.achesnokov.demo.chat.heartbeat_interval_ms", defaultValue = "30000") long intervalMillis,
+                            @ConfigProperty(name = "org.achesnokov.demo.chat.idle_timeout_ms", defaultValue = "90000") long idleTimeoutMillis) {
+        this(webSocketExecutor, meterRegistry, intervalMillis, idleTimeoutMillis,
+                System::nanoTime, new HashedTimingWheel(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE));
+        if (isEnabled()) {
+            wheel.start("chat-heartbeat");
+        }
+    }
+
+    HeartbeatService(WebSocketExecutor webSocketExecutor, MeterRegistry meterRegistry,
+                     long intervalMillis, long idleTimeoutMillis, LongSupplier nanoClock, HashedTimingWheel wheel) {
+        if (intervalMillis < 0 || (intervalMillis > 0 && idleTimeoutMillis <= intervalMillis)) {
+            throw new IllegalArgumentException("Heartbeat interval must not be negative and idle timeout must exceed it: "
+                    + intervalMillis + ", " + idleTimeoutMillis);
+        }
+        this.webSocketExecutor = webSocketExecutor;
+        this.nanoClock = nanoClock;
+        this.wheel = wheel;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        Gauge.builder("chat.heartbeat.sessions", heartbeats, Map::size)
+                .description("Sessions watched by the heartbeat")
+                .register(meterRegistry);
+        this.pings = Counter.builder("chat.heartbeat.pings")
+                .description("Pings sent to quiet sessions")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("chat.heartbeat.evictions")
+                .description("Sessions closed because they stopped answering")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Indicates whether heartbeats are enabled.
+     *
+     * @return true if quiet sessions are pinged and evicted
+     */
+    public boolean isEnabled() {
+        return intervalNanos > 0;
+    }
+
+    /**
+     * Starts watching a session.
+     *
+     * @param session the session
+     * @param onIdle evicts the session; run on the session's executor once it stopped answering
+     */
+    public void track(ChatConnection session, Runnable onIdle) {
+        if (!isEnabled()) {
+            return;
+        }
+        SessionHeartbeat heartbeat = new SessionHeartbeat(session, onIdle);
+        if (heartbeats.putIfAbsent(session.getId(), heartbeat) == null) {
+            wheel.schedule(heartbeat, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records that a frame or a pong was received from a session.
+     *
+     * @param session the session
+     */
+    public void touch(ChatConnection session) {
+        SessionHeartbeat heartbeat = heartbeats.get(session.getId());
+        if (heartbeat != null) {
+            heartbeat.lastSeenNanos = nanoClock.getAsLong();
+        }
+    }
+
+    /**
+     * Stops watching a session.
+     *
+     * @param session the session
+     */
+    public void untrack(ChatConnection session) {
+        SessionHeartbeat heartbeat = heartbeats.remove(session.getId());
+        if (heartbeat != null) {
+            wheel.cancel(heartbeat);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        wheel.stop();
+    }
+
+    private final class SessionHeartbeat extends HashedTimingWheel.Timeout {
+        private final ChatConnection session;
+        private final Runnable onIdle;
+        private volatile long lastSeenNanos;
+
+        private SessionHeartbeat(ChatConnection session, Runnable onIdle) {
+            this.session = session;
+            this.onIdle = onIdle;
+            this.lastSeenNanos = nanoClock.getAsLong();
+        }
+
+        @Override
+        protected long expire(long nowNanos) {
+            long quietNanos = nowNanos - lastSeenNanos;
+            if (quietNanos >= idleTimeoutNanos) {
+                evict();
+                return 0;
+            }
+            if (quietNanos < intervalNanos) {
+                return intervalNanos - quietNanos;
+            }
+            ping();
+            return Math.min(intervalNanos, idleTimeoutNanos - quietNanos);
+        }
+
+        private void ping() {
+            try {
+                session.sendPing(PING_PAYLOAD.duplicate());
+                pings.increment();
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to ping session: " + session.getId(), e);
+            }
+        }
+
+        private void evict() {
+            if (!heartbeats.remove(session.getId(), this)) {
+                // Closed concurrently, the close handler already cleaned up
+                return;
+            }
+            evictions.increment();
+            LOGGER.info("Evicting idle session: " + session.getId());
+            webSocketExecutor.execute(session.getId(), onIdle);
+        }
+    }
+}
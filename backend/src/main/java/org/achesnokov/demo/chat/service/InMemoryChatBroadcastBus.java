@@ -0,0 +1,33 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.achesnokov.demo.chat.model.OutboundFrame;
+
+/**
+ * Single-node {@link ChatBroadcastBus} that delivers published frames directly to the local subscribers.
+ */
+public class InMemoryChatBroadcastBus implements ChatBroadcastBus {
+
+    private final Map<String, Consumer<OutboundFrame>> subscriptions = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(String chatId, OutboundFrame frame) {
+        Consumer<OutboundFrame> listener = subscriptions.get(chatId);
+        if (listener != null) {
+            listener.accept(frame);
+        }
+    }
+
+    @Override
+    public void subscribe(String chatId, Consumer<OutboundFrame> listener) {
+        subscriptions.put(chatId, listener);
+    }
+
+    @Override
+    public void unsubscribe(String chatId) {
+        subscriptions.remove(chatId);
+    }
+}
@@ -1,12 +1,21 @@
 package org.achesnokov.demo.chat.service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessageHistoryPage;
+import org.achesnokov.demo.chat.model.MessagePage;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
 import org.achesnokov.demo.chat.repository.MessageRepository;
 
 /**
@@ -15,38 +24,75 @@ import org.achesnokov.demo.chat.repository.MessageRepository;
 @ApplicationScoped
 public class MessageService {
 
+    private static final Comparator<Message> BY_TIMESTAMP = Comparator.comparing(Message::getTimestamp);
+    private static final Comparator<Message> BY_MESSAGE_ID = Comparator.comparing(Message::getMessageId);
+    private static final Comparator<Message> BY_SEQUENCE = Comparator.comparing(Message::getSequence);
+
     private final MessageRepository messageRepository;
+    private final SequenceAllocator sequenceAllocator;
+    private final MessageWriteBehind messageWriteBehind;
+    private final MessageIdGenerator messageIdGenerator;
 
     /**
      * Constructor for MessageService.
      *
      * @param messageRepository the message repository
+     * @param sequenceAllocator the allocator of per-chat sequence numbers
+     * @param messageWriteBehind the write-behind store, used instead of the repository when enabled
+     * @param messageIdGenerator the generator of time-ordered message IDs
      */
     @Inject
-    public MessageService(MessageRepository messageRepository) {
+    public MessageService(MessageRepository messageRepository, SequenceAllocator sequenceAllocator,
+                          MessageWriteBehind messageWriteBehind, MessageIdGenerator messageIdGenerator) {
         this.messageRepository = messageRepository;
+        this.sequenceAllocator = sequenceAllocator;
+        this.messageWriteBehind = messageWriteBehind;
+        this.messageIdGenerator = messageIdGenerator;
     }
 
     /**
-     * Creates a new message.
+     * Creates a new message and numbers it with the next sequence number of its chat.
+     * With write-behind enabled the message is only logged locally when this returns.
      *
      * @param chatId the ID of the chat
      * @param userId the ID of the user creating the message
      * @param content the content of the message
      * @return the created Message object
+     * @throws IllegalArgumentException if the chat does not exist
      */
     public Message createMessage(String chatId, String userId, String content) {
+        return createMessage(chatId, userId, content, Instant.now());
+    }
+
+    /**
+     * Creates a new message sent at the given instant and numbers it with the next sequence number of its chat.
+     * Used by the {@link ChatSequencer}, which hands out strictly increasing timestamps per chat.
+     *
+     * @param chatId the ID of the chat
+     * @param userId the ID of the user creating the message
+     * @param content the content of the message
+     * @param timestamp the instant the message was sent at
+     * @return the created Message object
+     * @throws IllegalArgumentException if the chat does not exist
+     */
+    public Message createMessage(String chatId, String userId, String content, Instant timestamp) {
         Objects.requireNonNull(chatId, "Chat ID must not be null");
         Objects.requireNonNull(userId, "User ID must not be null");
         Objects.requireNonNull(content, "Content must not be null");
+        Objects.requireNonNull(timestamp, "Timestamp must not be null");
 
         Message message = new Message();
-        message.setMessageId(java.util.UUID.randomUUID().toString());
+        message.setMessageId(messageIdGenerator.next(timestamp));
         message.setChatId(chatId);
         message.setUserId(userId);
         message.setContent(content);
-        message.setTimestamp(Instant.now());
-        messageRepository.save(message);
+        message.setTimestamp(timestamp);
+        message.setSequence(sequenceAllocator.next(chatId));
+        if (messageWriteBehind.isEnabled()) {
+            messageWriteBehind.submit(message);
+        } else {
+            messageRepository.save(message);
+        }
         return message;
     }
 
@@ -57,7 +103,179 @@ public class MessageService {
      * @return a list of Message objects sorted by timestamp
      */
     public List<Message> getAllMessagesByChatId(String chatId) {
-        return messageRepository.findByChatIdSortedByTimestamp(chatId);
+        // Pending messages are read first, so a message flushed in between is found in the table
+        List<Message> pending = messageWriteBehind.getPending(chatId);
+        return withPending(messageRepository.findByChatIdSortedByTimestamp(chatId), pending, BY_TIMESTAMP);
+    }
+
+    /**
+     * Retrieves the most recent messages of a chat within the given time range.
+     *
+     * @param chatId the ID of the chat
+     * @param after only messages sent after this instant are returned, or null for no lower bound
+     * @param before only messages sent before this instant are returned, or null for no upper bound
+     * @param limit the maximum number of messages in the page
+     * @return a page of messages sorted by timestamp, flagged if older messages in the range remain
+     * @throws IllegalArgumentException if the limit is not positive
+     */
+    public MessagePage getLatestMessages(String chatId, Instant after, Instant before, int limit) {
+        Objects.requireNonNull(chatId, "Chat ID must not be null");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+
+        // One extra message tells whether an older page exists
+        List<Message> pending = messageWriteBehind.getPending(chatId).stream()
+                .filter(message -> (after == null || message.getTimestamp().isAfter(after))
+                        && (before == null || message.getTimestamp().isBefore(before)))
+                .toList();
+        List<Message> messages = messageRepository.findLatestByChatId(chatId, after, before, limit + 1);
+        return latestPage(withPending(messages, pending, BY_TIMESTAMP), limit);
+    }
+
+    /**
+     * Retrieves the most recent messages of a chat sent after a message, the way a client that knows the ID of
+     * the last message it received catches up. Unlike a timestamp, the ID tells apart messages of the same instant.
+     *
+     * @param chatId the ID of the chat
+     * @param afterId only messages after the message with this ID are returned
+     * @param before only messages sent before this instant are returned, or null for no upper bound
+     * @param limit the maximum number of messages in the page
+     * @return a page of messages sorted by ID, flagged if older messages in the range remain
+     * @throws IllegalArgumentException if the limit is not positive or the ID is not a message ID
+     */
+    public MessagePage getLatestMessagesAfter(String chatId, String afterId, Instant before, int limit) {
+        Objects.requireNonNull(chatId, "Chat ID must not be null");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        if (!MessageIdGenerator.isValid(afterId)) {
+            throw new IllegalArgumentException("Invalid message ID: " + afterId);
+        }
+
+        // One extra message tells whether an older page exists
+        List<Message> pending = messageWriteBehind.getPending(chatId).stream()
+                .filter(message -> message.getMessageId().compareTo(afterId) > 0
+                        && (before == null || message.getTimestamp().isBefore(before)))
+                .toList();
+        List<Message> messages = messageRepository.findLatestByChatIdAfterMessage(chatId, afterId, before, limit + 1);
+        return latestPage(withPending(messages, pending, BY_MESSAGE_ID), limit);
+    }
+
+    /**
+     * Keeps the newest messages of a page read with one extra message, which tells whether an older page exists.
+     */
+    private static MessagePage latestPage(List<Message> messages, int limit) {
+        messages = messages.subList(Math.max(0, messages.size() - (limit + 1)), messages.size());
+        boolean hasMore = messages.size() > limit;
+        return new MessagePage(hasMore ? messages.subList(1, messages.size()) : messages, hasMore);
+    }
+
+    /**
+     * Retrieves a page of a chat's history with cursors. Without cursors the page holds the newest messages.
+     * {@code before} pages towards older messages, newest first; {@code after} alone pages towards newer
+     * messages, oldest first. Both together read the messages between them, newest first.
+     *
+     * @param chatId the ID of the chat
+     * @param before a cursor the messages must be older than, or null
+     * @param after a cursor the messages must be newer than, or null
+     * @param limit the maximum number of messages in the page
+     * @return the page and the cursor continuing it in the same direction
+     * @throws IllegalArgumentException if the limit is not positive or a cursor is invalid
+     */
+    public MessageHistoryPage getMessageHistory(String chatId, String before, String after, int limit) {
+        Objects.requireNonNull(chatId, "Chat ID must not be null");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        String beforeId = decodeCursor(before);
+        String afterId = decodeCursor(after);
+        boolean newestFirst = afterId == null || beforeId != null;
+
+        List<Message> pending = messageWriteBehind.getPending(chatId).stream()
+                .filter(message -> (afterId == null || message.getMessageId().compareTo(afterId) > 0)
+                        && (beforeId == null || message.getMessageId().compareTo(beforeId) < 0))
+                .toList();
+        MessagePage page = newestFirst
+                ? messageRepository.findPageByChatId(chatId, beforeId, afterId, true, limit)
+                : messageRepository.findPageByChatId(chatId, afterId, null, false, limit);
+        List<Message> messages = withPending(page.getMessages(), pending, newestFirst ? BY_MESSAGE_ID.reversed() : BY_MESSAGE_ID);
+
+        // A pending message may push stored ones out of the page; the cursor of the last kept message reads them next
+        boolean truncated = messages.size() > limit;
+        messages = messages.subList(0, Math.min(messages.size(), limit));
+        boolean hasMore = truncated || page.isHasMore();
+        String nextCursor = hasMore && !messages.isEmpty()
+                ? encodeCursor(messages.get(messages.size() - 1).getMessageId())
+                : null;
+        return new MessageHistoryPage(messages, nextCursor);
+    }
+
+    private static String encodeCursor(String messageId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(messageId.getBytes(StandardCharsets.UTF_8));
     }
 
-}
\ No newline at end of file
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String messageId;
+        try {
+            messageId = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (!MessageIdGenerator.isValid(messageId)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return messageId;
+    }
+
+    /**
+     * Retrieves the messages of a chat within a range of sequence numbers, oldest first.
+     * This is how a client fills the gap it detected after a reconnect.
+     *
+     * @param chatId the ID of the chat
+     * @param from the first sequence number to return, inclusive
+     * @param to the last sequence number to return, inclusive, or null for no upper bound
+     * @param limit the maximum number of messages in the page
+     * @return a page of messages sorted by sequence number, flagged if newer messages in the range remain
+     * @throws IllegalArgumentException if the limit is not positive or the range is empty
+     */
+    public MessagePage getMessagesBySequence(String chatId, long from, Long to, int limit) {
+        Objects.requireNonNull(chatId, "Chat ID must not be null");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        long last = to == null ? Long.MAX_VALUE : to;
+        if (from < 1 || last < from) {
+            throw new IllegalArgumentException("Invalid sequence range: " + from + ".." + (to == null ? "" : to));
+        }
+
+        // One extra message tells whether a newer page exists
+        List<Message> pending = messageWriteBehind.getPending(chatId).stream()
+                .filter(message -> message.getSequence() != null && message.getSequence() >= from && message.getSequence() <= last)
+                .toList();
+        List<Message> messages = messageRepository.findBySequenceRange(chatId, from, last, limit + 1);
+        messages = withPending(messages, pending, BY_SEQUENCE);
+        messages = messages.subList(0, Math.min(messages.size(), limit + 1));
+        boolean hasMore = messages.size() > limit;
+        return new MessagePage(hasMore ? messages.subList(0, limit) : messages, hasMore);
+    }
+
+    /**
+     * Adds messages that are not stored yet to messages read from the repository.
+     * A message flushed while it was being read is in both lists and only kept once.
+     */
+    private static List<Message> withPending(List<Message> stored, List<Message> pending, Comparator<Message> order) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        Map<String, Message> merged = new LinkedHashMap<>();
+        stored.forEach(message -> merged.put(message.getMessageId(), message));
+        pending.forEach(message -> merged.putIfAbsent(message.getMessageId(), message));
+        List<Message> messages = new ArrayList<>(merged.values());
+        messages.sort(order);
+        return messages;
+    }
+}
@@ -0,0 +1,387 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
+import org.achesnokov.demo.chat.repository.MessageRepository;
+import org.achesnokov.demo.chat.repository.MessageWriteAheadLog;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+/**
+ * Stores messages in DynamoDB behind their broadcast when the write mode is {@link MessageWriteMode#WRITE_BEHIND}.
+ * <p>
+ * Submitting a message appends it to the local {@link MessageWriteAheadLog} and queues it; the sender does not
+ * wait for DynamoDB. A single flusher thread stores queued messages in batches and acknowledges the log up to
+ * the last stored one. A second thread forces the log to disk every sync interval, so a crashed process loses
+ * nothing and a crashed host at most the last interval. Messages still in the log when the application starts
+ * are queued again before anything else.
+ * <p>
+ * Batches failing with a transient error, such as throttling or an unavailable service, are retried with a
+ * growing delay. A batch DynamoDB rejects for good is stored one message at a time instead, and a message that
+ * is rejected on its own is moved to the dead-letter log, a log in the {@code dead-letter} subdirectory that is
+ * never acknowledged, so the messages behind it are not held up.
+ * <p>
+ * At most the maximum backlog of messages waits to be stored. When it is reached, senders wait for room up to
+ * the submit timeout and are then rejected, which slows them down to the pace DynamoDB accepts messages at.
+ * Senders still wait for the sequence number of their message: with a sequence block size of 1 that is a
+ * DynamoDB update per message, so write-behind only takes DynamoDB off the send path with larger blocks.
+ * <p>
+ * Until they are stored, queued messages are only visible through {@link #getPending}, which readers merge
+ * with what they find in DynamoDB.
+ */
+@ApplicationScoped
+public class MessageWriteBehind {
+    private static final Logger LOGGER = Logger.getLogger(MessageWriteBehind.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+    private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+
+    private final MessageRepository messageRepository;
+    private final int batchSize;
+    private final long submitTimeoutNanos;
+    private final MessageWriteAheadLog wal;
+    private final MessageWriteAheadLog deadLetters;
+    private final Queue<PendingMessage> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final Semaphore capacity;
+    private final Thread flusher;
+    private final ScheduledExecutorService syncScheduler;
+    private final Timer flushTimer;
+    private final Counter failures;
+    private final Counter deadLettered;
+    private final Counter rejected;
+    private final int recovered;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor for MessageWriteBehind.
+     *
+     * @param messageRepository the repository messages are stored with
+     * @param meterRegistry the registry write-behind metrics are published to
+     * @param mode the write mode; the log is only opened for {@link MessageWriteMode#WRITE_BEHIND}
+     * @param walDirectory the directory of the write-ahead log
+     * @param walSegmentBytes the size of a write-ahead log segment file
+     * @param syncIntervalMillis how often the write-ahead log is forced to disk
+     * @param batchSize the maximum number of messages stored per batch
+     * @param maxBacklog the maximum number of messages waiting to be stored
+     * @param submitTimeoutMillis how long a sender waits for room in a full backlog before it is rejected
+     * @throws IOException if the write-ahead log or the dead-letter log cannot be opened
+     */
+    @Inject
+    public MessageWriteBehind(MessageRepository messageRepository, MeterRegistry meterRegistry,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.message_write_mode", defaultValue = "SYNC") MessageWriteMode mode,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.wal_directory", defaultValue = "data/wal") String walDirectory,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.wal_segment_bytes", defaultValue = "67108864") int walSegmentBytes,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.wal_sync_interval_ms", defaultValue = "5") long syncIntervalMillis,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.write_behind_batch_size", defaultValue = "25") int batchSize,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.write_behind_max_backlog", defaultValue = "100000") int maxBacklog,
+                              @ConfigProperty(name = "org.achesnokov.demo.chat.write_behind_submit_timeout_ms", defaultValue = "1000") long submitTimeoutMillis) throws IOException {
+        if (syncIntervalMillis <= 0 || batchSize <= 0 || maxBacklog <= 0 || submitTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Sync interval, batch size and backlog must be positive and timeout must not be negative: "
+                    + syncIntervalMillis + ", " + batchSize + ", " + maxBacklog + ", " + submitTimeoutMillis);
+        }
+        this.messageRepository = messageRepository;
+        this.batchSize = batchSize;
+        this.submitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(submitTimeoutMillis);
+        if (mode != MessageWriteMode.WRITE_BEHIND) {
+            this.wal = null;
+            this.deadLetters = null;
+            this.capacity = null;
+            this.flusher = null;
+            this.syncScheduler = null;
+            this.flushTimer = null;
+            this.failures = null;
+            this.deadLettered = null;
+            this.rejected = null;
+            this.recovered = 0;
+            return;
+        }
+
+        this.wal = MessageWriteAheadLog.open(Path.of(walDirectory), walSegmentBytes);
+        try {
+            this.deadLetters = MessageWriteAheadLog.open(Path.of(walDirectory, DEAD_LETTER_DIRECTORY), walSegmentBytes);
+        } catch (IOException | RuntimeException e) {
+            wal.close();
+            throw e;
+        }
+        if (!deadLetters.getRecovered().isEmpty()) {
+            LOGGER.warn(String.format("%d messages in the dead-letter log %s could not be stored",
+                    deadLetters.getRecovered().size(), Path.of(walDirectory, DEAD_LETTER_DIRECTORY)));
+        }
+        List<MessageWriteAheadLog.Entry> entries = wal.getRecovered();
+        for (MessageWriteAheadLog.Entry entry : entries) {
+            Message message = entry.getMessage();
+            // Logged before IDs were time ordered, keyed like the migration keys the messages of the legacy table
+            if (!MessageIdGenerator.isValid(message.getMessageId())) {
+                message.setMessageId(MessageIdGenerator.fromLegacy(message.getTimestamp(), message.getMessageId()));
+            }
+            pending.add(new PendingMessage(entry.getPosition(), message));
+        }
+        this.recovered = entries.size();
+        backlog.set(recovered);
+        // Recovered messages count against the backlog, senders wait until they are stored
+        this.capacity = new Semaphore(maxBacklog - recovered);
+
+        Gauge.builder("chat.write_behind.backlog", backlog, AtomicInteger::get)
+                .description("Messages broadcast but not stored yet")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.write_behind.flush")
+                .description("Time to store a batch of messages")
+                .register(meterRegistry);
+        this.failures = Counter.builder("chat.write_behind.failures")
+                .description("Batches that failed to be stored")
+                .register(meterRegistry);
+        this.deadLettered = Counter.builder("chat.write_behind.dead_letters")
+                .description("Messages DynamoDB rejected, moved to the dead-letter log")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.write_behind.rejected")
+                .description("Messages rejected because the backlog stayed full for the submit timeout")
+                .register(meterRegistry);
+
+        this.flusher = new Thread(this::flushLoop, "chat-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        this.syncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-wal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.syncScheduler.scheduleWithFixedDelay(wal::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void onStartup(@Observes StartupEvent ev) {
+        // Observing the startup event creates the bean eagerly, so recovered messages are stored right away
+        if (isEnabled()) {
+            LOGGER.info(String.format("Message write-behind enabled, %d messages recovered from the write-ahead log", recovered));
+        }
+    }
+
+    /**
+     * Indicates whether messages are stored behind their broadcast.
+     *
+     * @return true if messages must be {@link #submit submitted} instead of saved
+     */
+    public boolean isEnabled() {
+        return wal != null;
+    }
+
+    /**
+     * Logs a message and queues it to be stored. Returns once the message is in the log; waits up to the
+     * submit timeout while the backlog is full.
+     *
+     * @param message the message to store
+     * @throws IllegalStateException if write-behind is not enabled or has been shut down, or the backlog stayed full
+     * @throws UncheckedIOException if the message cannot be appended to the log
+     */
+    public void submit(Message message) {
+        if (!isEnabled() || !running) {
+            throw new IllegalStateException("Message write-behind is not running");
+        }
+        acquireCapacity();
+        // Queue order must match log order, so acknowledging a batch never skips an earlier message
+        synchronized (this) {
+            long position;
+            try {
+                position = wal.append(message);
+            } catch (IOException e) {
+                capacity.release();
+                throw new UncheckedIOException("Failed to append message to the write-ahead log", e);
+            } catch (RuntimeException e) {
+                capacity.release();
+                throw e;
+            }
+            pending.add(new PendingMessage(position, message));
+        }
+        backlog.incrementAndGet();
+        LockSupport.unpark(flusher);
+    }
+
+    private void acquireCapacity() {
+        boolean acquired;
+        try {
+            acquired = capacity.tryAcquire(submitTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the message backlog", e);
+        }
+        if (!acquired) {
+            rejected.increment();
+            throw new IllegalStateException("Too many messages waiting to be stored, try again later");
+        }
+    }
+
+    /**
+     * Gets the messages of a chat that were submitted but are not stored yet.
+     *
+     * @param chatId the ID of the chat
+     * @return the pending messages of the chat in submission order
+     */
+    public List<Message> getPending(String chatId) {
+        return getPending(message -> message.getChatId().equals(chatId));
+    }
+
+    List<Message> getPending(Predicate<Message> filter) {
+        if (!isEnabled()) {
+            return List.of();
+        }
+        List<Message> messages = new ArrayList<>();
+        for (PendingMessage entry : pending) {
+            if (filter.test(entry.message)) {
+                messages.add(entry.message);
+            }
+        }
+        return messages;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (!isEnabled()) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            LOGGER.warn(String.format("%d messages not stored before shutdown, they are replayed on the next start", backlog.get()));
+            flusher.interrupt();
+        }
+        syncScheduler.shutdownNow();
+        try {
+            wal.close();
+            deadLetters.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close the write-ahead log", e);
+        }
+    }
+
+    private void flushLoop() {
+        long retryDelayMillis = 0;
+        // Messages at the head of the queue stored one at a time, to find the ones a rejected batch failed on
+        int isolated = 0;
+        while (running || !pending.isEmpty()) {
+            List<PendingMessage> batch = nextBatch(isolated > 0 ? 1 : batchSize);
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                flushTimer.record(() -> messageRepository.saveAll(batch.stream().map(entry -> entry.message).toList()));
+                complete(batch);
+                isolated = Math.max(0, isolated - batch.size());
+                retryDelayMillis = 0;
+                continue;
+            } catch (Exception e) {
+                failures.increment();
+                if (!isRetryable(e)) {
+                    if (batch.size() > 1) {
+                        LOGGER.warn(String.format("DynamoDB rejected a batch of %d messages, storing them one at a time", batch.size()), e);
+                        isolated = batch.size();
+                        continue;
+                    }
+                    if (deadLetter(batch.get(0), e)) {
+                        isolated = Math.max(0, isolated - 1);
+                        continue;
+                    }
+                }
+                retryDelayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(50, retryDelayMillis * 2));
+                LOGGER.error(String.format("Failed to store %d messages, retrying in %d ms", batch.size(), retryDelayMillis), e);
+            }
+            if (!running) {
+                // Shutting down, whatever is left is replayed from the log on the next start
+                return;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(retryDelayMillis));
+        }
+    }
+
+    /**
+     * Indicates whether storing a batch again may succeed. DynamoDB rejects malformed or oversized items for good,
+     * and the mapper rejects items it cannot convert before sending anything.
+     */
+    static boolean isRetryable(Exception e) {
+        if (e instanceof AwsServiceException serviceException) {
+            return serviceException.retryable() || serviceException.isThrottlingException() || serviceException.statusCode() >= 500;
+        }
+        return !(e instanceof IllegalArgumentException);
+    }
+
+    private boolean deadLetter(PendingMessage entry, Exception cause) {
+        try {
+            deadLetters.append(entry.message);
+            deadLetters.sync();
+            complete(List.of(entry));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to move message " + entry.message.getMessageId() + " to the dead-letter log", e);
+            return false;
+        }
+        deadLettered.increment();
+        LOGGER.error(String.format("DynamoDB rejected message %s of chat %s, moved it to the dead-letter log",
+                entry.message.getMessageId(), entry.message.getChatId()), cause);
+        return true;
+    }
+
+    private void complete(List<PendingMessage> batch) throws IOException {
+        // Only the flusher removes entries, so the batch is still at the head of the queue
+        for (int i = 0; i < batch.size(); i++) {
+            pending.poll();
+        }
+        backlog.addAndGet(-batch.size());
+        capacity.release(batch.size());
+        wal.acknowledge(batch.get(batch.size() - 1).position);
+    }
+
+    private List<PendingMessage> nextBatch(int size) {
+        List<PendingMessage> batch = new ArrayList<>(size);
+        for (PendingMessage entry : pending) {
+            if (batch.size() == size) {
+                break;
+            }
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    /**
+     * A logged message waiting to be stored, with the log position to acknowledge once it is.
+     */
+    private static final class PendingMessage {
+        private final long position;
+        private final Message message;
+
+        private PendingMessage(long position, Message message) {
+            this.position = position;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.achesnokov.demo.chat.service;
+
+/**
+ * Defines when a new message is stored in DynamoDB relative to its broadcast.
+ */
+public enum MessageWriteMode {
+    /**
+     * The message is stored before it is broadcast, so senders wait for the DynamoDB write.
+     */
+    SYNC,
+
+    /**
+     * The message is appended to a local write-ahead log and broadcast right away;
+     * a background thread stores logged messages in DynamoDB in batches.
+     */
+    WRITE_BEHIND
+}
@@ -0,0 +1,22 @@
+package org.achesnokov.demo.chat.service;
+
+/**
+ * Defines what happens when a session's outbound queue reaches its high watermark.
+ */
+public enum OutboxOverflowPolicy {
+    /**
+     * Evicts the oldest queued frame to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Replaces queued frames that are superseded by a newer frame with the same coalesce key,
+     * falling back to dropping the oldest frame if nothing can be coalesced.
+     */
+    COALESCE,
+
+    /**
+     * Closes the session of the slow consumer.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,443 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.achesnokov.demo.chat.model.PresenceDTO;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Service class tracking who is online and who is typing in each chat, and broadcasting it as presence frames.
+ * <p>
+ * Online members are derived from the sessions joined to a chat on this node. Changes are coalesced:
+ * a chat gets at most one presence frame per interval, carrying the complete current state,
+ * so any number of joins, leaves and typing notifications within the interval cost a single broadcast.
+ * Presence frames share a coalesce key per chat, so a slow consumer only keeps the latest one.
+ * <p>
+ * Other nodes learn this node's share of a chat's presence over the {@link ChatBroadcastBus}, on a presence
+ * topic per chat. A node following a chat publishes its local online and typing members whenever they change,
+ * repeats them every refresh interval and answers the query a node sends when it starts following the chat.
+ * The shares of other nodes are merged into the presence of the chat and dropped when they are not refreshed
+ * in time, so the members of a node that went away disappear. A node follows a chat while it has sessions in
+ * it, and for a while after its presence was requested, so {@link #getPresence(String)} answers on any node;
+ * the first request on a node that did not follow the chat yet only knows the answers received so far.
+ */
+@ApplicationScoped
+public class PresenceService {
+    private static final Logger LOGGER = Logger.getLogger(PresenceService.class);
+
+    /**
+     * Maximum number of typing usernames listed in a presence frame; the rest is only counted.
+     */
+    private static final int MAX_TYPING_NAMES = 5;
+
+    private static final String TOPIC_PREFIX = "presence:";
+    private static final String STATE = "presence-state";
+    private static final String QUERY = "presence-query";
+
+    private final SessionRegistry sessionRegistry;
+    private final ChatBroadcaster chatBroadcaster;
+    private final ChatBroadcastBus chatBroadcastBus;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long intervalNanos;
+    private final long typingTimeoutNanos;
+    private final long refreshNanos;
+    private final long remoteTtlNanos;
+    private final Map<String, ChatPresence> presences = new ConcurrentHashMap<>();
+    // Serializes following and unfollowing chats, so the bus subscription always matches the presence map
+    private final Object subscriptions = new Object();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-presence");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter updates;
+    private final Counter coalesced;
+
+    /**
+     * Constructor for PresenceService.
+     *
+     * @param sessionRegistry the registry of local sessions
+     * @param chatBroadcaster the broadcaster delivering presence frames
+     * @param chatBroadcastBus the bus presence is exchanged with other nodes on
+     * @param meterRegistry the registry presence metrics are published to
+     * @param intervalMillis the minimum time between two presence frames of a chat
+     * @param typingTimeoutMillis how long a member is shown as typing after the last typing notification
+     * @param refreshMillis how often a node repeats its share of a chat's presence to the other nodes
+     */
+    @Inject
+    public PresenceService(SessionRegistry sessionRegistry, ChatBroadcaster chatBroadcaster, ChatBroadcastBus chatBroadcastBus,
+                           MeterRegistry meterRegistry,
+                           @ConfigProperty(name = "org.achesnokov.demo.chat.presence_interval_ms", defaultValue = "1000") long intervalMillis,
+                           @ConfigProperty(name = "org.achesnokov.demo.chat.typing_timeout_ms", defaultValue = "5000") long typingTimeoutMillis,
+                           @ConfigProperty(name = "org.achesnokov.demo.chat.presence_refresh_ms", defaultValue = "10000") long refreshMillis) {
+        if (intervalMillis < 0 || typingTimeoutMillis <= 0 || refreshMillis <= 0) {
+            throw new IllegalArgumentException("Presence interval must not be negative, typing timeout and refresh interval must be positive: "
+                    + intervalMillis + ", " + typingTimeoutMillis + ", " + refreshMillis);
+        }
+        this.sessionRegistry = sessionRegistry;
+        this.chatBroadcaster = chatBroadcaster;
+        this.chatBroadcastBus = chatBroadcastBus;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.typingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(typingTimeoutMillis);
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        // A share survives two lost refreshes
+        this.remoteTtlNanos = 3 * refreshNanos;
+        this.updates = Counter.builder("chat.presence.updates")
+                .description("Presence frames broadcast to chats")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("chat.presence.coalesced")
+                .description("Presence changes merged into an already scheduled presence frame")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Notes that the set of sessions joined to a chat has changed.
+     *
+     * @param chatId the ID of the chat
+     */
+    public void changed(String chatId) {
+        schedule(chatId, follow(chatId));
+    }
+
+    /**
+     * Marks a member as typing until the typing timeout passes without a new notification.
+     * Repeated notifications of a member already typing only extend the timeout and cause no broadcast.
+     *
+     * @param chatId the ID of the chat
+     * @param userId the ID of the typing user
+     * @param username the username of the typing user
+     */
+    public void typing(String chatId, String userId, String username) {
+        ChatPresence presence = follow(chatId);
+        boolean started;
+        synchronized (presence) {
+            started = presence.typing.put(userId, new Typing(username, System.nanoTime() + typingTimeoutNanos)) == null;
+        }
+        if (started) {
+            schedule(chatId, presence);
+        }
+    }
+
+    /**
+     * Clears the typing state of a member, e.g. because the member sent the message.
+     *
+     * @param chatId the ID of the chat
+     * @param userId the ID of the user
+     */
+    public void stoppedTyping(String chatId, String userId) {
+        ChatPresence presence = presences.get(chatId);
+        if (presence == null) {
+            return;
+        }
+        boolean stopped;
+        synchronized (presence) {
+            stopped = presence.typing.remove(userId) != null;
+        }
+        if (stopped) {
+            schedule(chatId, presence);
+        }
+    }
+
+    /**
+     * Gets the current presence of a chat over all nodes.
+     *
+     * @param chatId the ID of the chat
+     * @return the online and typing members
+     */
+    public PresenceDTO getPresence(String chatId) {
+        ChatPresence presence = follow(chatId);
+        synchronized (presence) {
+            presence.watchedUntil = System.nanoTime() + remoteTtlNanos;
+        }
+        return snapshot(chatId, presence);
+    }
+
+    private PresenceDTO snapshot(String chatId, ChatPresence presence) {
+        List<String> online;
+        List<String> typing;
+        synchronized (presence) {
+            long now = System.nanoTime();
+            presence.expireTyping(now);
+            presence.expireRemote(now);
+            online = Stream.concat(localOnline(chatId).stream(),
+                            presence.remote.values().stream().flatMap(share -> share.online().stream()))
+                    .distinct()
+                    .sorted()
+                    .toList();
+            typing = Stream.concat(presence.typing.values().stream().map(Typing::username),
+                            presence.remote.values().stream().flatMap(share -> share.typing().stream()))
+                    .distinct()
+                    .toList();
+        }
+        return new PresenceDTO(chatId, online, typing.stream().limit(MAX_TYPING_NAMES).toList(), typing.size());
+    }
+
+    private List<String> localOnline(String chatId) {
+        return sessionRegistry.getChatSessions(chatId).stream()
+                .map(SessionContext::getUsername)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Gets the presence state of a chat, following the chat on the bus if this node did not yet.
+     */
+    private ChatPresence follow(String chatId) {
+        ChatPresence presence = presences.get(chatId);
+        if (presence != null) {
+            return presence;
+        }
+        synchronized (subscriptions) {
+            presence = presences.get(chatId);
+            if (presence == null) {
+                ChatPresence followed = new ChatPresence();
+                presences.put(chatId, followed);
+                chatBroadcastBus.subscribe(TOPIC_PREFIX + chatId, frame -> received(chatId, frame));
+                // The other nodes answer with their share right away instead of at their next refresh
+                chatBroadcastBus.publish(TOPIC_PREFIX + chatId, OutboundFrame.of(Json.createObjectBuilder()
+                        .add("type", QUERY)
+                        .add("node", nodeId)
+                        .build()));
+                scheduler.schedule(() -> refresh(chatId, followed), refreshNanos, TimeUnit.NANOSECONDS);
+                presence = followed;
+            }
+            return presence;
+        }
+    }
+
+    private void unfollow(String chatId, ChatPresence presence) {
+        synchronized (subscriptions) {
+            if (presences.remove(chatId, presence)) {
+                chatBroadcastBus.unsubscribe(TOPIC_PREFIX + chatId);
+            }
+        }
+    }
+
+    /**
+     * Handles a message of another node on the presence topic of a chat.
+     */
+    private void received(String chatId, OutboundFrame frame) {
+        JsonObject message;
+        try (JsonReader reader = Json.createReader(new StringReader(frame.getText()))) {
+            message = reader.readObject();
+        } catch (JsonException e) {
+            LOGGER.warn("Ignoring malformed presence message of chat: " + chatId);
+            return;
+        }
+        String node = message.getString("node", null);
+        ChatPresence presence = presences.get(chatId);
+        if (node == null || nodeId.equals(node) || presence == null) {
+            return;
+        }
+
+        if (QUERY.equals(message.getString("type", null))) {
+            scheduler.execute(() -> publishShare(chatId, presence, true));
+            return;
+        }
+        List<String> online = message.getJsonArray("online").getValuesAs(JsonString.class).stream().map(JsonString::getString).toList();
+        List<String> typing = message.getJsonArray("typing").getValuesAs(JsonString.class).stream().map(JsonString::getString).toList();
+        boolean changed;
+        synchronized (presence) {
+            RemoteShare previous = online.isEmpty() && typing.isEmpty()
+                    ? presence.remote.remove(node)
+                    : presence.remote.put(node, new RemoteShare(online, typing, System.nanoTime() + remoteTtlNanos));
+            changed = previous == null ? !(online.isEmpty() && typing.isEmpty())
+                    : !previous.online().equals(online) || !previous.typing().equals(typing);
+        }
+        if (changed) {
+            schedule(chatId, presence);
+        }
+    }
+
+    /**
+     * Publishes this node's share of a chat's presence if it changed since it was last published, or always if forced.
+     */
+    private void publishShare(String chatId, ChatPresence presence, boolean force) {
+        List<String> online = localOnline(chatId);
+        List<String> typing;
+        synchronized (presence) {
+            typing = presence.typing.values().stream().map(Typing::username).distinct().toList();
+            String share = online + "|" + typing;
+            if (!force && share.equals(presence.publishedShare)) {
+                return;
+            }
+            presence.publishedShare = share;
+        }
+        chatBroadcastBus.publish(TOPIC_PREFIX + chatId, OutboundFrame.of(Json.createObjectBuilder()
+                .add("type", STATE)
+                .add("node", nodeId)
+                .add("online", Json.createArrayBuilder(online))
+                .add("typing", Json.createArrayBuilder(typing))
+                .build()));
+    }
+
+    /**
+     * Repeats this node's share of a followed chat, drops the shares of nodes that went quiet,
+     * and stops following a chat nobody on this node is interested in anymore.
+     */
+    private void refresh(String chatId, ChatPresence presence) {
+        if (presences.get(chatId) != presence) {
+            return;
+        }
+        boolean expired;
+        boolean watched;
+        synchronized (presence) {
+            long now = System.nanoTime();
+            expired = presence.expireRemote(now);
+            watched = presence.watchedUntil - now > 0;
+        }
+        boolean local = !sessionRegistry.getChatSessions(chatId).isEmpty();
+        if (!local && !watched) {
+            unfollow(chatId, presence);
+            return;
+        }
+        try {
+            if (local) {
+                publishShare(chatId, presence, true);
+            }
+            if (expired) {
+                schedule(chatId, presence);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Error refreshing presence of chat: " + chatId, e);
+        }
+        scheduler.schedule(() -> refresh(chatId, presence), refreshNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the presence timer.
+     */
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(String chatId, ChatPresence presence) {
+        long delay;
+        synchronized (presence) {
+            if (presence.flushScheduled) {
+                coalesced.increment();
+                return;
+            }
+            presence.flushScheduled = true;
+            delay = Math.max(0, presence.lastFlushNanos + intervalNanos - System.nanoTime());
+        }
+        scheduler.schedule(() -> flush(chatId, presence), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void flush(String chatId, ChatPresence presence) {
+        long nextExpiry;
+        boolean watched;
+        synchronized (presence) {
+            presence.flushScheduled = false;
+            presence.lastFlushNanos = System.nanoTime();
+            presence.expireTyping(presence.lastFlushNanos);
+            nextExpiry = presence.typing.values().stream().mapToLong(Typing::expiresAt).min().orElse(-1);
+            watched = presence.watchedUntil - presence.lastFlushNanos > 0;
+        }
+
+        try {
+            // Other nodes only hear about changes of this node's share
+            publishShare(chatId, presence, false);
+            List<SessionContext> sessions = sessionRegistry.getChatSessions(chatId);
+            if (sessions.isEmpty()) {
+                // Nobody left to notify on this node
+                if (!watched) {
+                    unfollow(chatId, presence);
+                }
+                return;
+            }
+            chatBroadcaster.deliver(sessions, chatBroadcaster.encode(toJson(snapshot(chatId, presence)), "presence:" + chatId));
+            updates.increment();
+        } catch (RuntimeException e) {
+            LOGGER.error("Error broadcasting presence of chat: " + chatId, e);
+        }
+
+        if (nextExpiry >= 0) {
+            // Broadcast again once the earliest typing indicator has expired
+            scheduler.schedule(() -> expire(chatId, presence), Math.max(0, nextExpiry - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void expire(String chatId, ChatPresence presence) {
+        boolean expired;
+        synchronized (presence) {
+            expired = presence.expireTyping(System.nanoTime());
+        }
+        if (expired) {
+            schedule(chatId, presence);
+        }
+    }
+
+    private JsonObject toJson(PresenceDTO presence) {
+        return Json.createObjectBuilder()
+                .add("type", "presence")
+                .add("chatId", presence.getChatId())
+                .add("online", Json.createArrayBuilder(presence.getOnline()))
+                .add("typing", Json.createArrayBuilder(presence.getTyping()))
+                .add("typingCount", presence.getTypingCount())
+                .build();
+    }
+
+    private record Typing(String username, long expiresAt) {
+    }
+
+    /**
+     * Online and typing members of a chat on another node.
+     */
+    private record RemoteShare(List<String> online, List<String> typing, long expiresAt) {
+    }
+
+    /**
+     * Presence state of a single chat, guarded by its own lock.
+     */
+    private static final class ChatPresence {
+        private final Map<String, Typing> typing = new LinkedHashMap<>();
+        private final Map<String, RemoteShare> remote = new HashMap<>();
+        private long lastFlushNanos = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+        private long watchedUntil = lastFlushNanos;
+        private boolean flushScheduled;
+        private String publishedShare;
+
+        boolean expireRemote(long now) {
+            return remote.values().removeIf(share -> share.expiresAt() - now <= 0);
+        }
+
+        boolean expireTyping(long now) {
+            boolean expired = false;
+            Iterator<Typing> iterator = typing.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt() - now <= 0) {
+                    iterator.remove();
+                    expired = true;
+                }
+            }
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a message is rejected because its sender or its chat exceeded the message rate.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String scope;
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a RateLimitExceededException.
+     *
+     * @param scope      the limit that was exceeded, {@code user} or {@code chat}.
+     * @param retryAfter the time until the next message would be accepted.
+     */
+    public RateLimitExceededException(String scope, Duration retryAfter) {
+        super("Too many messages per " + scope + ", retry in " + retryAfter.toMillis() + " ms");
+        this.scope = scope;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets the limit that was exceeded.
+     *
+     * @return {@code user} or {@code chat}.
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * Gets the time until the next message would be accepted.
+     *
+     * @return the retry delay.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,16 @@
+package org.achesnokov.demo.chat.service;
+
+/**
+ * Defines the ingress routes messages are rate limited on; each route has its own limits.
+ */
+public enum RateLimitRoute {
+    /**
+     * Messages posted over a WebSocket session.
+     */
+    WEBSOCKET,
+
+    /**
+     * Messages posted with {@code POST /chats/{chatId}/messages}.
+     */
+    REST
+}
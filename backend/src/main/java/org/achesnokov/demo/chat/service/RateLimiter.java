@@ -0,0 +1,172 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Service class limiting the rate of incoming messages per sender and per chat.
+ * <p>
+ * Every message costs a DynamoDB write and a fan-out to all members of its chat, so a single flooding
+ * client must not be able to degrade the node. Each route has a token bucket per user and one per chat;
+ * a message needs a token from both. Buckets are lock-free and the ones that refilled completely are
+ * dropped periodically, so memory only grows with the senders and chats that are currently active.
+ * A rate of 0 disables a limit.
+ */
+@ApplicationScoped
+public class RateLimiter {
+
+    private static final String USER_SCOPE = "user";
+    private static final String CHAT_SCOPE = "chat";
+
+    private final Map<RateLimitRoute, TokenBucketLimiter<String>> userBuckets = new EnumMap<>(RateLimitRoute.class);
+    private final Map<RateLimitRoute, TokenBucketLimiter<String>> chatBuckets = new EnumMap<>(RateLimitRoute.class);
+    private final Map<RateLimitRoute, Counter> userThrottled = new EnumMap<>(RateLimitRoute.class);
+    private final Map<RateLimitRoute, Counter> chatThrottled = new EnumMap<>(RateLimitRoute.class);
+    private final ScheduledExecutorService evictor;
+    private final int maxBuckets;
+    private final LongSupplier nanoClock;
+
+    /**
+     * Constructor for RateLimiter.
+     *
+     * @param meterRegistry the registry rate limiting metrics are published to
+     * @param webSocketUserRate messages per second a user may post over WebSockets
+     * @param webSocketUserBurst messages a user may post over WebSockets in a burst
+     * @param webSocketChatRate messages per second a chat accepts over WebSockets
+     * @param webSocketChatBurst messages a chat accepts over WebSockets in a burst
+     * @param restUserRate messages per second a user may post over REST
+     * @param restUserBurst messages a user may post over REST in a burst
+     * @param restChatRate messages per second a chat accepts over REST
+     * @param restChatBurst messages a chat accepts over REST in a burst
+     * @param maxBuckets the maximum number of buckets per route and scope
+     * @param evictionIntervalMillis how often refilled buckets are dropped
+     */
+    @Inject
+    public RateLimiter(MeterRegistry meterRegistry,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_websocket_user_per_second", defaultValue = "5") double webSocketUserRate,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_websocket_user_burst", defaultValue = "20") int webSocketUserBurst,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_websocket_chat_per_second", defaultValue = "50") double webSocketChatRate,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_websocket_chat_burst", defaultValue = "200") int webSocketChatBurst,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_rest_user_per_second", defaultValue = "2") double restUserRate,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_rest_user_burst", defaultValue = "10") int restUserBurst,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_rest_chat_per_second", defaultValue = "50") double restChatRate,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_rest_chat_burst", defaultValue = "200") int restChatBurst,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_max_buckets", defaultValue = "100000") int maxBuckets,
+                       @ConfigProperty(name = "org.achesnokov.demo.chat.rate_limit_eviction_interval_ms", defaultValue = "60000") long evictionIntervalMillis) {
+        this(meterRegistry, maxBuckets, System::nanoTime);
+        limit(RateLimitRoute.WEBSOCKET, webSocketUserRate, webSocketUserBurst, webSocketChatRate, webSocketChatBurst);
+        limit(RateLimitRoute.REST, restUserRate, restUserBurst, restChatRate, restChatBurst);
+        if (evictionIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Eviction interval must be positive: " + evictionIntervalMillis);
+        }
+        evictor.scheduleWithFixedDelay(this::evictIdle, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    RateLimiter(MeterRegistry meterRegistry, int maxBuckets, LongSupplier nanoClock) {
+        this.maxBuckets = maxBuckets;
+        this.nanoClock = nanoClock;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-rate-limit-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (RateLimitRoute route : RateLimitRoute.values()) {
+            String tag = route.name().toLowerCase();
+            userThrottled.put(route, Counter.builder("chat.rate_limit.throttled")
+                    .description("Messages rejected because the sender or the chat exceeded its rate")
+                    .tag("route", tag)
+                    .tag("scope", USER_SCOPE)
+                    .register(meterRegistry));
+            chatThrottled.put(route, Counter.builder("chat.rate_limit.throttled")
+                    .description("Messages rejected because the sender or the chat exceeded its rate")
+                    .tag("route", tag)
+                    .tag("scope", CHAT_SCOPE)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("chat.rate_limit.buckets", this, RateLimiter::getBucketCount)
+                .description("Token buckets of active senders and chats")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sets the limits of a route.
+     *
+     * @param route the route
+     * @param userRate messages per second per user, 0 for no limit
+     * @param userBurst messages per user in a burst
+     * @param chatRate messages per second per chat, 0 for no limit
+     * @param chatBurst messages per chat in a burst
+     */
+    void limit(RateLimitRoute route, double userRate, int userBurst, double chatRate, int chatBurst) {
+        if (userRate < 0 || chatRate < 0) {
+            throw new IllegalArgumentException("Rates must not be negative: " + userRate + ", " + chatRate);
+        }
+        if (userRate > 0) {
+            userBuckets.put(route, new TokenBucketLimiter<>(userRate, userBurst, maxBuckets, nanoClock));
+        }
+        if (chatRate > 0) {
+            chatBuckets.put(route, new TokenBucketLimiter<>(chatRate, chatBurst, maxBuckets, nanoClock));
+        }
+    }
+
+    /**
+     * Takes the tokens for one message of a user in a chat.
+     *
+     * @param route the route the message arrived on
+     * @param userId the ID of the sender
+     * @param chatId the ID of the chat
+     * @throws RateLimitExceededException if the sender or the chat is over its rate
+     */
+    public void acquire(RateLimitRoute route, String userId, String chatId) {
+        // The sender is checked first, so a flooding user is throttled before it drains the chat's bucket
+        check(userBuckets.get(route), userId, USER_SCOPE, userThrottled.get(route));
+        check(chatBuckets.get(route), chatId, CHAT_SCOPE, chatThrottled.get(route));
+    }
+
+    private static void check(TokenBucketLimiter<String> buckets, String key, String scope, Counter throttled) {
+        if (buckets == null) {
+            return;
+        }
+        long waitNanos = buckets.tryAcquire(key);
+        if (waitNanos > 0) {
+            throttled.increment();
+            throw new RateLimitExceededException(scope, Duration.ofNanos(waitNanos));
+        }
+    }
+
+    /**
+     * Drops the buckets that refilled completely.
+     */
+    void evictIdle() {
+        userBuckets.values().forEach(TokenBucketLimiter::evictIdle);
+        chatBuckets.values().forEach(TokenBucketLimiter::evictIdle);
+    }
+
+    /**
+     * Returns the number of buckets over all routes and scopes.
+     *
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return userBuckets.values().stream().mapToInt(TokenBucketLimiter::size).sum()
+                + chatBuckets.values().stream().mapToInt(TokenBucketLimiter::size).sum();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        evictor.shutdownNow();
+    }
+}
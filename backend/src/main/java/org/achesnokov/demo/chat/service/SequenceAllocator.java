@@ -0,0 +1,204 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.achesnokov.demo.chat.repository.ChatRepository;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Hands out the per-chat message sequence numbers.
+ * <p>
+ * With a block size of 1 every number is reserved on the chat's counter in DynamoDB, so numbers follow
+ * the order messages are sent in across all nodes. Larger blocks reserve that many numbers at once and
+ * hand them out from memory. Once half of a block is handed out, the next block is reserved in the
+ * background, so only the first message of a chat waits for the counter update. Write-behind uses its
+ * own block size, as waiting for the counter would defeat broadcasting before the message is stored.
+ * <p>
+ * The price of blocks is that numbers reserved but not handed out before a restart are skipped. Several nodes
+ * would number their messages from their own blocks and interleave them out of order, so blocks are only allowed
+ * with the in-memory broadcast bus. The blocks of chats that stay quiet are dropped together with their remaining numbers.
+ */
+@ApplicationScoped
+public class SequenceAllocator {
+    private static final Logger LOGGER = Logger.getLogger(SequenceAllocator.class);
+
+    private static final int RESERVATION_THREADS = 4;
+
+    private final ChatRepository chatRepository;
+    private final int blockSize;
+    private final long idleNanos;
+    private final LongSupplier nanoClock;
+    private final Executor reserver;
+    private final ExecutorService ownedReserver;
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Constructor for SequenceAllocator.
+     *
+     * @param chatRepository the chat repository holding the sequence counters
+     * @param blockSize the number of sequence numbers reserved per counter update
+     * @param writeBehindBlockSize the block size used instead when messages are stored behind their broadcast
+     * @param mode the write mode of new messages
+     * @param idleMillis how long the block of a quiet chat is kept
+     * @param busType the broadcast bus connecting the nodes
+     */
+    @Inject
+    public SequenceAllocator(ChatRepository chatRepository,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.sequence_block_size", defaultValue = "1") int blockSize,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.write_behind_sequence_block_size", defaultValue = "100") int writeBehindBlockSize,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.message_write_mode", defaultValue = "SYNC") MessageWriteMode mode,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.sequence_block_idle_ms", defaultValue = "600000") long idleMillis,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.broadcast_bus", defaultValue = "in-memory") String busType) {
+        this(chatRepository, mode == MessageWriteMode.WRITE_BEHIND ? writeBehindBlockSize : blockSize, idleMillis, System::nanoTime,
+                Executors.newFixedThreadPool(RESERVATION_THREADS, runnable -> {
+                    Thread thread = new Thread(runnable, "chat-sequence-reservation");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        if (this.blockSize > 1 && !"in-memory".equals(busType)) {
+            shutdown();
+            throw new IllegalArgumentException("Sequence blocks would interleave the messages of several nodes, use a "
+                    + (mode == MessageWriteMode.WRITE_BEHIND ? "write-behind " : "") + "block size of 1 with the " + busType + " broadcast bus");
+        }
+        if (this.blockSize > 1) {
+            evictor.scheduleWithFixedDelay(this::evictIdle, idleMillis, idleMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    SequenceAllocator(ChatRepository chatRepository, int blockSize, long idleMillis, LongSupplier nanoClock, Executor reserver) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Sequence block size must be positive: " + blockSize);
+        }
+        if (idleMillis <= 0) {
+            throw new IllegalArgumentException("Sequence block idle time must be positive: " + idleMillis);
+        }
+        this.chatRepository = chatRepository;
+        this.blockSize = blockSize;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.nanoClock = nanoClock;
+        this.reserver = reserver;
+        this.ownedReserver = reserver instanceof ExecutorService ? (ExecutorService) reserver : null;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-sequence-block-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the next sequence number of a chat.
+     *
+     * @param chatId the ID of the chat
+     * @return the sequence number
+     * @throws IllegalArgumentException if the chat does not exist
+     */
+    public long next(String chatId) {
+        if (blockSize == 1) {
+            return chatRepository.allocateSequences(chatId, 1);
+        }
+
+        while (true) {
+            Block block = blocks.computeIfAbsent(chatId, id -> new Block());
+            // Not synchronized: a virtual thread waiting for DynamoDB inside a monitor would pin its carrier
+            block.lock.lock();
+            try {
+                if (blocks.get(chatId) != block) {
+                    // Dropped as idle before the lock was taken, numbering continues from a fresh block
+                    continue;
+                }
+                if (block.next > block.last) {
+                    long last = takeReserved(chatId, block);
+                    block.next = last - blockSize + 1;
+                    block.last = last;
+                }
+                block.lastUsed = nanoClock.getAsLong();
+                long sequence = block.next++;
+                if (block.reserved == null && block.last - block.next + 1 <= blockSize / 2) {
+                    // Counter updates are monotonic, so the reserved block always follows the current one
+                    block.reserved = CompletableFuture.supplyAsync(() -> chatRepository.allocateSequences(chatId, blockSize), reserver);
+                }
+                return sequence;
+            } finally {
+                block.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes the block reserved in the background, usually complete by the time the current block runs out,
+     * or reserves one right away if none was reserved or the reservation failed.
+     */
+    private long takeReserved(String chatId, Block block) {
+        CompletableFuture<Long> reserved = block.reserved;
+        block.reserved = null;
+        if (reserved != null) {
+            try {
+                return reserved.join();
+            } catch (CompletionException e) {
+                LOGGER.warn("Failed to reserve sequence numbers ahead for chat: " + chatId, e.getCause());
+            }
+        }
+        return chatRepository.allocateSequences(chatId, blockSize);
+    }
+
+    /**
+     * Drops the blocks of chats that had no message for the idle time. A block in use is kept.
+     */
+    void evictIdle() {
+        long now = nanoClock.getAsLong();
+        blocks.forEach((chatId, block) -> {
+            if (block.lock.tryLock()) {
+                try {
+                    if (now - block.lastUsed >= idleNanos) {
+                        blocks.remove(chatId, block);
+                    }
+                } finally {
+                    block.lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of chats holding a block.
+     *
+     * @return the number of blocks
+     */
+    int getBlockCount() {
+        return blocks.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        evictor.shutdownNow();
+        if (ownedReserver != null) {
+            ownedReserver.shutdownNow();
+        }
+    }
+
+    /**
+     * Range of reserved sequence numbers of a chat that were not handed out yet.
+     */
+    private static final class Block {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long next = 1;
+        private long last;
+        private long lastUsed;
+        private CompletableFuture<Long> reserved;
+    }
+}
@@ -0,0 +1,147 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.achesnokov.demo.chat.model.ChatParticipant;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.repository.ChatParticipantRepository;
+import org.achesnokov.demo.chat.repository.UserRepository;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Cache of the identity and membership lookups done when a WebSocket session is opened or joins a chat,
+ * and of the user behind every authenticated REST request.
+ * Entries expire after a fixed time and are invalidated explicitly when a user or a membership changes on this node,
+ * so a reconnect storm does not turn into a burst of DynamoDB reads. Entries in use are reloaded in the background
+ * shortly before they expire.
+ */
+@ApplicationScoped
+public class SessionAuthorizationCache {
+
+    private final UserRepository userRepository;
+    private final ChatParticipantRepository chatParticipantRepository;
+    private final ExpiringCache<String, User> usersByUsername;
+    private final ExpiringCache<MembershipKey, Boolean> memberships;
+    private final ExecutorService refresher;
+
+    /**
+     * Constructor for SessionAuthorizationCache.
+     *
+     * @param userRepository the user repository
+     * @param chatParticipantRepository the chat participant repository
+     * @param ttlMillis how long a lookup result is reused
+     * @param refreshAheadMillis how long before its expiry a used lookup result is reloaded, 0 to disable
+     * @param maxSize the maximum number of cached users and, separately, memberships
+     * @param meterRegistry the registry cache metrics are published to
+     */
+    @Inject
+    public SessionAuthorizationCache(UserRepository userRepository, ChatParticipantRepository chatParticipantRepository,
+                                     @ConfigProperty(name = "org.achesnokov.demo.chat.authorization_cache_ttl_ms", defaultValue = "60000") long ttlMillis,
+                                     @ConfigProperty(name = "org.achesnokov.demo.chat.authorization_cache_refresh_ahead_ms", defaultValue = "10000") long refreshAheadMillis,
+                                     @ConfigProperty(name = "org.achesnokov.demo.chat.authorization_cache_max_size", defaultValue = "10000") int maxSize,
+                                     MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.chatParticipantRepository = chatParticipantRepository;
+        this.refresher = refreshAheadMillis > 0 ? Executors.newFixedThreadPool(2, new RefreshThreadFactory()) : null;
+        Duration ttl = Duration.ofMillis(ttlMillis);
+        Duration refreshAhead = Duration.ofMillis(refreshAheadMillis);
+        this.usersByUsername = new ExpiringCache<>(ttl, maxSize, refreshAhead, refresher, System::nanoTime);
+        this.memberships = new ExpiringCache<>(ttl, maxSize, refreshAhead, refresher, System::nanoTime);
+        registerMetrics(meterRegistry, "users", usersByUsername);
+        registerMetrics(meterRegistry, "memberships", memberships);
+    }
+
+    private static void registerMetrics(MeterRegistry meterRegistry, String cache, ExpiringCache<?, ?> entries) {
+        FunctionCounter.builder("chat.authorization_cache.hits", entries, ExpiringCache::hitCount)
+                .description("Lookups served from the cache")
+                .tag("cache", cache)
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.authorization_cache.misses", entries, ExpiringCache::missCount)
+                .description("Lookups loaded from DynamoDB")
+                .tag("cache", cache)
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.authorization_cache.evictions", entries, ExpiringCache::evictionCount)
+                .description("Entries dropped to stay within the maximum size")
+                .tag("cache", cache)
+                .register(meterRegistry);
+        Gauge.builder("chat.authorization_cache.size", entries, ExpiringCache::size)
+                .description("Cached entries, including expired ones not yet dropped")
+                .tag("cache", cache)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Finds a user by username.
+     *
+     * @param username the username
+     * @return the user, or empty if there is no such user
+     */
+    public Optional<User> findUserByUsername(String username) {
+        return Optional.ofNullable(usersByUsername.get(username, name -> userRepository.findByUsername(name).orElse(null)));
+    }
+
+    /**
+     * Checks whether a user currently participates in a chat, i.e. joined it and has not left.
+     *
+     * @param chatId the ID of the chat
+     * @param userId the ID of the user
+     * @return true if the user is an active participant
+     */
+    public boolean isActiveParticipant(String chatId, String userId) {
+        return memberships.get(new MembershipKey(chatId, userId), key -> {
+            ChatParticipant participant = chatParticipantRepository.findById(key.chatId(), key.userId());
+            return participant != null && participant.getLeftAt() == null;
+        });
+    }
+
+    /**
+     * Drops the cached membership of a user in a chat.
+     *
+     * @param chatId the ID of the chat
+     * @param userId the ID of the user
+     */
+    public void invalidateParticipant(String chatId, String userId) {
+        memberships.invalidate(new MembershipKey(chatId, userId));
+    }
+
+    /**
+     * Drops the cached identity of a user.
+     *
+     * @param userId the ID of the user
+     */
+    public void invalidateUser(String userId) {
+        usersByUsername.invalidateIf((username, user) -> userId.equals(user.getUserId()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    private record MembershipKey(String chatId, String userId) {
+    }
+
+    private static final class RefreshThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chat-authorization-refresh-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed state of an authenticated WebSocket session: who it belongs to, which chats it is joined to,
+ * how far it acknowledged their messages and its outbound queue. The context is created by {@link SessionRegistry#register} and attached to
+ * the session, so handlers look it up from the session itself instead of a global map.
+ * <p>
+ * Joined chats are kept in a small copy-on-write array: a session joins a handful of chats and
+ * reads of the array happen on every command, while changes are rare.
+ */
+public final class SessionContext {
+
+    private static final String[] NO_CHATS = new String[0];
+
+    // Rough heap sizes assuming compressed references, used for the memory estimate only
+    private static final int CONTEXT_BYTES = 40;
+    private static final int STRING_BYTES = 40;
+    private static final int ARRAY_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int OUTBOX_BYTES = 120;
+    private static final int MAP_BYTES = 64;
+    private static final int MAP_ENTRY_BYTES = 48;
+
+    private final ChatConnection session;
+    private final String userId;
+    private final String username;
+    private final SessionOutbox outbox;
+    private volatile String[] chats = NO_CHATS;
+    // Created on the first acknowledgement, most clients never send one
+    private volatile Map<String, Long> acknowledged;
+    private boolean closed;
+
+    SessionContext(ChatConnection session, String userId, String username, SessionOutbox outbox) {
+        this.session = Objects.requireNonNull(session, "Session must not be null");
+        this.userId = Objects.requireNonNull(userId, "User ID must not be null");
+        this.username = username;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Gets the context attached to a session.
+     *
+     * @param session the session
+     * @return the context, or null if the session was never registered
+     */
+    public static SessionContext of(ChatConnection session) {
+        return session.getContext();
+    }
+
+    /**
+     * Gets the connection of the session.
+     *
+     * @return the connection
+     */
+    public ChatConnection getSession() {
+        return session;
+    }
+
+    /**
+     * Gets the ID of the session.
+     *
+     * @return the ID of the session
+     */
+    public String getId() {
+        return session.getId();
+    }
+
+    /**
+     * Gets the ID of the session's user.
+     *
+     * @return the ID of the session's user
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the name of the session's user.
+     *
+     * @return the name of the session's user
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the outbound queue of the session.
+     *
+     * @return the queue, or null if frames are written directly
+     */
+    SessionOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Checks whether the session is joined to a chat.
+     *
+     * @param chatId the ID of the chat
+     * @return true if the session receives the chat's frames
+     */
+    public boolean isJoined(String chatId) {
+        for (String chat : chats) {
+            if (chat.equals(chatId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the chats the session is joined to.
+     *
+     * @return a snapshot of the chat IDs
+     */
+    public List<String> getChats() {
+        return List.of(chats);
+    }
+
+    /**
+     * Records that the client received the messages of a chat up to a sequence number.
+     * The watermark only moves forward, so a late or repeated acknowledgement has no effect.
+     *
+     * @param chatId the ID of the chat
+     * @param sequence the highest sequence number the client received without gaps
+     * @return the watermark after the acknowledgement
+     */
+    public long acknowledge(String chatId, long sequence) {
+        Map<String, Long> watermarks = acknowledged;
+        if (watermarks == null) {
+            synchronized (this) {
+                watermarks = acknowledged;
+                if (watermarks == null) {
+                    watermarks = new ConcurrentHashMap<>(4);
+                    acknowledged = watermarks;
+                }
+            }
+        }
+        return watermarks.merge(chatId, sequence, Math::max);
+    }
+
+    /**
+     * Gets the highest sequence number of a chat the client acknowledged.
+     *
+     * @param chatId the ID of the chat
+     * @return the watermark, or 0 if the client acknowledged nothing in the chat
+     */
+    public long getAcknowledged(String chatId) {
+        Map<String, Long> watermarks = acknowledged;
+        Long sequence = watermarks == null ? null : watermarks.get(chatId);
+        return sequence == null ? 0 : sequence;
+    }
+
+    /**
+     * Estimates the heap used by this connection's state: the context, its strings, its chat
+     * memberships on both sides of the index, its acknowledgements and its outbound queue. Queued frames are shared
+     * with other sessions and only count as references; the container's own session object is not counted.
+     *
+     * @return the estimated size in bytes
+     */
+    public long estimateBytes() {
+        String[] joined = chats;
+        long bytes = CONTEXT_BYTES
+                + STRING_BYTES + userId.length()
+                + (username == null ? 0 : STRING_BYTES + username.length())
+                + ARRAY_BYTES + 2L * REFERENCE_BYTES * joined.length;
+        Map<String, Long> watermarks = acknowledged;
+        if (watermarks != null) {
+            bytes += MAP_BYTES + (long) MAP_ENTRY_BYTES * watermarks.size();
+        }
+        if (outbox != null) {
+            bytes += OUTBOX_BYTES + (long) REFERENCE_BYTES * outbox.getDepth();
+        }
+        return bytes;
+    }
+
+    // The methods below are called by SessionRegistry while holding the session's stripe lock
+
+    boolean addChat(String chatId) {
+        if (closed || isJoined(chatId)) {
+            return false;
+        }
+        String[] joined = Arrays.copyOf(chats, chats.length + 1);
+        joined[joined.length - 1] = chatId;
+        chats = joined;
+        return true;
+    }
+
+    boolean removeChat(String chatId) {
+        String[] joined = chats;
+        for (int i = 0; i < joined.length; i++) {
+            if (joined[i].equals(chatId)) {
+                String[] remaining = Arrays.copyOf(joined, joined.length - 1);
+                System.arraycopy(joined, i + 1, remaining, i, joined.length - i - 1);
+                chats = remaining;
+                Map<String, Long> watermarks = acknowledged;
+                if (watermarks != null) {
+                    watermarks.remove(chatId);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String[] close() {
+        closed = true;
+        String[] joined = chats;
+        chats = NO_CHATS;
+        return joined;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,262 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.achesnokov.demo.chat.model.FrameEncoding;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.jboss.logging.Logger;
+
+/**
+ * Bounded outbound queue of a single WebSocket session.
+ * At most one frame per session is in flight; the rest wait in the queue until the previous write completes.
+ * A session whose queue reaches the high watermark is flagged as a slow consumer until it drains
+ * down to the low watermark, and the configured {@link OutboxOverflowPolicy} is applied.
+ */
+class SessionOutbox {
+    private static final Logger LOGGER = Logger.getLogger(SessionOutbox.class);
+
+    private final ChatConnection session;
+    private final FrameEncoding encoding;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final OutboxOverflowPolicy overflowPolicy;
+    private final Metrics metrics;
+
+    private final Deque<OutboundFrame> queue = new ArrayDeque<>();
+    private boolean writing;
+    private boolean slow;
+    private boolean closed;
+
+    SessionOutbox(ChatConnection session, int highWatermark, int lowWatermark, OutboxOverflowPolicy overflowPolicy, Metrics metrics) {
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high: " + lowWatermark + ", " + highWatermark);
+        }
+        this.session = Objects.requireNonNull(session, "Session must not be null");
+        this.encoding = FrameEncoding.fromSubprotocol(session.getSubprotocol());
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "Overflow policy must not be null");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues a frame for delivery, starting a write if none is in flight.
+     *
+     * @param frame the frame to send
+     */
+    void enqueue(OutboundFrame frame) {
+        OutboundFrame next = null;
+        boolean disconnect = false;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            if (slow && overflowPolicy == OutboxOverflowPolicy.COALESCE) {
+                coalesce(frame);
+            }
+
+            if (queue.size() >= highWatermark) {
+                markSlow();
+                if (overflowPolicy == OutboxOverflowPolicy.DISCONNECT) {
+                    disconnect = true;
+                    close();
+                } else {
+                    if (overflowPolicy == OutboxOverflowPolicy.COALESCE) {
+                        coalesce(frame);
+                    }
+                    if (queue.size() >= highWatermark) {
+                        queue.pollFirst();
+                        metrics.depth.decrementAndGet();
+                        metrics.dropped.increment();
+                    }
+                }
+            }
+
+            if (!disconnect) {
+                queue.addLast(frame);
+                metrics.depth.incrementAndGet();
+                if (!writing) {
+                    writing = true;
+                    next = takeNext();
+                }
+            }
+        }
+
+        if (disconnect) {
+            disconnectSlowConsumer();
+        } else if (next != null) {
+            write(next);
+        }
+    }
+
+    /**
+     * Discards all queued frames. Frames enqueued afterwards are ignored.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        metrics.depth.addAndGet(-queue.size());
+        queue.clear();
+        if (slow) {
+            slow = false;
+            metrics.slowSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of frames waiting to be sent.
+     *
+     * @return the queue depth
+     */
+    synchronized int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Checks whether the session is currently flagged as a slow consumer.
+     *
+     * @return true if the queue reached the high watermark and has not yet drained to the low watermark
+     */
+    synchronized boolean isSlow() {
+        return slow;
+    }
+
+    /**
+     * Writes a frame in the given encoding without queueing it.
+     *
+     * @param session the recipient session
+     * @param encoding the encoding negotiated by the session
+     * @param frame the frame to send
+     * @param callback notified when the write completes
+     */
+    static void send(ChatConnection session, FrameEncoding encoding, OutboundFrame frame, ChatConnection.SendCallback callback) {
+        if (encoding == FrameEncoding.CBOR) {
+            session.sendBinary(frame.getBinary(), callback);
+        } else {
+            session.sendText(frame.getText(), callback);
+        }
+    }
+
+    /**
+     * Writes frames until one is still in flight when its send returns, or none is left.
+     * A write may complete on the calling thread before the send returns, e.g. on an event loop or a closed session;
+     * its callback then leaves the next frame to this loop rather than recursing into another write.
+     */
+    private void write(OutboundFrame frame) {
+        while (frame != null) {
+            // Whichever of the callback and this loop gets here second continues with the next frame
+            AtomicBoolean finished = new AtomicBoolean();
+            try {
+                send(session, encoding, frame, failure -> {
+                    if (failure != null) {
+                        LOGGER.error("Error sending message to client: " + session.getId(), failure);
+                    }
+                    if (!finished.compareAndSet(false, true)) {
+                        write(completeWrite());
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Thrown before the callback was registered, e.g. by a closing session; the callback will not run
+                LOGGER.error("Error sending message to client: " + session.getId(), e);
+                frame = completeWrite();
+                continue;
+            }
+            if (finished.compareAndSet(false, true)) {
+                return;
+            }
+            frame = completeWrite();
+        }
+    }
+
+    /**
+     * Takes the frame to write after a write completed, or clears the writing flag if there is none.
+     */
+    private OutboundFrame completeWrite() {
+        synchronized (this) {
+            OutboundFrame next = takeNext();
+            if (next == null) {
+                writing = false;
+            }
+            return next;
+        }
+    }
+
+    private OutboundFrame takeNext() {
+        OutboundFrame next = queue.pollFirst();
+        if (next != null) {
+            metrics.depth.decrementAndGet();
+        }
+        if (slow && queue.size() <= lowWatermark) {
+            slow = false;
+            metrics.slowSessions.decrementAndGet();
+        }
+        return next;
+    }
+
+    private void markSlow() {
+        if (!slow) {
+            slow = true;
+            metrics.slowSessions.incrementAndGet();
+            LOGGER.warn("Slow consumer detected, session: " + session.getId() + ", policy: " + overflowPolicy);
+        }
+    }
+
+    private void coalesce(OutboundFrame frame) {
+        String key = frame.getCoalesceKey();
+        if (key == null) {
+            return;
+        }
+        Iterator<OutboundFrame> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (key.equals(iterator.next().getCoalesceKey())) {
+                iterator.remove();
+                metrics.depth.decrementAndGet();
+                metrics.coalesced.increment();
+            }
+        }
+    }
+
+    private void disconnectSlowConsumer() {
+        metrics.disconnected.increment();
+        session.close(ChatConnection.TRY_AGAIN_LATER, "Slow consumer: outbound queue overflow");
+    }
+
+    /**
+     * Meters shared by all outboxes.
+     */
+    static final class Metrics {
+        final AtomicLong depth = new AtomicLong();
+        final AtomicInteger slowSessions = new AtomicInteger();
+        final Counter dropped;
+        final Counter coalesced;
+        final Counter disconnected;
+
+        Metrics(MeterRegistry meterRegistry) {
+            meterRegistry.gauge("chat.outbox.depth", depth);
+            meterRegistry.gauge("chat.outbox.slow.sessions", slowSessions);
+            this.dropped = Counter.builder("chat.outbox.evictions")
+                    .tag("reason", "dropped")
+                    .description("Frames evicted from outbound queues")
+                    .register(meterRegistry);
+            this.coalesced = Counter.builder("chat.outbox.evictions")
+                    .tag("reason", "coalesced")
+                    .description("Frames evicted from outbound queues")
+                    .register(meterRegistry);
+            this.disconnected = Counter.builder("chat.outbox.disconnects")
+                    .description("Sessions closed because their outbound queue overflowed")
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+
+/**
+ * Registry of the WebSocket sessions connected to this node, indexed by chat and by user.
+ * A session may be joined to any number of chats. The node subscribes to a chat on the
+ * {@link ChatBroadcastBus} while at least one local session is joined to it, and delivers
+ * the chat's frames to those sessions.
+ * <p>
+ * Membership changes of a session are serialized by one of a fixed set of striped locks, so a join
+ * racing with the session's removal can never leave a closed session behind in a chat. The indexes
+ * hold copy-on-write arrays of {@link SessionContext}: adding or removing a member replaces the array
+ * atomically within its map entry, and readers iterate a stable snapshot without locking or copying.
+ * <p>
+ * The bus subscription of a chat follows its index entry: after a membership change, the subscription
+ * is brought in line with the index under a lock striped by chat. Bus calls may block on the network,
+ * so they run neither within the index update nor under the lock of a session.
+ */
+@ApplicationScoped
+public class SessionRegistry {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final SessionContext[] NO_SESSIONS = new SessionContext[0];
+
+    private final ChatBroadcastBus chatBroadcastBus;
+    private final ChatFrameBatcher chatFrameBatcher;
+    private final ChatBroadcaster chatBroadcaster;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Map<String, SessionContext> sessions = new ConcurrentHashMap<>();
+    private final Map<String, SessionContext[]> chatSessions = new ConcurrentHashMap<>();
+    private final Map<String, SessionContext[]> userSessions = new ConcurrentHashMap<>();
+    // Guarded by the lock of each chat
+    private final Set<String> subscribedChats = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor for SessionRegistry.
+     *
+     * @param chatBroadcastBus the bus chat frames are received from
+     * @param chatFrameBatcher the batcher frames pass before they are fanned out
+     * @param chatBroadcaster the broadcaster delivering frames to sessions
+     * @param meterRegistry the registry session metrics are published to
+     */
+    @Inject
+    public SessionRegistry(ChatBroadcastBus chatBroadcastBus, ChatFrameBatcher chatFrameBatcher, ChatBroadcaster chatBroadcaster,
+                           MeterRegistry meterRegistry) {
+        this.chatBroadcastBus = chatBroadcastBus;
+        this.chatFrameBatcher = chatFrameBatcher;
+        this.chatBroadcaster = chatBroadcaster;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        Gauge.builder("chat.sessions", sessions, Map::size)
+                .description("Authenticated WebSocket sessions connected to this node")
+                .register(meterRegistry);
+        Gauge.builder("chat.sessions.memory", this, SessionRegistry::estimateMemoryBytes)
+                .description("Estimated heap used by the state of all connected sessions")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers an authenticated session and attaches its context to it.
+     *
+     * @param session the session
+     * @param userId the ID of the user
+     * @param username the name of the user
+     * @param outbox the session's outbound queue, or null if frames are written directly
+     * @return the context of the session
+     */
+    public SessionContext register(ChatConnection session, String userId, String username, SessionOutbox outbox) {
+        SessionContext context = new SessionContext(session, userId, username, outbox);
+        session.setContext(context);
+        synchronized (lockFor(context.getId())) {
+            sessions.put(context.getId(), context);
+            userSessions.compute(userId, (id, members) -> append(members, context));
+        }
+        return context;
+    }
+
+    /**
+     * Joins a session to a chat, so it receives the chat's frames.
+     *
+     * @param chatId the ID of the chat
+     * @param session the session
+     * @return true if the session was not joined to the chat yet
+     * @throws IllegalStateException if the session was never registered
+     */
+    public boolean join(String chatId, ChatConnection session) {
+        SessionContext context = requireContext(session);
+        synchronized (lockFor(context.getId())) {
+            if (!context.addChat(chatId)) {
+                return false;
+            }
+            chatSessions.compute(chatId, (id, members) -> append(members, context));
+        }
+        syncSubscription(chatId);
+        return true;
+    }
+
+    /**
+     * Removes a session from a chat.
+     *
+     * @param chatId the ID of the chat
+     * @param session the session
+     * @return true if the session was joined to the chat
+     */
+    public boolean leave(String chatId, ChatConnection session) {
+        SessionContext context = SessionContext.of(session);
+        if (context == null) {
+            return false;
+        }
+        synchronized (lockFor(context.getId())) {
+            if (!context.removeChat(chatId)) {
+                return false;
+            }
+            removeFromChat(chatId, context);
+        }
+        syncSubscription(chatId);
+        return true;
+    }
+
+    /**
+     * Removes a closed session from all chats and from its user's sessions.
+     * The session cannot join any chat afterwards; removing it again has no effect.
+     *
+     * @param session the session
+     * @return the chats the session was joined to
+     */
+    public List<String> remove(ChatConnection session) {
+        SessionContext context = SessionContext.of(session);
+        if (context == null) {
+            return List.of();
+        }
+        String[] chats;
+        synchronized (lockFor(context.getId())) {
+            if (context.isClosed()) {
+                return List.of();
+            }
+            chats = context.close();
+            for (String chatId : chats) {
+                removeFromChat(chatId, context);
+            }
+            userSessions.computeIfPresent(context.getUserId(), (id, members) -> without(members, context));
+            sessions.remove(context.getId(), context);
+        }
+        for (String chatId : chats) {
+            syncSubscription(chatId);
+        }
+        return List.of(chats);
+    }
+
+    /**
+     * Checks whether a session is joined to a chat.
+     *
+     * @param chatId the ID of the chat
+     * @param session the session
+     * @return true if the session receives the chat's frames
+     */
+    public boolean isJoined(String chatId, ChatConnection session) {
+        SessionContext context = SessionContext.of(session);
+        return context != null && context.isJoined(chatId);
+    }
+
+    /**
+     * Gets the local sessions joined to a chat.
+     *
+     * @param chatId the ID of the chat
+     * @return a read-only snapshot backed by the index itself, empty if there are none
+     */
+    public List<SessionContext> getChatSessions(String chatId) {
+        return new Snapshot(chatSessions.getOrDefault(chatId, NO_SESSIONS));
+    }
+
+    /**
+     * Gets the local sessions of a user.
+     *
+     * @param userId the ID of the user
+     * @return a read-only snapshot backed by the index itself, empty if there are none
+     */
+    public List<SessionContext> getUserSessions(String userId) {
+        return new Snapshot(userSessions.getOrDefault(userId, NO_SESSIONS));
+    }
+
+    /**
+     * Gets the number of registered sessions.
+     *
+     * @return the session count
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Estimates the heap used by the state of all registered sessions.
+     *
+     * @return the estimated size in bytes
+     * @see SessionContext#estimateBytes()
+     */
+    public long estimateMemoryBytes() {
+        long bytes = 0;
+        for (SessionContext context : sessions.values()) {
+            bytes += context.estimateBytes();
+        }
+        return bytes;
+    }
+
+    private SessionContext requireContext(ChatConnection session) {
+        SessionContext context = SessionContext.of(session);
+        if (context == null) {
+            throw new IllegalStateException("Session is not registered: " + session.getId());
+        }
+        return context;
+    }
+
+    private Object lockFor(String key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private void removeFromChat(String chatId, SessionContext context) {
+        chatSessions.computeIfPresent(chatId, (id, members) -> without(members, context));
+    }
+
+    /**
+     * Subscribes the node to a chat that has local sessions and unsubscribes it from one that has none left.
+     * Every membership change calls this after updating the index, so the last call sees the final state.
+     */
+    private void syncSubscription(String chatId) {
+        synchronized (lockFor(chatId)) {
+            boolean joined = chatSessions.containsKey(chatId);
+            if (joined && subscribedChats.add(chatId)) {
+                chatBroadcastBus.subscribe(chatId,
+                        frame -> chatFrameBatcher.submit(chatId, frame, batch -> deliverToLocalSessions(chatId, batch)));
+            } else if (!joined && subscribedChats.remove(chatId)) {
+                chatBroadcastBus.unsubscribe(chatId);
+                chatFrameBatcher.discard(chatId);
+            }
+        }
+    }
+
+    private void deliverToLocalSessions(String chatId, OutboundFrame frame) {
+        SessionContext[] members = chatSessions.get(chatId);
+        if (members != null) {
+            chatBroadcaster.deliver(new Snapshot(members), frame);
+        }
+    }
+
+    private static SessionContext[] append(SessionContext[] members, SessionContext context) {
+        if (members == null) {
+            return new SessionContext[] {context};
+        }
+        SessionContext[] appended = Arrays.copyOf(members, members.length + 1);
+        appended[members.length] = context;
+        return appended;
+    }
+
+    /**
+     * Removes a context from a member array.
+     *
+     * @return the remaining members, or null if none remain, which removes the map entry
+     */
+    private static SessionContext[] without(SessionContext[] members, SessionContext context) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == context) {
+                if (members.length == 1) {
+                    return null;
+                }
+                SessionContext[] remaining = new SessionContext[members.length - 1];
+                System.arraycopy(members, 0, remaining, 0, i);
+                System.arraycopy(members, i + 1, remaining, i, members.length - i - 1);
+                return remaining;
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Read-only list view of a member array. The arrays are never modified once published,
+     * so the view is a stable snapshot.
+     */
+    private static final class Snapshot extends AbstractList<SessionContext> implements RandomAccess {
+        private final SessionContext[] members;
+
+        private Snapshot(SessionContext[] members) {
+            this.members = members;
+        }
+
+        @Override
+        public SessionContext get(int index) {
+            return members[index];
+        }
+
+        @Override
+        public int size() {
+            return members.length;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.Timer;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link ChatBroadcastBus} that connects a handful of backend nodes directly over TCP, without an external broker.
+ * It is meant for running several nodes on one host (or a small static cluster) in development and tests.
+ * <p>
+ * Every node listens on its own port and opens one link to each configured peer.
+ * On a link the connecting node publishes frames, while the accepting node sends back the chats it is subscribed to,
+ * so frames only travel to peers that have local sessions for the chat.
+ * <p>
+ * Messages are handed to a queue per link and written by the link's own thread, so publishing and
+ * subscribing never wait on the network. Frames go through a bounded queue: a peer that falls behind by a
+ * full queue loses the frames that do not fit instead of stalling the chat. Subscription changes are never
+ * dropped, because a lost one would leave the peer's view of this node wrong for as long as the link lives;
+ * they go through an unbounded queue, and should it ever refuse one the link is closed so that the peer
+ * reconnects and receives the full set again.
+ */
+public class TcpChatBroadcastBus implements ChatBroadcastBus, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TcpChatBroadcastBus.class);
+
+    private static final byte SUBSCRIBE = 1;
+    private static final byte UNSUBSCRIBE = 2;
+    private static final byte PUBLISH = 3;
+
+    private static final Duration MIN_RECONNECT_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_RECONNECT_DELAY = Duration.ofSeconds(5);
+    private static final int LINK_QUEUE_CAPACITY = 10_000;
+    private static final byte[] CLOSE_LINK = new byte[0];
+
+    private final Map<String, Consumer<OutboundFrame>> subscriptions = new ConcurrentHashMap<>();
+    private final Set<PublishLink> publishLinks = ConcurrentHashMap.newKeySet();
+    private final Set<InterestLink> interestLinks = ConcurrentHashMap.newKeySet();
+    private final ExecutorService threads = Executors.newCachedThreadPool(new BusThreadFactory());
+    private final Object interestLock = new Object();
+    private final ServerSocket serverSocket;
+    private final Timer deliveryTimer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a TcpChatBroadcastBus and starts listening for peers.
+     *
+     * @param bindAddress the local address to listen on
+     * @param port the port to listen on, 0 picks a free port
+     * @param deliveryTimer timer recording the time between publishing on a peer and delivery on this node, may be null
+     * @throws IOException if the port cannot be bound
+     */
+    public TcpChatBroadcastBus(InetAddress bindAddress, int port, Timer deliveryTimer) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+        this.deliveryTimer = deliveryTimer;
+        threads.execute(this::acceptLoop);
+    }
+
+    /**
+     * Gets the port this node listens on.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Connects to a peer node. The link is re-established in the background whenever it breaks.
+     *
+     * @param host the peer host
+     * @param port the peer port
+     */
+    public void connect(String host, int port) {
+        threads.execute(() -> connectLoop(new InetSocketAddress(host, port)));
+    }
+
+    @Override
+    public void publish(String chatId, OutboundFrame frame) {
+        Consumer<OutboundFrame> listener = subscriptions.get(chatId);
+        if (listener != null) {
+            listener.accept(frame);
+        }
+
+        long publishedAt = epochMicros();
+        for (PublishLink link : publishLinks) {
+            if (link.isInterestedIn(chatId)) {
+                link.publish(chatId, frame, publishedAt);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String chatId, Consumer<OutboundFrame> listener) {
+        synchronized (interestLock) {
+            if (subscriptions.put(chatId, listener) == null) {
+                interestLinks.forEach(link -> link.sendInterest(SUBSCRIBE, chatId));
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribe(String chatId) {
+        synchronized (interestLock) {
+            if (subscriptions.remove(chatId) != null) {
+                interestLinks.forEach(link -> link.sendInterest(UNSUBSCRIBE, chatId));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        publishLinks.forEach(link -> closeQuietly(link.socket));
+        interestLinks.forEach(link -> closeQuietly(link.socket));
+        threads.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                threads.execute(() -> serveInterestLink(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.error("Failed to accept broadcast bus connection", e);
+                }
+            }
+        }
+    }
+
+    private void serveInterestLink(Socket socket) {
+        InterestLink link = null;
+        try {
+            link = new InterestLink(socket, threads);
+            // Under the lock, so no subscription change can be queued ahead of the snapshot it follows
+            synchronized (interestLock) {
+                for (String chatId : subscriptions.keySet()) {
+                    link.sendInterest(SUBSCRIBE, chatId);
+                }
+                interestLinks.add(link);
+            }
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (!closed) {
+                byte type = in.readByte();
+                if (type != PUBLISH) {
+                    throw new IOException("Unexpected message type on interest link: " + type);
+                }
+                String chatId = in.readUTF();
+                String coalesceKey = in.readBoolean() ? in.readUTF() : null;
+                long publishedAt = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                deliver(chatId, OutboundFrame.ofText(new String(payload, StandardCharsets.UTF_8), coalesceKey), publishedAt);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.debug("Broadcast bus peer disconnected: " + socket.getRemoteSocketAddress());
+            }
+        } finally {
+            if (link != null) {
+                interestLinks.remove(link);
+                link.close();
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    private void connectLoop(InetSocketAddress address) {
+        Duration delay = MIN_RECONNECT_DELAY;
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address);
+                socket.setTcpNoDelay(true);
+                delay = MIN_RECONNECT_DELAY;
+                servePublishLink(socket);
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.debug("Broadcast bus peer unavailable: " + address + ", retrying in " + delay.toMillis() + " ms");
+                }
+            }
+
+            if (!closed) {
+                sleep(delay);
+                delay = delay.multipliedBy(2).compareTo(MAX_RECONNECT_DELAY) > 0 ? MAX_RECONNECT_DELAY : delay.multipliedBy(2);
+            }
+        }
+    }
+
+    private void servePublishLink(Socket socket) throws IOException {
+        PublishLink link = new PublishLink(socket, threads);
+        publishLinks.add(link);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (!closed) {
+                byte type = in.readByte();
+                String chatId = in.readUTF();
+                if (type == SUBSCRIBE) {
+                    link.interest.add(chatId);
+                } else if (type == UNSUBSCRIBE) {
+                    link.interest.remove(chatId);
+                } else {
+                    throw new IOException("Unexpected message type on publish link: " + type);
+                }
+            }
+        } finally {
+            publishLinks.remove(link);
+            link.close();
+        }
+    }
+
+    private void deliver(String chatId, OutboundFrame frame, long publishedAt) {
+        if (deliveryTimer != null) {
+            deliveryTimer.record(Math.max(0, epochMicros() - publishedAt), TimeUnit.MICROSECONDS);
+        }
+        Consumer<OutboundFrame> listener = subscriptions.get(chatId);
+        if (listener != null) {
+            listener.accept(frame);
+        }
+    }
+
+    private static long epochMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    private static void sleep(Duration delay) {
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.debug("Error closing broadcast bus socket", e);
+        }
+    }
+
+    /**
+     * Connection to a peer with its own writer. Messages are encoded by the caller and queued; the writer
+     * thread writes them in order and flushes once the queue runs empty.
+     */
+    private abstract static class Link {
+        final Socket socket;
+        private final BlockingQueue<byte[]> outbound;
+
+        Link(Socket socket, Executor writer, int capacity) throws IOException {
+            this.socket = socket;
+            this.outbound = new LinkedBlockingQueue<>(capacity);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writer.execute(() -> writeLoop(out));
+        }
+
+        /**
+         * Queues a message for the writer thread.
+         *
+         * @param message the encoded message
+         * @return false if the queue is full and the message was not queued
+         */
+        boolean send(byte[] message) {
+            return outbound.offer(message);
+        }
+
+        void close() {
+            outbound.clear();
+            outbound.offer(CLOSE_LINK);
+        }
+
+        private void writeLoop(DataOutputStream out) {
+            try {
+                while (true) {
+                    byte[] message = outbound.take();
+                    while (message != null) {
+                        if (message == CLOSE_LINK) {
+                            return;
+                        }
+                        out.write(message);
+                        message = outbound.poll();
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to write to broadcast bus peer: " + socket.getRemoteSocketAddress(), e);
+                closeQuietly(socket);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        static byte[] encode(IoWriter writer) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                writer.write(new DataOutputStream(bytes));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to encode broadcast bus message", e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Link opened by this node: frames are published on it, the peer's subscriptions are read from it.
+     */
+    private static final class PublishLink extends Link {
+        private final Set<String> interest = ConcurrentHashMap.newKeySet();
+
+        PublishLink(Socket socket, Executor writer) throws IOException {
+            super(socket, writer, LINK_QUEUE_CAPACITY);
+        }
+
+        boolean isInterestedIn(String chatId) {
+            return interest.contains(chatId);
+        }
+
+        void publish(String chatId, OutboundFrame frame, long publishedAt) {
+            byte[] payload = frame.getText().getBytes(StandardCharsets.UTF_8);
+            boolean queued = send(encode(out -> {
+                out.writeByte(PUBLISH);
+                out.writeUTF(chatId);
+                out.writeBoolean(frame.getCoalesceKey() != null);
+                if (frame.getCoalesceKey() != null) {
+                    out.writeUTF(frame.getCoalesceKey());
+                }
+                out.writeLong(publishedAt);
+                out.writeInt(payload.length);
+                out.write(payload);
+            }));
+            if (!queued) {
+                LOGGER.warn("Broadcast bus peer is falling behind, dropped a frame: " + socket.getRemoteSocketAddress());
+            }
+        }
+    }
+
+    /**
+     * Link accepted by this node: this node's subscriptions are sent on it, the peer's frames are read from it.
+     */
+    private static final class InterestLink extends Link {
+
+        InterestLink(Socket socket, Executor writer) throws IOException {
+            super(socket, writer, Integer.MAX_VALUE);
+        }
+
+        void sendInterest(byte type, String chatId) {
+            boolean queued = send(encode(out -> {
+                out.writeByte(type);
+                out.writeUTF(chatId);
+            }));
+            if (!queued) {
+                // Dropping the change would leave the peer's view wrong for good; reconnecting resends the full set
+                LOGGER.warn("Broadcast bus peer is falling behind on subscriptions, closing link: " + socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static final class BusThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chat-bus-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
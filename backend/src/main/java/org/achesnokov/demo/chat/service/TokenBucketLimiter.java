@@ -0,0 +1,93 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets keyed by an arbitrary key, refilling at a fixed rate up to a burst size.
+ * <p>
+ * A bucket is a single {@link AtomicLong} holding the instant it will be full again (the generic cell rate
+ * algorithm), so taking a token is one compare-and-set and never blocks. A bucket that is full again carries
+ * no state worth keeping; {@link #evictIdle()} drops those, and a limiter at its maximum size evicts before
+ * it creates another bucket. If every bucket is still in use, new keys are let through untracked rather than
+ * growing the map.
+ *
+ * @param <K> the key type
+ */
+final class TokenBucketLimiter<K> {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeys;
+    private final LongSupplier nanoClock;
+    private final Map<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    TokenBucketLimiter(double permitsPerSecond, int burst, int maxKeys) {
+        this(permitsPerSecond, burst, maxKeys, System::nanoTime);
+    }
+
+    TokenBucketLimiter(double permitsPerSecond, int burst, int maxKeys, LongSupplier nanoClock) {
+        if (permitsPerSecond <= 0 || burst <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("Rate, burst and maximum size must be positive: "
+                    + permitsPerSecond + ", " + burst + ", " + maxKeys);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.maxKeys = maxKeys;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Takes a token from the bucket of a key.
+     *
+     * @param key the key
+     * @return 0 if a token was taken, otherwise the nanoseconds until the next token is available
+     */
+    long tryAcquire(K key) {
+        Objects.requireNonNull(key, "Key must not be null");
+        long now = nanoClock.getAsLong();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys && evictIdle() == 0) {
+                return 0;
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long fullAt = bucket.get();
+            long next = Math.max(fullAt, now) + intervalNanos;
+            long waitNanos = next - now - burstNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets that are full again.
+     *
+     * @return the number of buckets dropped
+     */
+    int evictIdle() {
+        long now = nanoClock.getAsLong();
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.get() <= now);
+        return Math.max(0, before - buckets.size());
+    }
+
+    /**
+     * Returns the number of tracked buckets.
+     *
+     * @return the number of buckets
+     */
+    int size() {
+        return buckets.size();
+    }
+}
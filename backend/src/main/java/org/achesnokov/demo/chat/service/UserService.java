@@ -16,15 +16,18 @@ import org.achesnokov.demo.chat.repository.UserRepository;
 public class UserService {
 
     private final UserRepository userRepository;
+    private final SessionAuthorizationCache sessionAuthorizationCache;
 
     /**
      * Constructor for UserService.
      *
      * @param userRepository the user repository
+     * @param sessionAuthorizationCache the cache of identities resolved when WebSocket sessions are opened
      */
     @Inject
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, SessionAuthorizationCache sessionAuthorizationCache) {
         this.userRepository = userRepository;
+        this.sessionAuthorizationCache = sessionAuthorizationCache;
     }
 
     /**
@@ -65,6 +68,7 @@ public class UserService {
      */
     public void deleteUser(String userId) {
         userRepository.delete(userId);
+        sessionAuthorizationCache.invalidateUser(userId);
     }
 
     /**
@@ -85,5 +89,6 @@ public class UserService {
         }
         user.setUsername(newUserName);
         userRepository.save(user);
+        sessionAuthorizationCache.invalidateUser(userId);
     }
 }
\ No newline at end of file
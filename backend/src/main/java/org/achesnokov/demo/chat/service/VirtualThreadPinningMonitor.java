@@ -0,0 +1,83 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.jboss.logging.Logger;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier thread, typically because they block
+ * inside a {@code synchronized} block or a native frame. Pinned virtual threads hold a carrier
+ * just like a blocked platform thread, so a pinning hot spot silently caps the concurrency that
+ * virtual threads are meant to provide.
+ * <p>
+ * The monitor streams the JDK's own {@code jdk.VirtualThreadPinned} flight recorder events, logs each
+ * one with the top of its stack and publishes them as metrics.
+ */
+final class VirtualThreadPinningMonitor implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final RecordingStream stream;
+
+    private VirtualThreadPinningMonitor(RecordingStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Starts streaming pinning events.
+     *
+     * @param threshold the minimum time a virtual thread has to be pinned to be reported
+     * @param meterRegistry the registry pinning metrics are published to
+     * @return the running monitor, or null if the flight recorder is not available
+     */
+    static VirtualThreadPinningMonitor start(Duration threshold, MeterRegistry meterRegistry) {
+        Counter pinnedCounter = Counter.builder("chat.virtual_threads.pinned")
+                .description("Virtual threads pinned to their carrier for longer than the threshold")
+                .register(meterRegistry);
+        Timer pinnedTimer = Timer.builder("chat.virtual_threads.pinned.duration")
+                .description("Time virtual threads stayed pinned to their carrier")
+                .register(meterRegistry);
+        try {
+            RecordingStream stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, event -> {
+                pinnedCounter.increment();
+                pinnedTimer.record(event.getDuration());
+                LOGGER.warn("Virtual thread pinned for " + event.getDuration().toMillis() + " ms at " + describeStack(event));
+            });
+            stream.startAsync();
+            return new VirtualThreadPinningMonitor(stream);
+        } catch (RuntimeException | LinkageError e) {
+            LOGGER.warn("Flight recorder is not available, virtual thread pinning is not monitored", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    private static String describeStack(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "unknown location";
+        }
+        return event.getStackTrace().getFrames().stream()
+                .limit(LOGGED_FRAMES)
+                .map(VirtualThreadPinningMonitor::describeFrame)
+                .collect(Collectors.joining(" <- "));
+    }
+
+    private static String describeFrame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -32,7 +32,18 @@ public class WebSocketAuthenticator extends ServerEndpointConfig.Configurator {
      */
     @Override
     public void modifyHandshake(ServerEndpointConfig config, HandshakeRequest request, HandshakeResponse response) {
-        List<String> tokens = request.getParameterMap().get("token");
+        config.getUserProperties().put("jwt", authenticate(request.getParameterMap().get("token")));
+    }
+
+    /**
+     * Validates the JWT a client passed as the {@code token} query parameter of its handshake.
+     * Shared by both WebSocket stacks, which expose the handshake's parameters differently.
+     *
+     * @param tokens the values of the token parameter, may be null
+     * @return the validated token
+     * @throws SecurityException if no token is provided or if token parsing fails
+     */
+    public JsonWebToken authenticate(List<String> tokens) {
         if (tokens == null || tokens.isEmpty()) {
             LOGGER.error("No token provided in handshake");
             throw new SecurityException("No token provided");
@@ -46,13 +57,29 @@ public class WebSocketAuthenticator extends ServerEndpointConfig.Configurator {
             }
             JsonWebToken jwt = parser.parse(tokens.get(0));
             LOGGER.debug("Token parsed successfully, subject: " + jwt.getSubject());
-            config.getUserProperties().put("jwt", jwt);
+            return jwt;
         } catch (Exception e) {
             LOGGER.error("Failed to parse token", e);
             throw new SecurityException("Invalid token");
         }
     }
 
+    /**
+     * Picks the first subprotocol requested by the client that the endpoint supports.
+     * Clients that request none get JSON text frames.
+     *
+     * @param supported the subprotocols supported by the endpoint
+     * @param requested the subprotocols requested by the client, in order of preference
+     * @return the negotiated subprotocol, or an empty string if there is no match
+     */
+    @Override
+    public String getNegotiatedSubprotocol(List<String> supported, List<String> requested) {
+        return requested.stream()
+                .filter(supported::contains)
+                .findFirst()
+                .orElse("");
+    }
+
     protected JWTParser getJWTParser() {
         try(InstanceHandle<JWTParser> instanceHandle = Arc.container().instance(JWTParser.class)) {
             return instanceHandle.get();
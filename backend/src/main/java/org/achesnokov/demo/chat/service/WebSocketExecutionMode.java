@@ -0,0 +1,17 @@
+package org.achesnokov.demo.chat.service;
+
+/**
+ * Defines which threads WebSocket event handlers run on.
+ */
+public enum WebSocketExecutionMode {
+    /**
+     * Handlers run on a fixed-size pool of platform threads shared by all sessions.
+     */
+    WORKER_POOL,
+
+    /**
+     * Every handler turn runs on its own virtual thread, so handlers blocked on DynamoDB
+     * do not hold a scarce worker thread. Requires Java 21; older runtimes fall back to the worker pool.
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,239 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Executes WebSocket event handlers on a shared, fixed-size worker pool, or on virtual threads when enabled.
+ * Events of a single session are run strictly in submission order, while events of
+ * different sessions are processed in parallel.
+ * <p>
+ * A released session is remembered for a while, so an event racing its close, such as a late error or an
+ * idle timeout, is dropped instead of creating a serial executor nobody releases.
+ */
+@ApplicationScoped
+public class WebSocketExecutor {
+    private static final Logger LOGGER = Logger.getLogger(WebSocketExecutor.class);
+
+    /**
+     * Maximum number of tasks a session drains in one go before yielding its worker thread,
+     * so that a chatty session cannot starve the others.
+     */
+    private static final int MAX_TASKS_PER_TURN = 16;
+
+    /**
+     * How long events of a released session are dropped.
+     */
+    private static final long CLOSED_SESSION_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final ExecutorService workerPool;
+    private final WebSocketExecutionMode executionMode;
+    private final VirtualThreadPinningMonitor pinningMonitor;
+    private final Map<String, SerialExecutor> sessionExecutors = new ConcurrentHashMap<>();
+    private final Set<String> closedSessions = ConcurrentHashMap.newKeySet();
+    private final Queue<ClosedSession> closedSessionsByAge = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructor for WebSocketExecutor.
+     *
+     * @param workerThreads the number of worker threads shared by all sessions
+     * @param executionMode the threads handlers run on
+     * @param pinningThresholdMillis how long a virtual thread may be pinned to its carrier before it is reported
+     * @param meterRegistry the registry pinning metrics are published to
+     */
+    @Inject
+    public WebSocketExecutor(@ConfigProperty(name = "org.achesnokov.demo.chat.websocket_worker_threads", defaultValue = "16") int workerThreads,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.websocket_execution_mode", defaultValue = "WORKER_POOL") WebSocketExecutionMode executionMode,
+                             @ConfigProperty(name = "org.achesnokov.demo.chat.virtual_thread_pinning_threshold_ms", defaultValue = "20") long pinningThresholdMillis,
+                             MeterRegistry meterRegistry) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("Worker thread count must be positive: " + workerThreads);
+        }
+        ExecutorService virtualThreads = executionMode == WebSocketExecutionMode.VIRTUAL_THREADS ? newVirtualThreadExecutor() : null;
+        if (virtualThreads != null) {
+            this.workerPool = virtualThreads;
+            this.executionMode = WebSocketExecutionMode.VIRTUAL_THREADS;
+            this.pinningMonitor = meterRegistry == null ? null
+                    : VirtualThreadPinningMonitor.start(Duration.ofMillis(pinningThresholdMillis), meterRegistry);
+        } else {
+            this.workerPool = Executors.newFixedThreadPool(workerThreads, new WorkerThreadFactory());
+            this.executionMode = WebSocketExecutionMode.WORKER_POOL;
+            this.pinningMonitor = null;
+        }
+        LOGGER.info("WebSocket handlers run on " + (virtualThreads != null ? "virtual threads" : workerThreads + " worker threads"));
+    }
+
+    WebSocketExecutor(int workerThreads) {
+        this(workerThreads, WebSocketExecutionMode.WORKER_POOL, 0, null);
+    }
+
+    /**
+     * Gets the threads handlers actually run on, which is the worker pool if virtual threads
+     * were requested but are not supported by the runtime.
+     *
+     * @return the effective execution mode
+     */
+    public WebSocketExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Schedules a task for the given session. Tasks of the same session never run concurrently
+     * and are executed in the order they were submitted. Tasks of a released session are dropped.
+     *
+     * @param sessionId the ID of the WebSocket session
+     * @param task the task to execute
+     */
+    public void execute(String sessionId, Runnable task) {
+        // A released session is marked closed before its executor is removed, so it is never recreated
+        SerialExecutor executor = sessionExecutors.computeIfAbsent(sessionId,
+                id -> closedSessions.contains(id) ? null : new SerialExecutor());
+        if (executor == null) {
+            LOGGER.debug("Dropped event of closed WebSocket session: " + sessionId);
+            return;
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Schedules the last task for the given session and releases its serial executor once the task has run.
+     *
+     * @param sessionId the ID of the WebSocket session
+     * @param task the task to execute
+     */
+    public void executeAndRelease(String sessionId, Runnable task) {
+        execute(sessionId, () -> {
+            try {
+                task.run();
+            } finally {
+                markClosed(sessionId);
+                sessionExecutors.remove(sessionId);
+            }
+        });
+    }
+
+    private void markClosed(String sessionId) {
+        long now = System.nanoTime();
+        closedSessions.add(sessionId);
+        closedSessionsByAge.add(new ClosedSession(sessionId, now));
+        ClosedSession oldest;
+        while ((oldest = closedSessionsByAge.peek()) != null && now - oldest.closedAt() > CLOSED_SESSION_RETENTION_NANOS) {
+            if (closedSessionsByAge.remove(oldest)) {
+                closedSessions.remove(oldest.sessionId());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sessions that currently own a serial executor.
+     *
+     * @return the number of tracked sessions
+     */
+    public int getActiveSessionCount() {
+        return sessionExecutors.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (pinningMonitor != null) {
+            pinningMonitor.close();
+        }
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task. Looked up reflectively, so the
+     * application still builds and runs on Java 17, where it falls back to the worker pool.
+     *
+     * @return the executor, or null if the runtime has no virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "ws-virtual-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads require Java 21, falling back to the worker pool on Java " + Runtime.version().feature());
+            return null;
+        }
+    }
+
+    /**
+     * Runs submitted tasks one at a time on the shared worker pool.
+     */
+    private final class SerialExecutor {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workerPool.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Runnable task;
+                int executed = 0;
+                while (executed++ < MAX_TASKS_PER_TURN && (task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        LOGGER.error("Unhandled error in WebSocket task", e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    private record ClosedSession(String sessionId, long closedAt) {
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ws-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
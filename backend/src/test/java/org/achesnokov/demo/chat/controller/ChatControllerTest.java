@@ -8,16 +8,27 @@ import jakarta.ws.rs.core.Response;
 import org.achesnokov.demo.chat.model.Chat;
 import org.achesnokov.demo.chat.model.ChatParticipant;
 import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessageHistoryPage;
+import org.achesnokov.demo.chat.model.PresenceDTO;
 import org.achesnokov.demo.chat.model.User;
 import org.achesnokov.demo.chat.service.AuthService;
 import org.achesnokov.demo.chat.service.ChatService;
+import org.achesnokov.demo.chat.service.ChatSessionService;
 import org.achesnokov.demo.chat.service.MessageService;
+import org.achesnokov.demo.chat.service.PresenceService;
+import org.achesnokov.demo.chat.service.RateLimitExceededException;
+import org.achesnokov.demo.chat.service.RateLimitRoute;
+import org.achesnokov.demo.chat.service.RateLimiter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
@@ -34,9 +45,18 @@ public class ChatControllerTest {
     @InjectMock
     MessageService messageService;
 
+    @InjectMock
+    ChatSessionService chatSessionService;
+
+    @InjectMock
+    PresenceService presenceService;
+
     @InjectMock
     AuthService authService;
 
+    @InjectMock
+    RateLimiter rateLimiter;
+
     @Test
     @TestSecurity(user = "user-123")
     void testCreateChatSuccessfully() {
@@ -244,4 +264,158 @@ public class ChatControllerTest {
                 .statusCode(Response.Status.UNAUTHORIZED.getStatusCode())
                 .body(is("User not found"));
     }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testGetOnlineMembers() {
+        String chatId = "chat-123";
+        when(presenceService.getPresence(chatId))
+                .thenReturn(new PresenceDTO(chatId, List.of("alice", "bob"), List.of("bob"), 1));
+
+        given()
+                .when().get("/api/chats/" + chatId + "/online")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("online", contains("alice", "bob"))
+                .body("typing", contains("bob"))
+                .body("typingCount", is(1));
+    }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testGetMessagesWithoutPagingReturnsTheWholeHistoryAsArray() {
+        String chatId = "chat-123";
+        when(chatService.getChartParticipantsUsers(chatId)).thenReturn(Set.of(user("user-123", "alice")));
+        when(messageService.getAllMessagesByChatId(chatId)).thenReturn(List.of(
+                message("user-123", "first", "2024-01-01T00:00:00Z"),
+                message("user-123", "second", "2024-01-01T00:00:01Z")));
+
+        given()
+                .when().get("/api/chats/" + chatId + "/messages")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("size()", is(2))
+                .body("content", contains("first", "second"))
+                .body("sender", contains("alice", "alice"));
+        Mockito.verify(messageService, Mockito.never()).getMessageHistory(anyString(), any(), any(), Mockito.anyInt());
+    }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testGetMessagesPagesWithCursors() {
+        String chatId = "chat-123";
+        when(chatService.getChartParticipantsUsers(chatId)).thenReturn(Set.of(user("user-123", "alice")));
+        when(messageService.getMessageHistory(chatId, null, null, 2)).thenReturn(new MessageHistoryPage(List.of(
+                message("user-123", "fourth", "2024-01-01T00:00:03Z"),
+                message("user-123", "third", "2024-01-01T00:00:02Z")), "cursor-3"));
+        when(messageService.getMessageHistory(chatId, "cursor-3", null, 2)).thenReturn(new MessageHistoryPage(List.of(
+                message("user-123", "second", "2024-01-01T00:00:01Z")), null));
+
+        given()
+                .when().get("/api/chats/" + chatId + "/messages?limit=2")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("messages.content", contains("fourth", "third"))
+                .body("nextCursor", is("cursor-3"));
+        given()
+                .when().get("/api/chats/" + chatId + "/messages?limit=2&before=cursor-3")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("messages.content", contains("second"))
+                .body("nextCursor", nullValue());
+    }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testGetMessagesPageSizeIsBounded() {
+        String chatId = "chat-123";
+        when(messageService.getMessageHistory(anyString(), any(), any(), Mockito.anyInt()))
+                .thenReturn(new MessageHistoryPage(List.of(), null));
+
+        given().when().get("/api/chats/" + chatId + "/messages?limit=1000").then().statusCode(Response.Status.OK.getStatusCode());
+        given().when().get("/api/chats/" + chatId + "/messages?after=cursor-1").then().statusCode(Response.Status.OK.getStatusCode());
+
+        Mockito.verify(messageService).getMessageHistory(chatId, null, null, 200);
+        Mockito.verify(messageService).getMessageHistory(chatId, null, "cursor-1", 50);
+    }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testGetMessagesWithMalformedCursorIsBadRequest() {
+        String chatId = "chat-123";
+        when(messageService.getMessageHistory(chatId, "not-a-cursor", null, 50))
+                .thenThrow(new IllegalArgumentException("Invalid cursor: not-a-cursor"));
+
+        given()
+                .when().get("/api/chats/" + chatId + "/messages?before=not-a-cursor")
+                .then()
+                .statusCode(Response.Status.BAD_REQUEST.getStatusCode())
+                .body(is("Invalid cursor: not-a-cursor"));
+    }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testSendMessageOverRateIsRejected() {
+        String chatId = "chat-123";
+        User currentUser = new User();
+        currentUser.setUserId("user-123");
+        Message message = new Message();
+        message.setContent("flood");
+
+        when(authService.getCurrentUser()).thenReturn(Optional.of(currentUser));
+        Mockito.doThrow(new RateLimitExceededException("user", Duration.ofMillis(1500)))
+                .when(rateLimiter).acquire(RateLimitRoute.REST, "user-123", chatId);
+
+        given()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(message)
+                .when().post("/api/chats/" + chatId + "/messages")
+                .then()
+                .statusCode(Response.Status.TOO_MANY_REQUESTS.getStatusCode())
+                .header("Retry-After", "2");
+        Mockito.verify(chatSessionService, Mockito.never()).postMessage(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    @TestSecurity(user = "user-123")
+    void testSendMessageIsPostedInTheChatsOrder() {
+        String chatId = "chat-123";
+        User currentUser = new User();
+        currentUser.setUserId("user-123");
+        currentUser.setUsername("alice");
+        Message message = new Message();
+        message.setContent("hello");
+        Message posted = new Message();
+        posted.setContent("hello");
+        posted.setTimestamp(Instant.parse("2024-01-01T00:00:00Z"));
+
+        when(authService.getCurrentUser()).thenReturn(Optional.of(currentUser));
+        when(chatSessionService.postMessage(chatId, "user-123", "alice", "hello"))
+                .thenReturn(CompletableFuture.completedFuture(posted));
+
+        given()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(message)
+                .when().post("/api/chats/" + chatId + "/messages")
+                .then()
+                .statusCode(Response.Status.CREATED.getStatusCode())
+                .body("sender", is("alice"))
+                .body("content", is("hello"));
+        Mockito.verify(messageService, Mockito.never()).createMessage(anyString(), anyString(), anyString());
+    }
+
+    private static User user(String userId, String username) {
+        User user = new User();
+        user.setUserId(userId);
+        user.setUsername(username);
+        return user;
+    }
+
+    private static Message message(String userId, String content, String timestamp) {
+        Message message = new Message();
+        message.setUserId(userId);
+        message.setContent(content);
+        message.setTimestamp(Instant.parse(timestamp));
+        return message;
+    }
 }
@@ -22,7 +22,8 @@ public class ConfigControllerTest {
                 .then()
                 .statusCode(Response.Status.OK.getStatusCode())
                 .contentType(MediaType.APPLICATION_JSON)
-                .body("websocketHost", is("ws://localhost:8080"));
+                .body("websocketHost", is("ws://localhost:8080"))
+                .body("websocketChatPath", is("/chat/ws"));
     }
 
 }
@@ -0,0 +1,100 @@
+package org.achesnokov.demo.chat.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.HandshakeRequest;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.Buffer;
+import org.achesnokov.demo.chat.service.ChatConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NextChatConnectionTest {
+
+    WebSocketConnection connection;
+
+    @BeforeEach
+    void setUp() {
+        connection = mock(WebSocketConnection.class);
+        HandshakeRequest handshakeRequest = mock(HandshakeRequest.class);
+        when(connection.id()).thenReturn("connection-1");
+        when(connection.handshakeRequest()).thenReturn(handshakeRequest);
+        when(handshakeRequest.query()).thenReturn("token=a%2Bb&seq=42");
+    }
+
+    @Test
+    void exposesHandshakeParameters() {
+        NextChatConnection chatConnection = new NextChatConnection(connection);
+
+        assertEquals("connection-1", chatConnection.getId());
+        assertEquals(List.of("a+b"), chatConnection.getRequestParameters().get("token"), "Parameters should be decoded");
+        assertEquals(List.of("42"), chatConnection.getRequestParameters().get("seq"));
+        assertEquals("", chatConnection.getSubprotocol(), "No subprotocol means JSON frames");
+        assertNull(chatConnection.getToken(), "Connection should not be authenticated before the token is set");
+    }
+
+    @Test
+    void sendCompletionIsReportedToCallback() {
+        when(connection.sendText("ok")).thenReturn(Uni.createFrom().voidItem());
+        when(connection.sendText("broken")).thenReturn(Uni.createFrom().failure(new IOException("Connection reset")));
+        when(connection.sendBinary(any(Buffer.class))).thenReturn(Uni.createFrom().voidItem());
+        NextChatConnection chatConnection = new NextChatConnection(connection);
+        AtomicBoolean ok = new AtomicBoolean();
+        AtomicReference<Throwable> broken = new AtomicReference<>();
+        AtomicBoolean binary = new AtomicBoolean();
+
+        chatConnection.sendText("ok", failure -> ok.set(failure == null));
+        chatConnection.sendText("broken", broken::set);
+        chatConnection.sendBinary(ByteBuffer.wrap("cbor".getBytes(StandardCharsets.UTF_8)), failure -> binary.set(failure == null));
+
+        assertTrue(ok.get());
+        assertEquals("Connection reset", broken.get().getMessage(), "A failed send must be reported as failed");
+        ArgumentCaptor<Buffer> sent = ArgumentCaptor.forClass(Buffer.class);
+        verify(connection).sendBinary(sent.capture());
+        assertEquals("cbor", sent.getValue().toString(StandardCharsets.UTF_8));
+        assertTrue(binary.get());
+    }
+
+    @Test
+    void binarySendCopiesOnlyTheRemainingBytes() {
+        when(connection.sendBinary(any(Buffer.class))).thenReturn(Uni.createFrom().voidItem());
+        NextChatConnection chatConnection = new NextChatConnection(connection);
+        ByteBuffer frame = ByteBuffer.wrap("--cbor".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        frame.position(2);
+
+        chatConnection.sendBinary(frame, failure -> { });
+
+        ArgumentCaptor<Buffer> sent = ArgumentCaptor.forClass(Buffer.class);
+        verify(connection).sendBinary(sent.capture());
+        assertEquals("cbor", sent.getValue().toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void closeCodeIsPassedToConnection() {
+        when(connection.close(any(CloseReason.class))).thenReturn(Uni.createFrom().voidItem());
+        NextChatConnection chatConnection = new NextChatConnection(connection);
+
+        chatConnection.close(ChatConnection.VIOLATED_POLICY, "Authentication failed");
+
+        ArgumentCaptor<CloseReason> reason = ArgumentCaptor.forClass(CloseReason.class);
+        verify(connection).close(reason.capture());
+        assertEquals(1008, reason.getValue().getCode());
+        assertEquals("Authentication failed", reason.getValue().getMessage());
+    }
+}
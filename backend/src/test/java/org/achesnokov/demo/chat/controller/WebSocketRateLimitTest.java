@@ -0,0 +1,153 @@
+package org.achesnokov.demo.chat.controller;
+
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.smallrye.jwt.build.Jwt;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessagePage;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
+import org.achesnokov.demo.chat.service.MessageService;
+import org.achesnokov.demo.chat.service.SessionAuthorizationCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@QuarkusTest
+@TestProfile(WebSocketRateLimitTest.OneMessagePerUser.class)
+public class WebSocketRateLimitTest {
+
+    private static final String CHAT_ID = "chat-123";
+
+    @InjectMock
+    SessionAuthorizationCache sessionAuthorizationCache;
+
+    @InjectMock
+    MessageService messageService;
+
+    private final MessageIdGenerator messageIdGenerator = new MessageIdGenerator();
+
+    @TestHTTPResource("/")
+    URI baseUri;
+
+    @BeforeEach
+    void setUp() {
+        User user = new User();
+        user.setUserId("user-123");
+        user.setUsername("alice");
+        when(sessionAuthorizationCache.findUserByUsername("alice")).thenReturn(Optional.of(user));
+        when(sessionAuthorizationCache.isActiveParticipant(CHAT_ID, "user-123")).thenReturn(true);
+        when(messageService.getLatestMessages(anyString(), any(), any(), anyInt())).thenReturn(new MessagePage(List.of(), false));
+        when(messageService.createMessage(anyString(), anyString(), anyString(), any(Instant.class))).thenAnswer(invocation -> {
+            Message message = new Message();
+            message.setMessageId(messageIdGenerator.next(invocation.getArgument(3)));
+            message.setChatId(invocation.getArgument(0));
+            message.setUserId(invocation.getArgument(1));
+            message.setContent(invocation.getArgument(2));
+            message.setTimestamp(invocation.getArgument(3));
+            message.setSequence(1L);
+            return message;
+        });
+    }
+
+    @Test
+    void messageOverUserRateGetsRateLimitedFrame() throws Exception {
+        BlockingQueue<JsonObject> frames = new LinkedBlockingQueue<>();
+        String token = Jwt.subject("alice").upn("alice").sign();
+        URI endpoint = URI.create("ws://" + baseUri.getHost() + ":" + baseUri.getPort()
+                + WebSocketStack.JAKARTA.getChatPath() + "/" + CHAT_ID + "?token=" + token);
+        WebSocket socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(endpoint, new Listener(frames))
+                .get(10, TimeUnit.SECONDS);
+        assertNotNull(next(frames, "history"), "Client should receive its history");
+
+        socket.sendText("first", true).join();
+        socket.sendText("second", true).join();
+
+        JsonObject error = next(frames, "error");
+        assertNotNull(error, "The second message should be rejected");
+        assertEquals("rate_limited", error.getString("code"));
+        assertEquals(CHAT_ID, error.getString("chatId"));
+        assertTrue(error.getJsonNumber("retryAfterMs").longValue() > 0, "Client should learn when to retry");
+        Mockito.verify(messageService, Mockito.timeout(5000).times(1))
+                .createMessage(anyString(), anyString(), anyString(), any(Instant.class));
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+    }
+
+    private static JsonObject next(BlockingQueue<JsonObject> frames, String type) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        JsonObject frame;
+        while ((frame = frames.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+            if (type.equals(frame.getString("type"))) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Allows a single WebSocket message per user, refilled far slower than the test runs.
+     */
+    public static class OneMessagePerUser implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "org.achesnokov.demo.chat.rate_limit_websocket_user_per_second", "0.01",
+                    "org.achesnokov.demo.chat.rate_limit_websocket_user_burst", "1");
+        }
+    }
+
+    /**
+     * Client queueing every frame it receives.
+     */
+    private static final class Listener implements WebSocket.Listener {
+        private final BlockingQueue<JsonObject> frames;
+        private final StringBuilder text = new StringBuilder();
+
+        private Listener(BlockingQueue<JsonObject> frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                try (JsonReader reader = Json.createReader(new StringReader(text.toString()))) {
+                    frames.add(reader.readObject());
+                }
+                text.setLength(0);
+            }
+            webSocket.request(1);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.achesnokov.demo.chat.controller;
+
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.smallrye.jwt.build.Jwt;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessagePage;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
+import org.achesnokov.demo.chat.service.MessageService;
+import org.achesnokov.demo.chat.service.SessionAuthorizationCache;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Side-by-side throughput and latency comparison of the Jakarta and WebSockets Next per-chat endpoints.
+ * Every client posts messages to one chat and measures how long its own messages take to come back
+ * through the fan-out, while receiving everybody else's. Persistence is mocked, so the numbers
+ * reflect the WebSocket stacks and the shared delivery path only. The clients send far faster than the
+ * default message rate limits allow, so the benchmark runs with them disabled.
+ * <p>
+ * Run with {@code -Dchat.benchmark=true}; results are logged.
+ */
+@QuarkusTest
+@TestProfile(WebSocketStackComparisonTest.UnlimitedMessageRate.class)
+@EnabledIfSystemProperty(named = "chat.benchmark", matches = "true")
+public class WebSocketStackComparisonTest {
+    private static final Logger LOGGER = Logger.getLogger(WebSocketStackComparisonTest.class);
+
+    private static final String CHAT_ID = "benchmark-chat";
+    private static final int CLIENTS = 20;
+    private static final int MESSAGES_PER_CLIENT = 200;
+    private static final int ROUNDS = 3;
+
+    @InjectMock
+    SessionAuthorizationCache sessionAuthorizationCache;
+
+    @InjectMock
+    MessageService messageService;
+
+    @TestHTTPResource("/")
+    URI baseUri;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final MessageIdGenerator messageIdGenerator = new MessageIdGenerator();
+
+    @BeforeEach
+    void setUp() {
+        when(sessionAuthorizationCache.findUserByUsername(anyString())).thenAnswer(invocation -> {
+            User user = new User();
+            user.setUserId(invocation.getArgument(0));
+            user.setUsername(invocation.getArgument(0));
+            return Optional.of(user);
+        });
+        when(sessionAuthorizationCache.isActiveParticipant(anyString(), anyString())).thenReturn(true);
+        when(messageService.getLatestMessages(anyString(), any(), any(), anyInt())).thenReturn(new MessagePage(List.of(), false));
+        when(messageService.createMessage(anyString(), anyString(), anyString(), any(Instant.class))).thenAnswer(invocation -> {
+            Message message = new Message();
+            message.setMessageId(messageIdGenerator.next(invocation.getArgument(3)));
+            message.setChatId(invocation.getArgument(0));
+            message.setUserId(invocation.getArgument(1));
+            message.setContent(invocation.getArgument(2));
+            message.setTimestamp(invocation.getArgument(3));
+            message.setSequence(sequence.incrementAndGet());
+            return message;
+        });
+    }
+
+    @Test
+    void compareStacks() throws Exception {
+        // The first round of each stack only warms up
+        for (int round = 0; round < ROUNDS; round++) {
+            for (WebSocketStack stack : WebSocketStack.values()) {
+                Result result = run(stack);
+                if (round > 0) {
+                    LOGGER.info(String.format("%-7s round %d: %,.0f deliveries/s, latency p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                            stack, round, result.deliveriesPerSecond(), result.percentileMillis(0.50),
+                            result.percentileMillis(0.99), result.percentileMillis(1.0)));
+                }
+            }
+        }
+    }
+
+    private Result run(WebSocketStack stack) throws Exception {
+        int expectedFrames = CLIENTS * MESSAGES_PER_CLIENT;
+        CountDownLatch connected = new CountDownLatch(CLIENTS);
+        CountDownLatch delivered = new CountDownLatch(CLIENTS * expectedFrames);
+        List<Client> clients = new ArrayList<>();
+        HttpClient httpClient = HttpClient.newHttpClient();
+        URI endpoint = URI.create("ws://" + baseUri.getHost() + ":" + baseUri.getPort() + stack.getChatPath() + "/" + CHAT_ID);
+        for (int i = 0; i < CLIENTS; i++) {
+            Client client = new Client("bench-" + i, connected, delivered);
+            String token = Jwt.subject(client.username).upn(client.username).sign();
+            client.socket = httpClient.newWebSocketBuilder()
+                    .buildAsync(URI.create(endpoint + "?token=" + token), client)
+                    .get(10, TimeUnit.SECONDS);
+            clients.add(client);
+        }
+        assertTrue(connected.await(10, TimeUnit.SECONDS), stack + ": clients did not receive their history");
+
+        long start = System.nanoTime();
+        List<Thread> senders = new ArrayList<>();
+        for (Client client : clients) {
+            Thread sender = new Thread(() -> {
+                for (int n = 0; n < MESSAGES_PER_CLIENT; n++) {
+                    client.socket.sendText(client.username + ":" + System.nanoTime(), true).join();
+                }
+            });
+            sender.start();
+            senders.add(sender);
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        assertTrue(delivered.await(60, TimeUnit.SECONDS), stack + ": not every message was delivered to every client");
+        long elapsed = System.nanoTime() - start;
+
+        for (Client client : clients) {
+            client.socket.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+        }
+        return new Result(clients, (long) CLIENTS * expectedFrames, elapsed);
+    }
+
+    /**
+     * Disables the WebSocket message rate limits, which would otherwise reject most benchmark messages.
+     */
+    public static class UnlimitedMessageRate implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "org.achesnokov.demo.chat.rate_limit_websocket_user_per_second", "0",
+                    "org.achesnokov.demo.chat.rate_limit_websocket_chat_per_second", "0");
+        }
+    }
+
+    /**
+     * Benchmark client counting delivered messages and recording the latency of its own.
+     */
+    private static final class Client implements WebSocket.Listener {
+        private final String username;
+        private final CountDownLatch connected;
+        private final CountDownLatch delivered;
+        private final long[] latencies = new long[MESSAGES_PER_CLIENT];
+        private int latencyCount;
+        private final StringBuilder text = new StringBuilder();
+        private WebSocket socket;
+
+        private Client(String username, CountDownLatch connected, CountDownLatch delivered) {
+            this.username = username;
+            this.connected = connected;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                handle(parse(text.toString()), System.nanoTime());
+                text.setLength(0);
+            }
+            webSocket.request(1);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private void handle(JsonObject frame, long receivedAt) {
+            switch (frame.getString("type")) {
+                case "history" -> connected.countDown();
+                case "batch" -> frame.getJsonArray("messages")
+                        .forEach(value -> handle(value.asJsonObject(), receivedAt));
+                case "message" -> {
+                    String content = frame.getString("content");
+                    if (content.startsWith(username + ":") && latencyCount < latencies.length) {
+                        latencies[latencyCount++] = receivedAt - Long.parseLong(content.substring(username.length() + 1));
+                    }
+                    delivered.countDown();
+                }
+                default -> {
+                    // Presence and system notices are not measured
+                }
+            }
+        }
+
+        private static JsonObject parse(String text) {
+            try (JsonReader reader = Json.createReader(new StringReader(text))) {
+                JsonValue value = reader.readValue();
+                return value.asJsonObject();
+            }
+        }
+    }
+
+    private static final class Result {
+        private final long[] latencies;
+        private final long deliveries;
+        private final long elapsedNanos;
+
+        private Result(List<Client> clients, long deliveries, long elapsedNanos) {
+            this.latencies = clients.stream()
+                    .flatMapToLong(client -> Arrays.stream(client.latencies, 0, client.latencyCount))
+                    .sorted()
+                    .toArray();
+            this.deliveries = deliveries;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        double deliveriesPerSecond() {
+            return deliveries * 1e9 / elapsedNanos;
+        }
+
+        double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(latencies.length - 1, Math.ceil(percentile * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.achesnokov.demo.chat.model;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameEncodingTest {
+
+    @Test
+    void fromSubprotocolDefaultsToJson() {
+        assertEquals(FrameEncoding.CBOR, FrameEncoding.fromSubprotocol("chat.v1.cbor"));
+        assertEquals(FrameEncoding.JSON, FrameEncoding.fromSubprotocol("chat.v1.json"));
+        assertEquals(FrameEncoding.JSON, FrameEncoding.fromSubprotocol(""));
+        assertEquals(FrameEncoding.JSON, FrameEncoding.fromSubprotocol(null));
+    }
+
+    @Test
+    void cborRoundTripKeepsEnvelope() {
+        String json = liveMessage(1).toString();
+
+        assertEquals(json, FrameEncoding.cborToJson(FrameEncoding.jsonToCbor(json)), "Round trip should not change the message");
+    }
+
+    @Test
+    void cborToJsonRejectsInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> FrameEncoding.cborToJson(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> FrameEncoding.cborToJson(new byte[]{(byte) 0xff, 0x01}));
+    }
+
+    @Test
+    void binaryFrameIsSharedButPositionedIndependently() {
+        OutboundFrame frame = OutboundFrame.of(liveMessage(1));
+
+        ByteBuffer first = frame.getBinary();
+        first.get();
+        ByteBuffer second = frame.getBinary();
+
+        assertNotSame(first, second, "Every send needs its own buffer");
+        assertEquals(0, second.position(), "New buffer should start at the beginning");
+        assertTrue(second.isReadOnly(), "Shared bytes must not be modified");
+    }
+
+    /**
+     * Compares encoded size and encoding cost of both encodings for a live message and a history page.
+     * The CPU cost is only checked loosely, as timing in unit tests is noisy.
+     */
+    @Test
+    void cborIsSmallerThanJsonForLiveAndHistoryFrames() {
+        JsonArrayBuilder messages = Json.createArrayBuilder();
+        for (int i = 0; i < 50; i++) {
+            messages.add(liveMessage(i));
+        }
+        JsonObject history = Json.createObjectBuilder()
+                .add("type", "history")
+                .add("messages", messages)
+                .add("hasMore", true)
+                .build();
+
+        for (JsonObject message : new JsonObject[]{liveMessage(1), history}) {
+            String json = message.toString();
+            byte[] cbor = FrameEncoding.jsonToCbor(json);
+            assertTrue(cbor.length < json.getBytes().length,
+                    "CBOR should be smaller: " + cbor.length + " vs " + json.getBytes().length + " bytes");
+
+            long jsonNanos = time(() -> Json.createObjectBuilder(message).build().toString());
+            long cborNanos = time(() -> FrameEncoding.jsonToCbor(json));
+            assertTrue(cborNanos < jsonNanos * 20, "CBOR transcoding should cost the same order as JSON encoding");
+        }
+    }
+
+    private static long time(Runnable encoding) {
+        for (int i = 0; i < 2_000; i++) {
+            encoding.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 2_000; i++) {
+            encoding.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static JsonObject liveMessage(int n) {
+        return Json.createObjectBuilder()
+                .add("type", "message")
+                .add("username", "user-" + n)
+                .add("content", "Hello, this is message number " + n)
+                .add("timestamp", Instant.parse("2024-01-01T00:00:00Z").plusSeconds(n).toString())
+                .build();
+    }
+}
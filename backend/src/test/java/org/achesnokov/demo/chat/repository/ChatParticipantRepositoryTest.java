@@ -0,0 +1,69 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.List;
+import java.util.Map;
+
+import org.achesnokov.demo.chat.model.ChatParticipant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.paginators.QueryIterable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ChatParticipantRepositoryTest {
+
+    @Mock
+    DynamoDbClient dynamoDbClient;
+
+    @Mock
+    DynamoDbBatchReader batchReader;
+
+    ChatParticipantRepository chatParticipantRepository;
+
+    @BeforeEach
+    void setUp() {
+        chatParticipantRepository = new ChatParticipantRepository(dynamoDbClient, batchReader);
+    }
+
+    @Test
+    void findByUserIdQueriesEveryPageOfTheUserIndex() {
+        Map<String, AttributeValue> lastKey = participant("chat-1", "user-1");
+        when(dynamoDbClient.queryPaginator(any(QueryRequest.class)))
+                .thenAnswer(invocation -> new QueryIterable(dynamoDbClient, invocation.getArgument(0)));
+        when(dynamoDbClient.query(any(QueryRequest.class)))
+                .thenReturn(QueryResponse.builder().items(participant("chat-1", "user-1")).lastEvaluatedKey(lastKey).build())
+                .thenReturn(QueryResponse.builder().items(participant("chat-2", "user-1")).build());
+
+        List<ChatParticipant> participants = chatParticipantRepository.findByUserId("user-1");
+
+        assertEquals(List.of("chat-1", "chat-2"), participants.stream().map(ChatParticipant::getChatId).toList());
+        ArgumentCaptor<QueryRequest> captor = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDbClient, times(2)).query(captor.capture());
+        QueryRequest first = captor.getAllValues().get(0);
+        assertEquals(ChatParticipant.USER_INDEX, first.indexName());
+        assertEquals("user-1", first.expressionAttributeValues().values().iterator().next().s());
+        assertTrue(first.exclusiveStartKey().isEmpty(), "The first page should start at the beginning");
+        assertEquals(lastKey, captor.getAllValues().get(1).exclusiveStartKey(), "The next page should start after the previous one");
+        verify(dynamoDbClient, never()).scan(any(ScanRequest.class));
+    }
+
+    private static Map<String, AttributeValue> participant(String chatId, String userId) {
+        return Map.of("chatId", AttributeValue.fromS(chatId), "userId", AttributeValue.fromS(userId));
+    }
+}
@@ -0,0 +1,152 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.achesnokov.demo.chat.model.Chat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ChatRepositoryTest {
+
+    /**
+     * Latency of a DynamoDB round trip in the stand-in.
+     */
+    private static final long ROUND_TRIP_MILLIS = 2;
+
+    @Mock
+    DynamoDbClient dynamoDbClient;
+
+    DynamoDbBatchReader batchReader;
+
+    ChatRepository chatRepository;
+
+    @AfterEach
+    void tearDown() {
+        if (batchReader != null) {
+            batchReader.shutdown();
+        }
+    }
+
+    @Test
+    void chatsAreReadInChunksOfOneHundredInRequestOrder() {
+        chatRepository = newChatRepository(4);
+        List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<>());
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class))).thenAnswer(invocation -> {
+            List<Map<String, AttributeValue>> keys = keysOf(invocation.getArgument(0));
+            chunkSizes.add(keys.size());
+            // DynamoDB returns the items of a batch in no particular order
+            List<Map<String, AttributeValue>> items = new ArrayList<>(keys);
+            Collections.reverse(items);
+            return BatchGetItemResponse.builder().responses(Map.of("Chat", items)).build();
+        });
+        List<String> chatIds = IntStream.range(0, 250).mapToObj(i -> "chat-" + i).collect(Collectors.toList());
+
+        List<Chat> chats = chatRepository.findByIds(chatIds);
+
+        assertEquals(chatIds, chats.stream().map(Chat::getChatId).collect(Collectors.toList()));
+        assertEquals(List.of(50, 100, 100), chunkSizes.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void unprocessedKeysAreRetried() {
+        chatRepository = newChatRepository(1);
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class)))
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Map.of("Chat", List.of(key("chat-1"))))
+                        .unprocessedKeys(Map.of("Chat", KeysAndAttributes.builder().keys(key("chat-2")).build()))
+                        .build())
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Map.of("Chat", List.of(key("chat-2"))))
+                        .build());
+
+        List<Chat> chats = chatRepository.findByIds(List.of("chat-2", "chat-1", "chat-3"));
+
+        assertEquals(List.of("chat-2", "chat-1"), chats.stream().map(Chat::getChatId).collect(Collectors.toList()),
+                "Chats should keep the requested order and missing chats should be skipped");
+    }
+
+    @Test
+    void keysUnprocessedOnEveryAttemptFailTheLookup() {
+        chatRepository = newChatRepository(1);
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class)))
+                .thenReturn(BatchGetItemResponse.builder()
+                        .unprocessedKeys(Map.of("Chat", KeysAndAttributes.builder().keys(key("chat-1")).build()))
+                        .build());
+
+        assertThrows(IllegalStateException.class, () -> chatRepository.findByIds(List.of("chat-1")));
+    }
+
+    @Test
+    void batchedLookupIsFasterThanOneGetItemPerChat() {
+        chatRepository = newChatRepository(4);
+        when(dynamoDbClient.getItem(any(GetItemRequest.class))).thenAnswer(invocation -> {
+            sleep(ROUND_TRIP_MILLIS);
+            return GetItemResponse.builder().item(((GetItemRequest) invocation.getArgument(0)).key()).build();
+        });
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class))).thenAnswer(invocation -> {
+            sleep(ROUND_TRIP_MILLIS);
+            return BatchGetItemResponse.builder().responses(Map.of("Chat", keysOf(invocation.getArgument(0)))).build();
+        });
+        List<String> chatIds = IntStream.range(0, 200).mapToObj(i -> "chat-" + i).collect(Collectors.toList());
+        // Starts the pool threads and loads the classes of both paths outside the measurement
+        chatRepository.findByIds(chatIds);
+        chatRepository.findById("chat-0");
+
+        long start = System.nanoTime();
+        chatIds.forEach(chatRepository::findById);
+        long serial = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<Chat> chats = chatRepository.findByIds(chatIds);
+        long batched = System.nanoTime() - start;
+
+        assertEquals(200, chats.size());
+        // 200 sequential round trips against 2 parallel ones
+        assertTrue(batched * 5 < serial, String.format("Batched lookup took %d ms, one get per chat %d ms",
+                TimeUnit.NANOSECONDS.toMillis(batched), TimeUnit.NANOSECONDS.toMillis(serial)));
+    }
+
+    private ChatRepository newChatRepository(int parallelism) {
+        batchReader = new DynamoDbBatchReader(dynamoDbClient, parallelism, new SimpleMeterRegistry());
+        return new ChatRepository(dynamoDbClient, batchReader);
+    }
+
+    private static List<Map<String, AttributeValue>> keysOf(BatchGetItemRequest request) {
+        return request.requestItems().get("Chat").keys();
+    }
+
+    private static Map<String, AttributeValue> key(String chatId) {
+        return Map.of("chatId", AttributeValue.fromS(chatId));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.achesnokov.demo.chat.model.ChatParticipant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DynamoDbBatchReaderTest {
+
+    @Mock
+    DynamoDbClient dynamoDbClient;
+
+    MeterRegistry meterRegistry;
+
+    DynamoDbBatchReader batchReader;
+
+    DynamoDbTable<ChatParticipant> participantTable;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        batchReader = new DynamoDbBatchReader(dynamoDbClient, 2, meterRegistry);
+        participantTable = DynamoDbEnhancedClient.builder()
+                .dynamoDbClient(dynamoDbClient)
+                .build()
+                .table("ChatParticipant", TableSchema.fromBean(ChatParticipant.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchReader.shutdown();
+    }
+
+    @Test
+    void itemsWithCompositeKeysKeepTheOrderOfTheirKeys() {
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class)))
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Map.of("ChatParticipant", List.of(item("chat-1", "user-2"), item("chat-1", "user-1"))))
+                        .build());
+
+        List<ChatParticipant> participants = batchReader.read(participantTable, List.of(
+                key("chat-1", "user-1"), key("chat-1", "user-3"), key("chat-1", "user-2"), key("chat-1", "user-1")));
+
+        assertEquals(List.of("user-1", "user-2"), participants.stream().map(ChatParticipant::getUserId).toList());
+        verify(dynamoDbClient).batchGetItem(argThat((BatchGetItemRequest request) ->
+                request.requestItems().get("ChatParticipant").keys().size() == 3));
+    }
+
+    @Test
+    void consumedCapacityAndRetriesAreReported() {
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class)))
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Map.of("ChatParticipant", List.of(item("chat-1", "user-1"))))
+                        .unprocessedKeys(Map.of("ChatParticipant", KeysAndAttributes.builder()
+                                .keys(item("chat-1", "user-2"))
+                                .build()))
+                        .consumedCapacity(capacity(1.5))
+                        .build())
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Map.of("ChatParticipant", List.of(item("chat-1", "user-2"))))
+                        .consumedCapacity(capacity(0.5))
+                        .build());
+
+        List<ChatParticipant> participants = batchReader.read(participantTable, List.of(key("chat-1", "user-1"), key("chat-1", "user-2")));
+
+        assertEquals(2, participants.size());
+        assertEquals(1.0, meterRegistry.get("chat.dynamodb.batch_get.retries").counter().count());
+        assertEquals(2.0, meterRegistry.get("chat.dynamodb.batch_get.capacity").tag("table", "ChatParticipant").summary().totalAmount());
+        verify(dynamoDbClient).batchGetItem(argThat((BatchGetItemRequest request) ->
+                request.returnConsumedCapacity() == ReturnConsumedCapacity.TOTAL
+                        && request.requestItems().get("ChatParticipant").keys().size() == 1));
+    }
+
+    private static Key key(String chatId, String userId) {
+        return Key.builder().partitionValue(chatId).sortValue(userId).build();
+    }
+
+    private static Map<String, AttributeValue> item(String chatId, String userId) {
+        return Map.of("chatId", AttributeValue.fromS(chatId), "userId", AttributeValue.fromS(userId));
+    }
+
+    private static ConsumedCapacity capacity(double units) {
+        return ConsumedCapacity.builder().tableName("ChatParticipant").capacityUnits(units).build();
+    }
+}
@@ -0,0 +1,91 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DynamoDbConcurrencyLimiterTest {
+
+    MeterRegistry meterRegistry;
+
+    DynamoDbConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new DynamoDbConcurrencyLimiter(2, 50, meterRegistry);
+    }
+
+    @Test
+    void callsBeyondLimitFailAfterTimeout() {
+        limiter.beforeExecution(null, new ExecutionAttributes());
+        limiter.beforeExecution(null, new ExecutionAttributes());
+
+        assertThrows(SdkClientException.class, () -> limiter.beforeExecution(null, new ExecutionAttributes()));
+        assertEquals(1.0, meterRegistry.get("chat.dynamodb.rejected").counter().count());
+        assertEquals(2.0, meterRegistry.get("chat.dynamodb.inflight").gauge().value());
+    }
+
+    @Test
+    void permitIsReturnedOnceOnSuccessOrFailure() {
+        ExecutionAttributes succeeded = new ExecutionAttributes();
+        ExecutionAttributes failed = new ExecutionAttributes();
+        limiter.beforeExecution(null, succeeded);
+        limiter.beforeExecution(null, failed);
+
+        limiter.afterExecution(null, succeeded);
+        limiter.onExecutionFailure(null, succeeded);
+        limiter.onExecutionFailure(null, failed);
+
+        assertEquals(2, limiter.getAvailablePermits(), "Every permit should be returned exactly once");
+    }
+
+    @Test
+    void rejectedCallDoesNotReturnPermit() {
+        limiter.beforeExecution(null, new ExecutionAttributes());
+        limiter.beforeExecution(null, new ExecutionAttributes());
+        ExecutionAttributes rejected = new ExecutionAttributes();
+        assertThrows(SdkClientException.class, () -> limiter.beforeExecution(null, rejected));
+
+        limiter.onExecutionFailure(null, rejected);
+
+        assertEquals(0, limiter.getAvailablePermits(), "A call without a permit must not release one");
+    }
+
+    @Test
+    void waitingCallProceedsWhenPermitIsReturned() throws Exception {
+        DynamoDbConcurrencyLimiter patient = new DynamoDbConcurrencyLimiter(1, 5000, meterRegistry);
+        ExecutionAttributes first = new ExecutionAttributes();
+        patient.beforeExecution(null, first);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch waiting = new CountDownLatch(1);
+            Future<?> second = executor.submit(() -> {
+                waiting.countDown();
+                patient.beforeExecution(null, new ExecutionAttributes());
+            });
+            waiting.await(5, TimeUnit.SECONDS);
+            Thread.sleep(50);
+            assertFalse(second.isDone(), "Second call should wait for the permit");
+
+            patient.afterExecution(null, first);
+
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageIdGeneratorTest {
+
+    MessageIdGenerator generator = new MessageIdGenerator();
+
+    @Test
+    void idsStartWithTheirMillisecond() {
+        Instant timestamp = Instant.parse("2024-01-01T12:34:56.789123Z");
+
+        String id = generator.next(timestamp);
+
+        assertEquals(MessageIdGenerator.LENGTH, id.length());
+        assertTrue(MessageIdGenerator.isValid(id));
+        assertEquals(Instant.parse("2024-01-01T12:34:56.789Z"), MessageIdGenerator.timestampOf(id));
+        assertTrue(MessageIdGenerator.lowerBound(timestamp).compareTo(id) <= 0);
+        assertTrue(MessageIdGenerator.upperBound(timestamp).compareTo(id) >= 0);
+    }
+
+    @Test
+    void idsSortLikeTheirTime() {
+        Instant timestamp = Instant.parse("2024-01-01T00:00:00Z");
+
+        String earlier = new MessageIdGenerator().next(timestamp);
+        String later = new MessageIdGenerator().next(timestamp.plusMillis(1));
+
+        assertTrue(earlier.compareTo(later) < 0, "An ID of a later millisecond should sort after, whatever its random part");
+        assertTrue(MessageIdGenerator.upperBound(timestamp).compareTo(MessageIdGenerator.lowerBound(timestamp.plusMillis(1))) < 0);
+    }
+
+    @Test
+    void idsIncreaseWithinAMillisecondAndWhenTheClockGoesBack() {
+        Instant timestamp = Instant.parse("2024-01-01T00:00:00Z");
+
+        String first = generator.next(timestamp);
+        String second = generator.next(timestamp);
+        String afterClockWentBack = generator.next(timestamp.minusSeconds(1));
+
+        assertTrue(first.compareTo(second) < 0);
+        assertTrue(second.compareTo(afterClockWentBack) < 0, "IDs of a node must never decrease");
+    }
+
+    @Test
+    void idsOfConcurrentThreadsAreUniqueAndIncreasingPerThread() throws Exception {
+        int threads = 8;
+        int idsPerThread = 20_000;
+        Instant timestamp = Instant.parse("2024-01-01T00:00:00Z");
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<String> all = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                String previous = "";
+                for (int n = 0; n < idsPerThread; n++) {
+                    // Every thread stays within two milliseconds to force the increment path
+                    String id = generator.next(timestamp.plusMillis(n % 2));
+                    if (id.compareTo(previous) <= 0) {
+                        failures.add(previous + " >= " + id);
+                    }
+                    previous = id;
+                    all.add(id);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertTrue(failures.isEmpty(), "IDs must increase per thread: " + failures.peek());
+        Set<String> unique = new HashSet<>(all);
+        assertEquals(threads * idsPerThread, unique.size(), "IDs must never repeat");
+    }
+
+    @Test
+    void legacyIdsAreDeterministicAndKeepTheOrderOfTimestamps() {
+        Instant timestamp = Instant.parse("2024-01-01T00:00:00.000000100Z");
+
+        String id = MessageIdGenerator.fromLegacy(timestamp, "3f2c1a7e-0000-4000-8000-000000000001");
+
+        assertEquals(id, MessageIdGenerator.fromLegacy(timestamp, "3f2c1a7e-0000-4000-8000-000000000001"));
+        assertNotEquals(id, MessageIdGenerator.fromLegacy(timestamp, "3f2c1a7e-0000-4000-8000-000000000002"));
+        assertTrue(id.compareTo(MessageIdGenerator.fromLegacy(timestamp.plusNanos(1), "0")) < 0,
+                "Messages sent within a millisecond should keep their order");
+        assertTrue(MessageIdGenerator.isValid(id));
+    }
+
+    @Test
+    void invalidIdsAreRejected() {
+        assertFalse(MessageIdGenerator.isValid(null));
+        assertFalse(MessageIdGenerator.isValid("3f2c1a7e-0000-4000-8000-000000000001"));
+        assertFalse(MessageIdGenerator.isValid("01HQ0000000000000000000000".replace('0', 'U')));
+        assertFalse(MessageIdGenerator.isValid("8ZZZZZZZZZZZZZZZZZZZZZZZZZ"), "IDs hold 128 bits");
+        assertThrows(IllegalArgumentException.class, () -> MessageIdGenerator.timestampOf("not an id"));
+    }
+}
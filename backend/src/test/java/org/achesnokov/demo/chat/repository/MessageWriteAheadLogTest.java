@@ -0,0 +1,134 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.achesnokov.demo.chat.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageWriteAheadLogTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void unacknowledgedMessagesAreRecoveredOnOpen() throws IOException {
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            long first = wal.append(message("1", "Hello", 1L));
+            wal.append(message("2", "\u041f\u0440\u0438\u0432\u0435\u0442, \u043c\u0438\u0440", null));
+            wal.acknowledge(first);
+        }
+
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            List<MessageWriteAheadLog.Entry> recovered = wal.getRecovered();
+
+            assertEquals(1, recovered.size(), "Only the unacknowledged message should be recovered");
+            Message message = recovered.get(0).getMessage();
+            assertEquals("2", message.getMessageId());
+            assertEquals("chat-1", message.getChatId());
+            assertEquals("user-1", message.getUserId());
+            assertEquals("\u041f\u0440\u0438\u0432\u0435\u0442, \u043c\u0438\u0440", message.getContent());
+            assertEquals(Instant.parse("2024-01-01T00:00:00.123456789Z"), message.getTimestamp());
+            assertNull(message.getSequence(), "A missing sequence number should stay missing");
+        }
+    }
+
+    @Test
+    void appendingAfterRecoveryContinuesTheLog() throws IOException {
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            wal.append(message("1", "first", 1L));
+        }
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            wal.append(message("2", "second", 2L));
+        }
+
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            assertEquals(List.of("1", "2"), messageIds(wal.getRecovered()), "Recovered records must not be overwritten");
+        }
+    }
+
+    @Test
+    void tornRecordEndsRecovery() throws IOException {
+        long end;
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            wal.append(message("1", "intact", 1L));
+            end = wal.append(message("2", "torn", 2L));
+        }
+        // Corrupts the last payload byte, as if the process died while copying the record
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), end - 1);
+        }
+
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            assertEquals(List.of("1"), messageIds(wal.getRecovered()), "The torn record should be discarded");
+            wal.append(message("3", "after", 3L));
+        }
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            assertEquals(List.of("1", "3"), messageIds(wal.getRecovered()), "A record appended after recovery should be found");
+        }
+    }
+
+    @Test
+    void logRollsOverToNewSegmentsAndDeletesAcknowledgedOnes() throws IOException {
+        String content = "x".repeat(1000);
+        long last = 0;
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            for (int i = 0; i < 10; i++) {
+                last = wal.append(message(String.valueOf(i), content, (long) i));
+            }
+            assertTrue(segments().size() >= 3, "Records should be spread over several segments");
+
+            wal.acknowledge(last);
+
+            assertEquals(1, segments().size(), "Only the segment being written should remain");
+        }
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            assertTrue(wal.getRecovered().isEmpty(), "Everything was acknowledged");
+        }
+    }
+
+    @Test
+    void messageLargerThanSegmentIsRejected() throws IOException {
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, SEGMENT_BYTES)) {
+            Message message = message("1", "x".repeat(SEGMENT_BYTES), 1L);
+
+            assertThrows(IllegalArgumentException.class, () -> wal.append(message));
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".wal")).sorted().toList();
+        }
+    }
+
+    private static List<String> messageIds(List<MessageWriteAheadLog.Entry> entries) {
+        return entries.stream().map(entry -> entry.getMessage().getMessageId()).toList();
+    }
+
+    private static Message message(String messageId, String content, Long sequence) {
+        Message message = new Message();
+        message.setChatId("chat-1");
+        message.setMessageId(messageId);
+        message.setUserId("user-1");
+        message.setContent(content);
+        message.setTimestamp(Instant.parse("2024-01-01T00:00:00.123456789Z"));
+        message.setSequence(sequence);
+        return message;
+    }
+}
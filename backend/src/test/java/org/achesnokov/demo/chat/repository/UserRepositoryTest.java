@@ -0,0 +1,155 @@
+package org.achesnokov.demo.chat.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.achesnokov.demo.chat.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class UserRepositoryTest {
+
+    @Mock
+    DynamoDbClient dynamoDbClient;
+
+    DynamoDbBatchReader batchReader;
+
+    UserRepository userRepository;
+
+    @BeforeEach
+    void setUp() {
+        batchReader = new DynamoDbBatchReader(dynamoDbClient, 2, new SimpleMeterRegistry());
+        userRepository = new UserRepository(dynamoDbClient, batchReader);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchReader.shutdown();
+    }
+
+    @Test
+    void findByUsernameUsesPointReads() {
+        stubGetItem("Username", Map.of(
+                "username", AttributeValue.fromS("alice"),
+                "userId", AttributeValue.fromS("user-1")));
+        stubGetItem("User", Map.of(
+                "userId", AttributeValue.fromS("user-1"),
+                "username", AttributeValue.fromS("alice")));
+
+        Optional<User> user = userRepository.findByUsername("alice");
+
+        assertTrue(user.isPresent());
+        assertEquals("user-1", user.get().getUserId());
+        verify(dynamoDbClient, never()).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    void newUserClaimsUsernameInTheSameTransaction() {
+        stubGetItem("User", Map.of());
+        when(dynamoDbClient.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenReturn(TransactWriteItemsResponse.builder().build());
+
+        userRepository.save(user("user-1", "alice"));
+
+        List<TransactWriteItem> items = capturedTransaction();
+        assertEquals(2, items.size());
+        assertEquals("Username", items.get(0).put().tableName());
+        assertEquals("attribute_not_exists(#username)", items.get(0).put().conditionExpression());
+        assertEquals("User", items.get(1).put().tableName());
+    }
+
+    @Test
+    void takenUsernameIsRejected() {
+        stubGetItem("User", Map.of());
+        when(dynamoDbClient.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenThrow(TransactionCanceledException.builder()
+                        .cancellationReasons(
+                                CancellationReason.builder().code("ConditionalCheckFailed").build(),
+                                CancellationReason.builder().code("None").build())
+                        .build());
+
+        assertThrows(IllegalArgumentException.class, () -> userRepository.save(user("user-2", "alice")));
+    }
+
+    @Test
+    void renamedUserReleasesThePreviousUsername() {
+        stubGetItem("User", Map.of(
+                "userId", AttributeValue.fromS("user-1"),
+                "username", AttributeValue.fromS("alice")));
+        when(dynamoDbClient.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenReturn(TransactWriteItemsResponse.builder().build());
+
+        userRepository.save(user("user-1", "alicia"));
+
+        List<TransactWriteItem> items = capturedTransaction();
+        assertEquals(3, items.size());
+        assertEquals("alicia", items.get(0).put().item().get("username").s());
+        assertEquals("Username", items.get(2).delete().tableName());
+        assertEquals("alice", items.get(2).delete().key().get("username").s());
+    }
+
+    @Test
+    void findByIdsReadsMoreThanOneHundredUsersWithoutDroppingAny() {
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class))).thenAnswer(invocation -> {
+            BatchGetItemRequest request = invocation.getArgument(0);
+            List<Map<String, AttributeValue>> keys = request.requestItems().get("User").keys();
+            assertTrue(keys.size() <= 100, "DynamoDB accepts at most 100 keys per batch");
+            return BatchGetItemResponse.builder().responses(Map.of("User", keys)).build();
+        });
+        Set<String> userIds = IntStream.range(0, 150).mapToObj(i -> "user-" + i).collect(Collectors.toSet());
+
+        Set<User> users = userRepository.findByIds(userIds);
+
+        assertEquals(userIds, users.stream().map(User::getUserId).collect(Collectors.toSet()));
+    }
+
+    private void stubGetItem(String tableName, Map<String, AttributeValue> item) {
+        when(dynamoDbClient.getItem(argThat((GetItemRequest request) -> request != null && tableName.equals(request.tableName()))))
+                .thenReturn(GetItemResponse.builder().item(item.isEmpty() ? null : item).build());
+    }
+
+    private List<TransactWriteItem> capturedTransaction() {
+        ArgumentCaptor<TransactWriteItemsRequest> captor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDbClient).transactWriteItems(captor.capture());
+        return captor.getValue().transactItems();
+    }
+
+    private static User user(String userId, String username) {
+        User user = new User();
+        user.setUserId(userId);
+        user.setUsername(username);
+        return user;
+    }
+}
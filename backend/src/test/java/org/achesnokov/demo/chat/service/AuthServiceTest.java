@@ -2,6 +2,7 @@ package org.achesnokov.demo.chat.service;
 
 import java.util.Optional;
 
+import io.quarkus.security.identity.SecurityIdentity;
 import io.smallrye.jwt.auth.principal.JWTParser;
 import io.smallrye.jwt.auth.principal.ParseException;
 import org.achesnokov.demo.chat.model.User;
@@ -19,6 +20,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -41,6 +43,12 @@ public class AuthServiceTest {
     @Mock
     JWTParser parser;
 
+    @Mock
+    SecurityIdentity securityIdentity;
+
+    @Mock
+    SessionAuthorizationCache sessionAuthorizationCache;
+
 
 
     @Test
@@ -77,6 +85,17 @@ public class AuthServiceTest {
         assertTrue(result.isPresent(), "User should be present if token is valid");
     }
 
+    @Test
+    void getCurrentUserIsServedFromIdentityCache() {
+        User user = new User();
+        user.setUsername("testuser");
+        when(securityIdentity.getPrincipal()).thenReturn(() -> "testuser");
+        when(sessionAuthorizationCache.findUserByUsername("testuser")).thenReturn(Optional.of(user));
+
+        assertTrue(authService.getCurrentUser().isPresent(), "Authenticated user should be resolved");
+        verify(userRepository, never()).findByUsername(any());
+    }
+
     @Test
     void validateTokenReturnsEmptyIfTokenIsInvalid() throws ParseException {
         String invalidToken = "invalid-token";
@@ -0,0 +1,101 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ChatBroadcasterTest {
+
+    MeterRegistry meterRegistry;
+
+    ChatBroadcaster chatBroadcaster;
+
+    @Mock
+    ChatConnection firstSession;
+
+    @Mock
+    ChatConnection secondSession;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        chatBroadcaster = new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST);
+        lenient().when(firstSession.getId()).thenReturn("session-1");
+        lenient().when(secondSession.getId()).thenReturn("session-2");
+    }
+
+    @Test
+    void broadcastEncodesMessageOnceForAllSessions() {
+        JsonObject message = Json.createObjectBuilder().add("type", "message").add("content", "hello").build();
+
+        chatBroadcaster.broadcast(List.of(firstSession, secondSession), chatBroadcaster.encode(message, null));
+
+        ArgumentCaptor<String> firstText = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> secondText = ArgumentCaptor.forClass(String.class);
+        verify(firstSession).sendText(firstText.capture(), any(ChatConnection.SendCallback.class));
+        verify(secondSession).sendText(secondText.capture(), any(ChatConnection.SendCallback.class));
+        assertEquals(message.toString(), firstText.getValue(), "Frame should contain the encoded message");
+        assertSame(firstText.getValue(), secondText.getValue(), "All sessions should share the same encoded frame");
+    }
+
+    @Test
+    void broadcastRecordsEncodeAndSendMetrics() {
+        JsonObject message = Json.createObjectBuilder().add("type", "message").build();
+
+        chatBroadcaster.broadcast(List.of(firstSession, secondSession), chatBroadcaster.encode(message, null));
+
+        assertEquals(1, meterRegistry.get("chat.broadcast.encode").timer().count(), "Encode should be timed once");
+        assertEquals(1, meterRegistry.get("chat.broadcast.send").timer().count(), "Send should be timed once");
+        assertEquals(2.0, meterRegistry.get("chat.broadcast.recipients").summary().totalAmount(), "Recipients should be counted");
+    }
+
+    @Test
+    void sendQueuesFramesForRegisteredSession() {
+        chatBroadcaster.register(firstSession);
+
+        chatBroadcaster.send(firstSession, Json.createObjectBuilder().add("content", "1").build());
+        chatBroadcaster.send(firstSession, Json.createObjectBuilder().add("content", "2").build());
+
+        verify(firstSession, times(1)).sendText(any(String.class), any(ChatConnection.SendCallback.class));
+        assertEquals(1, chatBroadcaster.getQueueDepth(firstSession), "Second frame should wait for the first write");
+
+        chatBroadcaster.unregister(firstSession);
+
+        assertEquals(0, chatBroadcaster.getQueueDepth(firstSession), "Queue should be discarded on unregister");
+    }
+
+    @Test
+    void constructorRejectsInvalidWatermarks() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ChatBroadcaster(meterRegistry, 1, 1, OutboxOverflowPolicy.DROP_OLDEST),
+                "Low watermark must be below the high watermark");
+    }
+
+    @Test
+    void broadcastSkipsEmptyRecipientList() {
+        chatBroadcaster.broadcast(List.of(), chatBroadcaster.encode(Json.createObjectBuilder().build(), null));
+
+        assertEquals(0, meterRegistry.get("chat.broadcast.send").timer().count(), "Nothing should be sent");
+        verify(firstSession, never()).sendText(any(String.class), any(ChatConnection.SendCallback.class));
+    }
+}
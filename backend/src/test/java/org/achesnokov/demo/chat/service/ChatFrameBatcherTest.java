@@ -0,0 +1,179 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChatFrameBatcherTest {
+
+    MeterRegistry meterRegistry;
+
+    ChatFrameBatcher chatFrameBatcher;
+
+    BlockingQueue<OutboundFrame> delivered;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        delivered = new LinkedBlockingQueue<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (chatFrameBatcher != null) {
+            chatFrameBatcher.shutdown();
+        }
+    }
+
+    @Test
+    void disabledBatcherDeliversEveryFrameDirectly() {
+        chatFrameBatcher = new ChatFrameBatcher(meterRegistry, 0, 32);
+        OutboundFrame frame = frame(1);
+
+        chatFrameBatcher.submit("chat-1", frame, delivered::add);
+        chatFrameBatcher.submit("chat-1", frame(2), delivered::add);
+
+        assertSame(frame, delivered.poll(), "Frame should be delivered as is");
+        assertEquals(1, delivered.size(), "Every frame should be delivered on its own");
+    }
+
+    @Test
+    void firstFrameOfIdleChatIsDeliveredImmediately() {
+        chatFrameBatcher = new ChatFrameBatcher(meterRegistry, 10_000, 32);
+        OutboundFrame frame = frame(1);
+
+        chatFrameBatcher.submit("chat-1", frame, delivered::add);
+
+        assertSame(frame, delivered.poll(), "Idle chat should see no added latency");
+    }
+
+    @Test
+    void framesWithinWindowAreMergedIntoBatchFrame() throws InterruptedException {
+        chatFrameBatcher = new ChatFrameBatcher(meterRegistry, 50, 32);
+
+        for (int i = 0; i < 4; i++) {
+            chatFrameBatcher.submit("chat-1", frame(i), delivered::add);
+        }
+
+        assertEquals(frame(0).getText(), delivered.poll().getText(), "First frame should be delivered immediately");
+        OutboundFrame batch = delivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch, "Collected frames should be delivered when the window closes");
+        assertEquals("{\"type\":\"batch\",\"messages\":[{\"n\":1},{\"n\":2},{\"n\":3}]}", batch.getText(),
+                "Batch frame should hold the collected frames in order");
+        assertEquals(1, meterRegistry.get("chat.batch.frames").counter().count(), "Batch frame should be counted");
+    }
+
+    @Test
+    void fullBatchIsDeliveredBeforeWindowCloses() {
+        chatFrameBatcher = new ChatFrameBatcher(meterRegistry, 10_000, 2);
+
+        for (int i = 0; i < 3; i++) {
+            chatFrameBatcher.submit("chat-1", frame(i), delivered::add);
+        }
+
+        assertEquals(frame(0).getText(), delivered.poll().getText(), "First frame should be delivered immediately");
+        assertEquals(List.of(1, 2), numbers(delivered.poll()), "Full batch should be delivered without waiting");
+    }
+
+    @Test
+    void discardDropsCollectedFrames() throws InterruptedException {
+        chatFrameBatcher = new ChatFrameBatcher(meterRegistry, 20, 32);
+        chatFrameBatcher.submit("chat-1", frame(0), delivered::add);
+        chatFrameBatcher.submit("chat-1", frame(1), delivered::add);
+        delivered.clear();
+
+        chatFrameBatcher.discard("chat-1");
+
+        assertNull(delivered.poll(200, TimeUnit.MILLISECONDS), "Discarded frames should not be delivered");
+    }
+
+    /**
+     * Shows the trade-off of batching: a burst of messages in a busy chat is delivered in a fraction of the frames,
+     * while no message waits much longer than one window.
+     */
+    @Test
+    void burstIsDeliveredInFewerFramesWithBoundedDelay() throws InterruptedException {
+        int messages = 500;
+        long windowMillis = 10;
+        chatFrameBatcher = new ChatFrameBatcher(meterRegistry, windowMillis, 64);
+        long[] submittedAt = new long[messages];
+        long[] deliveredAt = new long[messages];
+        List<Integer> order = new ArrayList<>();
+        BlockingQueue<Integer> frames = new LinkedBlockingQueue<>();
+
+        for (int i = 0; i < messages; i++) {
+            submittedAt[i] = System.nanoTime();
+            chatFrameBatcher.submit("chat-1", frame(i), frame -> {
+                long now = System.nanoTime();
+                List<Integer> numbers = numbers(frame);
+                numbers.forEach(n -> deliveredAt[n] = now);
+                synchronized (order) {
+                    order.addAll(numbers);
+                }
+                frames.add(numbers.size());
+            });
+            if (i % 50 == 0) {
+                Thread.sleep(1);
+            }
+        }
+
+        int deliveredMessages = 0;
+        int deliveredFrames = 0;
+        while (deliveredMessages < messages) {
+            Integer size = frames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(size, "All messages should be delivered");
+            deliveredMessages += size;
+            deliveredFrames++;
+        }
+
+        long maxDelayMillis = 0;
+        for (int i = 0; i < messages; i++) {
+            maxDelayMillis = Math.max(maxDelayMillis, TimeUnit.NANOSECONDS.toMillis(deliveredAt[i] - submittedAt[i]));
+        }
+        synchronized (order) {
+            for (int i = 0; i < messages; i++) {
+                assertEquals(i, order.get(i), "Messages should be delivered in order");
+            }
+        }
+        assertTrue(deliveredFrames * 5 <= messages, "Burst should need far fewer frames, got: " + deliveredFrames);
+        assertTrue(maxDelayMillis < windowMillis + 500, "Delay should stay close to the window, got: " + maxDelayMillis + " ms");
+    }
+
+    private static OutboundFrame frame(int n) {
+        return OutboundFrame.of(Json.createObjectBuilder().add("n", n).build());
+    }
+
+    private static List<Integer> numbers(OutboundFrame frame) {
+        try (JsonReader reader = Json.createReader(new StringReader(frame.getText()))) {
+            JsonObject object = reader.readObject();
+            if (!object.containsKey("messages")) {
+                return List.of(object.getInt("n"));
+            }
+            List<Integer> numbers = new ArrayList<>();
+            for (JsonValue value : object.getJsonArray("messages")) {
+                numbers.add(value.asJsonObject().getInt("n"));
+            }
+            return numbers;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChatSequencerTest {
+
+    ChatSequencer sequencer;
+
+    @AfterEach
+    void tearDown() {
+        if (sequencer != null) {
+            sequencer.shutdown();
+        }
+    }
+
+    @Test
+    void tasksOfOneChatNeverOverlapAndKeepEveryProducersOrder() throws Exception {
+        sequencer = new ChatSequencer(Executors.newFixedThreadPool(4));
+        int producers = 8;
+        int tasksPerProducer = 5000;
+        CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+        AtomicBoolean running = new AtomicBoolean();
+        AtomicInteger overlaps = new AtomicInteger();
+        // Not thread-safe on purpose, the lane is its only writer
+        List<int[]> executed = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int n = 0; n < tasksPerProducer; n++) {
+                    int task = n;
+                    sequencer.execute("chat-1", () -> {
+                        if (!running.compareAndSet(false, true)) {
+                            overlaps.incrementAndGet();
+                        }
+                        executed.add(new int[] {producer, task});
+                        running.set(false);
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Every task should run");
+        assertEquals(0, overlaps.get(), "Tasks of a chat must never run concurrently");
+        assertEquals(producers * tasksPerProducer, executed.size());
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        for (int[] task : executed) {
+            assertEquals(last[task[0]] + 1, task[1], "Tasks of a producer must run in submission order");
+            last[task[0]] = task[1];
+        }
+    }
+
+    @Test
+    void unrelatedChatsAreNotSerialized() throws Exception {
+        sequencer = new ChatSequencer(Executors.newFixedThreadPool(2));
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherChat = new CountDownLatch(1);
+        CountDownLatch sameChat = new CountDownLatch(1);
+
+        sequencer.execute("chat-1", () -> {
+            blocked.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        sequencer.execute("chat-1", sameChat::countDown);
+        sequencer.execute("chat-2", otherChat::countDown);
+
+        assertTrue(otherChat.await(5, TimeUnit.SECONDS), "Another chat should proceed while chat-1 is busy");
+        assertFalse(sameChat.await(50, TimeUnit.MILLISECONDS), "chat-1 must wait for its running task");
+        release.countDown();
+        assertTrue(sameChat.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void idleLanesAreReleased() throws Exception {
+        sequencer = new ChatSequencer(Executors.newFixedThreadPool(4));
+        int chats = 100;
+        CountDownLatch done = new CountDownLatch(chats * 10);
+        for (int n = 0; n < 10; n++) {
+            for (int chat = 0; chat < chats; chat++) {
+                sequencer.execute("chat-" + chat, done::countDown);
+            }
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sequencer.getActiveChatCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, sequencer.getActiveChatCount(), "Chats without tasks in flight should not hold a lane");
+
+        CountDownLatch again = new CountDownLatch(1);
+        sequencer.execute("chat-0", again::countDown);
+        assertTrue(again.await(5, TimeUnit.SECONDS), "A released chat should get a new lane");
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheLane() {
+        sequencer = new ChatSequencer(Runnable::run);
+        AtomicInteger executed = new AtomicInteger();
+
+        sequencer.execute("chat-1", () -> {
+            throw new IllegalStateException("Boom");
+        });
+        sequencer.execute("chat-1", executed::incrementAndGet);
+
+        assertEquals(1, executed.get());
+    }
+
+    @Test
+    void taskThrowingAnErrorDoesNotStopTheLane() throws Exception {
+        sequencer = new ChatSequencer(Executors.newFixedThreadPool(1));
+        CountDownLatch queued = new CountDownLatch(1);
+        CountDownLatch executed = new CountDownLatch(1);
+
+        sequencer.execute("chat-1", () -> {
+            try {
+                queued.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new Error("Boom");
+        });
+        sequencer.execute("chat-1", executed::countDown);
+        queued.countDown();
+
+        assertTrue(executed.await(5, TimeUnit.SECONDS), "Tasks queued behind an error should still run");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sequencer.getActiveChatCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, sequencer.getActiveChatCount(), "The lane should be released once drained");
+    }
+
+    @Test
+    void timestampsOfAChatStrictlyIncrease() {
+        sequencer = new ChatSequencer(Runnable::run);
+        List<Instant> timestamps = new ArrayList<>();
+
+        sequencer.execute("chat-1", () -> {
+            for (int i = 0; i < 10000; i++) {
+                timestamps.add(sequencer.nextTimestamp("chat-1"));
+            }
+        });
+
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i).isAfter(timestamps.get(i - 1)), "Timestamps are the sort key and must not repeat");
+        }
+    }
+
+    @Test
+    void throughputScalesWithThreadsAcrossChats() throws Exception {
+        long serial = runBlockingTasks(1);
+        long parallel = runBlockingTasks(8);
+
+        // Tasks block like a DynamoDB write, so eight threads should come close to an eightfold speedup
+        assertTrue(parallel * 3 < serial, String.format("8 threads took %d ms, 1 thread %d ms",
+                TimeUnit.NANOSECONDS.toMillis(parallel), TimeUnit.NANOSECONDS.toMillis(serial)));
+    }
+
+    private long runBlockingTasks(int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ChatSequencer chatSequencer = new ChatSequencer(pool);
+        int chats = 8;
+        int tasksPerChat = 40;
+        CountDownLatch done = new CountDownLatch(chats * tasksPerChat);
+        long start = System.nanoTime();
+        for (int n = 0; n < tasksPerChat; n++) {
+            for (int chat = 0; chat < chats; chat++) {
+                chatSequencer.execute("chat-" + chat, () -> {
+                    sleepQuietly(2);
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        chatSequencer.shutdown();
+        return elapsed;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -44,6 +44,9 @@ public class ChatServiceTest {
     @Mock
     ChatParticipantRepository chatParticipantRepository;
 
+    @Mock
+    SessionAuthorizationCache sessionAuthorizationCache;
+
     @BeforeEach
     void setUp() {
         // Any necessary setup can go here
@@ -103,6 +106,7 @@ public class ChatServiceTest {
         assertTrue(result.isPresent(), "Participant should be added");
         assertEquals(userId, result.get().getUserId(), "User ID should match");
         verify(chatParticipantRepository, times(1)).save(any(ChatParticipant.class));
+        verify(sessionAuthorizationCache).invalidateParticipant(chatId, userId);
     }
 
     @Test
@@ -146,5 +150,6 @@ public class ChatServiceTest {
 
         verify(chatParticipantRepository, times(1)).save(any(ChatParticipant.class));
         assertNotNull(participant.getLeftAt(), "LeftAt should be set when participant is removed");
+        verify(sessionAuthorizationCache).invalidateParticipant(chatId, userId);
     }
 }
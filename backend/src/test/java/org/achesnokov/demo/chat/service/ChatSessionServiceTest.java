@@ -0,0 +1,579 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessagePage;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.repository.ChatRepository;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
+import org.achesnokov.demo.chat.repository.MessageRepository;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ChatSessionServiceTest {
+
+    @Mock
+    ChatService chatService;
+
+    @Mock
+    SessionAuthorizationCache sessionAuthorizationCache;
+
+    @Mock
+    MessageService messageService;
+
+    @Mock
+    PresenceService presenceService;
+
+    @Mock
+    HeartbeatService heartbeatService;
+
+    SessionRegistry sessionRegistry;
+
+    RateLimiter rateLimiter;
+
+    ChatSessionService chatSessionService;
+
+    List<String> received;
+
+    ChatConnection session;
+
+    @BeforeEach
+    void setUp() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InMemoryChatBroadcastBus chatBroadcastBus = new InMemoryChatBroadcastBus();
+        ChatBroadcaster chatBroadcaster = new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST);
+        sessionRegistry = new SessionRegistry(chatBroadcastBus, new ChatFrameBatcher(meterRegistry, 0, 32), chatBroadcaster, meterRegistry);
+        rateLimiter = new RateLimiter(meterRegistry, 100, System::nanoTime);
+        chatSessionService = new ChatSessionService(chatService, sessionAuthorizationCache, messageService,
+                chatBroadcaster, chatBroadcastBus, sessionRegistry, presenceService, heartbeatService, new ChatSequencer(Runnable::run),
+                rateLimiter, 50);
+
+        received = new CopyOnWriteArrayList<>();
+        session = session("session-1", received);
+        User user = user("user-1", "alice");
+        lenient().when(sessionAuthorizationCache.findUserByUsername("alice")).thenReturn(Optional.of(user));
+        lenient().when(sessionAuthorizationCache.isActiveParticipant("chat-1", "user-1")).thenReturn(true);
+        lenient().when(sessionAuthorizationCache.isActiveParticipant("chat-2", "user-1")).thenReturn(true);
+        lenient().when(chatService.getChartParticipantsUsers(anyString())).thenReturn(Set.of(user));
+    }
+
+    @Test
+    void subscribeJoinsChatAndSendsHistoryTaggedWithChatId() {
+        when(messageService.getLatestMessages("chat-2", null, null, 50))
+                .thenReturn(new MessagePage(List.of(message("chat-2", "hi")), false));
+        chatSessionService.authenticate(session);
+
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"subscribe\",\"chatId\":\"chat-2\"}");
+
+        assertTrue(sessionRegistry.isJoined("chat-2", session), "Session should be joined to the chat");
+        JsonObject history = lastFrame();
+        assertEquals("history", history.getString("type"));
+        assertEquals("chat-2", history.getString("chatId"));
+        assertEquals("chat-2", history.getJsonArray("messages").getJsonObject(0).getString("chatId"));
+    }
+
+    @Test
+    void subscribeRejectsChatOfOtherUsers() {
+        chatSessionService.authenticate(session);
+
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"subscribe\",\"chatId\":\"chat-3\"}");
+
+        assertFalse(sessionRegistry.isJoined("chat-3", session), "Non participant must not be joined");
+        assertEquals("error", lastFrame().getString("type"));
+    }
+
+    @Test
+    void messageToUnsubscribedChatIsRejected() {
+        chatSessionService.authenticate(session);
+
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"message\",\"chatId\":\"chat-1\",\"content\":\"hi\"}");
+
+        verify(messageService, never()).createMessage(anyString(), anyString(), anyString(), any(Instant.class));
+        assertEquals("error", lastFrame().getString("type"));
+    }
+
+    @Test
+    void messagesOfSeveralChatsShareOneConnection() {
+        when(messageService.getLatestMessages(anyString(), isNull(), isNull(), eq(50))).thenReturn(new MessagePage(List.of(), false));
+        when(messageService.createMessage(anyString(), eq("user-1"), anyString(), any(Instant.class)))
+                .thenAnswer(invocation -> message(invocation.getArgument(0), invocation.getArgument(2)));
+        chatSessionService.authenticate(session);
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"subscribe\",\"chatId\":\"chat-1\"}");
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"subscribe\",\"chatId\":\"chat-2\"}");
+
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"message\",\"chatId\":\"chat-1\",\"content\":\"one\"}");
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"message\",\"chatId\":\"chat-2\",\"content\":\"two\"}");
+
+        List<JsonObject> frames = received.stream().map(ChatSessionServiceTest::parse).toList();
+        JsonObject first = frames.get(frames.size() - 2);
+        JsonObject second = frames.get(frames.size() - 1);
+        assertEquals("chat-1", first.getString("chatId"));
+        assertEquals("one", first.getString("content"));
+        assertEquals("chat-2", second.getString("chatId"));
+        assertEquals("two", second.getString("content"));
+    }
+
+    @Test
+    void plainTextIsPostedToBoundChat() {
+        when(messageService.createMessage(eq("chat-1"), eq("user-1"), eq("hello"), any(Instant.class))).thenReturn(message("chat-1", "hello"));
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "hello");
+
+        JsonObject frame = lastFrame();
+        assertEquals("message", frame.getString("type"));
+        assertEquals("alice", frame.getString("username"));
+        assertEquals(1, frame.getJsonNumber("seq").longValue(), "Message should carry its sequence number");
+    }
+
+    @Test
+    void resyncStartsAfterAcknowledgedSequence() {
+        when(messageService.getMessagesBySequence("chat-1", 6, null, 50))
+                .thenReturn(new MessagePage(List.of(message("chat-1", "missed")), false));
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"ack\",\"seq\":5}");
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"ack\",\"seq\":3}");
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"resync\"}");
+
+        assertEquals(5, SessionContext.of(session).getAcknowledged("chat-1"), "A late acknowledgement must not move the watermark back");
+        JsonObject frame = lastFrame();
+        assertEquals("resync", frame.getString("type"));
+        assertEquals(6, frame.getJsonNumber("from").longValue());
+        assertEquals(1, frame.getJsonArray("messages").getJsonObject(0).getJsonNumber("seq").longValue());
+        assertFalse(frame.getBoolean("hasMore"));
+    }
+
+    @Test
+    void subscribeWithSequenceSendsOnlyTheGap() {
+        when(messageService.getMessagesBySequence("chat-2", 8, null, 50)).thenReturn(new MessagePage(List.of(), false));
+        chatSessionService.authenticate(session);
+
+        chatSessionService.handleClientFrame(session, null, "{\"type\":\"subscribe\",\"chatId\":\"chat-2\",\"seq\":7}");
+
+        verify(messageService, never()).getLatestMessages(anyString(), any(), any(), anyInt());
+        assertEquals("resync", lastFrame().getString("type"));
+        assertEquals(7, SessionContext.of(session).getAcknowledged("chat-2"), "The resume point counts as acknowledged");
+    }
+
+    @Test
+    void handshakeSinceAcceptsMessageIdOrTimestamp() {
+        String lastId = new MessageIdGenerator().next(Instant.parse("2024-01-01T00:00:00Z"));
+        when(messageService.getLatestMessagesAfter("chat-1", lastId, null, 50))
+                .thenReturn(new MessagePage(List.of(message("chat-1", "missed")), false));
+        when(messageService.getLatestMessages("chat-1", Instant.parse("2024-01-01T00:00:00Z"), null, 50))
+                .thenReturn(new MessagePage(List.of(), false));
+        chatSessionService.open(session, "chat-1");
+
+        when(session.getRequestParameters()).thenReturn(Map.of("since", List.of(lastId)));
+        chatSessionService.sendWelcome(session, "chat-1");
+        JsonObject afterId = lastFrame();
+        when(session.getRequestParameters()).thenReturn(Map.of("since", List.of("2024-01-01T00:00:00Z")));
+        chatSessionService.sendWelcome(session, "chat-1");
+
+        assertEquals("history", afterId.getString("type"));
+        assertEquals("missed", afterId.getJsonArray("messages").getJsonObject(0).getString("content"));
+        assertEquals("message-1", afterId.getJsonArray("messages").getJsonObject(0).getString("id"), "Messages should carry their ID");
+        assertEquals("history", lastFrame().getString("type"));
+        verify(messageService).getLatestMessages("chat-1", Instant.parse("2024-01-01T00:00:00Z"), null, 50);
+    }
+
+    @Test
+    void historyCommandSinceAcceptsMessageIdOrTimestamp() {
+        String lastId = new MessageIdGenerator().next(Instant.parse("2024-01-01T00:00:00Z"));
+        Instant before = Instant.parse("2024-01-02T00:00:00Z");
+        when(messageService.getLatestMessagesAfter("chat-1", lastId, before, 10)).thenReturn(new MessagePage(List.of(), false));
+        when(messageService.getLatestMessages("chat-1", Instant.parse("2024-01-01T00:00:00Z"), null, 10))
+                .thenReturn(new MessagePage(List.of(), false));
+        chatSessionService.open(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1",
+                "{\"type\":\"history\",\"since\":\"" + lastId + "\",\"before\":\"" + before + "\",\"limit\":10}");
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"history\",\"since\":\"2024-01-01T00:00:00Z\",\"limit\":10}");
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"history\",\"since\":\"yesterday\"}");
+
+        verify(messageService).getLatestMessagesAfter("chat-1", lastId, before, 10);
+        verify(messageService).getLatestMessages("chat-1", Instant.parse("2024-01-01T00:00:00Z"), null, 10);
+        assertEquals("error", lastFrame().getString("type"), "A cursor that is neither an ID nor a timestamp is rejected");
+    }
+
+    @Test
+    void ackWithoutIntegralSequenceIsRejected() {
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"ack\",\"seq\":\"5\"}");
+
+        assertEquals("error", lastFrame().getString("type"));
+        assertEquals(0, SessionContext.of(session).getAcknowledged("chat-1"));
+    }
+
+    @Test
+    void messageOverUserRateIsRejectedWithRetryDelay() {
+        rateLimiter.limit(RateLimitRoute.WEBSOCKET, 1, 1, 0, 1);
+        when(messageService.createMessage(eq("chat-1"), eq("user-1"), anyString(), any(Instant.class))).thenReturn(message("chat-1", "hello"));
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "hello");
+        chatSessionService.handleClientFrame(session, "chat-1", "flood");
+
+        verify(messageService, times(1)).createMessage(anyString(), anyString(), anyString(), any(Instant.class));
+        JsonObject error = lastFrame();
+        assertEquals("error", error.getString("type"));
+        assertEquals("rate_limited", error.getString("code"));
+        assertEquals("chat-1", error.getString("chatId"));
+        assertTrue(error.getJsonNumber("retryAfterMs").longValue() > 0, "Client should learn when to retry");
+    }
+
+    @Test
+    void messageOverChatRateIsRejectedForEverySender() {
+        rateLimiter.limit(RateLimitRoute.WEBSOCKET, 0, 1, 1, 1);
+        User bob = user("user-2", "bob");
+        when(sessionAuthorizationCache.findUserByUsername("bob")).thenReturn(Optional.of(bob));
+        when(sessionAuthorizationCache.isActiveParticipant("chat-1", "user-2")).thenReturn(true);
+        when(messageService.createMessage(eq("chat-1"), eq("user-1"), anyString(), any(Instant.class))).thenReturn(message("chat-1", "hello"));
+        List<String> bobReceived = new CopyOnWriteArrayList<>();
+        ChatConnection bobSession = session("session-2", bobReceived, "bob");
+        chatSessionService.authenticate(session);
+        chatSessionService.authenticate(bobSession);
+        chatSessionService.join(session, "chat-1");
+        chatSessionService.join(bobSession, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "hello");
+        chatSessionService.handleClientFrame(bobSession, "chat-1", "hello too");
+
+        verify(messageService, never()).createMessage(eq("chat-1"), eq("user-2"), anyString(), any(Instant.class));
+        JsonObject error = parse(bobReceived.get(bobReceived.size() - 1));
+        assertEquals("rate_limited", error.getString("code"));
+        assertTrue(error.getString("content").contains("chat"), "The error should name the chat limit");
+    }
+
+    @Test
+    void plainTextIsRejectedOnMultiplexedSession() {
+        chatSessionService.authenticate(session);
+
+        chatSessionService.handleClientFrame(session, null, "hello");
+
+        verify(messageService, never()).createMessage(anyString(), anyString(), anyString(), any(Instant.class));
+        assertEquals("error", lastFrame().getString("type"));
+    }
+
+    @Test
+    void boundSessionCannotSubscribe() {
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"subscribe\",\"chatId\":\"chat-2\"}");
+
+        assertFalse(sessionRegistry.isJoined("chat-2", session), "Bound session should stay in its chat");
+        assertEquals("error", lastFrame().getString("type"));
+    }
+
+    @Test
+    void typingIsReportedForJoinedChat() {
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+
+        chatSessionService.handleClientFrame(session, "chat-1", "{\"type\":\"typing\"}");
+
+        verify(presenceService).changed("chat-1");
+        verify(presenceService).typing("chat-1", "user-1", "alice");
+    }
+
+    @Test
+    void joinRejectsNonParticipant() {
+        chatSessionService.authenticate(session);
+
+        assertThrows(IllegalStateException.class, () -> chatSessionService.join(session, "chat-3"));
+    }
+
+    @Test
+    void openRegistersNonParticipantNowhere() {
+        assertThrows(IllegalStateException.class, () -> chatSessionService.open(session, "chat-3"));
+
+        assertNull(SessionContext.of(session), "Rejected session must not be registered");
+        assertTrue(sessionRegistry.getUserSessions("user-1").isEmpty());
+        verify(heartbeatService, never()).track(any(ChatConnection.class), any(Runnable.class));
+    }
+
+    @Test
+    void plainTextOfSessionNotJoinedToBoundChatIsRejected() {
+        chatSessionService.authenticate(session);
+
+        chatSessionService.handleClientFrame(session, "chat-3", "hello");
+        chatSessionService.handleClientFrame(session, "chat-3", "{\"type\":\"message\",\"content\":\"hello\"}");
+
+        verify(messageService, never()).createMessage(anyString(), anyString(), anyString(), any(Instant.class));
+        assertEquals("error", lastFrame().getString("type"));
+    }
+
+    @Test
+    void openJoinsParticipantToBoundChat() {
+        chatSessionService.open(session, "chat-1");
+
+        assertTrue(sessionRegistry.isJoined("chat-1", session));
+    }
+
+    @Test
+    void closeAnnouncesDepartureInEveryJoinedChat() {
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+        chatSessionService.join(session, "chat-2");
+        List<String> otherReceived = new CopyOnWriteArrayList<>();
+        ChatConnection other = session("session-2", otherReceived);
+        sessionRegistry.register(other, "user-2", "bob", null);
+        sessionRegistry.join("chat-1", other);
+        sessionRegistry.join("chat-2", other);
+
+        chatSessionService.close(session);
+
+        assertEquals(Set.of("chat-1", "chat-2"), otherReceived.stream()
+                .map(ChatSessionServiceTest::parse)
+                .map(frame -> frame.getString("chatId"))
+                .collect(Collectors.toSet()), "Departure should be announced in both chats");
+        assertTrue(sessionRegistry.getUserSessions("user-1").isEmpty());
+    }
+
+    @Test
+    void idleSessionIsRemovedAndClosed() throws Exception {
+        chatSessionService.authenticate(session);
+        chatSessionService.join(session, "chat-1");
+        ArgumentCaptor<Runnable> onIdle = ArgumentCaptor.forClass(Runnable.class);
+        verify(heartbeatService).track(eq(session), onIdle.capture());
+
+        onIdle.getValue().run();
+
+        assertFalse(sessionRegistry.isJoined("chat-1", session), "Evicted session should leave its chats");
+        verify(heartbeatService).untrack(session);
+        verify(presenceService, times(2)).changed("chat-1");
+        verify(session).close(eq(ChatConnection.GOING_AWAY), anyString());
+    }
+
+    @Test
+    void concurrentMessagesOfAChatReachEverySessionInStoredOrder() throws Exception {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InMemoryChatBroadcastBus chatBroadcastBus = new InMemoryChatBroadcastBus();
+        ChatBroadcaster chatBroadcaster = new ChatBroadcaster(meterRegistry, 100_000, 1, OutboxOverflowPolicy.DROP_OLDEST);
+        SessionRegistry registry = new SessionRegistry(chatBroadcastBus, new ChatFrameBatcher(meterRegistry, 0, 32), chatBroadcaster, meterRegistry);
+        ChatSequencer chatSequencer = new ChatSequencer(Executors.newFixedThreadPool(4));
+        ChatSessionService service = new ChatSessionService(chatService, sessionAuthorizationCache, messageService,
+                chatBroadcaster, chatBroadcastBus, registry, presenceService, heartbeatService, chatSequencer,
+                new RateLimiter(meterRegistry, 100, System::nanoTime), 50);
+        List<Long> stored = new CopyOnWriteArrayList<>();
+        AtomicLong sequence = new AtomicLong();
+        when(messageService.createMessage(eq("chat-1"), eq("user-1"), anyString(), any(Instant.class))).thenAnswer(invocation -> {
+            Message message = message("chat-1", invocation.getArgument(2));
+            message.setTimestamp(invocation.getArgument(3));
+            message.setSequence(sequence.incrementAndGet());
+            stored.add(message.getSequence());
+            return message;
+        });
+        int senders = 4;
+        int messagesPerSender = 200;
+        List<ChatConnection> sessions = new ArrayList<>();
+        List<List<String>> inboxes = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            List<String> inbox = new CopyOnWriteArrayList<>();
+            ChatConnection member = session("session-" + i, inbox);
+            service.authenticate(member);
+            service.join(member, "chat-1");
+            sessions.add(member);
+            inboxes.add(inbox);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            ChatConnection sender = sessions.get(i);
+            int senderIndex = i;
+            threads.add(new Thread(() -> {
+                for (int n = 0; n < messagesPerSender; n++) {
+                    service.handleClientFrame(sender, "chat-1", senderIndex + ":" + n);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int expected = senders * messagesPerSender;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (inboxes.stream().anyMatch(inbox -> messageFrames(inbox).size() < expected) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        chatSequencer.shutdown();
+        for (List<String> inbox : inboxes) {
+            List<JsonObject> frames = messageFrames(inbox);
+            assertEquals(stored, frames.stream().map(frame -> frame.getJsonNumber("seq").longValue()).toList(),
+                    "Every session should receive the messages in the order they were stored");
+            Map<String, Integer> lastBySender = new HashMap<>();
+            Instant previous = Instant.MIN;
+            for (JsonObject frame : frames) {
+                String[] content = frame.getString("content").split(":");
+                int n = Integer.parseInt(content[1]);
+                assertEquals(lastBySender.getOrDefault(content[0], -1) + 1, n, "Messages of a sender must keep their order");
+                lastBySender.put(content[0], n);
+                Instant timestamp = Instant.parse(frame.getString("timestamp"));
+                assertTrue(timestamp.isAfter(previous), "Timestamps must increase with the sequence");
+                previous = timestamp;
+            }
+        }
+    }
+
+    @Test
+    void writeBehindBroadcastsWithoutWaitingForDynamoDb(@TempDir Path directory) throws Exception {
+        long dynamoDbMillis = 50;
+        ChatRepository chatRepository = mock(ChatRepository.class);
+        MessageRepository messageRepository = mock(MessageRepository.class);
+        AtomicLong counter = new AtomicLong();
+        when(chatRepository.allocateSequences(eq("chat-1"), anyInt())).thenAnswer(invocation -> {
+            Thread.sleep(dynamoDbMillis);
+            return counter.addAndGet(invocation.<Integer>getArgument(1));
+        });
+        lenient().doAnswer(invocation -> {
+            Thread.sleep(dynamoDbMillis);
+            return null;
+        }).when(messageRepository).saveAll(anyList());
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InMemoryChatBroadcastBus chatBroadcastBus = new InMemoryChatBroadcastBus();
+        ChatBroadcaster chatBroadcaster = new ChatBroadcaster(meterRegistry, 1000, 1, OutboxOverflowPolicy.DROP_OLDEST);
+        SessionRegistry registry = new SessionRegistry(chatBroadcastBus, new ChatFrameBatcher(meterRegistry, 0, 32), chatBroadcaster, meterRegistry);
+        SequenceAllocator sequenceAllocator = new SequenceAllocator(chatRepository, 1, 10, MessageWriteMode.WRITE_BEHIND, 60000, "in-memory");
+        MessageWriteBehind writeBehind = new MessageWriteBehind(messageRepository, meterRegistry, MessageWriteMode.WRITE_BEHIND,
+                directory.toString(), 1 << 20, 1, 25, 1000, 1000);
+        ChatSessionService service = new ChatSessionService(chatService, sessionAuthorizationCache,
+                new MessageService(messageRepository, sequenceAllocator, writeBehind, new MessageIdGenerator()),
+                chatBroadcaster, chatBroadcastBus, registry, presenceService, heartbeatService, new ChatSequencer(Runnable::run),
+                new RateLimiter(meterRegistry, 100, System::nanoTime), 50);
+        try {
+            service.open(session, "chat-1");
+            // Only the first message of the chat waits for its block to be reserved
+            service.handleClientFrame(session, "chat-1", "first");
+
+            long slowest = 0;
+            for (int n = 2; n <= 25; n++) {
+                long start = System.nanoTime();
+                service.handleClientFrame(session, "chat-1", "message " + n);
+                JsonObject frame = lastFrame();
+                slowest = Math.max(slowest, System.nanoTime() - start);
+                assertEquals("message " + n, frame.getString("content"), "Message should be broadcast before the call returns");
+                assertEquals(n, frame.getJsonNumber("seq").longValue());
+                Thread.sleep(20);
+            }
+
+            assertTrue(slowest < TimeUnit.MILLISECONDS.toNanos(dynamoDbMillis / 2),
+                    "Send to broadcast should not wait for DynamoDB: " + TimeUnit.NANOSECONDS.toMillis(slowest) + " ms");
+        } finally {
+            writeBehind.shutdown();
+            sequenceAllocator.shutdown();
+        }
+    }
+
+    private static List<JsonObject> messageFrames(List<String> inbox) {
+        return inbox.stream()
+                .map(ChatSessionServiceTest::parse)
+                .filter(frame -> "message".equals(frame.getString("type")))
+                .toList();
+    }
+
+    private JsonObject lastFrame() {
+        return parse(received.get(received.size() - 1));
+    }
+
+    private static JsonObject parse(String text) {
+        try (JsonReader reader = Json.createReader(new StringReader(text))) {
+            return reader.readObject();
+        }
+    }
+
+    private static ChatConnection session(String id, List<String> received) {
+        return session(id, received, "alice");
+    }
+
+    private static ChatConnection session(String id, List<String> received, String username) {
+        ChatConnection session = mock(ChatConnection.class);
+        JsonWebToken jwt = mock(JsonWebToken.class);
+        AtomicReference<SessionContext> context = new AtomicReference<>();
+        lenient().when(jwt.getSubject()).thenReturn(username);
+        lenient().when(session.getId()).thenReturn(id);
+        lenient().when(session.getToken()).thenReturn(jwt);
+        lenient().when(session.getContext()).thenAnswer(invocation -> context.get());
+        lenient().doAnswer(invocation -> {
+            context.set(invocation.getArgument(0));
+            return null;
+        }).when(session).setContext(any());
+        lenient().doAnswer(invocation -> {
+            received.add(invocation.getArgument(0));
+            invocation.<ChatConnection.SendCallback>getArgument(1).onComplete(null);
+            return null;
+        }).when(session).sendText(anyString(), any(ChatConnection.SendCallback.class));
+        return session;
+    }
+
+    private static User user(String userId, String username) {
+        User user = new User();
+        user.setUserId(userId);
+        user.setUsername(username);
+        return user;
+    }
+
+    private static Message message(String chatId, String content) {
+        Message message = new Message();
+        message.setChatId(chatId);
+        message.setMessageId("message-1");
+        message.setUserId("user-1");
+        message.setContent(content);
+        message.setTimestamp(Instant.parse("2024-01-01T00:00:00Z"));
+        message.setSequence(1L);
+        return message;
+    }
+}
@@ -0,0 +1,172 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExpiringCacheTest {
+
+    AtomicLong clock = new AtomicLong();
+
+    AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void valueIsLoadedOnceUntilItExpires() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100, clock::get);
+
+        assertEquals("value-1", cache.get("key", this::load));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals("value-1", cache.get("key", this::load), "Cached value should be reused");
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals("value-2", cache.get("key", this::load), "Expired value should be reloaded");
+    }
+
+    @Test
+    void invalidationForcesReload() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100, clock::get);
+        cache.get("key", this::load);
+
+        cache.invalidate("key");
+
+        assertEquals("value-2", cache.get("key", this::load));
+    }
+
+    @Test
+    void invalidateIfDropsMatchingValues() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100, clock::get);
+        cache.get("first", key -> "a");
+        cache.get("second", key -> "b");
+
+        cache.invalidateIf((key, value) -> value.equals("a"));
+
+        assertEquals(1, cache.size());
+        assertEquals("c", cache.get("first", key -> "c"));
+    }
+
+    @Test
+    void nullValuesAndFailuresAreNotCached() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100, clock::get);
+
+        assertNull(cache.get("key", key -> null));
+        assertThrows(IllegalStateException.class, () -> cache.get("key", key -> {
+            throw new IllegalStateException("unavailable");
+        }));
+
+        assertEquals("value-1", cache.get("key", this::load), "Failed lookups should be retried");
+    }
+
+    @Test
+    void sizeIsBounded() {
+        ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(Duration.ofSeconds(10), 10, clock::get);
+
+        for (int i = 0; i < 100; i++) {
+            cache.get(i, key -> key);
+        }
+
+        assertTrue(cache.size() <= 10, "Cache should not grow beyond its maximum size");
+    }
+
+    @Test
+    void concurrentLookupsShareOneLoad() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("key", key -> {
+                loading.countDown();
+                await(release);
+                return load(key);
+            }));
+            loading.await(5, TimeUnit.SECONDS);
+            Future<?>[] others = new Future<?>[7];
+            for (int i = 0; i < others.length; i++) {
+                others[i] = executor.submit(() -> cache.get("key", this::load));
+            }
+            release.countDown();
+
+            assertEquals("value-1", first.get(5, TimeUnit.SECONDS));
+            for (Future<?> other : others) {
+                assertEquals("value-1", other.get(5, TimeUnit.SECONDS), "Waiting lookups should share the load");
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void entryCloseToExpiryIsRefreshedInTheBackground() {
+        List<Runnable> refreshes = new ArrayList<>();
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100, Duration.ofSeconds(2), refreshes::add, clock::get);
+        cache.get("key", this::load);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(7));
+        assertEquals("value-1", cache.get("key", this::load));
+        assertTrue(refreshes.isEmpty(), "Entries far from their expiry should not be refreshed");
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertEquals("value-1", cache.get("key", this::load), "The current value should be served during the refresh");
+        assertEquals("value-1", cache.get("key", this::load));
+        assertEquals(1, refreshes.size(), "An entry should be refreshed once");
+
+        refreshes.get(0).run();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertEquals("value-2", cache.get("key", this::load), "The refreshed value should outlive the original expiry");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void refreshDoesNotUndoInvalidation() {
+        List<Runnable> refreshes = new ArrayList<>();
+        ExpiringCache<String, String> cache = new ExpiringCache<>(Duration.ofSeconds(10), 100, Duration.ofSeconds(2), refreshes::add, clock::get);
+        cache.get("key", this::load);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        cache.get("key", this::load);
+
+        cache.invalidate("key");
+        refreshes.get(0).run();
+
+        assertEquals(0, cache.size(), "A refresh completing after an invalidation should not be cached");
+    }
+
+    @Test
+    void hitsMissesAndEvictionsAreCounted() {
+        ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(Duration.ofSeconds(10), 2, clock::get);
+
+        cache.get(1, key -> key);
+        cache.get(1, key -> key);
+        cache.get(2, key -> key);
+        cache.get(3, key -> key);
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(3, cache.missCount());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    private String load(String key) {
+        return "value-" + loads.incrementAndGet();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashedTimingWheelTest {
+
+    AtomicLong clock = new AtomicLong();
+
+    HashedTimingWheel wheel = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 8, clock::get);
+
+    @Test
+    void timeoutExpiresWithinOneTickAfterItsDeadline() {
+        RecordingTimeout timeout = new RecordingTimeout(0);
+        wheel.schedule(timeout, 35, TimeUnit.MILLISECONDS);
+
+        advanceTo(30);
+        assertTrue(timeout.expirations.isEmpty(), "Timeout must not fire before its deadline");
+
+        advanceTo(40);
+        assertEquals(List.of(millis(40)), timeout.expirations);
+    }
+
+    @Test
+    void timeoutBeyondOneRotationWaitsForItsRound() {
+        RecordingTimeout timeout = new RecordingTimeout(0);
+        wheel.schedule(timeout, 250, TimeUnit.MILLISECONDS);
+
+        advanceTo(170);
+        assertTrue(timeout.expirations.isEmpty(), "Timeout must not fire on an earlier rotation");
+
+        advanceTo(260);
+        assertEquals(1, timeout.expirations.size());
+    }
+
+    @Test
+    void expiredTimeoutCanRescheduleItself() {
+        RecordingTimeout timeout = new RecordingTimeout(TimeUnit.MILLISECONDS.toNanos(20));
+        wheel.schedule(timeout, 20, TimeUnit.MILLISECONDS);
+
+        for (long now = 0; now <= 200; now += 10) {
+            advanceTo(now);
+        }
+
+        assertTrue(timeout.expirations.size() >= 6, "Rescheduled timeout should keep firing: " + timeout.expirations);
+        for (int i = 1; i < timeout.expirations.size(); i++) {
+            long gap = timeout.expirations.get(i) - timeout.expirations.get(i - 1);
+            assertTrue(gap <= millis(30), "Rescheduled timeout should fire at most one tick late: " + timeout.expirations);
+        }
+    }
+
+    @Test
+    void rescheduledTimeoutNeverFiresTwiceInOneTick() {
+        RecordingTimeout timeout = new RecordingTimeout(1);
+        wheel.schedule(timeout, 0, TimeUnit.MILLISECONDS);
+
+        advanceTo(10);
+
+        assertEquals(1, timeout.expirations.size());
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() {
+        RecordingTimeout cancelledBeforeLinking = new RecordingTimeout(0);
+        RecordingTimeout cancelledAfterLinking = new RecordingTimeout(0);
+        wheel.schedule(cancelledBeforeLinking, 50, TimeUnit.MILLISECONDS);
+        wheel.schedule(cancelledAfterLinking, 50, TimeUnit.MILLISECONDS);
+        wheel.cancel(cancelledBeforeLinking);
+        advanceTo(20);
+
+        wheel.cancel(cancelledAfterLinking);
+        advanceTo(100);
+
+        assertTrue(cancelledBeforeLinking.expirations.isEmpty());
+        assertTrue(cancelledAfterLinking.expirations.isEmpty());
+    }
+
+    @Test
+    void timeoutCannotBeScheduledTwice() {
+        RecordingTimeout timeout = new RecordingTimeout(0);
+        wheel.schedule(timeout, 10, TimeUnit.MILLISECONDS);
+
+        assertThrows(IllegalStateException.class, () -> wheel.schedule(timeout, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void manyTimeoutsExpireOnTheirTick() {
+        List<RecordingTimeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            RecordingTimeout timeout = new RecordingTimeout(0);
+            timeouts.add(timeout);
+            wheel.schedule(timeout, i % 500, TimeUnit.MILLISECONDS);
+        }
+
+        advanceTo(510);
+
+        assertTrue(timeouts.stream().allMatch(timeout -> timeout.expirations.size() == 1), "Every timeout should fire exactly once");
+    }
+
+    @Test
+    void startedWheelExpiresOnItsOwnThread() throws InterruptedException {
+        HashedTimingWheel realWheel = new HashedTimingWheel(5, TimeUnit.MILLISECONDS, 8);
+        CountDownLatch fired = new CountDownLatch(1);
+        realWheel.start("test-wheel");
+        try {
+            realWheel.schedule(new HashedTimingWheel.Timeout() {
+                @Override
+                protected long expire(long nowNanos) {
+                    fired.countDown();
+                    return 0;
+                }
+            }, 20, TimeUnit.MILLISECONDS);
+
+            assertTrue(fired.await(5, TimeUnit.SECONDS), "Timeout should fire on the wheel thread");
+        } finally {
+            realWheel.stop();
+        }
+    }
+
+    private void advanceTo(long millis) {
+        clock.set(millis(millis));
+        wheel.advance();
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static final class RecordingTimeout extends HashedTimingWheel.Timeout {
+        private final long rescheduleNanos;
+        private final List<Long> expirations = new ArrayList<>();
+
+        private RecordingTimeout(long rescheduleNanos) {
+            this.rescheduleNanos = rescheduleNanos;
+        }
+
+        @Override
+        protected long expire(long nowNanos) {
+            expirations.add(nowNanos);
+            return rescheduleNanos;
+        }
+    }
+}
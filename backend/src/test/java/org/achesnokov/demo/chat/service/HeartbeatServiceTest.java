@@ -0,0 +1,119 @@
+package org.achesnokov.demo.chat.service;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class HeartbeatServiceTest {
+
+    @Mock
+    WebSocketExecutor webSocketExecutor;
+
+    @Mock
+    ChatConnection session;
+
+    AtomicLong clock = new AtomicLong();
+
+    AtomicInteger evictions = new AtomicInteger();
+
+    MeterRegistry meterRegistry;
+
+    HashedTimingWheel wheel;
+
+    HeartbeatService heartbeatService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        wheel = new HashedTimingWheel(100, TimeUnit.MILLISECONDS, 64, clock::get);
+        heartbeatService = new HeartbeatService(webSocketExecutor, meterRegistry, 1000, 3000, clock::get, wheel);
+        lenient().when(session.getId()).thenReturn("session-1");
+        lenient().doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(webSocketExecutor).execute(anyString(), any(Runnable.class));
+    }
+
+    @Test
+    void quietSessionIsPingedAndEvicted() throws Exception {
+        heartbeatService.track(session, evictions::incrementAndGet);
+
+        advanceTo(1100);
+        verify(session, times(1)).sendPing(any(ByteBuffer.class));
+        assertEquals(0, evictions.get());
+
+        advanceTo(3100);
+        assertEquals(1, evictions.get(), "Session quiet for the idle timeout should be evicted");
+        assertEquals(1.0, meterRegistry.get("chat.heartbeat.evictions").counter().count());
+        assertEquals(0.0, meterRegistry.get("chat.heartbeat.sessions").gauge().value());
+    }
+
+    @Test
+    void activeSessionIsNeitherPingedNorEvicted() throws Exception {
+        heartbeatService.track(session, evictions::incrementAndGet);
+
+        for (long now = 0; now <= 10_000; now += 100) {
+            heartbeatService.touch(session);
+            advanceTo(now);
+        }
+
+        verify(session, never()).sendPing(any(ByteBuffer.class));
+        assertEquals(0, evictions.get());
+    }
+
+    @Test
+    void pongKeepsSessionAlive() throws Exception {
+        heartbeatService.track(session, evictions::incrementAndGet);
+
+        for (long now = 0; now <= 10_000; now += 100) {
+            advanceTo(now);
+            if (now % 2000 == 1500) {
+                heartbeatService.touch(session);
+            }
+        }
+
+        verify(session, times(5)).sendPing(any(ByteBuffer.class));
+        assertEquals(0, evictions.get(), "Session answering pings should stay connected");
+    }
+
+    @Test
+    void untrackedSessionIsNeverEvicted() {
+        heartbeatService.track(session, evictions::incrementAndGet);
+
+        heartbeatService.untrack(session);
+        advanceTo(10_000);
+
+        assertEquals(0, evictions.get());
+    }
+
+    @Test
+    void idleTimeoutMustExceedInterval() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new HeartbeatService(webSocketExecutor, meterRegistry, 1000, 1000, clock::get, wheel));
+    }
+
+    private void advanceTo(long millis) {
+        clock.set(TimeUnit.MILLISECONDS.toNanos(millis));
+        wheel.advance();
+    }
+}
@@ -1,25 +1,33 @@
 package org.achesnokov.demo.chat.service;
 
+import java.time.Instant;
 import java.util.List;
 
 import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.model.MessageHistoryPage;
+import org.achesnokov.demo.chat.model.MessagePage;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
 import org.achesnokov.demo.chat.repository.MessageRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -31,6 +39,15 @@ public class MessageServiceTest {
     @Mock
     MessageRepository messageRepository;
 
+    @Mock
+    SequenceAllocator sequenceAllocator;
+
+    @Mock
+    MessageWriteBehind messageWriteBehind;
+
+    @Spy
+    MessageIdGenerator messageIdGenerator = new MessageIdGenerator();
+
     @BeforeEach
     void setUp() {
         // Setup if necessary
@@ -69,6 +86,19 @@ public class MessageServiceTest {
         assertNotEquals(firstMessage.getMessageId(), secondMessage.getMessageId(), "Message IDs should be unique");
     }
 
+    @Test
+    void createMessageIdsFollowTheOrderOfMessages() {
+        Instant sent = Instant.parse("2024-01-01T00:00:00Z");
+
+        Message first = messageService.createMessage("chat-123", "user-123", "first", sent);
+        Message second = messageService.createMessage("chat-123", "user-123", "second", sent);
+        Message third = messageService.createMessage("chat-123", "user-123", "third", sent.plusMillis(1));
+
+        assertTrue(first.getMessageId().compareTo(second.getMessageId()) < 0, "Messages sent within a millisecond should not share a key");
+        assertTrue(second.getMessageId().compareTo(third.getMessageId()) < 0, "IDs should sort like the messages were sent");
+        assertEquals(sent, MessageIdGenerator.timestampOf(first.getMessageId()), "IDs should start with the time the message was sent");
+    }
+
     @Test
     void getAllMessagesByChatIdReturnsMessages() {
         String chatId = "chat-123";
@@ -122,4 +152,209 @@ public class MessageServiceTest {
 
         assertThrows(NullPointerException.class, () -> messageService.createMessage(chatId, userId, content), "Should throw exception if userId is null");
     }
+
+    @Test
+    void getLatestMessagesReadsOneExtraMessageToDetectOlderPage() {
+        String chatId = "chat-123";
+        Message oldest = message("1", Instant.parse("2024-01-01T00:00:01Z"));
+        Message middle = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        Message newest = message("3", Instant.parse("2024-01-01T00:00:03Z"));
+        when(messageRepository.findLatestByChatId(chatId, null, null, 3)).thenReturn(List.of(oldest, middle, newest));
+
+        MessagePage page = messageService.getLatestMessages(chatId, null, null, 2);
+
+        assertEquals(List.of(middle, newest), page.getMessages(), "Page should contain the most recent messages in order");
+        assertTrue(page.isHasMore(), "Page should report the older message");
+    }
+
+    @Test
+    void getLatestMessagesReturnsMissedTailSinceCursor() {
+        String chatId = "chat-123";
+        Instant since = Instant.parse("2024-01-01T00:00:01Z");
+        Message missed = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        when(messageRepository.findLatestByChatId(chatId, since, null, 51)).thenReturn(List.of(missed));
+
+        MessagePage page = messageService.getLatestMessages(chatId, since, null, 50);
+
+        assertEquals(List.of(missed), page.getMessages(), "Only messages after the cursor should be returned");
+        assertFalse(page.isHasMore(), "Nothing else was missed");
+    }
+
+    @Test
+    void getLatestMessagesRejectsNonPositiveLimit() {
+        assertThrows(IllegalArgumentException.class,
+                () -> messageService.getLatestMessages("chat-123", null, null, 0),
+                "Limit must be positive");
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void createMessageNumbersMessageWithNextSequenceOfChat() {
+        when(sequenceAllocator.next("chat-123")).thenReturn(42L);
+
+        Message result = messageService.createMessage("chat-123", "user-123", "content");
+
+        assertEquals(42L, result.getSequence(), "Message should get the allocated sequence number");
+        verify(messageRepository).save(result);
+    }
+
+    @Test
+    void createMessageForUnknownChatIsNotSaved() {
+        when(sequenceAllocator.next("missing")).thenThrow(new IllegalArgumentException("Chat not found: missing"));
+
+        assertThrows(IllegalArgumentException.class, () -> messageService.createMessage("missing", "user-123", "content"));
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void getMessagesBySequenceReadsOneExtraMessageToDetectNewerPage() {
+        Message first = message("1", Instant.parse("2024-01-01T00:00:01Z"));
+        Message second = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        Message third = message("3", Instant.parse("2024-01-01T00:00:03Z"));
+        when(messageRepository.findBySequenceRange("chat-123", 5, Long.MAX_VALUE, 3)).thenReturn(List.of(first, second, third));
+
+        MessagePage page = messageService.getMessagesBySequence("chat-123", 5, null, 2);
+
+        assertEquals(List.of(first, second), page.getMessages(), "Page should start at the beginning of the range");
+        assertTrue(page.isHasMore(), "Page should report the newer message");
+    }
+
+    @Test
+    void getMessagesBySequenceReturnsClosedRange() {
+        Message missed = message("7", Instant.parse("2024-01-01T00:00:07Z"));
+        when(messageRepository.findBySequenceRange("chat-123", 7, 9, 51)).thenReturn(List.of(missed));
+
+        MessagePage page = messageService.getMessagesBySequence("chat-123", 7, 9L, 50);
+
+        assertEquals(List.of(missed), page.getMessages(), "Only the requested range should be returned");
+        assertFalse(page.isHasMore(), "Nothing else is in the range");
+    }
+
+    @Test
+    void getMessagesBySequenceRejectsEmptyRange() {
+        assertThrows(IllegalArgumentException.class,
+                () -> messageService.getMessagesBySequence("chat-123", 10, 9L, 50),
+                "Range must not end before it starts");
+        assertThrows(IllegalArgumentException.class,
+                () -> messageService.getMessagesBySequence("chat-123", 0, null, 50),
+                "Sequence numbers start at 1");
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void createMessageWithWriteBehindIsSubmittedInsteadOfSaved() {
+        when(messageWriteBehind.isEnabled()).thenReturn(true);
+        when(sequenceAllocator.next("chat-123")).thenReturn(7L);
+
+        Message result = messageService.createMessage("chat-123", "user-123", "content");
+
+        assertEquals(7L, result.getSequence(), "Message should be numbered before it is logged");
+        verify(messageWriteBehind).submit(result);
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void getLatestMessagesIncludesMessagesNotStoredYet() {
+        Message stored = message("1", Instant.parse("2024-01-01T00:00:01Z"));
+        Message flushing = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        Message pending = message("3", Instant.parse("2024-01-01T00:00:03Z"));
+        when(messageWriteBehind.getPending("chat-123")).thenReturn(List.of(flushing, pending));
+        when(messageRepository.findLatestByChatId("chat-123", null, null, 3)).thenReturn(List.of(stored, flushing));
+
+        MessagePage page = messageService.getLatestMessages("chat-123", null, null, 2);
+
+        assertEquals(List.of(flushing, pending), page.getMessages(), "A message both stored and pending should appear once");
+        assertTrue(page.isHasMore(), "The stored message is on the older page");
+    }
+
+    @Test
+    void getLatestMessagesAfterReadsPastTheMessageIncludingMessagesNotStoredYet() {
+        Message last = message("1", Instant.parse("2024-01-01T00:00:01Z"));
+        Message missed = message("2", Instant.parse("2024-01-01T00:00:01Z"));
+        Message pending = message("3", Instant.parse("2024-01-01T00:00:02Z"));
+        last.setMessageId(messageIdGenerator.next(last.getTimestamp()));
+        missed.setMessageId(messageIdGenerator.next(missed.getTimestamp()));
+        when(messageWriteBehind.getPending("chat-123")).thenReturn(List.of(last, pending));
+        when(messageRepository.findLatestByChatIdAfterMessage("chat-123", last.getMessageId(), null, 51)).thenReturn(List.of(missed));
+
+        MessagePage page = messageService.getLatestMessagesAfter("chat-123", last.getMessageId(), null, 50);
+
+        assertEquals(List.of(missed, pending), page.getMessages(), "Messages after the ID, of the same instant too, should be returned");
+        assertFalse(page.isHasMore());
+    }
+
+    @Test
+    void getLatestMessagesAfterRejectsInvalidMessageId() {
+        assertThrows(IllegalArgumentException.class, () -> messageService.getLatestMessagesAfter("chat-123", "message-1", null, 50));
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void getMessagesBySequenceIncludesMessagesNotStoredYet() {
+        Message stored = message("1", Instant.parse("2024-01-01T00:00:01Z"));
+        stored.setSequence(5L);
+        Message pending = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        pending.setSequence(6L);
+        Message outOfRange = message("3", Instant.parse("2024-01-01T00:00:03Z"));
+        outOfRange.setSequence(9L);
+        when(messageWriteBehind.getPending("chat-123")).thenReturn(List.of(pending, outOfRange));
+        when(messageRepository.findBySequenceRange("chat-123", 5, 8, 51)).thenReturn(List.of(stored));
+
+        MessagePage page = messageService.getMessagesBySequence("chat-123", 5, 8L, 50);
+
+        assertEquals(List.of(stored, pending), page.getMessages(), "Pending messages in the range should follow the stored ones");
+        assertFalse(page.isHasMore());
+    }
+
+    @Test
+    void messageHistoryIsReadNewestFirstWithACursorToOlderMessages() {
+        Message older = message("1", Instant.parse("2024-01-01T00:00:01Z"));
+        Message middle = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        Message newest = message("3", Instant.parse("2024-01-01T00:00:03Z"));
+        when(messageRepository.findPageByChatId("chat-123", null, null, true, 2))
+                .thenReturn(new MessagePage(List.of(newest, middle), true));
+        when(messageRepository.findPageByChatId("chat-123", middle.getMessageId(), null, true, 2))
+                .thenReturn(new MessagePage(List.of(older), false));
+
+        MessageHistoryPage first = messageService.getMessageHistory("chat-123", null, null, 2);
+        MessageHistoryPage second = messageService.getMessageHistory("chat-123", first.getNextCursor(), null, 2);
+
+        assertEquals(List.of(newest, middle), first.getMessages());
+        assertNotNull(first.getNextCursor(), "A full page with more stored messages should return a cursor");
+        assertEquals(List.of(older), second.getMessages(), "The cursor should continue right after the last message");
+        assertNull(second.getNextCursor(), "The oldest page should end the history");
+    }
+
+    @Test
+    void messageHistoryAfterACursorIsReadOldestFirst() {
+        Message middle = message("2", Instant.parse("2024-01-01T00:00:02Z"));
+        Message newer = message("3", Instant.parse("2024-01-01T00:00:03Z"));
+        Message pending = message("4", Instant.parse("2024-01-01T00:00:04Z"));
+        when(messageRepository.findPageByChatId("chat-123", null, null, true, 1))
+                .thenReturn(new MessagePage(List.of(middle), true));
+        String cursor = messageService.getMessageHistory("chat-123", null, null, 1).getNextCursor();
+        when(messageWriteBehind.getPending("chat-123")).thenReturn(List.of(pending));
+        when(messageRepository.findPageByChatId("chat-123", middle.getMessageId(), null, false, 1))
+                .thenReturn(new MessagePage(List.of(newer), false));
+
+        MessageHistoryPage page = messageService.getMessageHistory("chat-123", null, cursor, 1);
+
+        assertEquals(List.of(newer), page.getMessages(), "Paging forwards should return the next newer message first");
+        assertNotNull(page.getNextCursor(), "The pending message that did not fit should be reachable with the cursor");
+    }
+
+    @Test
+    void invalidCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> messageService.getMessageHistory("chat-123", "not a cursor", null, 10));
+    }
+
+    private Message message(String messageId, Instant timestamp) {
+        Message message = new Message();
+        message.setChatId("chat-123");
+        message.setMessageId(MessageIdGenerator.fromLegacy(timestamp, messageId));
+        message.setUserId("user-123");
+        message.setContent("content " + messageId);
+        message.setTimestamp(timestamp);
+        return message;
+    }
 }
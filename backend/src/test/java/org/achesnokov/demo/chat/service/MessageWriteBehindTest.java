@@ -0,0 +1,238 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.achesnokov.demo.chat.model.Message;
+import org.achesnokov.demo.chat.repository.MessageIdGenerator;
+import org.achesnokov.demo.chat.repository.MessageRepository;
+import org.achesnokov.demo.chat.repository.MessageWriteAheadLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class MessageWriteBehindTest {
+
+    @Mock
+    MessageRepository messageRepository;
+
+    @TempDir
+    Path directory;
+
+    MeterRegistry meterRegistry;
+
+    MessageWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+        }
+    }
+
+    @Test
+    void syncModeDoesNotOpenTheLog() throws IOException {
+        writeBehind = create(MessageWriteMode.SYNC);
+
+        assertFalse(writeBehind.isEnabled());
+        assertThrows(IllegalStateException.class, () -> writeBehind.submit(message("1")));
+        assertTrue(writeBehind.getPending("chat-1").isEmpty());
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void submittedMessageIsPendingUntilStored() throws Exception {
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch store = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            storing.countDown();
+            store.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(messageRepository).saveAll(anyList());
+        writeBehind = create(MessageWriteMode.WRITE_BEHIND);
+        Message message = message("1");
+
+        writeBehind.submit(message);
+
+        assertTrue(storing.await(5, TimeUnit.SECONDS), "Submitted message should be stored in the background");
+        assertEquals(List.of(message), writeBehind.getPending("chat-1"), "Message should be visible while it is stored");
+        assertTrue(writeBehind.getPending("chat-2").isEmpty());
+        store.countDown();
+        waitUntilStored();
+        verify(messageRepository).saveAll(List.of(message));
+    }
+
+    @Test
+    void failedBatchIsRetried() throws Exception {
+        doThrow(new IllegalStateException("Throttled"))
+                .doNothing()
+                .when(messageRepository).saveAll(anyList());
+        writeBehind = create(MessageWriteMode.WRITE_BEHIND);
+        Message message = message("1");
+
+        writeBehind.submit(message);
+
+        verify(messageRepository, timeout(5000).times(2)).saveAll(List.of(message));
+        waitUntilStored();
+        assertEquals(1.0, meterRegistry.get("chat.write_behind.failures").counter().count());
+    }
+
+    @Test
+    void messagesLeftInTheLogAreStoredOnStart() throws Exception {
+        Message message = message(new MessageIdGenerator().next());
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, 4096)) {
+            wal.append(message);
+        }
+
+        writeBehind = create(MessageWriteMode.WRITE_BEHIND);
+
+        verify(messageRepository, timeout(5000)).saveAll(argThat(messages ->
+                messages.size() == 1 && messages.get(0).getMessageId().equals(message.getMessageId())));
+        waitUntilStored();
+        writeBehind.shutdown();
+        writeBehind = null;
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, 4096)) {
+            assertTrue(wal.getRecovered().isEmpty(), "Stored messages should be acknowledged in the log");
+        }
+    }
+
+    @Test
+    void messageRejectedForGoodIsDeadLetteredAndTheOthersAreStored() throws Exception {
+        doAnswer(invocation -> {
+            List<Message> messages = invocation.getArgument(0);
+            if (messages.stream().anyMatch(message -> message.getMessageId().equals("2"))) {
+                throw dynamoDbException(400, "ValidationException");
+            }
+            return null;
+        }).when(messageRepository).saveAll(anyList());
+        writeBehind = create(MessageWriteMode.WRITE_BEHIND);
+
+        writeBehind.submit(message("1"));
+        writeBehind.submit(message("2"));
+        writeBehind.submit(message("3"));
+
+        waitUntilStored();
+        verify(messageRepository, atLeastOnce()).saveAll(argThat(messages -> messages.stream().anyMatch(message -> message.getMessageId().equals("3"))
+                && messages.stream().noneMatch(message -> message.getMessageId().equals("2"))));
+        assertEquals(1.0, meterRegistry.get("chat.write_behind.dead_letters").counter().count());
+        writeBehind.shutdown();
+        writeBehind = null;
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, 4096)) {
+            assertTrue(wal.getRecovered().isEmpty(), "The rejected message should be acknowledged with the others");
+        }
+        try (MessageWriteAheadLog deadLetters = MessageWriteAheadLog.open(directory.resolve("dead-letter"), 4096)) {
+            assertEquals(List.of("2"), deadLetters.getRecovered().stream().map(entry -> entry.getMessage().getMessageId()).toList());
+        }
+    }
+
+    @Test
+    void fullBacklogRejectsSubmissions() throws Exception {
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch store = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            storing.countDown();
+            store.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(messageRepository).saveAll(anyList());
+        writeBehind = new MessageWriteBehind(messageRepository, meterRegistry, MessageWriteMode.WRITE_BEHIND,
+                directory.toString(), 4096, 1, 25, 1, 10);
+
+        writeBehind.submit(message("1"));
+        assertTrue(storing.await(5, TimeUnit.SECONDS));
+
+        assertThrows(IllegalStateException.class, () -> writeBehind.submit(message("2")));
+        assertEquals(1.0, meterRegistry.get("chat.write_behind.rejected").counter().count());
+        store.countDown();
+        waitUntilStored();
+        writeBehind.submit(message("3"));
+    }
+
+    @Test
+    void onlyTransientFailuresAreRetried() {
+        assertTrue(MessageWriteBehind.isRetryable(dynamoDbException(400, "ProvisionedThroughputExceededException")));
+        assertTrue(MessageWriteBehind.isRetryable(dynamoDbException(500, "InternalServerError")));
+        assertTrue(MessageWriteBehind.isRetryable(new IllegalStateException("3 messages still unprocessed after 5 attempts")));
+        assertFalse(MessageWriteBehind.isRetryable(dynamoDbException(400, "ValidationException")));
+        assertFalse(MessageWriteBehind.isRetryable(new IllegalArgumentException("Key attribute must not be null")));
+    }
+
+    @Test
+    void legacyMessagesLeftInTheLogGetTimeOrderedIds() throws Exception {
+        Message legacy = message("3f2c1a7e-0000-4000-8000-000000000001");
+        Message current = message(MessageIdGenerator.lowerBound(legacy.getTimestamp()));
+        try (MessageWriteAheadLog wal = MessageWriteAheadLog.open(directory, 4096)) {
+            wal.append(legacy);
+            wal.append(current);
+        }
+
+        writeBehind = create(MessageWriteMode.WRITE_BEHIND);
+
+        String migratedId = MessageIdGenerator.fromLegacy(legacy.getTimestamp(), legacy.getMessageId());
+        verify(messageRepository, timeout(5000)).saveAll(argThat(messages -> messages.size() == 2
+                && messages.get(0).getMessageId().equals(migratedId)
+                && messages.get(1).getMessageId().equals(current.getMessageId())));
+        waitUntilStored();
+    }
+
+    private MessageWriteBehind create(MessageWriteMode mode) throws IOException {
+        return new MessageWriteBehind(messageRepository, meterRegistry, mode, directory.toString(), 4096, 1, 25, 1000, 1000);
+    }
+
+    private static DynamoDbException dynamoDbException(int statusCode, String errorCode) {
+        return (DynamoDbException) DynamoDbException.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .message(errorCode)
+                .build();
+    }
+
+    private void waitUntilStored() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!writeBehind.getPending("chat-1").isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(writeBehind.getPending("chat-1").isEmpty(), "Message should no longer be pending once stored");
+    }
+
+    private static Message message(String messageId) {
+        Message message = new Message();
+        message.setChatId("chat-1");
+        message.setMessageId(messageId);
+        message.setUserId("user-1");
+        message.setContent("content " + messageId);
+        message.setTimestamp(Instant.parse("2024-01-01T00:00:00Z"));
+        message.setSequence(1L);
+        return message;
+    }
+}
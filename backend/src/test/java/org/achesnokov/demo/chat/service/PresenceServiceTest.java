@@ -0,0 +1,224 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.achesnokov.demo.chat.model.PresenceDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PresenceServiceTest {
+
+    MeterRegistry meterRegistry;
+
+    SessionRegistry sessionRegistry;
+
+    PresenceService presenceService;
+
+    List<PresenceService> otherNodes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        ChatBroadcaster chatBroadcaster = new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST);
+        sessionRegistry = new SessionRegistry(new InMemoryChatBroadcastBus(), new ChatFrameBatcher(meterRegistry, 0, 32), chatBroadcaster,
+                meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        presenceService.shutdown();
+        otherNodes.forEach(PresenceService::shutdown);
+    }
+
+    @Test
+    void presenceListsOnlineMembersOnce() {
+        presenceService = new PresenceService(sessionRegistry, null, new InMemoryChatBroadcastBus(), meterRegistry, 1000, 5000, 10_000);
+        sessionRegistry.join("chat-1", session("session-1", "alice", new LinkedBlockingQueue<>()));
+        sessionRegistry.join("chat-1", session("session-2", "alice", new LinkedBlockingQueue<>()));
+        sessionRegistry.join("chat-1", session("session-3", "bob", new LinkedBlockingQueue<>()));
+
+        PresenceDTO presence = presenceService.getPresence("chat-1");
+
+        assertEquals(List.of("alice", "bob"), presence.getOnline(), "Every online member should be listed once");
+        assertEquals(0, presence.getTypingCount());
+    }
+
+    @Test
+    void changesWithinIntervalAreCoalescedIntoOneFrame() throws InterruptedException {
+        presenceService = new PresenceService(sessionRegistry,
+                new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST), new InMemoryChatBroadcastBus(), meterRegistry, 300, 5000, 10_000);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        sessionRegistry.join("chat-1", session("session-1", "alice", received));
+
+        presenceService.changed("chat-1");
+        JsonObject first = parse(received.poll(5, TimeUnit.SECONDS));
+        assertEquals(List.of("alice"), strings(first, "online"), "First change should be broadcast right away");
+
+        for (int i = 0; i < 500; i++) {
+            presenceService.typing("chat-1", "user-" + i, "user-" + i);
+        }
+
+        JsonObject second = parse(received.poll(5, TimeUnit.SECONDS));
+        assertEquals(500, second.getInt("typingCount"), "Coalesced frame should carry the full state");
+        assertEquals(5, strings(second, "typing").size(), "Only a few typing members should be named");
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS), "500 typing members should cause a single frame");
+        assertEquals(2.0, meterRegistry.get("chat.presence.updates").counter().count());
+        assertEquals(499.0, meterRegistry.get("chat.presence.coalesced").counter().count());
+    }
+
+    @Test
+    void typingIndicatorExpires() throws InterruptedException {
+        presenceService = new PresenceService(sessionRegistry,
+                new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST), new InMemoryChatBroadcastBus(), meterRegistry, 0, 100, 10_000);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        sessionRegistry.join("chat-1", session("session-1", "alice", received));
+
+        presenceService.typing("chat-1", "user-1", "alice");
+
+        assertEquals(List.of("alice"), strings(parse(received.poll(5, TimeUnit.SECONDS)), "typing"));
+        JsonObject expired = parse(received.poll(5, TimeUnit.SECONDS));
+        assertNotNull(expired, "Expiry should be broadcast");
+        assertTrue(strings(expired, "typing").isEmpty(), "Typing indicator should be cleared");
+    }
+
+    @Test
+    void stoppedTypingClearsIndicator() {
+        presenceService = new PresenceService(sessionRegistry, null, new InMemoryChatBroadcastBus(), meterRegistry, 10_000, 5000, 10_000);
+        presenceService.typing("chat-1", "user-1", "alice");
+
+        presenceService.stoppedTyping("chat-1", "user-1");
+
+        assertEquals(0, presenceService.getPresence("chat-1").getTypingCount());
+    }
+
+    @Test
+    void presenceIsSharedBetweenNodes() throws InterruptedException {
+        Network network = new Network();
+        ChatBroadcaster chatBroadcaster = new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST);
+        presenceService = new PresenceService(sessionRegistry, chatBroadcaster, network.node(), meterRegistry, 0, 5000, 10_000);
+        SessionRegistry otherRegistry = new SessionRegistry(new InMemoryChatBroadcastBus(), new ChatFrameBatcher(meterRegistry, 0, 32),
+                chatBroadcaster, meterRegistry);
+        PresenceService otherNode = new PresenceService(otherRegistry, chatBroadcaster, network.node(), meterRegistry, 0, 5000, 10_000);
+        otherNodes.add(otherNode);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        sessionRegistry.join("chat-1", session("session-1", "alice", received));
+        presenceService.changed("chat-1");
+        assertEquals(List.of("alice"), strings(parse(received.poll(5, TimeUnit.SECONDS)), "online"));
+
+        ChatConnection bob = session(otherRegistry, "session-2", "bob", new LinkedBlockingQueue<>());
+        otherRegistry.join("chat-1", bob);
+        otherNode.changed("chat-1");
+        otherNode.typing("chat-1", "user-session-2", "bob");
+
+        JsonObject merged = parse(received.poll(5, TimeUnit.SECONDS));
+        while (strings(merged, "typing").isEmpty()) {
+            merged = parse(received.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("alice", "bob"), strings(merged, "online"), "Members online on another node should be listed");
+        assertEquals(List.of("bob"), strings(merged, "typing"), "Members typing on another node should be listed");
+        assertEquals(List.of("alice", "bob"), otherNode.getPresence("chat-1").getOnline(), "Both nodes should report the same members");
+
+        otherRegistry.remove(bob);
+        otherNode.stoppedTyping("chat-1", "user-session-2");
+        otherNode.changed("chat-1");
+        JsonObject left = parse(received.poll(5, TimeUnit.SECONDS));
+        while (strings(left, "online").size() > 1) {
+            left = parse(received.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("alice"), strings(left, "online"), "A member leaving another node should disappear");
+    }
+
+    private static List<String> strings(JsonObject frame, String name) {
+        return frame.getJsonArray(name).getValuesAs(JsonString.class).stream().map(JsonString::getString).toList();
+    }
+
+    private static JsonObject parse(String text) {
+        assertNotNull(text, "Frame should be delivered");
+        try (JsonReader reader = Json.createReader(new StringReader(text))) {
+            return reader.readObject();
+        }
+    }
+
+    private ChatConnection session(String id, String username, BlockingQueue<String> received) {
+        return session(sessionRegistry, id, username, received);
+    }
+
+    private static ChatConnection session(SessionRegistry registry, String id, String username, BlockingQueue<String> received) {
+        ChatConnection session = mock(ChatConnection.class);
+        AtomicReference<SessionContext> context = new AtomicReference<>();
+        when(session.getId()).thenReturn(id);
+        when(session.getContext()).thenAnswer(invocation -> context.get());
+        doAnswer(invocation -> {
+            context.set(invocation.getArgument(0));
+            return null;
+        }).when(session).setContext(any());
+        doAnswer(invocation -> {
+            received.add(invocation.getArgument(0));
+            invocation.<ChatConnection.SendCallback>getArgument(1).onComplete(null);
+            return null;
+        }).when(session).sendText(anyString(), any(ChatConnection.SendCallback.class));
+        registry.register(session, "user-" + id, username, null);
+        return session;
+    }
+
+    /**
+     * Buses of several nodes connected to each other: a published frame reaches the subscribers of every node.
+     */
+    private static final class Network {
+        private final List<Map<String, Consumer<OutboundFrame>>> nodes = new CopyOnWriteArrayList<>();
+
+        ChatBroadcastBus node() {
+            Map<String, Consumer<OutboundFrame>> subscriptions = new ConcurrentHashMap<>();
+            nodes.add(subscriptions);
+            return new ChatBroadcastBus() {
+                @Override
+                public void publish(String chatId, OutboundFrame frame) {
+                    nodes.forEach(node -> {
+                        Consumer<OutboundFrame> listener = node.get(chatId);
+                        if (listener != null) {
+                            listener.accept(frame);
+                        }
+                    });
+                }
+
+                @Override
+                public void subscribe(String chatId, Consumer<OutboundFrame> listener) {
+                    subscriptions.put(chatId, listener);
+                }
+
+                @Override
+                public void unsubscribe(String chatId) {
+                    subscriptions.remove(chatId);
+                }
+            };
+        }
+    }
+}
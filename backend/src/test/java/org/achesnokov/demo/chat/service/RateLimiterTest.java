@@ -0,0 +1,82 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RateLimiterTest {
+
+    AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    MeterRegistry meterRegistry;
+
+    RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new RateLimiter(meterRegistry, 100, clock::get);
+        rateLimiter.limit(RateLimitRoute.WEBSOCKET, 1, 2, 1, 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        rateLimiter.shutdown();
+    }
+
+    @Test
+    void userOverRateIsThrottled() {
+        rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-1", "chat-1");
+        rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-1", "chat-1");
+
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-1", "chat-1"));
+
+        assertEquals("user", e.getScope());
+        assertEquals(1000, e.getRetryAfter().toMillis());
+        assertEquals(1.0, meterRegistry.get("chat.rate_limit.throttled").tag("route", "websocket").tag("scope", "user").counter().count());
+    }
+
+    @Test
+    void chatIsThrottledAcrossUsers() {
+        rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-1", "chat-1");
+        rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-2", "chat-1");
+        rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-3", "chat-1");
+
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-4", "chat-1"));
+
+        assertEquals("chat", e.getScope());
+        assertDoesNotThrow(() -> rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-4", "chat-2"), "Other chats have their own bucket");
+    }
+
+    @Test
+    void routesHaveTheirOwnLimits() {
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire(RateLimitRoute.REST, "user-1", "chat-1");
+        }
+
+        assertDoesNotThrow(() -> rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-1", "chat-1"),
+                "A route without limits must not use the buckets of another");
+    }
+
+    @Test
+    void idleBucketsAreEvicted() {
+        rateLimiter.acquire(RateLimitRoute.WEBSOCKET, "user-1", "chat-1");
+        assertEquals(2.0, meterRegistry.get("chat.rate_limit.buckets").gauge().value());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        rateLimiter.evictIdle();
+
+        assertEquals(0.0, meterRegistry.get("chat.rate_limit.buckets").gauge().value());
+    }
+}
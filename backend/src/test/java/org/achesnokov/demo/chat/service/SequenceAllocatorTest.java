@@ -0,0 +1,138 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.achesnokov.demo.chat.repository.ChatRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SequenceAllocatorTest {
+
+    @Mock
+    ChatRepository chatRepository;
+
+    AtomicLong counter = new AtomicLong();
+
+    @Test
+    void blockSizeOfOneReservesEveryNumber() {
+        when(chatRepository.allocateSequences("chat-1", 1)).thenReturn(1L, 2L);
+        SequenceAllocator allocator = allocator(1);
+
+        assertEquals(1L, allocator.next("chat-1"));
+        assertEquals(2L, allocator.next("chat-1"));
+        verify(chatRepository, times(2)).allocateSequences("chat-1", 1);
+    }
+
+    @Test
+    void numbersAreHandedOutFromReservedBlocks() {
+        when(chatRepository.allocateSequences("chat-1", 3)).thenReturn(3L, 9L);
+        when(chatRepository.allocateSequences("chat-2", 3)).thenReturn(3L);
+        SequenceAllocator allocator = allocator(3);
+
+        assertEquals(1L, allocator.next("chat-1"));
+        assertEquals(2L, allocator.next("chat-1"));
+        assertEquals(1L, allocator.next("chat-2"), "Every chat should have its own block");
+        assertEquals(3L, allocator.next("chat-1"));
+        assertEquals(7L, allocator.next("chat-1"), "The next block starts where the counter was moved to");
+        verify(chatRepository, times(2)).allocateSequences("chat-1", 3);
+    }
+
+    @Test
+    void nonPositiveBlockSizeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> allocator(0));
+    }
+
+    @Test
+    void blocksAreRejectedWhenNodesShareChats() {
+        assertThrows(IllegalArgumentException.class, () -> new SequenceAllocator(chatRepository, 3, 100, MessageWriteMode.SYNC, 60000, "tcp"));
+        assertThrows(IllegalArgumentException.class, () -> new SequenceAllocator(chatRepository, 1, 100, MessageWriteMode.WRITE_BEHIND, 60000, "tcp"));
+        new SequenceAllocator(chatRepository, 1, 100, MessageWriteMode.SYNC, 60000, "tcp").shutdown();
+        new SequenceAllocator(chatRepository, 1, 1, MessageWriteMode.WRITE_BEHIND, 60000, "tcp").shutdown();
+        new SequenceAllocator(chatRepository, 3, 100, MessageWriteMode.SYNC, 60000, "in-memory").shutdown();
+    }
+
+    @Test
+    void nextBlockIsReservedOnceHalfOfTheCurrentOneIsHandedOut() {
+        when(chatRepository.allocateSequences("chat-1", 4)).thenReturn(4L, 8L);
+        SequenceAllocator allocator = allocator(4);
+
+        assertEquals(1L, allocator.next("chat-1"));
+        verify(chatRepository, times(1)).allocateSequences("chat-1", 4);
+        assertEquals(2L, allocator.next("chat-1"));
+        verify(chatRepository, times(2)).allocateSequences("chat-1", 4);
+        assertEquals(3L, allocator.next("chat-1"));
+        assertEquals(4L, allocator.next("chat-1"));
+        assertEquals(5L, allocator.next("chat-1"), "The reserved block should follow the current one");
+        verify(chatRepository, times(2)).allocateSequences("chat-1", 4);
+    }
+
+    @Test
+    void failedReservationIsRetriedWhenTheBlockRunsOut() {
+        when(chatRepository.allocateSequences("chat-1", 2))
+                .thenReturn(2L)
+                .thenThrow(new IllegalStateException("Throttled"))
+                .thenReturn(6L);
+        SequenceAllocator allocator = allocator(2);
+
+        assertEquals(1L, allocator.next("chat-1"));
+        assertEquals(2L, allocator.next("chat-1"));
+        assertEquals(5L, allocator.next("chat-1"));
+    }
+
+    @Test
+    void sendDoesNotWaitForTheCounterOnceABlockIsReserved() throws Exception {
+        when(chatRepository.allocateSequences("chat-1", 10)).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return 10L * counter.incrementAndGet();
+        });
+        SequenceAllocator allocator = new SequenceAllocator(chatRepository, 10, 60000, System::nanoTime, Executors.newSingleThreadExecutor());
+        try {
+            allocator.next("chat-1");
+
+            long slowest = 0;
+            for (long expected = 2; expected <= 30; expected++) {
+                long start = System.nanoTime();
+                assertEquals(expected, allocator.next("chat-1"));
+                slowest = Math.max(slowest, System.nanoTime() - start);
+                Thread.sleep(20);
+            }
+            assertTrue(slowest < TimeUnit.MILLISECONDS.toNanos(25), "Numbers should not wait for a counter update: " + slowest);
+        } finally {
+            allocator.shutdown();
+        }
+    }
+
+    @Test
+    void blocksOfQuietChatsAreDropped() {
+        AtomicLong clock = new AtomicLong();
+        when(chatRepository.allocateSequences("chat-1", 3)).thenReturn(3L, 6L);
+        when(chatRepository.allocateSequences("chat-2", 3)).thenReturn(3L);
+        SequenceAllocator allocator = new SequenceAllocator(chatRepository, 3, 1000, clock::get, Runnable::run);
+
+        assertEquals(1L, allocator.next("chat-1"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        assertEquals(1L, allocator.next("chat-2"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        allocator.evictIdle();
+
+        assertEquals(1, allocator.getBlockCount(), "Only the block of the chat that had a recent message should be kept");
+        assertEquals(4L, allocator.next("chat-1"), "A dropped block's remaining numbers are skipped");
+        assertEquals(2L, allocator.next("chat-2"));
+    }
+
+    private SequenceAllocator allocator(int blockSize) {
+        return new SequenceAllocator(chatRepository, blockSize, 60000, System::nanoTime, Runnable::run);
+    }
+}
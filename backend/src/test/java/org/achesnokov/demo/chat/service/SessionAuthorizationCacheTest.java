@@ -0,0 +1,89 @@
+package org.achesnokov.demo.chat.service;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.achesnokov.demo.chat.model.ChatParticipant;
+import org.achesnokov.demo.chat.model.User;
+import org.achesnokov.demo.chat.repository.ChatParticipantRepository;
+import org.achesnokov.demo.chat.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SessionAuthorizationCacheTest {
+
+    @Mock
+    UserRepository userRepository;
+
+    @Mock
+    ChatParticipantRepository chatParticipantRepository;
+
+    SessionAuthorizationCache sessionAuthorizationCache;
+
+    @BeforeEach
+    void setUp() {
+        sessionAuthorizationCache = new SessionAuthorizationCache(userRepository, chatParticipantRepository, 60_000, 0, 100, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void repeatedConnectsReadUserOnce() {
+        User user = new User();
+        user.setUserId("user-1");
+        user.setUsername("alice");
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Optional.of(user), sessionAuthorizationCache.findUserByUsername("alice"));
+        }
+
+        verify(userRepository, times(1)).findByUsername("alice");
+    }
+
+    @Test
+    void invalidateUserForcesReload() {
+        User user = new User();
+        user.setUserId("user-1");
+        user.setUsername("alice");
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user));
+        sessionAuthorizationCache.findUserByUsername("alice");
+
+        sessionAuthorizationCache.invalidateUser("user-1");
+        sessionAuthorizationCache.findUserByUsername("alice");
+
+        verify(userRepository, times(2)).findByUsername("alice");
+    }
+
+    @Test
+    void membershipIsCachedUntilInvalidated() {
+        ChatParticipant participant = new ChatParticipant();
+        participant.setChatId("chat-1");
+        participant.setUserId("user-1");
+        when(chatParticipantRepository.findById("chat-1", "user-1")).thenReturn(participant);
+
+        assertTrue(sessionAuthorizationCache.isActiveParticipant("chat-1", "user-1"));
+        participant.setLeftAt(Instant.now());
+        assertTrue(sessionAuthorizationCache.isActiveParticipant("chat-1", "user-1"), "Cached membership should be reused");
+
+        sessionAuthorizationCache.invalidateParticipant("chat-1", "user-1");
+
+        assertFalse(sessionAuthorizationCache.isActiveParticipant("chat-1", "user-1"), "Participant who left should be rejected");
+        verify(chatParticipantRepository, times(2)).findById("chat-1", "user-1");
+    }
+
+    @Test
+    void unknownParticipantIsRejected() {
+        assertFalse(sessionAuthorizationCache.isActiveParticipant("chat-1", "user-2"));
+    }
+}
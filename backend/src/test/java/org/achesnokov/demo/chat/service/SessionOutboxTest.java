@@ -0,0 +1,230 @@
+package org.achesnokov.demo.chat.service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import org.achesnokov.demo.chat.model.FrameEncoding;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SessionOutboxTest {
+
+    MeterRegistry meterRegistry;
+
+    SessionOutbox.Metrics metrics;
+
+    @Mock
+    ChatConnection session;
+
+    List<String> written;
+
+    List<ChatConnection.SendCallback> pendingCallbacks;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new SessionOutbox.Metrics(meterRegistry);
+        written = new ArrayList<>();
+        pendingCallbacks = new ArrayList<>();
+        lenient().when(session.getId()).thenReturn("session-1");
+        // The client never acknowledges writes until the test completes them explicitly
+        lenient().doAnswer(invocation -> {
+            written.add(invocation.getArgument(0));
+            pendingCallbacks.add(invocation.getArgument(1));
+            return null;
+        }).when(session).sendText(anyString(), any(ChatConnection.SendCallback.class));
+    }
+
+    @Test
+    void constructorRejectsInvalidWatermarks() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new SessionOutbox(session, 4, 4, OutboxOverflowPolicy.DROP_OLDEST, metrics),
+                "Low watermark must be below the high watermark");
+    }
+
+    @Test
+    void enqueueKeepsOnlyOneWriteInFlight() {
+        SessionOutbox outbox = new SessionOutbox(session, 8, 2, OutboxOverflowPolicy.DROP_OLDEST, metrics);
+
+        outbox.enqueue(frame("1"));
+        outbox.enqueue(frame("2"));
+        outbox.enqueue(frame("3"));
+
+        assertEquals(List.of(text("1")), written, "Only the first frame should be written");
+        assertEquals(2, outbox.getDepth(), "The rest should wait in the queue");
+
+        completeNextWrite();
+
+        assertEquals(List.of(text("1"), text("2")), written, "Next frame should be written once the previous completes");
+        assertEquals(1, outbox.getDepth(), "Queue should shrink");
+    }
+
+    @Test
+    void writeThatFailsSynchronouslyDoesNotStallTheOutbox() {
+        SessionOutbox outbox = new SessionOutbox(session, 8, 2, OutboxOverflowPolicy.DROP_OLDEST, metrics);
+        doAnswer(invocation -> {
+            throw new IllegalStateException("Session is closing");
+        }).doAnswer(invocation -> {
+            written.add(invocation.getArgument(0));
+            pendingCallbacks.add(invocation.getArgument(1));
+            return null;
+        }).when(session).sendText(anyString(), any(ChatConnection.SendCallback.class));
+
+        outbox.enqueue(frame("1"));
+        outbox.enqueue(frame("2"));
+
+        assertEquals(List.of(text("2")), written, "The next frame should be written after a send threw");
+        assertEquals(0, outbox.getDepth());
+    }
+
+    @Test
+    void writesCompletingOnTheCallingThreadDrainTheQueueWithoutRecursion() {
+        int frames = 100_000;
+        SessionOutbox outbox = new SessionOutbox(session, frames + 1, 1, OutboxOverflowPolicy.DROP_OLDEST, metrics);
+        outbox.enqueue(frame("first"));
+        for (int i = 0; i < frames; i++) {
+            outbox.enqueue(frame(Integer.toString(i)));
+        }
+        // From now on every write completes before its send returns
+        doAnswer(invocation -> {
+            written.add(invocation.getArgument(0));
+            invocation.<ChatConnection.SendCallback>getArgument(1).onComplete(null);
+            return null;
+        }).when(session).sendText(anyString(), any(ChatConnection.SendCallback.class));
+
+        completeNextWrite();
+
+        assertEquals(frames + 1, written.size(), "Every queued frame should be written");
+        assertEquals(0, outbox.getDepth());
+        outbox.enqueue(frame("last"));
+        assertEquals(text("last"), written.get(written.size() - 1), "The outbox should keep writing afterwards");
+    }
+
+    @Test
+    void dropOldestEvictsOldestQueuedFrame() {
+        SessionOutbox outbox = new SessionOutbox(session, 2, 0, OutboxOverflowPolicy.DROP_OLDEST, metrics);
+
+        outbox.enqueue(frame("1"));
+        outbox.enqueue(frame("2"));
+        outbox.enqueue(frame("3"));
+        outbox.enqueue(frame("4"));
+
+        assertTrue(outbox.isSlow(), "Session should be flagged as slow");
+        assertEquals(2, outbox.getDepth(), "Queue should stay at the high watermark");
+        assertEquals(1.0, meterRegistry.get("chat.outbox.evictions").tag("reason", "dropped").counter().count(),
+                "Dropped frame should be counted");
+
+        completeNextWrite();
+        completeNextWrite();
+        completeNextWrite();
+
+        assertEquals(List.of(text("1"), text("3"), text("4")), written, "Oldest queued frame should be dropped");
+        assertFalse(outbox.isSlow(), "Session should recover once drained to the low watermark");
+    }
+
+    @Test
+    void coalesceReplacesSupersededFrames() {
+        SessionOutbox outbox = new SessionOutbox(session, 2, 0, OutboxOverflowPolicy.COALESCE, metrics);
+
+        outbox.enqueue(frame("1"));
+        outbox.enqueue(frame("system-1", "system"));
+        outbox.enqueue(frame("2"));
+        outbox.enqueue(frame("system-2", "system"));
+
+        assertEquals(2, outbox.getDepth(), "Superseded system frame should be removed");
+        assertEquals(1.0, meterRegistry.get("chat.outbox.evictions").tag("reason", "coalesced").counter().count(),
+                "Coalesced frame should be counted");
+
+        completeNextWrite();
+        completeNextWrite();
+
+        assertEquals(List.of(text("1"), text("2"), text("system-2")), written, "Only the latest system frame should be sent");
+    }
+
+    @Test
+    void disconnectClosesSlowConsumer() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 2, 0, OutboxOverflowPolicy.DISCONNECT, metrics);
+
+        outbox.enqueue(frame("1"));
+        outbox.enqueue(frame("2"));
+        outbox.enqueue(frame("3"));
+        outbox.enqueue(frame("4"));
+
+        verify(session).close(eq(ChatConnection.TRY_AGAIN_LATER), anyString());
+        assertEquals(0, outbox.getDepth(), "Queue should be discarded");
+        assertEquals(1.0, meterRegistry.get("chat.outbox.disconnects").counter().count(), "Disconnect should be counted");
+
+        outbox.enqueue(frame("5"));
+        assertEquals(0, outbox.getDepth(), "Frames for a closed outbox should be ignored");
+    }
+
+    @Test
+    void depthGaugeTracksAllQueuedFrames() {
+        SessionOutbox outbox = new SessionOutbox(session, 8, 2, OutboxOverflowPolicy.DROP_OLDEST, metrics);
+
+        outbox.enqueue(frame("1"));
+        outbox.enqueue(frame("2"));
+        outbox.enqueue(frame("3"));
+
+        assertEquals(2.0, meterRegistry.get("chat.outbox.depth").gauge().value(), "Gauge should report queued frames");
+
+        outbox.close();
+
+        assertEquals(0.0, meterRegistry.get("chat.outbox.depth").gauge().value(), "Gauge should drop to zero on close");
+    }
+
+    @Test
+    void cborSessionReceivesBinaryFrames() {
+        when(session.getSubprotocol()).thenReturn(FrameEncoding.CBOR_SUBPROTOCOL);
+        SessionOutbox outbox = new SessionOutbox(session, 8, 2, OutboxOverflowPolicy.DROP_OLDEST, metrics);
+
+        outbox.enqueue(frame("1"));
+
+        ArgumentCaptor<ByteBuffer> binary = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(session).sendBinary(binary.capture(), any(ChatConnection.SendCallback.class));
+        verify(session, never()).sendText(anyString(), any(ChatConnection.SendCallback.class));
+        byte[] bytes = new byte[binary.getValue().remaining()];
+        binary.getValue().get(bytes);
+        assertEquals(text("1"), FrameEncoding.cborToJson(bytes), "Binary frame should carry the same envelope");
+    }
+
+    private void completeNextWrite() {
+        ChatConnection.SendCallback callback = pendingCallbacks.remove(0);
+        callback.onComplete(null);
+    }
+
+    private static OutboundFrame frame(String content) {
+        return frame(content, null);
+    }
+
+    private static OutboundFrame frame(String content, String coalesceKey) {
+        return OutboundFrame.of(Json.createObjectBuilder().add("content", content).build(), coalesceKey);
+    }
+
+    private static String text(String content) {
+        return frame(content).getText();
+    }
+}
@@ -0,0 +1,245 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+
+public class SessionRegistryTest {
+
+    InMemoryChatBroadcastBus chatBroadcastBus;
+
+    SessionRegistry sessionRegistry;
+
+    @BeforeEach
+    void setUp() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        chatBroadcastBus = new InMemoryChatBroadcastBus();
+        sessionRegistry = new SessionRegistry(chatBroadcastBus, new ChatFrameBatcher(meterRegistry, 0, 32),
+                new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST), meterRegistry);
+    }
+
+    @Test
+    void oneSessionReceivesFramesOfAllJoinedChats() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        ChatConnection session = session("session-1", received);
+        sessionRegistry.register(session, "user-1", "alice", null);
+
+        sessionRegistry.join("chat-1", session);
+        sessionRegistry.join("chat-2", session);
+        chatBroadcastBus.publish("chat-1", frame("first"));
+        chatBroadcastBus.publish("chat-2", frame("second"));
+        chatBroadcastBus.publish("chat-3", frame("other"));
+
+        assertEquals(List.of(frame("first").getText(), frame("second").getText()), received,
+                "Frames of joined chats should arrive on the same session");
+    }
+
+    @Test
+    void sessionsAreIndexedByChatAndByUser() {
+        ChatConnection first = session("session-1", new CopyOnWriteArrayList<>());
+        ChatConnection second = session("session-2", new CopyOnWriteArrayList<>());
+        sessionRegistry.register(first, "user-1", "alice", null);
+        sessionRegistry.register(second, "user-1", "alice", null);
+
+        sessionRegistry.join("chat-1", first);
+        sessionRegistry.join("chat-1", second);
+        sessionRegistry.join("chat-2", second);
+
+        assertEquals(List.of(first, second), sessions(sessionRegistry.getChatSessions("chat-1")));
+        assertEquals(List.of(second), sessions(sessionRegistry.getChatSessions("chat-2")));
+        assertEquals(List.of(first, second), sessions(sessionRegistry.getUserSessions("user-1")));
+        assertTrue(sessionRegistry.isJoined("chat-2", second));
+        assertFalse(sessionRegistry.isJoined("chat-2", first));
+    }
+
+    @Test
+    void leaveStopsDeliveryAndUnsubscribesEmptyChat() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        ChatConnection session = session("session-1", received);
+        sessionRegistry.register(session, "user-1", "alice", null);
+        sessionRegistry.join("chat-1", session);
+
+        assertTrue(sessionRegistry.leave("chat-1", session), "Joined session should be removed");
+        assertFalse(sessionRegistry.leave("chat-1", session), "Session should only be removed once");
+        chatBroadcastBus.publish("chat-1", frame("late"));
+
+        assertTrue(received.isEmpty(), "Left chat should not be delivered");
+        assertTrue(sessionRegistry.getChatSessions("chat-1").isEmpty());
+    }
+
+    @Test
+    void slowSubscriptionDoesNotBlockJoinsOfTheSameChat() throws Exception {
+        CountDownLatch subscribing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InMemoryChatBroadcastBus slowBus = new InMemoryChatBroadcastBus() {
+            @Override
+            public void subscribe(String chatId, Consumer<OutboundFrame> listener) {
+                // Blocks like a subscription written to a remote node
+                subscribing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.subscribe(chatId, listener);
+            }
+        };
+        SessionRegistry registry = new SessionRegistry(slowBus, new ChatFrameBatcher(meterRegistry, 0, 32),
+                new ChatBroadcaster(meterRegistry, 4, 1, OutboxOverflowPolicy.DROP_OLDEST), meterRegistry);
+        ChatConnection first = session("session-1", new CopyOnWriteArrayList<>());
+        ChatConnection second = session("session-2", new CopyOnWriteArrayList<>());
+        registry.register(first, "user-1", "alice", null);
+        registry.register(second, "user-2", "bob", null);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> firstJoin = pool.submit(() -> registry.join("chat-1", first));
+            assertTrue(subscribing.await(5, TimeUnit.SECONDS));
+            Future<Boolean> secondJoin = pool.submit(() -> registry.join("chat-1", second));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (registry.getChatSessions("chat-1").size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, registry.getChatSessions("chat-1").size(), "The chat index must not be locked while the bus subscribes");
+
+            release.countDown();
+            assertTrue(firstJoin.get(5, TimeUnit.SECONDS));
+            assertTrue(secondJoin.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void removeLeavesAllChatsAndDropsUserIndex() {
+        ChatConnection session = session("session-1", new CopyOnWriteArrayList<>());
+        sessionRegistry.register(session, "user-1", "alice", null);
+        sessionRegistry.join("chat-1", session);
+        sessionRegistry.join("chat-2", session);
+
+        List<String> chats = sessionRegistry.remove(session);
+
+        assertEquals(List.of("chat-1", "chat-2"), chats, "Removed session should report the chats it left");
+        assertTrue(sessionRegistry.getChatSessions("chat-1").isEmpty());
+        assertTrue(sessionRegistry.getChatSessions("chat-2").isEmpty());
+        assertTrue(sessionRegistry.getUserSessions("user-1").isEmpty());
+    }
+
+    @Test
+    void removedSessionCannotJoinAgain() {
+        ChatConnection session = session("session-1", new CopyOnWriteArrayList<>());
+        sessionRegistry.register(session, "user-1", "alice", null);
+        sessionRegistry.join("chat-1", session);
+
+        sessionRegistry.remove(session);
+
+        assertFalse(sessionRegistry.join("chat-2", session), "A late join must not resurrect a closed session");
+        assertTrue(sessionRegistry.getChatSessions("chat-2").isEmpty());
+        assertTrue(sessionRegistry.remove(session).isEmpty(), "Second removal should have no effect");
+    }
+
+    @Test
+    void joinRequiresRegisteredSession() {
+        ChatConnection session = session("session-1", new CopyOnWriteArrayList<>());
+
+        assertThrows(IllegalStateException.class, () -> sessionRegistry.join("chat-1", session));
+    }
+
+    @Test
+    void concurrentJoinsAndRemovalsLeaveNoClosedSessionBehind() throws Exception {
+        int sessionCount = 200;
+        List<ChatConnection> sessions = new ArrayList<>();
+        for (int i = 0; i < sessionCount; i++) {
+            ChatConnection session = session("session-" + i, new CopyOnWriteArrayList<>());
+            sessionRegistry.register(session, "user-" + (i % 10), "user", null);
+            sessions.add(session);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (ChatConnection session : sessions) {
+                futures.add(executor.submit(() -> {
+                    for (int chat = 0; chat < 5; chat++) {
+                        sessionRegistry.join("chat-" + chat, session);
+                    }
+                }));
+                futures.add(executor.submit(() -> sessionRegistry.remove(session)));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int chat = 0; chat < 5; chat++) {
+            assertTrue(sessionRegistry.getChatSessions("chat-" + chat).isEmpty(), "Removed sessions must not stay joined");
+        }
+        assertEquals(0, sessionRegistry.size());
+    }
+
+    @Test
+    void memoryEstimateGrowsWithConnections() {
+        ChatConnection first = session("session-1", new CopyOnWriteArrayList<>());
+        sessionRegistry.register(first, "user-1", "alice", null);
+        long one = sessionRegistry.estimateMemoryBytes();
+        ChatConnection second = session("session-2", new CopyOnWriteArrayList<>());
+        sessionRegistry.register(second, "user-2", "bob", null);
+        sessionRegistry.join("chat-1", second);
+
+        assertTrue(one > 0, "A connection should have a non-zero footprint");
+        assertTrue(sessionRegistry.estimateMemoryBytes() > 2 * one - 8, "Estimate should sum all connections");
+        assertEquals(2, sessionRegistry.size());
+    }
+
+    private static List<ChatConnection> sessions(List<SessionContext> contexts) {
+        return contexts.stream().map(SessionContext::getSession).toList();
+    }
+
+    private static ChatConnection session(String id, List<String> received) {
+        ChatConnection session = mock(ChatConnection.class);
+        AtomicReference<SessionContext> context = new AtomicReference<>();
+        lenient().when(session.getId()).thenReturn(id);
+        lenient().when(session.getContext()).thenAnswer(invocation -> context.get());
+        lenient().doAnswer(invocation -> {
+            context.set(invocation.getArgument(0));
+            return null;
+        }).when(session).setContext(any());
+        lenient().doAnswer(invocation -> {
+            received.add(invocation.getArgument(0));
+            invocation.<ChatConnection.SendCallback>getArgument(1).onComplete(null);
+            return null;
+        }).when(session).sendText(anyString(), any(ChatConnection.SendCallback.class));
+        return session;
+    }
+
+    private static OutboundFrame frame(String content) {
+        return OutboundFrame.of(Json.createObjectBuilder().add("content", content).build());
+    }
+}
@@ -0,0 +1,171 @@
+package org.achesnokov.demo.chat.service;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.json.Json;
+import org.achesnokov.demo.chat.model.OutboundFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TcpChatBroadcastBusTest {
+
+    TcpChatBroadcastBus firstNode;
+
+    TcpChatBroadcastBus secondNode;
+
+    Timer secondNodeDelivery;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        secondNodeDelivery = Timer.builder("chat.bus.delivery").register(new SimpleMeterRegistry());
+        firstNode = new TcpChatBroadcastBus(loopback, 0, null);
+        secondNode = new TcpChatBroadcastBus(loopback, 0, secondNodeDelivery);
+        firstNode.connect(loopback.getHostAddress(), secondNode.getPort());
+        secondNode.connect(loopback.getHostAddress(), firstNode.getPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        firstNode.close();
+        secondNode.close();
+    }
+
+    @Test
+    void publishDeliversFrameToLocalSubscriber() throws InterruptedException {
+        BlockingQueue<OutboundFrame> received = new LinkedBlockingQueue<>();
+        firstNode.subscribe("chat-1", received::add);
+
+        OutboundFrame frame = frame("hello");
+        firstNode.publish("chat-1", frame);
+
+        assertEquals(frame, received.poll(1, TimeUnit.SECONDS), "Publishing node should deliver to itself");
+    }
+
+    @Test
+    void publishDeliversFrameToRemoteSubscriberInOrder() throws InterruptedException {
+        BlockingQueue<OutboundFrame> received = new LinkedBlockingQueue<>();
+        secondNode.subscribe("chat-1", received::add);
+        awaitLink("chat-1", received);
+
+        for (int i = 0; i < 1000; i++) {
+            firstNode.publish("chat-1", frame("message-" + i));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            OutboundFrame frame = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(frame, "Frame " + i + " should be delivered");
+            assertEquals(frame("message-" + i).getText(), frame.getText(), "Frames should arrive in publish order");
+        }
+        assertTrue(secondNodeDelivery.count() >= 1000, "Cross-node delivery latency should be recorded");
+    }
+
+    @Test
+    void publishKeepsCoalesceKey() throws InterruptedException {
+        BlockingQueue<OutboundFrame> received = new LinkedBlockingQueue<>();
+        secondNode.subscribe("chat-1", received::add);
+        awaitLink("chat-1", received);
+
+        firstNode.publish("chat-1", OutboundFrame.of(Json.createObjectBuilder().add("content", "notice").build(), "system"));
+
+        OutboundFrame frame = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(frame, "Frame should be delivered");
+        assertEquals("system", frame.getCoalesceKey(), "Coalesce key should survive the hop");
+    }
+
+    @Test
+    void publishSkipsNodesWithoutSubscription() throws InterruptedException {
+        BlockingQueue<OutboundFrame> chatOne = new LinkedBlockingQueue<>();
+        BlockingQueue<OutboundFrame> chatTwo = new LinkedBlockingQueue<>();
+        secondNode.subscribe("chat-1", chatOne::add);
+        secondNode.subscribe("chat-2", chatTwo::add);
+        awaitLink("chat-1", chatOne);
+        awaitLink("chat-2", chatTwo);
+
+        secondNode.unsubscribe("chat-2");
+        // Subscriptions travel in order on the same link, so once chat-3 is known the unsubscription is known too
+        BlockingQueue<OutboundFrame> chatThree = new LinkedBlockingQueue<>();
+        secondNode.subscribe("chat-3", chatThree::add);
+        awaitLink("chat-3", chatThree);
+
+        firstNode.publish("chat-2", frame("dropped"));
+        firstNode.publish("chat-1", frame("delivered"));
+
+        assertEquals(frame("delivered").getText(), chatOne.poll(5, TimeUnit.SECONDS).getText(), "Subscribed chat should be delivered");
+        assertNull(chatTwo.poll(), "Unsubscribed chat should not be delivered");
+    }
+
+    @Test
+    void connectingPeerLearnsEverySubscription() throws Exception {
+        try (TcpChatBroadcastBus thirdNode = new TcpChatBroadcastBus(InetAddress.getLoopbackAddress(), 0, null)) {
+            // More subscriptions than a frame queue holds, so none of them may be dropped on the way
+            for (int i = 0; i < 20_000; i++) {
+                thirdNode.subscribe("chat-" + i, frame -> { });
+            }
+            BlockingQueue<OutboundFrame> received = new LinkedBlockingQueue<>();
+            thirdNode.subscribe("chat-last", received::add);
+
+            firstNode.connect(InetAddress.getLoopbackAddress().getHostAddress(), thirdNode.getPort());
+
+            awaitLink("chat-last", received);
+        }
+    }
+
+    @Test
+    void publishDoesNotWaitForAPeerThatStopsReading() throws Exception {
+        try (ServerSocket stalledPeer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            firstNode.connect(stalledPeer.getInetAddress().getHostAddress(), stalledPeer.getLocalPort());
+            try (Socket link = stalledPeer.accept()) {
+                // The peer subscribes, then never reads a frame
+                DataOutputStream out = new DataOutputStream(link.getOutputStream());
+                out.writeByte(1);
+                out.writeUTF("chat-1");
+                out.flush();
+                Thread.sleep(200);
+
+                String content = "x".repeat(64 * 1024);
+                long start = System.nanoTime();
+                for (int i = 0; i < 200; i++) {
+                    firstNode.publish("chat-1", frame(content));
+                }
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                assertTrue(elapsedMillis < 2000, "Publishing should not wait until a stalled peer reads, took " + elapsedMillis + " ms");
+            }
+        }
+    }
+
+    /**
+     * Publishes probes until the remote node's subscription has propagated to the first node.
+     */
+    private void awaitLink(String chatId, BlockingQueue<OutboundFrame> received) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            firstNode.publish(chatId, frame("probe"));
+            if (received.poll(50, TimeUnit.MILLISECONDS) != null) {
+                Thread.sleep(50);
+                received.clear();
+                return;
+            }
+        }
+        throw new AssertionError("Link between nodes was not established");
+    }
+
+    private static OutboundFrame frame(String content) {
+        return OutboundFrame.of(Json.createObjectBuilder().add("content", content).build());
+    }
+}
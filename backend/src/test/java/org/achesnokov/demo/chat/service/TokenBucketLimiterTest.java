@@ -0,0 +1,108 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBucketLimiterTest {
+
+    AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    @Test
+    void burstIsAllowedThenTokensRefillAtRate() {
+        TokenBucketLimiter<String> limiter = new TokenBucketLimiter<>(10, 3, 100, clock::get);
+
+        assertEquals(0, limiter.tryAcquire("user-1"));
+        assertEquals(0, limiter.tryAcquire("user-1"));
+        assertEquals(0, limiter.tryAcquire("user-1"));
+        long waitNanos = limiter.tryAcquire("user-1");
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), waitNanos, "Next token arrives after one interval");
+        clock.addAndGet(waitNanos);
+        assertEquals(0, limiter.tryAcquire("user-1"));
+        assertTrue(limiter.tryAcquire("user-1") > 0, "Only one token refilled");
+    }
+
+    @Test
+    void keysHaveIndependentBuckets() {
+        TokenBucketLimiter<String> limiter = new TokenBucketLimiter<>(1, 1, 100, clock::get);
+
+        assertEquals(0, limiter.tryAcquire("user-1"));
+        assertTrue(limiter.tryAcquire("user-1") > 0);
+        assertEquals(0, limiter.tryAcquire("user-2"), "Another key must not be throttled");
+    }
+
+    @Test
+    void refilledBucketsAreEvicted() {
+        TokenBucketLimiter<String> limiter = new TokenBucketLimiter<>(10, 2, 100, clock::get);
+        limiter.tryAcquire("user-1");
+        limiter.tryAcquire("user-2");
+        limiter.tryAcquire("user-2");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, limiter.evictIdle(), "Only the bucket that is full again should be dropped");
+        assertEquals(1, limiter.size());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, limiter.evictIdle());
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    void fullLimiterEvictsBeforeTrackingNewKeys() {
+        TokenBucketLimiter<String> limiter = new TokenBucketLimiter<>(10, 1, 2, clock::get);
+        limiter.tryAcquire("user-1");
+        limiter.tryAcquire("user-2");
+
+        assertEquals(0, limiter.tryAcquire("user-3"), "New keys are let through when every bucket is in use");
+        assertEquals(2, limiter.size(), "The limiter must not grow beyond its maximum size");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        limiter.tryAcquire("user-3");
+        assertTrue(limiter.tryAcquire("user-3") > 0, "Once idle buckets are evicted new keys are tracked again");
+    }
+
+    @Test
+    void concurrentCallersNeverExceedTheBurst() throws Exception {
+        TokenBucketLimiter<String> limiter = new TokenBucketLimiter<>(1, 1000, 100, clock::get);
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire("chat-1") == 0) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1000, acquired.get(), "Exactly the burst should be handed out while the clock stands still");
+    }
+
+    @Test
+    void nonPositiveSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketLimiter<String>(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketLimiter<String>(1, 0, 1));
+    }
+}
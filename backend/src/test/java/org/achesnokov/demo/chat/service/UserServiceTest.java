@@ -33,6 +33,9 @@ public class UserServiceTest {
     @Mock
     UserRepository userRepository;
 
+    @Mock
+    SessionAuthorizationCache sessionAuthorizationCache;
+
     @BeforeEach
     void setUp() {
         // Setup if necessary
@@ -99,6 +102,7 @@ public class UserServiceTest {
         userService.deleteUser(userId);
 
         verify(userRepository, times(1)).delete(userId);
+        verify(sessionAuthorizationCache).invalidateUser(userId);
     }
 
     @Test
@@ -117,6 +121,7 @@ public class UserServiceTest {
 
         assertEquals(newUserName, user.getUsername(), "Username should be updated");
         verify(userRepository, times(1)).save(user);
+        verify(sessionAuthorizationCache).invalidateUser(userId);
     }
 
     @Test
@@ -16,6 +16,7 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
@@ -95,4 +96,15 @@ public class WebSocketAuthenticatorTest {
         verify(serverEndpointConfig, times(1)).getUserProperties();
         verify(jwt, times(1)).getSubject();
     }
+
+    @Test
+    void getNegotiatedSubprotocolPicksFirstSupportedRequestedProtocol() {
+        List<String> supported = List.of("chat.v1.json", "chat.v1.cbor");
+
+        assertEquals("chat.v1.cbor",
+                webSocketAuthenticator.getNegotiatedSubprotocol(supported, List.of("chat.v2", "chat.v1.cbor", "chat.v1.json")),
+                "Client preference should be honored");
+        assertEquals("", webSocketAuthenticator.getNegotiatedSubprotocol(supported, List.of()),
+                "No subprotocol should be negotiated if none is requested");
+    }
 }
@@ -0,0 +1,180 @@
+package org.achesnokov.demo.chat.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class WebSocketExecutorTest {
+
+    private static final int WORKER_THREADS = 4;
+
+    WebSocketExecutor webSocketExecutor;
+
+    @BeforeEach
+    void setUp() {
+        webSocketExecutor = new WebSocketExecutor(WORKER_THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        webSocketExecutor.shutdown();
+    }
+
+    @Test
+    void constructorRejectsNonPositivePoolSize() {
+        assertThrows(IllegalArgumentException.class, () -> new WebSocketExecutor(0), "Should reject an empty worker pool");
+    }
+
+    @Test
+    void executeKeepsPerSessionOrderAcrossManySessions() throws InterruptedException {
+        int sessions = 10_000;
+        int eventsPerSession = 10;
+        Map<String, List<Integer>> observed = new ConcurrentHashMap<>();
+        Set<String> workerThreads = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(sessions * eventsPerSession);
+
+        for (int event = 0; event < eventsPerSession; event++) {
+            for (int s = 0; s < sessions; s++) {
+                String sessionId = "session-" + s;
+                int sequence = event;
+                webSocketExecutor.execute(sessionId, () -> {
+                    workerThreads.add(Thread.currentThread().getName());
+                    observed.computeIfAbsent(sessionId, id -> new ArrayList<>()).add(sequence);
+                    done.countDown();
+                });
+            }
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), "All events should be processed");
+        assertEquals(sessions, observed.size(), "Every session should have been processed");
+        observed.forEach((sessionId, sequence) -> assertEquals(
+                List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), sequence, "Events should keep their order for " + sessionId));
+        assertTrue(workerThreads.size() <= WORKER_THREADS, "Thread count should not grow with the number of sessions");
+    }
+
+    @Test
+    void executeDoesNotRunTasksOfOneSessionConcurrently() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(200);
+
+        for (int i = 0; i < 200; i++) {
+            webSocketExecutor.execute("session-1", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.yield();
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), "All events should be processed");
+        assertEquals(1, maxRunning.get(), "Tasks of one session should never overlap");
+    }
+
+    @Test
+    void executeContinuesAfterFailingTask() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+
+        webSocketExecutor.execute("session-1", () -> {
+            throw new IllegalStateException("boom");
+        });
+        webSocketExecutor.execute("session-1", done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "Following task should still run");
+    }
+
+    @Test
+    void executeAndReleaseForgetsSession() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+
+        webSocketExecutor.execute("session-1", () -> { });
+        webSocketExecutor.executeAndRelease("session-1", done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "Close task should run");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (webSocketExecutor.getActiveSessionCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, webSocketExecutor.getActiveSessionCount(), "Session executor should be released");
+    }
+
+    @Test
+    void eventsAfterReleaseAreDropped() throws InterruptedException {
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicInteger late = new AtomicInteger();
+
+        webSocketExecutor.executeAndRelease("session-1", closed::countDown);
+        assertTrue(closed.await(5, TimeUnit.SECONDS), "Close task should run");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (webSocketExecutor.getActiveSessionCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        webSocketExecutor.execute("session-1", late::incrementAndGet);
+
+        assertEquals(0, webSocketExecutor.getActiveSessionCount(), "A late event must not recreate the session executor");
+        assertEquals(0, late.get(), "A late event of a closed session should be dropped");
+    }
+
+    @Test
+    void virtualThreadsFallBackToWorkerPoolBeforeJava21() {
+        assumeTrue(Runtime.version().feature() < 21, "Runtime supports virtual threads");
+        WebSocketExecutor fallback = new WebSocketExecutor(WORKER_THREADS, WebSocketExecutionMode.VIRTUAL_THREADS, 20, null);
+        try {
+            assertEquals(WebSocketExecutionMode.WORKER_POOL, fallback.getExecutionMode());
+        } finally {
+            fallback.shutdown();
+        }
+    }
+
+    /**
+     * Compares both modes on handlers that block like a DynamoDB call: the worker pool serves
+     * at most one blocked handler per thread, virtual threads serve all of them at once.
+     */
+    @Test
+    void virtualThreadsOutperformWorkerPoolOnBlockingHandlers() throws InterruptedException {
+        assumeTrue(Runtime.version().feature() >= 21, "Virtual threads require Java 21");
+        WebSocketExecutor virtualThreads = new WebSocketExecutor(WORKER_THREADS, WebSocketExecutionMode.VIRTUAL_THREADS, 20, null);
+        try {
+            assertEquals(WebSocketExecutionMode.VIRTUAL_THREADS, virtualThreads.getExecutionMode());
+            long workerPoolNanos = runBlockingHandlers(webSocketExecutor, 400, 20);
+            long virtualThreadNanos = runBlockingHandlers(virtualThreads, 400, 20);
+
+            assertTrue(virtualThreadNanos * 4 < workerPoolNanos, String.format(
+                    "Virtual threads should be much faster on blocking handlers: %d ms vs %d ms",
+                    TimeUnit.NANOSECONDS.toMillis(virtualThreadNanos), TimeUnit.NANOSECONDS.toMillis(workerPoolNanos)));
+        } finally {
+            virtualThreads.shutdown();
+        }
+    }
+
+    private static long runBlockingHandlers(WebSocketExecutor executor, int sessions, long blockMillis) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sessions);
+        long start = System.nanoTime();
+        for (int s = 0; s < sessions; s++) {
+            executor.execute("session-" + s, () -> {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS), "All handlers should complete");
+        return System.nanoTime() - start;
+    }
+}
@@ -8,13 +8,28 @@ import '../styles/ChatWindow.css';
  * @param {string} selectedChatId - The ID of the selected chat.
  */
 function ChatWindow({ selectedChatId }) {
-    const websocketHost = useWebSocket();
+    const websocketEndpoint = useWebSocket();
 
     const [messages, setMessages] = useState([]);
     const [newMessage, setNewMessage] = useState("");
     const socketRef = useRef(null);
     const messagesEndRef = useRef(null);
     const [isConnected, setIsConnected] = useState(false);
+    const [hasMoreHistory, setHasMoreHistory] = useState(false);
+    const [presence, setPresence] = useState(null);
+    // Time the last typing notification was sent, the server keeps the indicator alive for a few seconds
+    const lastTypingSentRef = useRef(0);
+    // ID of the latest received message, or its timestamp if it has none, used to resume history after a reconnect
+    const lastCursorRef = useRef(null);
+    // Set while a page of older messages is requested, so it is prepended instead of appended
+    const loadingOlderRef = useRef(false);
+    // Sequence numbers of the received messages, the highest one and the highest one received without gaps
+    const seenSeqRef = useRef(new Set());
+    const highestSeqRef = useRef(0);
+    const contiguousSeqRef = useRef(0);
+    // Last acknowledged sequence number and the pending acknowledgement timer
+    const ackedSeqRef = useRef(0);
+    const ackTimerRef = useRef(null);
 
     // Auto-scroll to the latest message
     const scrollToBottom = () => {
@@ -22,7 +37,7 @@ function ChatWindow({ selectedChatId }) {
     };
 
     useEffect(() => {
-        if (selectedChatId && websocketHost) {
+        if (selectedChatId && websocketEndpoint) {
             if (socketRef.current) {
                 console.log(`[WS] Closing connection for chat ${selectedChatId}`);
                 socketRef.current.close();
@@ -30,6 +45,14 @@ function ChatWindow({ selectedChatId }) {
             }
 
             setMessages([]);
+            setHasMoreHistory(false);
+            setPresence(null);
+            lastCursorRef.current = null;
+            seenSeqRef.current = new Set();
+            highestSeqRef.current = 0;
+            contiguousSeqRef.current = 0;
+            ackedSeqRef.current = 0;
+            let disposed = false;
             const token = localStorage.getItem('jwt');
             const currentUser = localStorage.getItem('username');
 
@@ -42,42 +65,173 @@ function ChatWindow({ selectedChatId }) {
                 return;
             }
 
-            // Create WebSocket URL
-            socketRef.current = socketRef.current =
-                new WebSocket(`${websocketHost}/chat/ws/${selectedChatId}?token=${encodeURIComponent(token)}`);
+            const toChatMessage = (messageData) => ({
+                username: messageData.username,
+                content: messageData.content,
+                id: messageData.id,
+                timestamp: messageData.timestamp,
+                seq: messageData.seq,
+                type: "message",
+                isOwnMessage: messageData.username === currentUser
+            });
 
-            // Error handler
-            socketRef.current.onerror = (error) => {
-                console.error('WebSocket error details:', error);
-                console.error('WebSocket readyState:', socketRef.current.readyState);
-                setMessages(prev => [...prev, {
-                    content: `Error connecting to chat. Error details: ${error.type}`,
-                    type: "error"
-                }]);
-                setIsConnected(false);
+            const send = (command) => {
+                if (socketRef.current && socketRef.current.readyState === WebSocket.OPEN) {
+                    socketRef.current.send(JSON.stringify(command));
+                }
+            };
+
+            // Acknowledges the messages received without gaps, at most once a second
+            const scheduleAck = () => {
+                if (ackTimerRef.current || contiguousSeqRef.current <= ackedSeqRef.current) {
+                    return;
+                }
+                ackTimerRef.current = setTimeout(() => {
+                    ackTimerRef.current = null;
+                    if (!disposed && contiguousSeqRef.current > ackedSeqRef.current) {
+                        ackedSeqRef.current = contiguousSeqRef.current;
+                        send({ type: 'ack', seq: ackedSeqRef.current });
+                    }
+                }, 1000);
+            };
+
+            // Drops messages that were already received and asks for the ones skipped before a newer message
+            const acceptSequenced = (page, requestGaps) => {
+                const accepted = page.filter(msg => msg.seq == null || !seenSeqRef.current.has(msg.seq));
+                accepted.forEach(msg => {
+                    if (msg.seq == null) {
+                        return;
+                    }
+                    if (requestGaps && highestSeqRef.current > 0 && msg.seq > highestSeqRef.current + 1) {
+                        send({ type: 'resync', from: highestSeqRef.current + 1, to: msg.seq - 1 });
+                    }
+                    seenSeqRef.current.add(msg.seq);
+                    highestSeqRef.current = Math.max(highestSeqRef.current, msg.seq);
+                });
+                while (seenSeqRef.current.has(contiguousSeqRef.current + 1)) {
+                    contiguousSeqRef.current++;
+                }
+                scheduleAck();
+                return accepted;
+            };
+
+            // Inserts messages in sequence order, a filled gap lands before the messages received after it
+            const insertBySeq = (prev, page) => {
+                const next = [...prev];
+                page.forEach(msg => {
+                    const index = msg.seq == null ? -1
+                        : next.findIndex(other => other.type === 'message' && other.seq != null && other.seq > msg.seq);
+                    if (index < 0) {
+                        next.push(msg);
+                    } else {
+                        next.splice(index, 0, msg);
+                    }
+                });
+                return next;
             };
 
-            // Connection opened handler
-            socketRef.current.onopen = () => {
-                console.log(`[WS] Connected to chat ${selectedChatId}`);
-                setIsConnected(true);
+            // Marks the latest page of a fresh connection as the start of the gap-free range
+            const startSequence = (page) => {
+                page.forEach(msg => msg.seq != null && seenSeqRef.current.add(msg.seq));
+                const last = page.length > 0 ? page[page.length - 1].seq : null;
+                if (last != null) {
+                    highestSeqRef.current = Math.max(highestSeqRef.current, last);
+                    contiguousSeqRef.current = Math.max(contiguousSeqRef.current, last);
+                    scheduleAck();
+                }
             };
 
-            // Message handler
-            socketRef.current.onmessage = (event) => {
-                const data = event.data;
-                try {
-                    const messageData = JSON.parse(data);
+            const connect = (resumeSeq, since) => {
+                // Create WebSocket URL, resuming after the last message received without gaps, or after the
+                // latest received message for chats whose messages carry no sequence numbers
+                const resumeParam = resumeSeq > 0 ? `&seq=${resumeSeq}`
+                    : since ? `&since=${encodeURIComponent(since)}` : '';
+                socketRef.current =
+                    new WebSocket(`${websocketEndpoint}/${selectedChatId}?token=${encodeURIComponent(token)}${resumeParam}`);
+                const isResume = Boolean(resumeParam);
+
+                // Error handler
+                socketRef.current.onerror = (error) => {
+                    console.error('WebSocket error details:', error);
+                    console.error('WebSocket readyState:', socketRef.current.readyState);
+                    setMessages(prev => [...prev, {
+                        content: `Error connecting to chat. Error details: ${error.type}`,
+                        type: "error"
+                    }]);
+                    setIsConnected(false);
+                };
+
+                // Connection opened handler
+                socketRef.current.onopen = () => {
+                    console.log(`[WS] Connected to chat ${selectedChatId}`);
+                    setIsConnected(true);
+                };
 
+                // Handles a single decoded frame; batch frames carry several frames of a busy chat
+                const handleFrame = (messageData) => {
                     switch(messageData.type) {
-                        case 'message':
-                            setMessages(prev => [...prev, {
-                                username: messageData.username,
-                                content: messageData.content,
-                                timestamp: messageData.timestamp,
-                                type: "message",
-                                isOwnMessage: messageData.username === currentUser
-                            }]);
+                        case 'message': {
+                            const accepted = acceptSequenced([toChatMessage(messageData)], true);
+                            if (accepted.length > 0) {
+                                lastCursorRef.current = messageData.id || messageData.timestamp;
+                                setMessages(prev => insertBySeq(prev, accepted));
+                            }
+                            break;
+                        }
+                        case 'resync': {
+                            const page = messageData.messages.map(toChatMessage);
+                            const accepted = acceptSequenced(page, false);
+                            setMessages(prev => insertBySeq(prev, accepted));
+                            if (messageData.hasMore && page.length > 0) {
+                                // The gap did not fit into one frame, continue after its last message
+                                send({ type: 'resync', from: page[page.length - 1].seq + 1, to: messageData.to });
+                            } else if (messageData.to != null) {
+                                // Numbers of a closed gap the server does not have were skipped, e.g. at the
+                                // end of a reserved block, and must not hold back the acknowledgement
+                                for (let seq = messageData.from; seq <= messageData.to; seq++) {
+                                    seenSeqRef.current.add(seq);
+                                }
+                                while (seenSeqRef.current.has(contiguousSeqRef.current + 1)) {
+                                    contiguousSeqRef.current++;
+                                }
+                                scheduleAck();
+                            }
+                            break;
+                        }
+                        case 'history': {
+                            const page = messageData.messages.map(toChatMessage);
+                            if (loadingOlderRef.current) {
+                                loadingOlderRef.current = false;
+                                page.forEach(msg => msg.seq != null && seenSeqRef.current.add(msg.seq));
+                                setMessages(prev => [...page, ...prev]);
+                                setHasMoreHistory(messageData.hasMore);
+                                break;
+                            }
+                            if (page.length > 0) {
+                                lastCursorRef.current = page[page.length - 1].id || page[page.length - 1].timestamp;
+                            }
+                            startSequence(page);
+                            if (isResume && messageData.hasMore) {
+                                // Missed more than one page: drop the stale messages instead of leaving a gap
+                                setMessages(prev => [...prev.filter(msg => msg.type !== 'message'), ...page]);
+                                setHasMoreHistory(true);
+                            } else {
+                                setMessages(prev => [...prev, ...page]);
+                                if (!isResume) {
+                                    setHasMoreHistory(messageData.hasMore);
+                                }
+                            }
+                            break;
+                        }
+                        case 'presence':
+                            setPresence({
+                                online: messageData.online,
+                                typing: messageData.typing.filter(name => name !== currentUser),
+                                typingCount: messageData.typingCount
+                            });
+                            break;
+                        case 'batch':
+                            messageData.messages.forEach(handleFrame);
                             break;
                         case 'system':
                             setMessages(prev => {
@@ -99,38 +253,50 @@ function ChatWindow({ selectedChatId }) {
                         default:
                             console.warn("Received unknown message type:", messageData.type);
                     }
-                } catch (e) {
-                    console.warn("Received non-JSON message:", data);
-                    setMessages(prev => [...prev, {
-                        content: data,
-                        type: "message"
-                    }]);
-                }
-            };
-
-            // Connection closed handler
-            socketRef.current.onclose = (event) => {
-                console.log('WebSocket disconnected. Code:', event.code, 'Reason:', event.reason, 'Clean:', event.wasClean);
-                setIsConnected(false);
-                setMessages(prev => [...prev, {
-                    content: `Disconnected from chat (Code: ${event.code}). ${event.reason || 'No reason provided'}. Attempting to reconnect...`,
-                    type: "system"
-                }]);
+                };
 
-                // Attempt to reconnect after 5 seconds
-                setTimeout(() => {
-                    if (socketRef.current === null && selectedChatId) {
-                        console.log('Attempting to reconnect...');
-                        const token = localStorage.getItem('jwt');
+                // Message handler
+                socketRef.current.onmessage = (event) => {
+                    const data = event.data;
+                    try {
+                        const messageData = JSON.parse(data);
+                        handleFrame(messageData);
+                    } catch (e) {
+                        console.warn("Received non-JSON message:", data);
+                        setMessages(prev => [...prev, {
+                            content: data,
+                            type: "message"
+                        }]);
+                    }
+                };
 
-                        socketRef.current = new WebSocket(`${websocketHost}/chat/ws/${selectedChatId}?token=${encodeURIComponent(token)}`);
+                // Connection closed handler
+                socketRef.current.onclose = (event) => {
+                    console.log('WebSocket disconnected. Code:', event.code, 'Reason:', event.reason, 'Clean:', event.wasClean);
+                    setIsConnected(false);
+                    setMessages(prev => [...prev, {
+                        content: `Disconnected from chat (Code: ${event.code}). ${event.reason || 'No reason provided'}. Attempting to reconnect...`,
+                        type: "system"
+                    }]);
 
-                    }
-                }, 5000);
+                    // Attempt to reconnect after 5 seconds
+                    setTimeout(() => {
+                        if (!disposed && selectedChatId) {
+                            console.log('Attempting to reconnect...');
+                            loadingOlderRef.current = false;
+                            connect(contiguousSeqRef.current, lastCursorRef.current);
+                        }
+                    }, 5000);
+                };
             };
 
+            connect(0, null);
+
             // Cleanup function
             return () => {
+                disposed = true;
+                clearTimeout(ackTimerRef.current);
+                ackTimerRef.current = null;
                 if (socketRef.current) {
                     console.log('Closing WebSocket connection...');
                     socketRef.current.close();
@@ -138,7 +304,7 @@ function ChatWindow({ selectedChatId }) {
                 }
             };
         }
-    }, [selectedChatId, websocketHost]);
+    }, [selectedChatId, websocketEndpoint]);
 
     // Effect for auto-scrolling
     useEffect(() => {
@@ -146,6 +312,50 @@ function ChatWindow({ selectedChatId }) {
     }, [messages]);
 
 
+    /**
+     * Requests the page of messages preceding the oldest loaded one.
+     */
+    const handleLoadOlderMessages = () => {
+        if (!socketRef.current || socketRef.current.readyState !== WebSocket.OPEN || loadingOlderRef.current) {
+            return;
+        }
+
+        const oldest = messages.find(msg => msg.type === 'message' && msg.timestamp);
+        loadingOlderRef.current = true;
+        socketRef.current.send(JSON.stringify({
+            type: 'history',
+            before: oldest ? oldest.timestamp : null
+        }));
+    };
+
+    /**
+     * Notifies the server that the user is typing, at most once every two seconds.
+     */
+    const notifyTyping = () => {
+        const now = Date.now();
+        if (!socketRef.current || socketRef.current.readyState !== WebSocket.OPEN || now - lastTypingSentRef.current < 2000) {
+            return;
+        }
+        lastTypingSentRef.current = now;
+        socketRef.current.send(JSON.stringify({ type: 'typing' }));
+    };
+
+    /**
+     * Describes who is online and who is typing.
+     */
+    const describePresence = () => {
+        if (!presence) {
+            return null;
+        }
+        const online = `${presence.online.length} online`;
+        if (presence.typing.length === 0) {
+            return online;
+        }
+        const others = presence.typingCount - presence.typing.length;
+        const names = presence.typing.join(', ') + (others > 0 ? ` and ${others} more` : '');
+        return `${online} · ${names} ${presence.typingCount === 1 ? 'is' : 'are'} typing…`;
+    };
+
     /**
      * Handles sending a message.
      */
@@ -164,7 +374,7 @@ function ChatWindow({ selectedChatId }) {
         }
 
         try {
-            socketRef.current.send(trimmedMessage);
+            socketRef.current.send(JSON.stringify({ type: 'message', content: trimmedMessage }));
 /*
             setMessages(prev => [...prev, {
                 username: localStorage.getItem('username'),
@@ -175,6 +385,7 @@ function ChatWindow({ selectedChatId }) {
             }]);
 */
             setNewMessage('');
+            lastTypingSentRef.current = 0;
         } catch (error) {
             console.error('Failed to send message:', error);
             setMessages(prev => [...prev, {
@@ -189,6 +400,11 @@ function ChatWindow({ selectedChatId }) {
             <div className="chat-window-inner">
             <div className="messages">
                 <div className="messages-inner">
+                    {hasMoreHistory && (
+                        <button className="load-older" onClick={handleLoadOlderMessages}>
+                            Load earlier messages
+                        </button>
+                    )}
                     {messages.map((message, index) => (
                         <div key={index} className={`message ${message.type} ${message.isOwnMessage ? 'own-message' : ''}`}>
                             {message.type === 'message' ? (
@@ -212,13 +428,17 @@ function ChatWindow({ selectedChatId }) {
                 </div>
             </div>
             </div>
+            {presence && <div className="presence">{describePresence()}</div>}
             <div className="input-area">
                 <div className="input-area-inner">
                     <input
                         type="text"
                         placeholder="Type a message"
                         value={newMessage}
-                        onChange={(e) => setNewMessage(e.target.value)}
+                        onChange={(e) => {
+                            setNewMessage(e.target.value);
+                            notifyTyping();
+                        }}
                         onKeyDown={(e) => {
                             if (e.key === 'Enter' && !e.shiftKey) {
                                 e.preventDefault();
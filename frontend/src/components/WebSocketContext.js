@@ -3,23 +3,23 @@ import React, { createContext, useContext, useState, useEffect } from 'react';
 const WebSocketContext = createContext();
 
 /**
- * WebSocketProvider component to provide WebSocket host context to its children.
+ * WebSocketProvider component to provide the WebSocket endpoint context to its children.
  *
  * @param {object} props - The properties object.
  * @param {React.ReactNode} props.children - The child components that will consume the WebSocket context.
  */
 export const WebSocketProvider = ({ children }) => {
-    const [websocketHost, setWebsocketHost] = useState(null);
+    const [websocketEndpoint, setWebsocketEndpoint] = useState(null);
 
     useEffect(() => {
         /**
-         * Fetches the WebSocket host from the server configuration.
+         * Fetches the WebSocket host and the chat endpoint path of the configured stack from the server configuration.
          */
         const fetchWebSocketHost = async () => {
             try {
                 const response = await fetch('/api/config');
                 const data = await response.json();
-                setWebsocketHost(data.websocketHost);
+                setWebsocketEndpoint(`${data.websocketHost}${data.websocketChatPath || '/chat/ws'}`);
             } catch (error) {
                 console.error('Error of getting websocket host: ', error);
             }
@@ -29,7 +29,7 @@ export const WebSocketProvider = ({ children }) => {
     }, []);
 
     return (
-        <WebSocketContext.Provider value={websocketHost}>
+        <WebSocketContext.Provider value={websocketEndpoint}>
             {children}
         </WebSocketContext.Provider>
     );
@@ -38,7 +38,7 @@ export const WebSocketProvider = ({ children }) => {
 /**
  * Custom hook to use the WebSocket context.
  *
- * @returns {string|null} The WebSocket host.
+ * @returns {string|null} The URL of the per-chat WebSocket endpoint, to be followed by the chat ID.
  */
 export const useWebSocket = () => {
     return useContext(WebSocketContext);